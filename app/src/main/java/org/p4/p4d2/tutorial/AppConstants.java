@@ -18,35 +18,37 @@ package org.p4.p4d2.tutorial;
 
 import com.google.common.collect.ImmutableMap;
 import org.onosproject.net.flow.criteria.Criterion;
+import org.onosproject.net.pi.model.PiMatchFieldId;
 import org.onosproject.net.pi.model.PiPipeconfId;
 
 import java.util.Map;
 
+import static org.p4.p4d2.tutorial.P4InfoConstants.FABRIC_METADATA_ICMP_TYPE;
+import static org.p4.p4d2.tutorial.P4InfoConstants.FABRIC_METADATA_IP_PROTO;
+import static org.p4.p4d2.tutorial.P4InfoConstants.HDR_ETHERNET_DST_ADDR;
+import static org.p4.p4d2.tutorial.P4InfoConstants.HDR_ETHERNET_ETHER_TYPE;
+import static org.p4.p4d2.tutorial.P4InfoConstants.HDR_ETHERNET_SRC_ADDR;
+import static org.p4.p4d2.tutorial.P4InfoConstants.HDR_IPV6_DST_ADDR;
+import static org.p4.p4d2.tutorial.P4InfoConstants.STANDARD_METADATA_INGRESS_PORT;
+
 public class AppConstants {
 
     public static final String APP_PREFIX = "org.p4.srv6-tutorial";
     public static final PiPipeconfId PIPECONF_ID = new PiPipeconfId("org.p4.srv6-tutorial");
 
-    // From the P4Info file. Needed for mapping flow rules and flow objectives
-    // in the interpreter and pipeliner.
-    public static final String ACL_TABLE = "FabricIngress.acl";
-    public static final String DROP_ACTION = "FabricIngress.drop";
-    public static final String CLONE_TO_CPU = "FabricIngress.clone_to_cpu";
-    public static final String NO_ACTION = "NoAction";
-
-    public static final String INGRESS_PORT_CTRL_METADATA = "ingress_port";
-    public static final String EGRESS_PORT_CTRL_METADATA = "egress_port";
-
-    public static final Map<Criterion.Type, String> CRITERION_MAP =
-            new ImmutableMap.Builder<Criterion.Type, String>()
-                    .put(Criterion.Type.IN_PORT, "standard_metadata.ingress_port")
-                    .put(Criterion.Type.ETH_DST, "hdr.ethernet.dst_addr")
-                    .put(Criterion.Type.ETH_SRC, "hdr.ethernet.src_addr")
-                    .put(Criterion.Type.ETH_TYPE, "hdr.ethernet.ether_type")
-                    .put(Criterion.Type.IPV6_DST, "hdr.ipv6.dst_addr")
-                    .put(Criterion.Type.IP_PROTO, "fabric_metadata.ip_proto")
-                    .put(Criterion.Type.ICMPV4_TYPE, "fabric_metadata.icmp_type")
-                    .put(Criterion.Type.ICMPV6_TYPE, "fabric_metadata.icmp_type")
+    // Identifiers from the P4Info file are generated at build time in
+    // P4InfoConstants. Needed for mapping flow rules and flow objectives in
+    // the interpreter and pipeliner.
+    public static final Map<Criterion.Type, PiMatchFieldId> CRITERION_MAP =
+            new ImmutableMap.Builder<Criterion.Type, PiMatchFieldId>()
+                    .put(Criterion.Type.IN_PORT, STANDARD_METADATA_INGRESS_PORT)
+                    .put(Criterion.Type.ETH_DST, HDR_ETHERNET_DST_ADDR)
+                    .put(Criterion.Type.ETH_SRC, HDR_ETHERNET_SRC_ADDR)
+                    .put(Criterion.Type.ETH_TYPE, HDR_ETHERNET_ETHER_TYPE)
+                    .put(Criterion.Type.IPV6_DST, HDR_IPV6_DST_ADDR)
+                    .put(Criterion.Type.IP_PROTO, FABRIC_METADATA_IP_PROTO)
+                    .put(Criterion.Type.ICMPV4_TYPE, FABRIC_METADATA_ICMP_TYPE)
+                    .put(Criterion.Type.ICMPV6_TYPE, FABRIC_METADATA_ICMP_TYPE)
                     .build();
 
     public static final int DEFAULT_FLOW_RULE_PRIORITY = 10;
@@ -16,83 +16,171 @@
 
 package org.p4.p4d2.tutorial;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
 import org.onlab.packet.Ip6Address;
 import org.onlab.packet.Ip6Prefix;
 import org.onlab.packet.IpAddress;
 import org.onlab.packet.IpPrefix;
 import org.onlab.packet.MacAddress;
 import org.onlab.util.SharedScheduledExecutors;
+import org.onlab.util.Tools;
+import org.onosproject.cfg.ComponentConfigService;
 import org.onosproject.core.ApplicationId;
 import org.onosproject.core.CoreService;
+import org.onosproject.event.Event;
 import org.onosproject.mastership.MastershipService;
 import org.onosproject.net.Device;
 import org.onosproject.net.DeviceId;
 import org.onosproject.net.Host;
-import org.onosproject.net.Link;
+import org.onosproject.net.Port;
 import org.onosproject.net.PortNumber;
-import org.onosproject.net.config.NetworkConfigService;
+import org.onosproject.net.device.DeviceEvent;
+import org.onosproject.net.device.DeviceListener;
 import org.onosproject.net.device.DeviceService;
 import org.onosproject.net.flow.FlowRule;
 import org.onosproject.net.flow.FlowRuleOperations;
 import org.onosproject.net.flow.FlowRuleOperationsContext;
 import org.onosproject.net.flow.FlowRuleService;
 import org.onosproject.net.flow.criteria.PiCriterion;
+import org.onosproject.net.flow.instructions.PiInstruction;
+import org.onosproject.net.group.Group;
 import org.onosproject.net.group.GroupDescription;
+import org.onosproject.net.group.GroupEvent;
+import org.onosproject.net.group.GroupKey;
+import org.onosproject.net.group.GroupListener;
 import org.onosproject.net.group.GroupService;
 import org.onosproject.net.host.HostEvent;
 import org.onosproject.net.host.HostListener;
 import org.onosproject.net.host.HostService;
-import org.onosproject.net.host.InterfaceIpAddress;
-import org.onosproject.net.intf.Interface;
-import org.onosproject.net.intf.InterfaceService;
 import org.onosproject.net.link.LinkEvent;
 import org.onosproject.net.link.LinkListener;
 import org.onosproject.net.link.LinkService;
-import org.onosproject.net.pi.model.PiActionId;
-import org.onosproject.net.pi.model.PiActionParamId;
-import org.onosproject.net.pi.model.PiMatchFieldId;
+import org.onosproject.net.pi.model.PiActionProfileId;
+import org.onosproject.net.pi.model.PiActionProfileModel;
 import org.onosproject.net.pi.runtime.PiAction;
-import org.onosproject.net.pi.runtime.PiActionParam;
 import org.onosproject.net.pi.runtime.PiActionProfileGroupId;
 import org.onosproject.net.pi.runtime.PiTableAction;
+import org.onosproject.net.pi.service.PiPipeconfService;
+import org.osgi.service.component.ComponentContext;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
 import org.osgi.service.component.annotations.Reference;
 import org.osgi.service.component.annotations.ReferenceCardinality;
-import org.p4.p4d2.tutorial.common.Srv6DeviceConfig;
+import org.p4.p4d2.tutorial.common.AdjacencyMap;
+import org.p4.p4d2.tutorial.common.ConvergenceTracer;
+import org.p4.p4d2.tutorial.common.DeviceConfigCache;
+import org.p4.p4d2.tutorial.common.DeviceConfigCache.DeviceInfo;
+import org.p4.p4d2.tutorial.common.DeviceState;
+import org.p4.p4d2.tutorial.common.EventCoalescer;
+import org.p4.p4d2.tutorial.common.FlowRuleBatch;
+import org.p4.p4d2.tutorial.common.GroupIdAllocator;
+import org.p4.p4d2.tutorial.common.InterfaceIndex;
+import org.p4.p4d2.tutorial.common.LatencyStats;
+import org.p4.p4d2.tutorial.common.MastershipHandover;
+import org.p4.p4d2.tutorial.common.ParallelSetUp;
+import org.p4.p4d2.tutorial.common.PrefixCompressor;
+import org.p4.p4d2.tutorial.common.StripedExecutor;
 import org.p4.p4d2.tutorial.common.Utils;
+import org.p4.p4d2.tutorial.common.WarmRestart;
+import org.p4.p4d2.tutorial.common.WriteGovernor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.math.BigInteger;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Dictionary;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Maps.newConcurrentMap;
+import static com.google.common.collect.Sets.newHashSet;
+import static com.google.common.collect.Maps.newHashMap;
 import static com.google.common.collect.Streams.stream;
 import static org.p4.p4d2.tutorial.AppConstants.INITIAL_SETUP_DELAY;
+import static org.p4.p4d2.tutorial.OsgiPropertyConstants.EVENT_COALESCING_WINDOW;
+import static org.p4.p4d2.tutorial.OsgiPropertyConstants.EVENT_COALESCING_WINDOW_DEFAULT;
+import static org.p4.p4d2.tutorial.OsgiPropertyConstants.FLOW_RULE_BATCH_SIZE;
+import static org.p4.p4d2.tutorial.OsgiPropertyConstants.FLOW_RULE_BATCH_SIZE_DEFAULT;
+import static org.p4.p4d2.tutorial.P4InfoActions.fabricIngressSetL2NextHop;
+import static org.p4.p4d2.tutorial.P4InfoActions.fabricIngressSetNextId;
+import static org.p4.p4d2.tutorial.P4InfoActions.fabricIngressSetOutputPort;
+import static org.p4.p4d2.tutorial.P4InfoConstants.DMAC;
+import static org.p4.p4d2.tutorial.P4InfoConstants.FABRIC_INGRESS_ECMP_GROUP_SELECTOR;
+import static org.p4.p4d2.tutorial.P4InfoConstants.FABRIC_INGRESS_ECMP_GROUP_TABLE;
+import static org.p4.p4d2.tutorial.P4InfoConstants.FABRIC_INGRESS_ECMP_SELECTOR;
+import static org.p4.p4d2.tutorial.P4InfoConstants.FABRIC_INGRESS_ECMP_TABLE;
+import static org.p4.p4d2.tutorial.P4InfoConstants.FABRIC_INGRESS_L2_EXACT_TABLE;
+import static org.p4.p4d2.tutorial.P4InfoConstants.FABRIC_INGRESS_L2_MY_STATION;
+import static org.p4.p4d2.tutorial.P4InfoConstants.FABRIC_INGRESS_L3_TABLE;
+import static org.p4.p4d2.tutorial.P4InfoConstants.FABRIC_METADATA_NEXT_ID;
+import static org.p4.p4d2.tutorial.P4InfoConstants.HDR_ETHERNET_DST_ADDR;
+import static org.p4.p4d2.tutorial.P4InfoConstants.HDR_IPV6_DST_ADDR;
 
 /**
  * Application which handles IPv6 routing.
  */
-@Component(immediate = true)
+@Component(
+        immediate = true,
+        service = Ipv6RoutingComponent.class,
+        property = {
+                EVENT_COALESCING_WINDOW + ":Integer=" + EVENT_COALESCING_WINDOW_DEFAULT,
+                FLOW_RULE_BATCH_SIZE + ":Integer=" + FLOW_RULE_BATCH_SIZE_DEFAULT,
+        }
+)
 public class Ipv6RoutingComponent {
 
     private static final Logger log = LoggerFactory.getLogger(Ipv6RoutingComponent.class);
 
     private static final String APP_NAME = AppConstants.APP_PREFIX + ".ipv6routing";
 
-    private static final long GROUP_INSTALLATION_DELAY = 500;
-
-    // Number of threads to handle host and link event.
-    private static final int NUM_THREADS = 2;
-    private static final int DEFAULT_ECMP_GROUP_ID = 0xec3b0000;
+    // Names used for convergence traces of device syncs and of ECMP group
+    // updates.
+    private static final String TRACE_NAME = "ipv6routing";
+    private static final String ECMP_TRACE_NAME = "ipv6routing-ecmp";
+
+    // Group installation retries before giving up and rolling back.
+    private static final int GROUP_INSTALL_MAX_RETRIES = 3;
+    private static final long GROUP_INSTALL_RETRY_DELAY = 1000; // milliseconds
+    // Time to wait for a group event, after which the attempt is failed.
+    private static final long GROUP_INSTALL_TIMEOUT = 5000; // milliseconds
+
+    // Maximum number of tasks waiting per executor stripe, and delay before
+    // queueing a sync again when the stripe is full.
+    private static final int SYNC_QUEUE_CAPACITY = 1024;
+    private static final long SYNC_RETRY_DELAY = 100; // milliseconds
+
+    // Group IDs are also used as next IDs. The groups of spines of a leaf get
+    // IDs from DEFAULT_ECMP_GROUP_ID, followed by the group choosing among
+    // them when there are several. Next hop groups of the pool get IDs right
+    // after, from FIRST_GROUP_ID with a single group of spines, within a
+    // budget of member entries sized after the action profile, less the
+    // members reserved for the spines.
+    private static final int DEFAULT_ECMP_SELECTOR_SIZE = 64;
+    private static final int DEFAULT_ECMP_MAX_GROUP_SIZE = 16;
+    private static final int DEFAULT_ECMP_GROUP_ID = 1;
+    private static final int FIRST_GROUP_ID = 2;
+    private static final double GROUP_MEMBER_WARN_UTILIZATION = 0.9;
+
+    // Maximum weight of an ECMP group bucket. Weights proportional to uplink
+    // capacity are scaled down to this value.
+    private static final int MAX_ECMP_BUCKET_WEIGHT = 16;
 
     @Reference(cardinality = ReferenceCardinality.MANDATORY)
     private CoreService coreService;
@@ -113,31 +201,114 @@ public class Ipv6RoutingComponent {
     private DeviceService deviceService;
 
     @Reference(cardinality = ReferenceCardinality.MANDATORY)
-    private NetworkConfigService networkConfigService;
+    private DeviceConfigCache configCache;
 
     @Reference(cardinality = ReferenceCardinality.MANDATORY)
-    private InterfaceService interfaceService;
+    private InterfaceIndex interfaceIndex;
 
     @Reference(cardinality = ReferenceCardinality.MANDATORY)
     private LinkService linkService;
 
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    private ComponentConfigService compCfgService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    private PiPipeconfService pipeconfService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    private ParallelSetUp parallelSetUp;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    private ConvergenceTracer tracer;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    private WarmRestart warmRestart;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    private MastershipHandover handover;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    private WriteGovernor writeGovernor;
+
+    /** Time window (ms) used to merge topology events for the same device; 0 to disable. */
+    private int eventCoalescingWindow = EVENT_COALESCING_WINDOW_DEFAULT;
+
+    /** Maximum number of flow rule operations written to a device at once. */
+    private int flowRuleBatchSize = FLOW_RULE_BATCH_SIZE_DEFAULT;
+
     private final HostListener hostListener = new InternalHostListener();
     private final LinkListener linkListener = new InternalLinkListener();
+    private final DeviceListener deviceListener = new InternalDeviceListener();
+
+    private final AdjacencyMap adjacency = new AdjacencyMap();
+    private final GroupListener groupListener = new InternalGroupListener();
+
+    // Flow rules waiting for the group they depend on to be ADDED.
+    private final Map<GroupRef, PendingGroup> pendingGroups = newConcurrentMap();
+
+    // Last routing state pushed to each device.
+    private final Map<DeviceId, DeviceState> deviceStates = newConcurrentMap();
+
+    // Device syncs still being applied, and dirty devices, i.e. with a sync
+    // requested but not started yet. There is at most one pending sync per
+    // device, as a sync reads the topology when it starts.
+    private final Map<DeviceId, CompletableFuture<Void>> inFlightSyncs = newConcurrentMap();
+    private final Map<DeviceId, CompletableFuture<Void>> pendingResyncs = newConcurrentMap();
+
+    // Devices whose state left by a previous execution has been reconciled.
+    private final Set<DeviceId> reconciledDevices = Sets.newConcurrentHashSet();
+
+    // Devices taken over from another node, whose state left by the previous
+    // master is reconciled even without warm restart.
+    private final Set<DeviceId> acquiredDevices = Sets.newConcurrentHashSet();
 
-    private ExecutorService executorService;
+    // Devices released to another node, whose routing state is still to be
+    // dropped on their executor stripe.
+    private final Set<DeviceId> releasedDevices = Sets.newConcurrentHashSet();
+
+    // Time from host moved/removed events to routing state updated.
+    private final LatencyStats hostMoveStats = new LatencyStats();
+
+    // ECMP group modifications waiting for GROUP_UPDATED, with time of the
+    // link event that caused them, and time from link event to update.
+    private final Map<GroupRef, Long> pendingEcmpUpdates = newConcurrentMap();
+    private final LatencyStats ecmpUpdateStats = new LatencyStats();
+
+    // Allocators of next hop group IDs, per device, keyed by member set.
+    private final Map<DeviceId, GroupIdAllocator<Set<MacAddress>>> groupIdAllocators =
+            newConcurrentMap();
+
+    // Limits of the ECMP groups, per device.
+    private final Map<DeviceId, EcmpLimits> ecmpLimits = newConcurrentMap();
+
+    // Merges bursts of host and link events into one sync per device.
+    private final EventCoalescer<DeviceId> syncCoalescer = new EventCoalescer<>(
+            "ipv6routing", this::submitSync, () -> eventCoalescingWindow);
+
+    // Runs syncs of the same device in order, different devices in parallel.
+    private StripedExecutor syncExecutor;
     private ApplicationId appId;
 
     @Activate
-    protected void activate() {
+    protected void activate(ComponentContext context) {
         appId = coreService.registerApplication(APP_NAME);
+        compCfgService.registerProperties(getClass());
+        modified(context);
 
-        // Wait to remove flow and groups from previous executions.
-        Utils.waitPreviousCleanup(appId, deviceService, flowRuleService, groupService);
+        // Reconcile or remove flows and groups from previous executions.
+        warmRestart.prepare(appId, true);
 
+        groupService.addListener(groupListener);
         hostService.addListener(hostListener);
         linkService.addListener(linkListener);
+        deviceService.addListener(deviceListener);
 
-        executorService = Executors.newFixedThreadPool(NUM_THREADS);
+        syncExecutor = new StripedExecutor(
+                "ipv6routing", Runtime.getRuntime().availableProcessors(),
+                SYNC_QUEUE_CAPACITY);
+
+        // Set up devices acquired from other nodes, stop working on lost ones.
+        handover.register(TRACE_NAME, this::takeOverDevice, this::releaseDevice);
 
         // Schedule set up for all devices.
         SharedScheduledExecutors.newTimeout(
@@ -148,29 +319,533 @@ public class Ipv6RoutingComponent {
 
     @Deactivate
     protected void deactivate() {
+        handover.unregister(TRACE_NAME);
         hostService.removeListener(hostListener);
         linkService.removeListener(linkListener);
-
-        cleanUpAllDevices();
+        deviceService.removeListener(deviceListener);
+        groupService.removeListener(groupListener);
+        compCfgService.unregisterProperties(getClass(), false);
+        syncCoalescer.cancelAll();
+        syncExecutor.shutdown();
+        pendingGroups.values().forEach(pending -> pending.future.cancel(false));
+        pendingGroups.clear();
+        pendingEcmpUpdates.clear();
+
+        if (!warmRestart.isEnabled()) {
+            cleanUpAllDevices();
+        }
+        deviceStates.clear();
+        reconciledDevices.clear();
+        acquiredDevices.clear();
+        releasedDevices.clear();
+        inFlightSyncs.clear();
+        pendingResyncs.clear();
+        adjacency.clear();
+        groupIdAllocators.clear();
+        ecmpLimits.clear();
 
         log.info("Stopped");
     }
 
+    @Modified
+    protected void modified(ComponentContext context) {
+        final Dictionary<?, ?> properties = context.getProperties();
+        eventCoalescingWindow = Tools.getIntegerProperty(
+                properties, EVENT_COALESCING_WINDOW, EVENT_COALESCING_WINDOW_DEFAULT);
+        final int batchSize = Tools.getIntegerProperty(
+                properties, FLOW_RULE_BATCH_SIZE, FLOW_RULE_BATCH_SIZE_DEFAULT);
+        if (batchSize > 0) {
+            flowRuleBatchSize = batchSize;
+        } else {
+            log.warn("Invalid {} {}, must be positive", FLOW_RULE_BATCH_SIZE, batchSize);
+        }
+        log.info("Configured. {} is {} ms, {} is {}",
+                 EVENT_COALESCING_WINDOW, eventCoalescingWindow,
+                 FLOW_RULE_BATCH_SIZE, flowRuleBatchSize);
+    }
+
     /**
      * Sets up IPv6 routing on all devices known by ONOS and for which this ONOS
-     * node instance is currently master.
+     * node instance is currently master, in parallel.
      */
-    private synchronized void setUpAllDevices() {
-        // Set up host routes
-        stream(deviceService.getAvailableDevices())
+    private void setUpAllDevices() {
+        final List<DeviceId> deviceIds = stream(deviceService.getAvailableDevices())
                 .map(Device::id)
                 .filter(mastershipService::isLocalMaster)
-                .forEach(deviceId -> {
-                    setUpMyStationTable(deviceId);
-                    setUpRoute(deviceId);
-                    setUpNextHopRules(deviceId);
-                    setUpHostRulesOnDevice(deviceId);
+                .collect(Collectors.toList());
+        parallelSetUp.setUpAll("ipv6routing", deviceIds, this::submitSync);
+    }
+
+    /**
+     * Sets up IPv6 routing on a device this node has just become master of.
+     * The routing state left by the previous master is reconciled, so that
+     * only the entries that differ are written.
+     *
+     * @param deviceId the device ID
+     * @return future completed when the device is set up
+     */
+    private CompletableFuture<Void> takeOverDevice(DeviceId deviceId) {
+        acquiredDevices.add(deviceId);
+        return submitSync(deviceId);
+    }
+
+    /**
+     * Stops all work on a device this node is no longer master of: pending
+     * syncs and group installations are cancelled, and the state kept for
+     * the device is dropped, as the new master takes care of it from now on.
+     * The state is dropped on the device executor stripe, after any sync in
+     * progress, which would otherwise put it back.
+     *
+     * @param deviceId the device ID
+     */
+    private void releaseDevice(DeviceId deviceId) {
+        syncCoalescer.cancel(deviceId);
+        cancel(pendingResyncs.remove(deviceId));
+        cancel(inFlightSyncs.remove(deviceId));
+        pendingGroups.entrySet().removeIf(e -> {
+            if (!e.getKey().deviceId.equals(deviceId)) {
+                return false;
+            }
+            e.getValue().future.cancel(false);
+            return true;
+        });
+        pendingEcmpUpdates.keySet().removeIf(ref -> ref.deviceId.equals(deviceId));
+        acquiredDevices.remove(deviceId);
+        releasedDevices.add(deviceId);
+        // If the stripe is full, the state is dropped by the next task of the
+        // device instead.
+        syncExecutor.execute(deviceId, () -> dropReleasedState(deviceId));
+    }
+
+    /**
+     * Drops the routing state kept for the given device, if released since.
+     * Must be called on the device executor stripe, before using the state.
+     *
+     * @param deviceId the device ID
+     */
+    private void dropReleasedState(DeviceId deviceId) {
+        if (!releasedDevices.remove(deviceId)) {
+            return;
+        }
+        deviceStates.remove(deviceId);
+        reconciledDevices.remove(deviceId);
+        groupIdAllocators.remove(deviceId);
+        ecmpLimits.remove(deviceId);
+        adjacency.removeDevice(deviceId);
+        log.info("Released routing state of {}", deviceId);
+    }
+
+    private static void cancel(Future<?> future) {
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+
+    /**
+     * Marks the given device as dirty, and schedules a sync of it on the
+     * routing executor if not already pending. Syncs of the same device are
+     * executed in order. Never blocks, as it is called from event threads
+     * and from the executor itself.
+     *
+     * @param deviceId the device ID
+     * @return future completed when the sync has been applied
+     */
+    private CompletableFuture<Void> submitSync(DeviceId deviceId) {
+        final CompletableFuture<Void> sync = new CompletableFuture<>();
+        final CompletableFuture<Void> pending = pendingResyncs.putIfAbsent(deviceId, sync);
+        if (pending != null) {
+            // Not started yet, will see the latest topology.
+            return pending;
+        }
+        queueSync(deviceId, sync);
+        return sync;
+    }
+
+    /**
+     * Queues the given pending sync on the device executor stripe. If the
+     * stripe is full, queues it again later; the device stays dirty
+     * meanwhile, so that further requests are merged with this sync.
+     *
+     * @param deviceId the device ID
+     * @param sync     the pending sync
+     */
+    private void queueSync(DeviceId deviceId, CompletableFuture<Void> sync) {
+        if (!syncExecutor.execute(deviceId, () -> runSync(deviceId, sync)) && !sync.isDone()) {
+            log.debug("Sync executor full, delaying sync of {}", deviceId);
+            SharedScheduledExecutors.newTimeout(
+                    () -> queueSync(deviceId, sync), SYNC_RETRY_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Runs the given pending sync, on the device executor stripe. If the
+     * previous changes are still being applied, e.g. waiting for groups, the
+     * sync is queued again once they are done, without blocking the stripe.
+     *
+     * @param deviceId the device ID
+     * @param sync     the pending sync
+     */
+    private void runSync(DeviceId deviceId, CompletableFuture<Void> sync) {
+        dropReleasedState(deviceId);
+        if (sync.isDone()) {
+            // Cancelled, device released.
+            return;
+        }
+        final CompletableFuture<Void> inFlight = inFlightSyncs.get(deviceId);
+        if (inFlight != null && !inFlight.isDone()) {
+            inFlight.whenComplete((r, e) -> queueSync(deviceId, sync));
+            return;
+        }
+        // From now on, new requests need a new sync.
+        pendingResyncs.remove(deviceId, sync);
+        try {
+            syncDevice(deviceId).whenComplete(completing(sync));
+        } catch (RuntimeException e) {
+            sync.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Brings the given device to the desired routing state. The desired state
+     * is computed from the current topology and compared with the state
+     * previously pushed to the device, so that only the groups and flow rules
+     * that changed are written. Must be called on the device executor
+     * stripe, once previous changes have been applied.
+     *
+     * @param deviceId the device ID
+     * @return future completed when all changes have been applied
+     */
+    private CompletableFuture<Void> syncDevice(DeviceId deviceId) {
+        if (!mastershipService.isLocalMaster(deviceId)) {
+            // Released while the sync was queued.
+            log.debug("Skipping sync of {}, no longer master", deviceId);
+            return CompletableFuture.completedFuture(null);
+        }
+        final DeviceState desired = computeDesiredState(deviceId);
+        final DeviceState current = currentState(deviceId);
+        final DeviceState.Delta delta = current.diff(desired);
+        deviceStates.put(deviceId, desired);
+        tracer.rulesWritten(TRACE_NAME, deviceId,
+                            newArrayList(Iterables.concat(
+                                    delta.flowRulesToAdd(), delta.flowRulesToModify())),
+                            newArrayList(Iterables.concat(
+                                    delta.groupsToAdd(), delta.groupsToModify())),
+                            delta.flowRulesToRemove(), delta.groupsToRemove());
+        if (delta.isEmpty()) {
+            log.debug("Routing state of {} is up to date", deviceId);
+            return CompletableFuture.completedFuture(null);
+        }
+        log.info("Updating routing state of {}: {}", deviceId, delta);
+        final CompletableFuture<Void> result = applyDelta(deviceId, delta);
+        inFlightSyncs.put(deviceId, result);
+        return result;
+    }
+
+    /**
+     * Returns the state previously pushed to the given device. On the first
+     * sync of a device after a warm restart or a takeover, the state is
+     * rebuilt from the flow rules and groups left by the previous execution
+     * or master, so that only entries that differ are written.
+     *
+     * @param deviceId the device ID
+     * @return the current device state
+     */
+    private DeviceState currentState(DeviceId deviceId) {
+        final DeviceState state = deviceStates.get(deviceId);
+        if (state != null) {
+            return state;
+        }
+        final boolean acquired = acquiredDevices.remove(deviceId);
+        if ((acquired || warmRestart.isEnabled()) && reconciledDevices.add(deviceId)) {
+            return installedState(deviceId);
+        }
+        return DeviceState.empty(deviceId);
+    }
+
+    /**
+     * Returns the state made of the flow rules and groups of this app
+     * installed on the given device. IDs of installed next hop groups are
+     * allocated again to their member set. Flow rule dependencies are not
+     * restored, as they are not needed to go from this state to another.
+     *
+     * @param deviceId the device ID
+     * @return the installed device state
+     */
+    private DeviceState installedState(DeviceId deviceId) {
+        final DeviceState.Builder builder = DeviceState.builder(deviceId);
+        final GroupIdAllocator<Set<MacAddress>> allocator = groupIdAllocator(deviceId);
+        warmRestart.installedGroups(appId, deviceId).forEach(group -> {
+            builder.addGroup(group);
+            final int groupId = group.id().id();
+            if (allocator.inRange(groupId) && !allocator.reserve(nextHopMacs(group), groupId)) {
+                // Duplicate, will be removed as not part of the desired state.
+                log.warn("Cannot restore group ID {} on {}", groupId, deviceId);
+            }
+        });
+        warmRestart.installedFlowRules(appId, deviceId).forEach(builder::addFlowRule);
+        final DeviceState state = builder.build();
+        log.info("Reconciling routing state of {} with {} groups and {} flow rules installed",
+                 deviceId, state.groups().size(), state.flowRules().size());
+        return state;
+    }
+
+    /**
+     * Returns the next hop MAC addresses of the given next hop group, i.e.
+     * the dmac parameters of its set_l2_next_hop actions.
+     *
+     * @param group the group
+     * @return set of MAC addresses
+     */
+    private static Set<MacAddress> nextHopMacs(GroupDescription group) {
+        return group.buckets().buckets().stream()
+                .flatMap(bucket -> bucket.treatment().allInstructions().stream())
+                .filter(instruction -> instruction instanceof PiInstruction)
+                .map(instruction -> ((PiInstruction) instruction).action())
+                .filter(action -> action instanceof PiAction)
+                .flatMap(action -> ((PiAction) action).parameters().stream())
+                .filter(param -> param.id().equals(DMAC))
+                .map(param -> MacAddress.valueOf(param.value().asArray()))
+                .collect(ImmutableSet.toImmutableSet());
+    }
+
+    /**
+     * Computes the groups and flow rules required to provide IPv6 routing on
+     * the given device, according to the current topology and configuration.
+     *
+     * @param deviceId the device ID
+     * @return the desired device state
+     */
+    private DeviceState computeDesiredState(DeviceId deviceId) {
+        final DeviceState.Builder state = DeviceState.builder(deviceId);
+        setUpMyStationTable(deviceId, state);
+        setUpNextHopRules(deviceId, state);
+        // Routes are collected first, to be compressed as a whole.
+        final Map<Ip6Prefix, NextHop> routes = newHashMap();
+        setUpRoute(deviceId, routes);
+        setUpHostRulesOnDevice(deviceId, routes);
+        addRoutes(deviceId, routes, state);
+        return state.build();
+    }
+
+    /**
+     * Applies the given delta to the device. New groups are installed first,
+     * then all flow rule changes are written as one batch made of three
+     * steps: flow rules not depending on new groups, flow rules depending on
+     * new groups, and finally flow rules to remove. Groups not used anymore
+     * are removed once the batch has completed.
+     *
+     * @param deviceId the device ID
+     * @param delta    the delta to apply
+     * @return future completed when all changes have been applied
+     */
+    private CompletableFuture<Void> applyDelta(DeviceId deviceId, DeviceState.Delta delta) {
+        delta.groupsToModify().forEach(group -> groupService.setBucketsForGroup(
+                deviceId, group.appCookie(), group.buckets(), group.appCookie(), appId));
+
+        final Map<GroupKey, CompletableFuture<Void>> newGroups = newHashMap();
+        delta.groupsToAdd().forEach(group -> newGroups.put(
+                group.appCookie(), installGroup(group)));
+
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+        // Non-blocking, the batch is built when all groups are ADDED or have
+        // failed, on the thread completing the last group.
+        CompletableFuture.allOf(newGroups.values().toArray(new CompletableFuture<?>[0]))
+                .whenComplete((ignored, error) -> {
+                    final Set<GroupKey> failedGroups = newGroups.entrySet().stream()
+                            .filter(e -> e.getValue().isCompletedExceptionally())
+                            .map(Map.Entry::getKey)
+                            .collect(Collectors.toSet());
+                    applyFlowRules(deviceId, delta, newGroups.keySet(), failedGroups, result);
                 });
+        return result;
+    }
+
+    /**
+     * Writes the flow rule changes of the given delta as one staged batch.
+     * Flow rules pointing to groups that could not be installed are skipped.
+     *
+     * @param deviceId     the device ID
+     * @param delta        the delta to apply
+     * @param newGroups    keys of the groups added by this delta
+     * @param failedGroups keys of the groups that failed to be added
+     * @param result       future to complete when done
+     */
+    private void applyFlowRules(DeviceId deviceId, DeviceState.Delta delta,
+                                Set<GroupKey> newGroups, Set<GroupKey> failedGroups,
+                                CompletableFuture<Void> result) {
+        if (result.isCancelled()) {
+            // Device released while waiting for groups.
+            return;
+        }
+        final DeviceState target = delta.target();
+        final FlowRuleBatch batch = new FlowRuleBatch(flowRuleBatchSize);
+        final List<FlowRule> dependentAdds = newArrayList();
+        final List<FlowRule> dependentModifies = newArrayList();
+
+        // Stage 1: flow rules that can go in right away.
+        delta.flowRulesToAdd().forEach(rule -> {
+            if (dependsOn(target, rule, newGroups)) {
+                dependentAdds.add(rule);
+            } else {
+                batch.add(rule);
+            }
+        });
+        delta.flowRulesToModify().forEach(rule -> {
+            if (dependsOn(target, rule, newGroups)) {
+                dependentModifies.add(rule);
+            } else {
+                batch.modify(rule);
+            }
+        });
+        // Stage 2: flow rules pointing to the new groups.
+        batch.newStage();
+        dependentAdds.stream()
+                .filter(rule -> !dependsOn(target, rule, failedGroups))
+                .forEach(batch::add);
+        dependentModifies.stream()
+                .filter(rule -> !dependsOn(target, rule, failedGroups))
+                .forEach(batch::modify);
+        // Stage 3: removals.
+        batch.newStage();
+        delta.flowRulesToRemove().forEach(batch::remove);
+
+        if (!failedGroups.isEmpty()) {
+            // Force a full re-push of the device state on the next update.
+            deviceStates.remove(deviceId);
+        }
+
+        if (batch.isEmpty()) {
+            removeGroups(deviceId, delta.groupsToRemove());
+            result.complete(null);
+            return;
+        }
+
+        writeGovernor.apply(deviceId, batch.build(new FlowRuleOperationsContext() {
+            @Override
+            public void onSuccess(FlowRuleOperations ops) {
+                // Remove unused groups once flow rules are gone.
+                removeGroups(deviceId, delta.groupsToRemove());
+                result.complete(null);
+            }
+
+            @Override
+            public void onError(FlowRuleOperations ops) {
+                log.warn("Unable to update routing flow rules on {}, " +
+                                 "will push full state on next update", deviceId);
+                deviceStates.remove(deviceId);
+                result.completeExceptionally(new IllegalStateException(
+                        "Flow rule operations failed on " + deviceId));
+            }
+        }));
+    }
+
+    private boolean dependsOn(DeviceState state, FlowRule rule, Set<GroupKey> groups) {
+        return state.dependency(rule).map(groups::contains).orElse(false);
+    }
+
+    private void removeGroups(DeviceId deviceId, Collection<GroupDescription> groups) {
+        groups.forEach(group -> groupService.removeGroup(
+                deviceId, group.appCookie(), appId));
+    }
+
+    /**
+     * Returns statistics of the executor stripes used to sync devices.
+     *
+     * @return list of stripe statistics
+     */
+    public List<StripedExecutor.StripeStats> syncExecutorStats() {
+        return syncExecutor.stats();
+    }
+
+    /**
+     * Returns the coalescer used to merge topology events per device.
+     *
+     * @return event coalescer
+     */
+    public EventCoalescer<DeviceId> syncCoalescer() {
+        return syncCoalescer;
+    }
+
+    /**
+     * Returns the latency of routing updates following host moved or removed
+     * events.
+     *
+     * @return latency stats
+     */
+    public LatencyStats hostMoveStats() {
+        return hostMoveStats;
+    }
+
+    /**
+     * Returns the latency of ECMP group updates following link or port
+     * events, i.e. the failover latency.
+     *
+     * @return latency stats
+     */
+    public LatencyStats ecmpUpdateStats() {
+        return ecmpUpdateStats;
+    }
+
+    /**
+     * Syncs right away, bypassing the event coalescer, the devices where the
+     * given host was and is now located. Host rules are part of the routing
+     * state of a device, hence the sync withdraws exactly the rules and group
+     * of the host from devices where it is gone, and installs them where it
+     * is now.
+     *
+     * @param event host event
+     */
+    private void syncHostLocations(HostEvent event) {
+        final Set<DeviceId> deviceIds = newHashSet();
+        event.subject().locations().forEach(l -> deviceIds.add(l.deviceId()));
+        if (event.prevSubject() != null) {
+            event.prevSubject().locations().forEach(l -> deviceIds.add(l.deviceId()));
+        }
+        final CompletableFuture<?>[] syncs = deviceIds.stream()
+                .filter(mastershipService::isLocalMaster)
+                .map(deviceId -> {
+                    traceEvent(event, deviceId);
+                    return submitSync(deviceId);
+                })
+                .toArray(CompletableFuture[]::new);
+        if (event.type() == HostEvent.Type.HOST_UPDATED) {
+            // Only addresses have changed, not a move.
+            return;
+        }
+        CompletableFuture.allOf(syncs).whenComplete((r, e) -> {
+            hostMoveStats.record(event.time(), e == null);
+            log.info("Routing for host {} converged after {}: {}",
+                     event.subject().id(), event.type(), hostMoveStats);
+        });
+    }
+
+    /**
+     * Starts a convergence trace of the given event, to be completed by the
+     * next sync of the given device.
+     *
+     * @param event    the event
+     * @param deviceId the device ID
+     */
+    private void traceEvent(Event<?, ?> event, DeviceId deviceId) {
+        tracer.eventReceived(TRACE_NAME, event.type().toString(), event.time(), deviceId);
+    }
+
+    /**
+     * Returns a callback that completes the given future with the outcome of
+     * another one.
+     *
+     * @param future future to complete
+     * @return callback for whenComplete()
+     */
+    private static BiConsumer<Void, Throwable> completing(CompletableFuture<Void> future) {
+        return (r, e) -> {
+            if (e != null) {
+                future.completeExceptionally(e);
+            } else {
+                future.complete(null);
+            }
+        };
     }
 
     /**
@@ -196,7 +871,7 @@ public class Ipv6RoutingComponent {
             stream(flowRuleService.getFlowEntries(deviceId))
                     .filter(fe -> fe.appId() == appId.id())
                     .forEach(ops::remove);
-            flowRuleService.apply(ops.build(callback));
+            writeGovernor.apply(deviceId, ops.build(callback));
         }
     }
 
@@ -205,90 +880,74 @@ public class Ipv6RoutingComponent {
      * address found in the config.
      *
      * @param deviceId the device Id
+     * @param state    the device state where to add the flow rule
      */
-    private void setUpMyStationTable(DeviceId deviceId) {
+    private void setUpMyStationTable(DeviceId deviceId, DeviceState.Builder state) {
         MacAddress myStationMac = getMyStationMac(deviceId);
 
         PiCriterion match = PiCriterion.builder()
-                .matchExact(PiMatchFieldId.of("hdr.ethernet.dst_addr"),
-                            myStationMac.toBytes())
-                .build();
-        PiTableAction action = PiAction.builder()
-                .withId(PiActionId.of("NoAction"))
+                .matchExact(HDR_ETHERNET_DST_ADDR, myStationMac.toBytes())
                 .build();
 
         FlowRule myStationRule = Utils.forgeFlowRule(
-                deviceId, appId,
-                "FabricIngress.l2_my_station",
-                match, action);
+                deviceId, appId, FABRIC_INGRESS_L2_MY_STATION,
+                match, P4InfoActions.NO_ACTION);
 
-        flowRuleService.applyFlowRules(myStationRule);
+        state.addFlowRule(myStationRule);
     }
 
     /**
      * Set up nexthop rules of a device.
      *
      * @param deviceId the device ID
+     * @param state    the device state where to add the flow rules
      */
-    private void setUpNextHopRules(DeviceId deviceId) {
-        deviceService.getAvailableDevices().forEach(dstDevice -> {
-            DeviceId nextHop = dstDevice.id();
-            // Find any link from this device to the next hop, if any.
-            Set<Link> egressLinks = linkService.getDeviceEgressLinks(deviceId);
-            Link linkToNextHop = egressLinks.stream()
-                    .filter(link -> link.dst().deviceId().equals(nextHop))
-                    .findAny()
-                    .orElse(null);
-
-            if (linkToNextHop == null) {
-                // Maybe we are still waiting to discover that link?
-                log.debug("No link from {} to next hop {}", deviceId, nextHop);
-                return;
-            }
-            // Get port of this device connecting to next hop.
-            PortNumber outPort = linkToNextHop.src().port();
-
-            MacAddress nextHopMac = getMyStationMac(nextHop);
-            insertNextHopRule(deviceId, nextHopMac, outPort);
-        });
+    private void setUpNextHopRules(DeviceId deviceId, DeviceState.Builder state) {
+        // Only neighbors with at least one link from this device are in the
+        // adjacency map.
+        adjacency.neighbors(deviceId, linkService::getDeviceEgressLinks)
+                .forEach((nextHop, ports) -> {
+                    if (!deviceService.isAvailable(nextHop)) {
+                        return;
+                    }
+                    // Get port of this device connecting to next hop. Pick
+                    // always the same one when there are many.
+                    PortNumber outPort = ports.stream()
+                            .min(Comparator.comparingLong(PortNumber::toLong))
+                            .get();
+
+                    MacAddress nextHopMac = getMyStationMac(nextHop);
+                    state.addFlowRule(createNextHopRule(deviceId, nextHopMac, outPort));
+                });
     }
 
     /**
-     * Insert a next hope flow rule in the L2 table, matching on the given
+     * Creates a next hop flow rule for the L2 table, matching on the given
      * destination MAC and with the given output port.
      *
      * @param deviceId the device
      * @param dstMac   the next hop (destination) mac
      * @param outPort  the output port
+     * @return a flow rule
      */
-    private void insertNextHopRule(DeviceId deviceId, MacAddress dstMac,
-                                   PortNumber outPort) {
+    private FlowRule createNextHopRule(DeviceId deviceId, MacAddress dstMac,
+                                       PortNumber outPort) {
 
         // Match: MAC address of next hop.
         PiCriterion match = PiCriterion.builder()
-                .matchExact(PiMatchFieldId.of("hdr.ethernet.dst_addr"),
-                            dstMac.toBytes())
+                .matchExact(HDR_ETHERNET_DST_ADDR, dstMac.toBytes())
                 .build();
 
         // Action: set_output_port
-        PiActionParam param = new PiActionParam(PiActionParamId.of("port_num"),
-                                                outPort.toLong());
-        PiAction action = PiAction.builder()
-                .withId(PiActionId.of("FabricIngress.set_output_port"))
-                .withParameter(param)
-                .build();
+        PiAction action = fabricIngressSetOutputPort((int) outPort.toLong());
 
-        final FlowRule rule = Utils.forgeFlowRule(
-                deviceId, appId,
-                "FabricIngress.l2_exact_table",
-                match, action);
-
-        flowRuleService.applyFlowRules(rule);
+        return Utils.forgeFlowRule(
+                deviceId, appId, FABRIC_INGRESS_L2_EXACT_TABLE, match, action);
     }
 
-    private void setUpHostRulesOnDevice(DeviceId deviceId) {
+    private void setUpHostRulesOnDevice(DeviceId deviceId, Map<Ip6Prefix, NextHop> routes) {
         hostService.getConnectedHosts(deviceId)
-                .forEach(host -> setUpHostRules(deviceId, host));
+                .forEach(host -> setUpHostRules(deviceId, host, routes));
     }
 
     /**
@@ -297,8 +956,9 @@ public class Ipv6RoutingComponent {
      *
      * @param deviceId deviceId the device ID
      * @param host     the host
+     * @param routes   the routes of the device, where to add host routes
      */
-    private void setUpHostRules(DeviceId deviceId, Host host) {
+    private void setUpHostRules(DeviceId deviceId, Host host, Map<Ip6Prefix, NextHop> routes) {
         MacAddress hostMac = host.mac();
 
         // Get all IPv6 addresses associated to this host. In this tutorial we
@@ -318,54 +978,51 @@ public class Ipv6RoutingComponent {
                      deviceId, host.id(), hostIpv6Addresses);
         }
 
-        // Create a group with only one member.
-        int groupId = macToGroupId(hostMac);
-        GroupDescription group = createNextHopGroup(
-                groupId, Collections.singleton(hostMac), deviceId);
-
-        // Map each address to corresponding /128 prefix and obtain a flow rule
-        // that points to the group ID.
-        List<FlowRule> flowRules = hostIpv6Addresses.stream()
+        // Map each address to corresponding /128 prefix, routed directly to
+        // the host MAC.
+        final NextHop nextHop = NextHop.of(Collections.singleton(hostMac));
+        hostIpv6Addresses.stream()
                 .map(IpAddress::toIpPrefix)
                 .filter(IpPrefix::isIp6)
                 .map(IpPrefix::getIp6Prefix)
-                .map(prefix -> createRoutingRule(deviceId, prefix, groupId))
-                .collect(Collectors.toList());
-
-        // Helper function to install flows after group.
-        insertInOrder(group, flowRules);
+                .forEach(prefix -> routes.put(prefix, nextHop));
     }
 
     /**
      * Set up routes on a device.
      *
      * @param deviceId the device ID.
+     * @param routes   the routes of the device, where to add new ones
      */
-    private void setUpRoute(DeviceId deviceId) {
+    private void setUpRoute(DeviceId deviceId, Map<Ip6Prefix, NextHop> routes) {
         if (isSpine(deviceId)) {
-            setUpSpineRoutes(deviceId);
+            setUpSpineRoutes(deviceId, routes);
         } else {
-            setUpLeafRoutes(deviceId);
+            setUpLeafRoutes(deviceId, routes);
         }
     }
 
     /**
      * Install routing rules on the given spine switch, for each leaf interface
-     * subnet.
+     * subnet. A subnet configured on several leaves, e.g. an anycast subnet or
+     * a subnet of dual-homed hosts, is routed to all of them, via the pooled
+     * group of these leaves.
      *
      * @param spineId the spine device id
+     * @param routes  the routes of the device, where to add new ones
      */
-    private void setUpSpineRoutes(DeviceId spineId) {
+    private void setUpSpineRoutes(DeviceId spineId, Map<Ip6Prefix, NextHop> routes) {
         log.info("Setting up spine routes: {}", spineId);
 
-        for (Device device : deviceService.getDevices()) {
-            if (isSpine(device.id())) {
-                // We only need routes to leaf switches. Next device.
+        final Map<Ip6Prefix, Set<MacAddress>> leafMacs = newHashMap();
+        // We only need routes to leaf switches.
+        for (DeviceId leafId : configCache.leaves()) {
+            if (deviceService.getDevice(leafId) == null) {
+                // Not known by ONOS yet. Next device.
                 continue;
             }
-            DeviceId leafId = device.id();
             MacAddress leafMac = getMyStationMac(leafId);
-            final Set<Ip6Prefix> subnetsToRoute = getInterfaceIpv6Prefixes(leafId);
+            final Set<Ip6Prefix> subnetsToRoute = newHashSet(getInterfaceIpv6Prefixes(leafId));
 
             // FIXME: This should be added in exercise 3
             Ip6Address leafSid = getDeviceSid(leafId);
@@ -377,156 +1034,646 @@ public class Ipv6RoutingComponent {
                 continue;
             }
 
-            // Create a group with only one member.
-            int groupId = macToGroupId(leafMac);
-            GroupDescription group = createNextHopGroup(
-                    groupId, Collections.singleton(leafMac), spineId);
-
-            List<FlowRule> flowRules = subnetsToRoute.stream()
-                    .map(subnet -> createRoutingRule(spineId, subnet, groupId))
-                    .collect(Collectors.toList());
-
-            insertInOrder(group, flowRules);
+            subnetsToRoute.forEach(subnet -> leafMacs
+                    .computeIfAbsent(subnet, s -> newHashSet())
+                    .add(leafMac));
         }
+        // One next hop per leaf with the subnet.
+        leafMacs.forEach((subnet, macs) -> routes.put(subnet, NextHop.of(macs)));
     }
 
     /**
      * Install route rules for a leaf device.
      *
      * @param leafId the leaf device id
+     * @param routes the routes of the device, where to add new ones
      */
-    private void setUpLeafRoutes(DeviceId leafId) {
+    private void setUpLeafRoutes(DeviceId leafId, Map<Ip6Prefix, NextHop> routes) {
         log.info("Setting up leaf routes: {}", leafId);
 
-        // Get MAC address of all spines.
-        Set<MacAddress> spineMacs = stream(deviceService.getDevices())
-                .map(Device::id)
-                .filter(this::isSpine)
-                .map(this::getMyStationMac)
-                .collect(Collectors.toSet());
-
-        // Create an ECMP group to distribute traffic across all spines.
-        final int groupId = DEFAULT_ECMP_GROUP_ID;
-        final GroupDescription ecmpGroup = createNextHopGroup(
-                groupId, spineMacs, leafId);
+        // Create the ECMP group to distribute traffic across all spines.
+        final EcmpGroup ecmpGroup = createEcmpGroup(leafId);
 
         // Get the set of subnets (interface IPv6 prefixes) associated to other
         // leafs but not this one.
-        Set<Ip6Prefix> subnetsToRouteViaSpines = stream(deviceService.getDevices())
-                .map(Device::id)
-                .filter(this::isLeaf)
+        Set<Ip6Prefix> subnetsToRouteViaSpines = configCache.leaves().stream()
                 .filter(deviceId -> !deviceId.equals(leafId))
+                .filter(deviceId -> deviceService.getDevice(deviceId) != null)
                 .map(this::getInterfaceIpv6Prefixes)
                 .flatMap(Collection::stream)
                 .collect(Collectors.toSet());
 
-        // Generate a flow rule for each subnet to using the ECMP group as
-        // action.
-        List<FlowRule> flowRules = subnetsToRouteViaSpines.stream()
-                .map(subnet -> createRoutingRule(leafId, subnet, groupId))
-                .collect(Collectors.toList());
+        // Route each subnet using the ECMP group, even when there is only one
+        // spine, so that spines can be added or removed by modifying the
+        // groups only.
+        subnetsToRouteViaSpines.forEach(
+                subnet -> routes.put(subnet, NextHop.ecmp(ecmpGroup)));
 
         // FIXME exercise 3 add spine sid rules
-        stream(deviceService.getDevices())
-                .map(Device::id)
-                .filter(this::isSpine)
+        configCache.spines().stream()
+                .filter(spineId -> deviceService.getDevice(spineId) != null)
                 .forEach(spineId -> {
                     MacAddress spineMac = getMyStationMac(spineId);
                     Ip6Address spineSid = getDeviceSid(spineId);
-                    int spineGroupId = macToGroupId(spineMac);
-                    GroupDescription group = createNextHopGroup(
-                            spineGroupId, Collections.singleton(spineMac), leafId);
-                    insertInOrder(group, Collections.singleton(
-                            createRoutingRule(leafId, Ip6Prefix.valueOf(spineSid, 128),
-                                    spineGroupId)));
+                    routes.put(Ip6Prefix.valueOf(spineSid, 128),
+                               NextHop.of(Collections.singleton(spineMac)));
 
                 });
         // --- end exercise 3
-        insertInOrder(ecmpGroup, flowRules);
     }
 
     /**
-     * Creates an ONOS SELECT group to provide ECMP forwarding for the given
-     * collection of next hop MAC addresses. ONOS SELECT groups are equivalent
-     * to P4Runtime action selector groups.
+     * Adds to the given device state the flow rules for the given routes,
+     * after compressing them to the smallest equivalent set of LPM entries.
+     * Since the desired state is compared with the one already on the
+     * device, only changes of the compressed routes are written.
      *
-     * @param nextHopMacs the collection of mac addresses of next hops
-     * @param deviceId    the device where the group will be installed
-     * @return a SELECT group
+     * @param deviceId the device ID
+     * @param routes   map of prefix to next hop
+     * @param state    the device state where to add groups and flow rules
      */
-    private GroupDescription createNextHopGroup(
-            int groupId, Collection<MacAddress> nextHopMacs, DeviceId deviceId) {
-
-        // From P4Info.
-        String tableId = "FabricIngress.l3_table";
-        String actionProfileId = "FabricIngress.ecmp_selector";
-        String setNextHopAction = "FabricIngress.set_l2_next_hop";
-        String dmacParam = "dmac";
-
-        // Create a list of actions for each next hop.
-        final List<PiAction> actions = nextHopMacs.stream()
-                .map(nextHopMac -> PiAction.builder()
-                        .withId(PiActionId.of(setNextHopAction))
-                        .withParameter(new PiActionParam(
-                                PiActionParamId.of(dmacParam),
-                                nextHopMac.toBytes()))
-                        .build())
-                .collect(Collectors.toList());
-
-        return Utils.forgeSelectGroup(
-                deviceId, tableId, actionProfileId, groupId, actions, appId);
+    private void addRoutes(DeviceId deviceId, Map<Ip6Prefix, NextHop> routes,
+                           DeviceState.Builder state) {
+        final Map<Ip6Prefix, NextHop> compressed = PrefixCompressor.compress(routes);
+        if (compressed.size() < routes.size()) {
+            log.info("Compressed {} routes to {} on {}",
+                     routes.size(), compressed.size(), deviceId);
+        }
+        final Map<NextHop, Set<Ip6Prefix>> byNextHop = newHashMap();
+        compressed.forEach((prefix, nextHop) -> byNextHop
+                .computeIfAbsent(nextHop, n -> newHashSet())
+                .add(prefix));
+        byNextHop.forEach((nextHop, prefixes) -> {
+            if (nextHop.ecmpGroup != null) {
+                addEcmpRoutes(deviceId, prefixes, nextHop.ecmpGroup, state);
+            } else {
+                addRoutes(deviceId, prefixes, nextHop.macs, state);
+            }
+        });
     }
 
     /**
-     * Creates a routing flow rule that matches on the given IPv6 prefix and
-     * executes the given group ID.
+     * Adds to the given device state the flow rules to route the given
+     * prefixes to the given next hops. Routes with a single next hop use a
+     * direct action, without groups. Routes with many next hops use the
+     * group of the pool for that set of next hops.
      *
-     * @param deviceId  the device where flow rule will be installed
-     * @param ip6Prefix the IPv6 prefix
-     * @param groupId   the group ID
-     * @return a flow rule
+     * @param deviceId    the device ID
+     * @param prefixes    the IPv6 prefixes to route
+     * @param nextHopMacs the next hop MAC addresses
+     * @param state       the device state where to add groups and flow rules
      */
-    private FlowRule createRoutingRule(
-            DeviceId deviceId, Ip6Prefix ip6Prefix, int groupId) {
-
-        // From P4Info.
-        String matchFieldId = "hdr.ipv6.dst_addr";
-        String tableId = "FabricIngress.l3_table";
-
-        // Match: LPM on IPv6 address.
-        PiCriterion match = PiCriterion.builder()
-                .matchLpm(PiMatchFieldId.of(matchFieldId),
-                          ip6Prefix.address().toOctets(),
-                          ip6Prefix.prefixLength())
-                .build();
-
-        // Action: set action profile group ID
-        PiTableAction action = PiActionProfileGroupId.of(groupId);
-
-        return Utils.forgeFlowRule(deviceId, appId, tableId, match, action);
+    private void addRoutes(DeviceId deviceId, Collection<Ip6Prefix> prefixes,
+                           Collection<MacAddress> nextHopMacs,
+                           DeviceState.Builder state) {
+        if (prefixes.isEmpty() || nextHopMacs.isEmpty()) {
+            return;
+        }
+        if (nextHopMacs.size() == 1) {
+            final MacAddress nextHopMac = nextHopMacs.iterator().next();
+            prefixes.forEach(prefix -> state.addFlowRule(
+                    createRoutingRule(deviceId, prefix, nextHopMac)));
+            return;
+        }
+        getPooledNextHopGroup(deviceId, nextHopMacs).ifPresent(
+                group -> addEcmpRoutes(deviceId, prefixes, group, state));
     }
 
     /**
-     * Returns true if the given device has isSpine flag set to true in config,
-     * false otherwise.
+     * Adds to the given device state the flow rules to route the given
+     * prefixes via the given group, i.e. the l3_table rules setting the group
+     * ID as next ID, and the ecmp_table rule pointing the next ID to the
+     * group.
      *
      * @param deviceId the device ID
-     * @return true if the device is a spine, false otherwise
+     * @param prefixes the IPv6 prefixes to route
+     * @param group    the next hop group
+     * @param state    the device state where to add groups and flow rules
      */
-    private boolean isSpine(DeviceId deviceId) {
-        return getDeviceConfig(deviceId).map(Srv6DeviceConfig::isSpine)
-                .orElseThrow(() -> new RuntimeException(
-                        "Missing isSpine config for " + deviceId));
-    }
+    private void addEcmpRoutes(DeviceId deviceId, Collection<Ip6Prefix> prefixes,
+                               GroupDescription group, DeviceState.Builder state) {
+        if (prefixes.isEmpty()) {
+            return;
+        }
+        final int nextId = group.givenGroupId();
+        state.addFlowRule(createEcmpRule(deviceId, nextId), group);
+        prefixes.forEach(prefix -> state.addFlowRule(
+                createRoutingRule(deviceId, prefix, nextId), group));
+    }
+
+    /**
+     * Adds to the given device state the flow rules to route the given
+     * prefixes via the given ECMP group of a leaf. With groups of spines, the
+     * ecmp_group_table rule points the next ID of the routes to the group
+     * choosing among them, and an ecmp_table rule points the next ID of each
+     * group of spines to it.
+     *
+     * @param deviceId  the device ID
+     * @param prefixes  the IPv6 prefixes to route
+     * @param ecmpGroup the ECMP group
+     * @param state     the device state where to add groups and flow rules
+     */
+    private void addEcmpRoutes(DeviceId deviceId, Collection<Ip6Prefix> prefixes,
+                               EcmpGroup ecmpGroup, DeviceState.Builder state) {
+        if (ecmpGroup.spineGroups.isEmpty()) {
+            addEcmpRoutes(deviceId, prefixes, ecmpGroup.group, state);
+            return;
+        }
+        if (prefixes.isEmpty()) {
+            return;
+        }
+        ecmpGroup.spineGroups.forEach(group -> state.addFlowRule(
+                createEcmpRule(deviceId, group.givenGroupId()), group));
+        final int nextId = ecmpGroup.group.givenGroupId();
+        state.addFlowRule(createEcmpGroupRule(deviceId, nextId), ecmpGroup.group);
+        prefixes.forEach(prefix -> state.addFlowRule(
+                createRoutingRule(deviceId, prefix, nextId), ecmpGroup.group));
+    }
+
+    /**
+     * Creates the ECMP group of the given leaf, with one bucket for each
+     * spine reachable via an enabled port of the leaf, weighted as returned by
+     * ecmpWeights(). When spines do not fit in a group of ecmp_selector, they
+     * are split in as few groups of spines as needed, with sizes differing by
+     * at most one, and the ECMP group is a group of ecmp_group_selector
+     * choosing among them, weighted by the total weight of their buckets.
+     * Each flow can then use any spine, with the same share as in a single
+     * group. Groups of spines where no spine is reachable are omitted. Spines
+     * beyond the number reserved in ecmp_selector are left out.
+     *
+     * @param leafId the leaf device ID
+     * @return the ECMP group
+     */
+    private EcmpGroup createEcmpGroup(DeviceId leafId) {
+        final Map<MacAddress, Short> weights = ecmpWeights(leafId);
+        final EcmpLimits limits = ecmpLimits(leafId);
+        List<MacAddress> spineMacs = knownSpineMacs();
+        if (spineMacs.size() > limits.maxSpines) {
+            log.warn("{} spines known but only {} fit in the ECMP groups of {}, " +
+                             "leaving out the others", spineMacs.size(), limits.maxSpines, leafId);
+            spineMacs = spineMacs.subList(0, limits.maxSpines);
+        }
+        if (spineMacs.size() <= limits.maxGroupSize) {
+            return new EcmpGroup(createNextHopGroup(
+                    DEFAULT_ECMP_GROUP_ID, spineBuckets(spineMacs, weights), leafId),
+                                 Collections.emptyList());
+        }
+        final int numGroups = ceilDiv(spineMacs.size(), limits.maxGroupSize);
+        final List<GroupDescription> spineGroups = newArrayList();
+        final Map<Integer, Long> groupWeights = new LinkedHashMap<>();
+        for (int i = 0; i < numGroups; i++) {
+            // Contiguous slices of the spines sorted by MAC, so that a spine
+            // always belongs to the same group.
+            final Map<MacAddress, Short> buckets = spineBuckets(spineMacs.subList(
+                    spineMacs.size() * i / numGroups, spineMacs.size() * (i + 1) / numGroups),
+                                                                weights);
+            if (buckets.isEmpty()) {
+                continue;
+            }
+            final GroupDescription group = createNextHopGroup(
+                    ecmpGroupId(i), buckets, leafId);
+            spineGroups.add(group);
+            groupWeights.put(group.givenGroupId(), buckets.values().stream()
+                    .mapToLong(Short::longValue).sum());
+        }
+        final Map<PiAction, Short> actions = new LinkedHashMap<>();
+        bucketWeights(groupWeights).forEach(
+                (nextId, weight) -> actions.put(fabricIngressSetNextId(nextId), weight));
+        final GroupDescription group = Utils.forgeWeightedSelectGroup(
+                leafId, FABRIC_INGRESS_ECMP_GROUP_TABLE, FABRIC_INGRESS_ECMP_GROUP_SELECTOR,
+                ecmpRootGroupId(leafId), actions, appId);
+        return new EcmpGroup(group, spineGroups);
+    }
+
+    /**
+     * Returns the bucket weights of the given spines, leaving out spines
+     * without weight, i.e. not reachable.
+     *
+     * @param spineMacs the spine MAC addresses
+     * @param weights   map of spine MAC to bucket weight
+     * @return map of spine MAC to bucket weight, in the order of spines
+     */
+    private static Map<MacAddress, Short> spineBuckets(List<MacAddress> spineMacs,
+                                                       Map<MacAddress, Short> weights) {
+        final Map<MacAddress, Short> buckets = new LinkedHashMap<>();
+        spineMacs.stream()
+                .filter(weights::containsKey)
+                .forEach(mac -> buckets.put(mac, weights.get(mac)));
+        return buckets;
+    }
+
+    /**
+     * Returns the bucket weight of each spine reachable via an enabled port
+     * of the given leaf. Weights are proportional to the aggregate speed of
+     * the ports towards each spine, or to the number of such ports if the
+     * speed of some port is not known. If no spine is reachable, e.g. links
+     * have not been discovered yet, all spines known by ONOS are used with the
+     * same weight.
+     *
+     * @param leafId the leaf device ID
+     * @return map of spine MAC to bucket weight
+     */
+    private Map<MacAddress, Short> ecmpWeights(DeviceId leafId) {
+        final Map<DeviceId, Set<PortNumber>> neighbors = adjacency.neighbors(
+                leafId, linkService::getDeviceEgressLinks);
+        final Map<MacAddress, Long> speeds = new LinkedHashMap<>();
+        final Map<MacAddress, Long> linkCounts = new LinkedHashMap<>();
+        boolean speedsKnown = true;
+        for (DeviceId spineId : configCache.spines()) {
+            final Set<PortNumber> ports = neighbors.get(spineId);
+            final MacAddress spineMac = configCache.get(spineId)
+                    .map(DeviceInfo::myStationMac).orElse(null);
+            if (ports == null || spineMac == null) {
+                continue;
+            }
+            long speed = 0;
+            long count = 0;
+            for (PortNumber portNumber : ports) {
+                final Port port = deviceService.getPort(leafId, portNumber);
+                if (port == null || !port.isEnabled()) {
+                    continue;
+                }
+                speed += port.portSpeed();
+                speedsKnown &= port.portSpeed() > 0;
+                count++;
+            }
+            if (count > 0) {
+                speeds.put(spineMac, speed);
+                linkCounts.put(spineMac, count);
+            }
+        }
+        if (linkCounts.isEmpty()) {
+            final Map<MacAddress, Short> weights = new LinkedHashMap<>();
+            knownSpineMacs().forEach(mac -> weights.put(mac, (short) 1));
+            return weights;
+        }
+        return bucketWeights(speedsKnown ? speeds : linkCounts);
+    }
+
+    /**
+     * Returns the MAC addresses of the spines configured and known by ONOS,
+     * sorted. Spines only present in the config are left out, as there is no
+     * switch to send traffic to.
+     *
+     * @return list of spine MAC addresses
+     */
+    private List<MacAddress> knownSpineMacs() {
+        return configCache.spines().stream()
+                .filter(spineId -> deviceService.getDevice(spineId) != null)
+                .map(configCache::get)
+                .map(info -> info.map(DeviceInfo::myStationMac).orElse(null))
+                .filter(Objects::nonNull)
+                .sorted(Comparator.comparingLong(MacAddress::toLong))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Returns the ID of the i-th group of spines of a leaf, the first one
+     * having the default ECMP group ID.
+     *
+     * @param index index of the group of spines
+     * @return group ID
+     */
+    private static int ecmpGroupId(int index) {
+        return DEFAULT_ECMP_GROUP_ID + index;
+    }
+
+    /**
+     * Returns the ID of the group of the given leaf choosing among its groups
+     * of spines, right after the IDs reserved for them.
+     *
+     * @param leafId the leaf device ID
+     * @return group ID
+     */
+    private int ecmpRootGroupId(DeviceId leafId) {
+        return ecmpGroupId(ecmpLimits(leafId).spineGroups());
+    }
+
+    private boolean isEcmpGroup(DeviceId leafId, GroupDescription group) {
+        final int groupId = group.givenGroupId();
+        return groupId >= DEFAULT_ECMP_GROUP_ID && groupId < ecmpLimits(leafId).firstPoolId();
+    }
+
+    /**
+     * Returns the limits of the ECMP groups of the given device, as read from
+     * the pipeline model of the device. A maximum group size of 0 means no
+     * limit. On leaves, the spines the ECMP groups can hold are bounded by
+     * the configured spines, the size of ecmp_selector, and the number of
+     * groups of spines the group of ecmp_group_selector can choose among.
+     * There are no ECMP groups on spines.
+     *
+     * @param deviceId the device ID
+     * @return ECMP limits
+     */
+    private EcmpLimits ecmpLimits(DeviceId deviceId) {
+        return ecmpLimits.computeIfAbsent(deviceId, id -> {
+            final Optional<PiActionProfileModel> selector =
+                    actionProfile(id, FABRIC_INGRESS_ECMP_SELECTOR);
+            final Optional<PiActionProfileModel> groupSelector =
+                    actionProfile(id, FABRIC_INGRESS_ECMP_GROUP_SELECTOR);
+            final long size = selector.map(PiActionProfileModel::size)
+                    .orElse((long) DEFAULT_ECMP_SELECTOR_SIZE);
+            final int maxGroupSize = noLimitIfZero(selector
+                    .map(PiActionProfileModel::maxGroupSize)
+                    .orElse(DEFAULT_ECMP_MAX_GROUP_SIZE));
+            final long maxSpineGroups = Math.min(
+                    noLimitIfZero(groupSelector
+                            .map(PiActionProfileModel::maxGroupSize)
+                            .orElse(DEFAULT_ECMP_MAX_GROUP_SIZE)),
+                    groupSelector.map(PiActionProfileModel::size)
+                            .orElse((long) DEFAULT_ECMP_SELECTOR_SIZE));
+            final long maxSpines = isSpine(id) ? 0 : Math.min(
+                    configCache.spines().size(),
+                    Math.min(size, maxGroupSize * maxSpineGroups));
+            final EcmpLimits limits = new EcmpLimits(maxGroupSize, (int) maxSpines, size);
+            log.info("ECMP limits of {}: {}", id, limits);
+            return limits;
+        });
+    }
+
+    /**
+     * Returns the model of the given action profile of the given device, or
+     * an empty optional, logging a warning, if the device has no pipeconf.
+     *
+     * @param deviceId        the device ID
+     * @param actionProfileId the action profile ID
+     * @return action profile model
+     */
+    private Optional<PiActionProfileModel> actionProfile(
+            DeviceId deviceId, PiActionProfileId actionProfileId) {
+        final Optional<PiActionProfileModel> model = pipeconfService.getPipeconf(deviceId)
+                .flatMap(pipeconf -> pipeconf.pipelineModel().actionProfiles(actionProfileId));
+        if (!model.isPresent()) {
+            log.warn("Unable to read {} for {}, assuming size {} and max group size {}",
+                     actionProfileId, deviceId, DEFAULT_ECMP_SELECTOR_SIZE,
+                     DEFAULT_ECMP_MAX_GROUP_SIZE);
+        }
+        return model;
+    }
+
+    private static int noLimitIfZero(int maxGroupSize) {
+        return maxGroupSize > 0 ? maxGroupSize : Integer.MAX_VALUE;
+    }
+
+    private static int ceilDiv(int a, int b) {
+        return a / b + (a % b == 0 ? 0 : 1);
+    }
+
+    /**
+     * Converts the given uplink capacities to bucket weights with the same
+     * ratios, reduced by their greatest common divisor, and scaled down to
+     * MAX_ECMP_BUCKET_WEIGHT if needed. Every weight is at least 1.
+     *
+     * @param capacities map of next hop to capacity, greater than 0
+     * @param <K>        type of next hop, e.g. MAC address or next ID
+     * @return map of next hop to weight, in the same order
+     */
+    private static <K> Map<K, Short> bucketWeights(Map<K, Long> capacities) {
+        final long gcd = capacities.values().stream()
+                .reduce(0L, (a, b) -> BigInteger.valueOf(a).gcd(BigInteger.valueOf(b)).longValue());
+        final long max = capacities.values().stream()
+                .mapToLong(capacity -> capacity / gcd).max().orElse(1);
+        final Map<K, Short> weights = new LinkedHashMap<>();
+        capacities.forEach((nextHop, capacity) -> {
+            long weight = capacity / gcd;
+            if (max > MAX_ECMP_BUCKET_WEIGHT) {
+                weight = Math.max(1, Math.round((double) weight * MAX_ECMP_BUCKET_WEIGHT / max));
+            }
+            weights.put(nextHop, (short) weight);
+        });
+        return weights;
+    }
+
+    /**
+     * Schedules an update of the ECMP group of the given device after a link
+     * or port change, on the device executor stripe.
+     *
+     * @param deviceId the device ID
+     * @param event    the link or port event
+     */
+    private void submitEcmpUpdate(DeviceId deviceId, Event<?, ?> event) {
+        if (!mastershipService.isLocalMaster(deviceId) || !isLeaf(deviceId)) {
+            return;
+        }
+        if (!syncExecutor.execute(deviceId, () -> updateEcmpGroup(deviceId, event))) {
+            // Stripe full, a sync also updates the ECMP groups.
+            traceEvent(event, deviceId);
+            submitSync(deviceId);
+        }
+    }
+
+    /**
+     * Updates the buckets of the ECMP groups of the given leaf to match the
+     * spines currently reachable, and their weights, with group modifies.
+     * Flow rules pointing to the groups are not touched. If a sync of the
+     * device is in progress, or if groups have to be added or removed, e.g.
+     * because no spine of a group of spines is reachable anymore, the device
+     * is synced again instead.
+     *
+     * @param leafId the leaf device ID
+     * @param event  the link or port event
+     */
+    private void updateEcmpGroup(DeviceId leafId, Event<?, ?> event) {
+        dropReleasedState(leafId);
+        if (!mastershipService.isLocalMaster(leafId)) {
+            // Released while the update was queued.
+            return;
+        }
+        final DeviceState current = deviceStates.get(leafId);
+        final CompletableFuture<Void> inFlight = inFlightSyncs.get(leafId);
+        if (current == null || (inFlight != null && !inFlight.isDone())) {
+            traceEvent(event, leafId);
+            submitSync(leafId);
+            return;
+        }
+        final Set<GroupKey> installedKeys = current.groups().stream()
+                .filter(group -> isEcmpGroup(leafId, group))
+                .map(GroupDescription::appCookie)
+                .collect(Collectors.toSet());
+        if (installedKeys.isEmpty()) {
+            // Not using ECMP (e.g. no routes via spines).
+            return;
+        }
+        final EcmpGroup ecmpGroup = createEcmpGroup(leafId);
+        final Set<GroupKey> keys = ecmpGroup.groups().stream()
+                .map(GroupDescription::appCookie)
+                .collect(Collectors.toSet());
+        if (!keys.equals(installedKeys)) {
+            log.info("ECMP groups of {} changed, syncing routes", leafId);
+            traceEvent(event, leafId);
+            submitSync(leafId);
+            return;
+        }
+        final List<GroupDescription> changed = ecmpGroup.groups().stream()
+                .filter(group -> !DeviceState.sameBuckets(
+                        current.group(group.appCookie()).get(), group))
+                .collect(Collectors.toList());
+        if (changed.isEmpty()) {
+            return;
+        }
+        DeviceState updated = current;
+        for (GroupDescription group : changed) {
+            log.info("Updating ECMP group {} of {} to {} buckets",
+                     group.givenGroupId(), leafId, group.buckets().buckets().size());
+            updated = updated.withGroup(group);
+        }
+        deviceStates.put(leafId, updated);
+        tracer.trace(ECMP_TRACE_NAME, event.type().toString(), event.time(), leafId,
+                     Collections.emptyList(), changed);
+        changed.forEach(group -> {
+            pendingEcmpUpdates.put(new GroupRef(leafId, group.appCookie()), event.time());
+            groupService.setBucketsForGroup(
+                    leafId, group.appCookie(), group.buckets(), group.appCookie(), appId);
+        });
+    }
+
+    /**
+     * Creates an ONOS SELECT group to provide ECMP forwarding for the given
+     * collection of next hop MAC addresses. ONOS SELECT groups are equivalent
+     * to P4Runtime action selector groups.
+     *
+     * @param nextHopMacs the collection of mac addresses of next hops
+     * @param deviceId    the device where the group will be installed
+     * @return a SELECT group
+     */
+    GroupDescription createNextHopGroup(
+            int groupId, Collection<MacAddress> nextHopMacs, DeviceId deviceId) {
+        final Map<MacAddress, Short> weights = new LinkedHashMap<>();
+        nextHopMacs.forEach(mac -> weights.put(mac, (short) 1));
+        return createNextHopGroup(groupId, weights, deviceId);
+    }
+
+    /**
+     * Creates an ONOS SELECT group to provide weighted ECMP forwarding for the
+     * given next hop MAC addresses, each one with its bucket weight.
+     *
+     * @param groupId     the group ID
+     * @param nextHopMacs map of next hop MAC address to bucket weight
+     * @param deviceId    the device where the group will be installed
+     * @return a SELECT group
+     */
+    GroupDescription createNextHopGroup(
+            int groupId, Map<MacAddress, Short> nextHopMacs, DeviceId deviceId) {
+
+        // Create an action for each next hop, with the next hop weight.
+        final Map<PiAction, Short> actions = new LinkedHashMap<>();
+        nextHopMacs.forEach((nextHopMac, weight) -> actions.put(
+                fabricIngressSetL2NextHop(nextHopMac.toBytes()), weight));
+
+        return Utils.forgeWeightedSelectGroup(
+                deviceId, FABRIC_INGRESS_ECMP_TABLE, FABRIC_INGRESS_ECMP_SELECTOR,
+                groupId, actions, appId);
+    }
+
+    /**
+     * Creates a routing flow rule that matches on the given IPv6 prefix and
+     * sets the given next ID, to be resolved by the ecmp_table.
+     *
+     * @param deviceId  the device where flow rule will be installed
+     * @param ip6Prefix the IPv6 prefix
+     * @param nextId    the next ID
+     * @return a flow rule
+     */
+    FlowRule createRoutingRule(
+            DeviceId deviceId, Ip6Prefix ip6Prefix, int nextId) {
+
+        // Action: set next ID
+        return createRoutingRule(deviceId, ip6Prefix, fabricIngressSetNextId(nextId));
+    }
+
+    /**
+     * Creates a routing flow rule that matches on the given IPv6 prefix and
+     * forwards directly to the given next hop, without using groups.
+     *
+     * @param deviceId   the device where flow rule will be installed
+     * @param ip6Prefix  the IPv6 prefix
+     * @param nextHopMac the next hop MAC address
+     * @return a flow rule
+     */
+    FlowRule createRoutingRule(
+            DeviceId deviceId, Ip6Prefix ip6Prefix, MacAddress nextHopMac) {
+
+        // Action: set_l2_next_hop
+        return createRoutingRule(deviceId, ip6Prefix,
+                                 fabricIngressSetL2NextHop(nextHopMac.toBytes()));
+    }
+
+    private FlowRule createRoutingRule(
+            DeviceId deviceId, Ip6Prefix ip6Prefix, PiTableAction action) {
+
+        // Match: LPM on IPv6 address.
+        PiCriterion match = PiCriterion.builder()
+                .matchLpm(HDR_IPV6_DST_ADDR,
+                          ip6Prefix.address().toOctets(),
+                          ip6Prefix.prefixLength())
+                .build();
+
+        return Utils.forgeFlowRule(deviceId, appId, FABRIC_INGRESS_L3_TABLE, match, action);
+    }
+
+    /**
+     * Creates a flow rule for the ecmp_table, matching on the given next ID
+     * and executing the group with the same ID.
+     *
+     * @param deviceId the device where flow rule will be installed
+     * @param nextId   the next ID, equal to the group ID
+     * @return a flow rule
+     */
+    private FlowRule createEcmpRule(DeviceId deviceId, int nextId) {
+
+        // Match: exact on next ID.
+        PiCriterion match = PiCriterion.builder()
+                .matchExact(FABRIC_METADATA_NEXT_ID, nextId)
+                .build();
+
+        // Action: set action profile group ID
+        PiTableAction action = PiActionProfileGroupId.of(nextId);
+
+        return Utils.forgeFlowRule(
+                deviceId, appId, FABRIC_INGRESS_ECMP_TABLE, match, action);
+    }
+
+    /**
+     * Creates a flow rule for the ecmp_group_table, matching on the given
+     * next ID and executing the group with the same ID, which chooses the
+     * next ID of a group of the ecmp_table.
+     *
+     * @param deviceId the device where flow rule will be installed
+     * @param nextId   the next ID, equal to the group ID
+     * @return a flow rule
+     */
+    private FlowRule createEcmpGroupRule(DeviceId deviceId, int nextId) {
+        final PiCriterion match = PiCriterion.builder()
+                .matchExact(FABRIC_METADATA_NEXT_ID, nextId)
+                .build();
+        return Utils.forgeFlowRule(
+                deviceId, appId, FABRIC_INGRESS_ECMP_GROUP_TABLE, match,
+                PiActionProfileGroupId.of(nextId));
+    }
 
     /**
-     * Returns true if the given device is not configured as spine.
+     * Returns true if the given device has isSpine flag set to true in config,
+     * false otherwise.
+     *
+     * @param deviceId the device ID
+     * @return true if the device is a spine, false otherwise
+     */
+    private boolean isSpine(DeviceId deviceId) {
+        return getDeviceConfig(deviceId).map(DeviceInfo::isSpine)
+                .orElseThrow(() -> new RuntimeException(
+                        "Missing isSpine config for " + deviceId));
+    }
+
+    /**
+     * Returns true if the given device is configured as a leaf, false if it
+     * is a spine or has no config. Unlike isSpine(), never throws, so it can
+     * be used on event threads.
      *
      * @param deviceId the device ID
      * @return true if the device is a leaf, false otherwise
      */
     private boolean isLeaf(DeviceId deviceId) {
-        return !isSpine(deviceId);
+        return getDeviceConfig(deviceId).map(info -> !info.isSpine()).orElse(false);
     }
 
     /**
@@ -538,7 +1685,7 @@ public class Ipv6RoutingComponent {
      */
     private MacAddress getMyStationMac(DeviceId deviceId) {
         return getDeviceConfig(deviceId)
-                .map(Srv6DeviceConfig::myStationMac)
+                .map(DeviceInfo::myStationMac)
                 .orElseThrow(() -> new RuntimeException(
                         "Missing myStationMac config for " + deviceId));
     }
@@ -549,9 +1696,8 @@ public class Ipv6RoutingComponent {
      * @param deviceId the device ID
      * @return Srv6  device config
      */
-    private Optional<Srv6DeviceConfig> getDeviceConfig(DeviceId deviceId) {
-        Srv6DeviceConfig config = networkConfigService.getConfig(deviceId, Srv6DeviceConfig.class);
-        return Optional.ofNullable(config);
+    private Optional<DeviceInfo> getDeviceConfig(DeviceId deviceId) {
+        return configCache.get(deviceId);
     }
 
     /**
@@ -562,43 +1708,229 @@ public class Ipv6RoutingComponent {
      * @return set of IPv6 prefixes
      */
     private Set<Ip6Prefix> getInterfaceIpv6Prefixes(DeviceId deviceId) {
-        return interfaceService.getInterfaces().stream()
-                .filter(iface -> iface.connectPoint().deviceId().equals(deviceId))
-                .map(Interface::ipAddressesList)
-                .flatMap(Collection::stream)
-                .map(InterfaceIpAddress::subnetAddress)
-                .filter(IpPrefix::isIp6)
-                .map(IpPrefix::getIp6Prefix)
-                .collect(Collectors.toSet());
+        return interfaceIndex.ipv6Prefixes(deviceId);
     }
 
     /**
-     * Returns a 32 bit bit group ID from the given MAC address.
+     * Returns the group of the given device forwarding to the given set of
+     * next hops. Groups are pooled: the same set of next hops, regardless of
+     * the order, always gives the same group, shared by all routing rules
+     * using it. A group is removed from the device only when no rule in the
+     * routing state of the device points to it anymore. Returns an empty
+     * optional if there are no more group IDs available.
      *
-     * @param mac the MAC address
-     * @return an integer
+     * @param deviceId    the device ID
+     * @param nextHopMacs the next hop MAC addresses
+     * @return a SELECT group
      */
-    private int macToGroupId(MacAddress mac) {
-        return mac.hashCode() & 0x7fffffff;
+    private Optional<GroupDescription> getPooledNextHopGroup(
+            DeviceId deviceId, Collection<MacAddress> nextHopMacs) {
+        // Canonical member set, also giving a deterministic bucket order.
+        final Set<MacAddress> members = nextHopMacs.stream()
+                .sorted(Comparator.comparingLong(MacAddress::toLong))
+                .collect(ImmutableSet.toImmutableSet());
+        final GroupIdAllocator<Set<MacAddress>> allocator = groupIdAllocator(deviceId);
+        final Optional<Integer> groupId = allocator.allocate(members);
+        if (!groupId.isPresent()) {
+            log.warn("No group members left on {} for next hops {} ({}/{} in use)",
+                     deviceId, members, allocator.entries(), allocator.capacity());
+        } else if (allocator.utilization() >= GROUP_MEMBER_WARN_UTILIZATION) {
+            log.warn("Group members on {} almost exhausted: {}/{} in use",
+                     deviceId, allocator.entries(), allocator.capacity());
+        }
+        return groupId.map(id -> createNextHopGroup(id, members, deviceId));
     }
 
     /**
-     * Inserts the given groups and flow rules in order, groups first, then flow
-     * rules. In P4Runtime, when operating on an indirect table (i.e. with
-     * action selectors), groups must be inserted before table entries.
+     * Returns the group ID allocator of the given device. The size of
+     * ecmp_selector is the maximum number of member entries of all its
+     * groups: the members reserved for the ECMP groups of spines are taken out
+     * of it, and the pooled groups share the rest, one member per next hop.
+     * IDs are allocated after the IDs of the ECMP groups.
      *
-     * @param group     the group
-     * @param flowRules the flow rules depending on the group
+     * @param deviceId the device ID
+     * @return group ID allocator
      */
-    private void insertInOrder(GroupDescription group, Collection<FlowRule> flowRules) {
-        try {
-            groupService.addGroup(group);
-            // Wait for groups to be inserted.
-            Thread.sleep(GROUP_INSTALLATION_DELAY);
-            flowRules.forEach(flowRuleService::applyFlowRules);
-        } catch (InterruptedException e) {
-            log.error("Interrupted!", e);
-            Thread.currentThread().interrupt();
+    private GroupIdAllocator<Set<MacAddress>> groupIdAllocator(DeviceId deviceId) {
+        return groupIdAllocators.computeIfAbsent(deviceId, id -> {
+            final EcmpLimits limits = ecmpLimits(id);
+            final int capacity = (int) Math.min(
+                    Math.max(limits.selectorSize - limits.maxSpines, 0), Integer.MAX_VALUE);
+            log.info("Allocating up to {} group members on {} from group ID {}",
+                     capacity, id, limits.firstPoolId());
+            return new GroupIdAllocator<>(limits.firstPoolId(), capacity, Set::size);
+        });
+    }
+
+    /**
+     * Returns the group ID allocators of all devices, e.g. to check how
+     * many IDs are in use.
+     *
+     * @return map of device ID to group ID allocator
+     */
+    public Map<DeviceId, GroupIdAllocator<Set<MacAddress>>> groupIdAllocators() {
+        return Collections.unmodifiableMap(groupIdAllocators);
+    }
+
+    /**
+     * Returns the last routing state pushed to each device.
+     *
+     * @return map of device ID to device state
+     */
+    public Map<DeviceId, DeviceState> deviceStates() {
+        return Collections.unmodifiableMap(deviceStates);
+    }
+
+    /**
+     * Makes the ID of the given removed group available again, unless a group
+     * with the same key has been added back in the meantime.
+     *
+     * @param group the removed group
+     */
+    private void releaseGroupId(Group group) {
+        final GroupIdAllocator<Set<MacAddress>> allocator = groupIdAllocators.get(group.deviceId());
+        final DeviceState state = deviceStates.get(group.deviceId());
+        if (allocator == null || !allocator.inRange(group.id().id()) ||
+                (state != null && state.group(group.appCookie()).isPresent())) {
+            return;
+        }
+        allocator.release(group.id().id());
+    }
+
+    /**
+     * Adds the given group. In P4Runtime, when operating on an indirect table
+     * (i.e. with action selectors), groups must be inserted before the table
+     * entries pointing to them.
+     * <p>
+     * This method does not block: the returned future is completed when the
+     * group is reported as ADDED by the group subsystem (see
+     * InternalGroupListener), or completed exceptionally if the group could
+     * not be added.
+     *
+     * @param group the group
+     * @return future completed when the group is ADDED
+     */
+    private CompletableFuture<Void> installGroup(GroupDescription group) {
+        final GroupRef ref = new GroupRef(group.deviceId(), group.appCookie());
+        // Register before adding the group, so we cannot miss the GROUP_ADDED
+        // event.
+        final PendingGroup created = new PendingGroup(group);
+        final PendingGroup pending = pendingGroups.putIfAbsent(ref, created);
+        if (pending != null) {
+            // Already being installed.
+            return pending.future;
+        }
+        addPendingGroup(ref, created);
+        return created.future;
+    }
+
+    /**
+     * Adds the group of the given pending installation, unless the group
+     * store already has a group with the same key: a group ADDED completes
+     * the installation, a group in any other state is waited for. A group
+     * being removed, e.g. added back before its removal was confirmed, is
+     * added again on GROUP_REMOVED; a group being added or updated is
+     * checked again on GROUP_ADDED or GROUP_UPDATED. If no such event comes
+     * within GROUP_INSTALL_TIMEOUT, the attempt is failed.
+     *
+     * @param ref     the group reference
+     * @param pending the pending installation
+     */
+    private void addPendingGroup(GroupRef ref, PendingGroup pending) {
+        synchronized (pending) {
+            cancel(pending.timeout);
+            final Group existing = groupService.getGroup(ref.deviceId, ref.groupKey);
+            if (existing == null) {
+                groupService.addGroup(pending.group);
+            } else if (existing.state() == Group.GroupState.ADDED) {
+                // Nothing to wait for.
+                completePendingGroup(ref);
+                return;
+            } else {
+                log.debug("Group {} on {} is {}, waiting before adding it",
+                          pending.group.givenGroupId(), ref.deviceId, existing.state());
+            }
+            final int attempt = pending.attempts;
+            pending.timeout = SharedScheduledExecutors.newTimeout(() -> {
+                // Same monitor as handleGroupFailure(), so that a retry
+                // counted meanwhile is seen, and not failed again.
+                synchronized (pending) {
+                    if (pendingGroups.get(ref) != pending || pending.attempts != attempt) {
+                        // Completed or already retried.
+                        return;
+                    }
+                    log.warn("No event for group {} on {} after {} ms",
+                             pending.group.givenGroupId(), ref.deviceId,
+                             GROUP_INSTALL_TIMEOUT);
+                    handleGroupFailure(ref);
+                }
+            }, GROUP_INSTALL_TIMEOUT, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Signals that the given group has been added.
+     *
+     * @param ref the group reference
+     */
+    private void completePendingGroup(GroupRef ref) {
+        final PendingGroup pending = pendingGroups.remove(ref);
+        if (pending != null) {
+            cancel(pending.timeout);
+            pending.future.complete(null);
+        }
+    }
+
+    /**
+     * Handles a failed group installation, by retrying it a few times and
+     * then rolling back, i.e. failing the flow rules depending on the group
+     * and removing any leftover of the group.
+     *
+     * @param ref the group reference
+     */
+    private void handleGroupFailure(GroupRef ref) {
+        final PendingGroup pending = pendingGroups.get(ref);
+        if (pending == null) {
+            return;
+        }
+        synchronized (pending) {
+            cancel(pending.timeout);
+            if (pending.attempts < GROUP_INSTALL_MAX_RETRIES) {
+                pending.attempts++;
+                log.warn("Unable to add group {} on {}, retrying ({}/{})...",
+                         pending.group.givenGroupId(), ref.deviceId,
+                         pending.attempts, GROUP_INSTALL_MAX_RETRIES);
+                SharedScheduledExecutors.newTimeout(
+                        () -> retryGroup(ref), GROUP_INSTALL_RETRY_DELAY, TimeUnit.MILLISECONDS);
+                return;
+            }
+        }
+        if (!pendingGroups.remove(ref, pending)) {
+            return;
+        }
+        log.error("Unable to add group {} on {} after {} retries, " +
+                          "dropping dependent flow rules",
+                  pending.group.givenGroupId(), ref.deviceId,
+                  GROUP_INSTALL_MAX_RETRIES);
+        if (groupService.getGroup(ref.deviceId, ref.groupKey) != null) {
+            groupService.removeGroup(ref.deviceId, ref.groupKey, appId);
+        }
+        pending.future.completeExceptionally(new IllegalStateException(
+                "Unable to add group " + pending.group.givenGroupId() +
+                        " on " + ref.deviceId));
+    }
+
+    /**
+     * Re-issues the group add request for the given pending group, if still
+     * needed, e.g. after a failure or once a previous group with the same
+     * key has been removed.
+     *
+     * @param ref the group reference
+     */
+    private void retryGroup(GroupRef ref) {
+        final PendingGroup pending = pendingGroups.get(ref);
+        if (pending != null) {
+            addPendingGroup(ref, pending);
         }
     }
 
@@ -610,7 +1942,7 @@ public class Ipv6RoutingComponent {
      */
     private Ip6Address getDeviceSid(DeviceId deviceId) {
         return getDeviceConfig(deviceId)
-                .map(Srv6DeviceConfig::mySid)
+                .map(DeviceInfo::mySid)
                 .orElseThrow(() -> new RuntimeException(
                         "Missing mySid config for " + deviceId));
     }
@@ -626,28 +1958,84 @@ public class Ipv6RoutingComponent {
             DeviceId deviceId = host.location().deviceId();
             log.info("{} event! host={}, deviceId={}, port={}",
                      event.type(), host.id(), deviceId, host.location().port());
-            executorService.submit(() -> setUpHostRules(deviceId, host));
+            if (event.type() == HostEvent.Type.HOST_ADDED) {
+                if (mastershipService.isLocalMaster(deviceId)) {
+                    traceEvent(event, deviceId);
+                }
+                syncCoalescer.submit(deviceId);
+            } else {
+                // Stale routes to the host blackhole its traffic, update
+                // without waiting for other events.
+                syncHostLocations(event);
+            }
         }
 
         @Override
         public boolean isRelevant(HostEvent event) {
             switch (event.type()) {
                 case HOST_ADDED:
-                    break;
                 case HOST_REMOVED:
                 case HOST_UPDATED:
                 case HOST_MOVED:
+                    break;
                 default:
                     // Ignore other events.
-                    // Food for thoughts:
-                    // how to support host moved/removed events?
                     return false;
             }
             // Process host event only if this controller instance is the master
-            // for the device where this host is attached.
+            // for a device where this host is, or was, attached.
             final Host host = event.subject();
-            final DeviceId deviceId = host.location().deviceId();
-            return mastershipService.isLocalMaster(deviceId);
+            final Host prevHost = event.prevSubject();
+            return host.locations().stream()
+                    .anyMatch(l -> mastershipService.isLocalMaster(l.deviceId())) ||
+                    (prevHost != null && prevHost.locations().stream()
+                            .anyMatch(l -> mastershipService.isLocalMaster(l.deviceId())));
+        }
+    }
+
+    /**
+     * Listener of group events which releases flow rules waiting for the
+     * installation of a group.
+     */
+    class InternalGroupListener implements GroupListener {
+        @Override
+        public void event(GroupEvent event) {
+            final Group group = event.subject();
+            final GroupRef ref = new GroupRef(group.deviceId(), group.appCookie());
+            switch (event.type()) {
+                case GROUP_ADDED:
+                    completePendingGroup(ref);
+                    break;
+                case GROUP_ADD_FAILED:
+                    handleGroupFailure(ref);
+                    break;
+                case GROUP_REMOVED:
+                    releaseGroupId(group);
+                    // Added back before its removal was confirmed.
+                    retryGroup(ref);
+                    break;
+                case GROUP_UPDATED:
+                case GROUP_UPDATE_FAILED:
+                    // Waiting for the update to complete before the add.
+                    retryGroup(ref);
+                    final Long startMillis = pendingEcmpUpdates.remove(ref);
+                    if (startMillis != null) {
+                        ecmpUpdateStats.record(
+                                startMillis, event.type() == GroupEvent.Type.GROUP_UPDATED);
+                        log.info("ECMP group of {} updated: {}",
+                                 group.deviceId(), ecmpUpdateStats);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public boolean isRelevant(GroupEvent event) {
+            return appId.equals(event.subject().appId()) &&
+                    (event.type() == GroupEvent.Type.GROUP_REMOVED ||
+                            !pendingGroups.isEmpty() || !pendingEcmpUpdates.isEmpty());
         }
     }
 
@@ -662,19 +2050,28 @@ public class Ipv6RoutingComponent {
             DeviceId dstDev = event.subject().dst().deviceId();
             log.info("{} event! src={}, dst={}", event.type(), srcDev, dstDev);
 
+            if (event.type() == LinkEvent.Type.LINK_REMOVED) {
+                adjacency.removeLink(event.subject());
+                // Stop hashing traffic to the spine as soon as possible,
+                // without waiting for other events. Next-hop rules will be
+                // updated at the next sync of the device.
+                submitEcmpUpdate(srcDev, event);
+                return;
+            }
+            adjacency.addLink(event.subject());
+            // Use again the spine as soon as possible, if it was removed from
+            // the ECMP group.
+            submitEcmpUpdate(srcDev, event);
+
+            // Merged with other events for the same device, the sync will use
+            // the topology as seen at the end of the coalescing window.
             if (mastershipService.isLocalMaster(srcDev)) {
-                executorService.submit(() -> {
-                    setUpMyStationTable(srcDev);
-                    setUpRoute(srcDev);
-                    setUpNextHopRules(srcDev);
-                });
+                traceEvent(event, srcDev);
+                syncCoalescer.submit(srcDev);
             }
             if (mastershipService.isLocalMaster(dstDev)) {
-                executorService.submit(() -> {
-                    setUpMyStationTable(dstDev);
-                    setUpRoute(dstDev);
-                    setUpNextHopRules(dstDev);
-                });
+                traceEvent(event, dstDev);
+                syncCoalescer.submit(dstDev);
             }
         }
 
@@ -682,9 +2079,9 @@ public class Ipv6RoutingComponent {
         public boolean isRelevant(LinkEvent event) {
             switch (event.type()) {
                 case LINK_ADDED:
+                case LINK_REMOVED:
                     break;
                 case LINK_UPDATED:
-                case LINK_REMOVED:
                 default:
                     return false;
             }
@@ -694,4 +2091,186 @@ public class Ipv6RoutingComponent {
                     mastershipService.isLocalMaster(dstDev);
         }
     }
+
+    /**
+     * Listener of device events that updates the weights of the ECMP group
+     * when uplink ports change state or speed.
+     */
+    class InternalDeviceListener implements DeviceListener {
+
+        @Override
+        public void event(DeviceEvent event) {
+            // The ECMP group is only modified if weights or spines change.
+            submitEcmpUpdate(event.subject().id(), event);
+        }
+
+        @Override
+        public boolean isRelevant(DeviceEvent event) {
+            switch (event.type()) {
+                case PORT_ADDED:
+                case PORT_UPDATED:
+                case PORT_REMOVED:
+                    break;
+                default:
+                    return false;
+            }
+            final DeviceId deviceId = event.subject().id();
+            return mastershipService.isLocalMaster(deviceId) && isLeaf(deviceId);
+        }
+    }
+
+    /**
+     * Next hop of a route, i.e. either a set of next hop MAC addresses, or a
+     * group dedicated to some routes (such as the leaf ECMP group).
+     */
+    private static final class NextHop {
+        private final Set<MacAddress> macs;
+        private final EcmpGroup ecmpGroup;
+
+        private NextHop(Set<MacAddress> macs, EcmpGroup ecmpGroup) {
+            this.macs = macs;
+            this.ecmpGroup = ecmpGroup;
+        }
+
+        private static NextHop of(Collection<MacAddress> macs) {
+            return new NextHop(ImmutableSet.copyOf(macs), null);
+        }
+
+        private static NextHop ecmp(EcmpGroup group) {
+            return new NextHop(ImmutableSet.of(), group);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final NextHop other = (NextHop) o;
+            return Objects.equals(macs, other.macs) &&
+                    Objects.equals(groupKey(), other.groupKey());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(macs, groupKey());
+        }
+
+        private GroupKey groupKey() {
+            return ecmpGroup == null ? null : ecmpGroup.group.appCookie();
+        }
+    }
+
+    /**
+     * ECMP group of a leaf, i.e. the group routes via spines point to and,
+     * if spines do not fit in one group, the groups of spines it chooses
+     * among.
+     */
+    private static final class EcmpGroup {
+        private final GroupDescription group;
+        // Empty if the group has the spines as buckets.
+        private final List<GroupDescription> spineGroups;
+
+        private EcmpGroup(GroupDescription group, List<GroupDescription> spineGroups) {
+            this.group = group;
+            this.spineGroups = ImmutableList.copyOf(spineGroups);
+        }
+
+        /**
+         * Returns all groups, the groups of spines first.
+         */
+        private List<GroupDescription> groups() {
+            return ImmutableList.<GroupDescription>builder()
+                    .addAll(spineGroups).add(group).build();
+        }
+    }
+
+    /**
+     * Limits of the ECMP groups of a device.
+     */
+    private static final class EcmpLimits {
+        // Maximum number of members of an ecmp_selector group.
+        private final int maxGroupSize;
+        // Maximum number of spines in the ECMP groups of a leaf, as many
+        // member entries being reserved in ecmp_selector.
+        private final int maxSpines;
+        // Maximum number of member entries of ecmp_selector.
+        private final long selectorSize;
+
+        private EcmpLimits(int maxGroupSize, int maxSpines, long selectorSize) {
+            this.maxGroupSize = maxGroupSize;
+            this.maxSpines = maxSpines;
+            this.selectorSize = selectorSize;
+        }
+
+        /**
+         * Returns the number of groups of spines, with reserved IDs.
+         */
+        private int spineGroups() {
+            return Math.max(1, ceilDiv(maxSpines, maxGroupSize));
+        }
+
+        /**
+         * Returns the first ID after the groups of spines and the group
+         * choosing among them, if any.
+         */
+        private int firstPoolId() {
+            return spineGroups() > 1 ? ecmpGroupId(spineGroups() + 1) : FIRST_GROUP_ID;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("maxGroupSize=%d, maxSpines=%d, selectorSize=%d",
+                                 maxGroupSize, maxSpines, selectorSize);
+        }
+    }
+
+    /**
+     * Reference to a group in the group subsystem, i.e. device ID and group
+     * key.
+     */
+    private static final class GroupRef {
+        private final DeviceId deviceId;
+        private final GroupKey groupKey;
+
+        private GroupRef(DeviceId deviceId, GroupKey groupKey) {
+            this.deviceId = deviceId;
+            this.groupKey = groupKey;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final GroupRef that = (GroupRef) o;
+            return deviceId.equals(that.deviceId) &&
+                    groupKey.equals(that.groupKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(deviceId, groupKey);
+        }
+    }
+
+    /**
+     * A group being installed.
+     */
+    private static final class PendingGroup {
+        private final GroupDescription group;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private int attempts;
+        // Failure of the current attempt if no group event comes.
+        private Future<?> timeout;
+
+        private PendingGroup(GroupDescription group) {
+            this.group = group;
+        }
+    }
 }
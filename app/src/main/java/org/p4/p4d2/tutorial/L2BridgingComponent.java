@@ -21,62 +21,82 @@ import org.onlab.util.SharedScheduledExecutors;
 import org.onosproject.core.ApplicationId;
 import org.onosproject.core.CoreService;
 import org.onosproject.mastership.MastershipService;
-import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.Device;
 import org.onosproject.net.DeviceId;
 import org.onosproject.net.Host;
+import org.onosproject.net.HostLocation;
 import org.onosproject.net.PortNumber;
-import org.onosproject.net.config.NetworkConfigService;
 import org.onosproject.net.device.DeviceEvent;
 import org.onosproject.net.device.DeviceListener;
 import org.onosproject.net.device.DeviceService;
 import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleOperations;
+import org.onosproject.net.flow.FlowRuleOperationsContext;
 import org.onosproject.net.flow.FlowRuleService;
 import org.onosproject.net.flow.criteria.PiCriterion;
+import org.onosproject.net.group.Group;
 import org.onosproject.net.group.GroupDescription;
 import org.onosproject.net.group.GroupService;
 import org.onosproject.net.host.HostEvent;
 import org.onosproject.net.host.HostListener;
 import org.onosproject.net.host.HostService;
-import org.onosproject.net.intf.Interface;
-import org.onosproject.net.intf.InterfaceService;
-import org.onosproject.net.pi.model.PiActionId;
-import org.onosproject.net.pi.model.PiActionParamId;
-import org.onosproject.net.pi.model.PiMatchFieldId;
 import org.onosproject.net.pi.runtime.PiAction;
-import org.onosproject.net.pi.runtime.PiActionParam;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Reference;
 import org.osgi.service.component.annotations.ReferenceCardinality;
-import org.p4.p4d2.tutorial.common.Srv6DeviceConfig;
+import org.p4.p4d2.tutorial.common.ConvergenceTracer;
+import org.p4.p4d2.tutorial.common.DeviceConfigCache;
+import org.p4.p4d2.tutorial.common.InterfaceIndex;
+import org.p4.p4d2.tutorial.common.LatencyStats;
+import org.p4.p4d2.tutorial.common.MastershipHandover;
+import org.p4.p4d2.tutorial.common.ParallelSetUp;
 import org.p4.p4d2.tutorial.common.Utils;
+import org.p4.p4d2.tutorial.common.WarmRestart;
+import org.p4.p4d2.tutorial.common.WriteGovernor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import static com.google.common.collect.Streams.stream;
 import static org.p4.p4d2.tutorial.AppConstants.APP_PREFIX;
 import static org.p4.p4d2.tutorial.AppConstants.CPU_CLONE_SESSION_ID;
 import static org.p4.p4d2.tutorial.AppConstants.INITIAL_SETUP_DELAY;
+import static org.p4.p4d2.tutorial.P4InfoActions.fabricIngressSetMulticastGroup;
+import static org.p4.p4d2.tutorial.P4InfoActions.fabricIngressSetOutputPort;
+import static org.p4.p4d2.tutorial.P4InfoConstants.FABRIC_INGRESS_L2_EXACT_TABLE;
+import static org.p4.p4d2.tutorial.P4InfoConstants.FABRIC_INGRESS_L2_TERNARY_TABLE;
+import static org.p4.p4d2.tutorial.P4InfoConstants.HDR_ETHERNET_DST_ADDR;
 
 /**
  * App component that configures devices to provide L2 bridging capabilities.
  */
-@Component(immediate = true)
+@Component(immediate = true, service = L2BridgingComponent.class)
 public class L2BridgingComponent {
 
     private final Logger log = LoggerFactory.getLogger(getClass());
 
     private static final String APP_NAME = APP_PREFIX + ".l2bridging";
+
+    // Name used for convergence traces.
+    private static final String TRACE_NAME = "l2bridging";
     private static final int DEFAULT_BROADCAST_GROUP_ID = 255;
 
     private final DeviceListener deviceListener = new InternalDeviceListener();
     private final HostListener hostListener = new InternalHostListener();
 
+    // Time from host moved/removed events to bridging rules updated.
+    private final LatencyStats hostMoveStats = new LatencyStats();
+
     private ApplicationId appId;
 
     //--------------------------------------------------------------------------
@@ -96,10 +116,10 @@ public class L2BridgingComponent {
     private DeviceService deviceService;
 
     @Reference(cardinality = ReferenceCardinality.MANDATORY)
-    private InterfaceService interfaceService;
+    private InterfaceIndex interfaceIndex;
 
     @Reference(cardinality = ReferenceCardinality.MANDATORY)
-    private NetworkConfigService configService;
+    private DeviceConfigCache configCache;
 
     @Reference(cardinality = ReferenceCardinality.MANDATORY)
     private FlowRuleService flowRuleService;
@@ -110,6 +130,21 @@ public class L2BridgingComponent {
     @Reference(cardinality = ReferenceCardinality.MANDATORY)
     private MastershipService mastershipService;
 
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    private ParallelSetUp parallelSetUp;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    private ConvergenceTracer tracer;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    private WarmRestart warmRestart;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    private MastershipHandover handover;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    private WriteGovernor writeGovernor;
+
     //--------------------------------------------------------------------------
     // COMPONENT ACTIVATION.
     //
@@ -120,10 +155,14 @@ public class L2BridgingComponent {
     @Activate
     protected void activate() {
         appId = coreService.registerApplication(APP_NAME);
-        Utils.waitPreviousCleanup(appId, deviceService, flowRuleService, groupService);
+        // Reconcile or remove flows and groups from previous executions.
+        warmRestart.prepare(appId, true);
         // Register listeners to be informed about device and host events.
         deviceService.addListener(deviceListener);
         hostService.addListener(hostListener);
+        // Set up devices acquired from other nodes. Nothing to cancel for
+        // lost ones, as devices are set up synchronously.
+        handover.register(TRACE_NAME, this::setUpDeviceAndHosts, deviceId -> { });
         // Schedule set up of existing devices. Needed when reloading the app.
         SharedScheduledExecutors.newTimeout(
                 this::setUpAllDevices, INITIAL_SETUP_DELAY, TimeUnit.SECONDS);
@@ -132,9 +171,14 @@ public class L2BridgingComponent {
 
     @Deactivate
     protected void deactivate() {
+        handover.unregister(TRACE_NAME);
         deviceService.removeListener(deviceListener);
-        // Remove flows and groups installed by this app.
-        cleanUpAllDevices();
+        hostService.removeListener(hostListener);
+        // Remove flows and groups installed by this app, unless kept for
+        // the next execution to reconcile.
+        if (!warmRestart.isEnabled()) {
+            cleanUpAllDevices();
+        }
         log.info("Stopped");
     }
 
@@ -209,6 +253,16 @@ public class L2BridgingComponent {
         final GroupDescription multicastGroup = Utils.forgeMulticastGroup(
                 appId, deviceId, DEFAULT_BROADCAST_GROUP_ID, ports);
 
+        // Update in place if already installed with different ports, e.g.
+        // by a previous execution.
+        final Group existing = groupService.getGroup(deviceId, multicastGroup.appCookie());
+        if (existing != null && !existing.buckets().equals(multicastGroup.buckets())) {
+            groupService.setBucketsForGroup(
+                    deviceId, multicastGroup.appCookie(), multicastGroup.buckets(),
+                    multicastGroup.appCookie(), appId);
+            return;
+        }
+
         // Insert.
         groupService.addGroup(multicastGroup);
     }
@@ -225,17 +279,13 @@ public class L2BridgingComponent {
         log.info("Inserting L2 multicast flow rules on {}...", deviceId);
 
         // Action: set multicast group id
-        final PiAction setMcastGroupAction = PiAction.builder()
-                .withId(PiActionId.of("FabricIngress.set_multicast_group"))
-                .withParameter(new PiActionParam(
-                        PiActionParamId.of("gid"),
-                        DEFAULT_BROADCAST_GROUP_ID))
-                .build();
+        final PiAction setMcastGroupAction =
+                fabricIngressSetMulticastGroup(DEFAULT_BROADCAST_GROUP_ID);
 
         // Match ARP request - Match exactly FF:FF:FF:FF:FF
         final PiCriterion macBroadcastCriterion = PiCriterion.builder()
                 .matchTernary(
-                        PiMatchFieldId.of("hdr.ethernet.dst_addr"),
+                        HDR_ETHERNET_DST_ADDR,
                         MacAddress.valueOf("FF:FF:FF:FF:FF:FF").toBytes(),
                         MacAddress.valueOf("FF:FF:FF:FF:FF:FF").toBytes())
                 .build();
@@ -243,22 +293,25 @@ public class L2BridgingComponent {
         // Match NDP NS - Match ternary 33:33:**:**:**:**
         final PiCriterion ipv6MulticastCriterion = PiCriterion.builder()
                 .matchTernary(
-                        PiMatchFieldId.of("hdr.ethernet.dst_addr"),
+                        HDR_ETHERNET_DST_ADDR,
                         MacAddress.valueOf("33:33:00:00:00:00").toBytes(),
                         MacAddress.valueOf("FF:FF:00:00:00:00").toBytes())
                 .build();
 
         //  Forge 2 flow rules for  the given table.
-        final String tableId = "FabricIngress.l2_ternary_table";
         final FlowRule rule1 = Utils.forgeFlowRule(
-                deviceId, appId, tableId,
+                deviceId, appId, FABRIC_INGRESS_L2_TERNARY_TABLE,
                 macBroadcastCriterion, setMcastGroupAction);
         final FlowRule rule2 = Utils.forgeFlowRule(
-                deviceId, appId, tableId,
+                deviceId, appId, FABRIC_INGRESS_L2_TERNARY_TABLE,
                 ipv6MulticastCriterion, setMcastGroupAction);
 
-        // Insert.
-        flowRuleService.applyFlowRules(rule1, rule2);
+        // Insert, unless already installed as is.
+        final List<FlowRule> toWrite = warmRestart.notInstalled(
+                appId, deviceId, Arrays.asList(rule1, rule2));
+        if (!toWrite.isEmpty()) {
+            writeGovernor.applyFlowRules(toWrite.toArray(new FlowRule[0]));
+        }
     }
 
     /**
@@ -268,33 +321,138 @@ public class L2BridgingComponent {
      * @param host     host object
      * @param deviceId device where the host is located
      * @param port     port where the host is attached to
+     * @return the flow rule inserted
      */
-    private void learnHost(Host host, DeviceId deviceId, PortNumber port) {
+    private FlowRule learnHost(Host host, DeviceId deviceId, PortNumber port) {
         log.info("Adding L2 bridging rule on {} for host {} (port {})...",
                  deviceId, host.id(), port);
 
+        // Insert.
+        final FlowRule rule = createHostRule(host, deviceId, port);
+        writeHostRule(rule);
+        return rule;
+    }
+
+    /**
+     * Writes the given L2 bridging rule of a host.
+     *
+     * @param rule the flow rule
+     */
+    private void writeHostRule(FlowRule rule) {
+        tracer.rulesWritten(TRACE_NAME, rule.deviceId(),
+                            Collections.singleton(rule), Collections.emptyList());
+        writeGovernor.applyFlowRules(rule);
+    }
+
+    /**
+     * Updates the L2 bridging rules of a host that moved or has been removed,
+     * withdrawing the rules from its previous locations and inserting them at
+     * the new ones, in one batch. Only locations on devices for which this
+     * controller instance is master are considered.
+     *
+     * @param event host moved or removed event
+     */
+    private void updateHostLocations(HostEvent event) {
+        final Set<HostLocation> newLocations = event.type() == HostEvent.Type.HOST_REMOVED
+                ? Collections.emptySet() : event.subject().locations();
+        final Set<HostLocation> oldLocations = event.prevSubject() != null
+                ? event.prevSubject().locations() : event.subject().locations();
+        final Set<DeviceId> newDevices = newLocations.stream()
+                .map(HostLocation::deviceId)
+                .collect(Collectors.toSet());
+
+        // Rules on devices where the host still is are simply overwritten
+        // with the new port.
+        final List<FlowRule> removed = oldLocations.stream()
+                .filter(l -> !newDevices.contains(l.deviceId()))
+                .filter(l -> mastershipService.isLocalMaster(l.deviceId()))
+                .map(l -> createHostRule(event.subject(), l.deviceId(), l.port()))
+                .collect(Collectors.toList());
+        final List<FlowRule> added = newLocations.stream()
+                .filter(l -> mastershipService.isLocalMaster(l.deviceId()))
+                .map(l -> createHostRule(event.subject(), l.deviceId(), l.port()))
+                .collect(Collectors.toList());
+        final FlowRuleOperations.Builder ops = FlowRuleOperations.builder();
+        removed.forEach(ops::remove);
+        ops.newStage();
+        added.forEach(ops::add);
+
+        Stream.concat(removed.stream(), added.stream())
+                .map(FlowRule::deviceId)
+                .distinct()
+                .forEach(deviceId -> {
+                    tracer.eventReceived(TRACE_NAME, event.type().toString(), event.time(),
+                                         deviceId);
+                    tracer.rulesWritten(TRACE_NAME, deviceId, onDevice(added, deviceId),
+                                        Collections.emptyList(),
+                                        onDevice(removed, deviceId),
+                                        Collections.emptyList());
+                });
+
+        final long startMillis = event.time();
+        writeGovernor.apply(ops.build(new FlowRuleOperationsContext() {
+            @Override
+            public void onSuccess(FlowRuleOperations ops) {
+                hostMoveStats.record(startMillis, true);
+                log.info("L2 bridging rules for host {} updated after {}: {}",
+                         event.subject().id(), event.type(), hostMoveStats);
+            }
+
+            @Override
+            public void onError(FlowRuleOperations ops) {
+                hostMoveStats.record(startMillis, false);
+                log.warn("Unable to update L2 bridging rules for host {} after {}",
+                         event.subject().id(), event.type());
+            }
+        }));
+    }
+
+    /**
+     * Returns the given flow rules which are on the given device.
+     *
+     * @param flowRules flow rules
+     * @param deviceId  the device ID
+     * @return flow rules on the device
+     */
+    private static List<FlowRule> onDevice(List<FlowRule> flowRules, DeviceId deviceId) {
+        return flowRules.stream()
+                .filter(rule -> rule.deviceId().equals(deviceId))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Returns the latency of bridging updates following host moved or removed
+     * events.
+     *
+     * @return latency stats
+     */
+    public LatencyStats hostMoveStats() {
+        return hostMoveStats;
+    }
+
+    /**
+     * Creates a flow rule to forward packets to a given host located at the
+     * given device and port.
+     *
+     * @param host     host object
+     * @param deviceId device where the host is located
+     * @param port     port where the host is attached to
+     * @return flow rule
+     */
+    private FlowRule createHostRule(Host host, DeviceId deviceId, PortNumber port) {
         // Match exactly on the host MAC address.
         final MacAddress hostMac = host.mac();
         final PiCriterion hostMacCriterion = PiCriterion.builder()
-                .matchExact(PiMatchFieldId.of("hdr.ethernet.dst_addr"),
-                            hostMac.toBytes())
+                .matchExact(HDR_ETHERNET_DST_ADDR, hostMac.toBytes())
                 .build();
 
         // Action: set output port
-        final PiAction l2UnicastAction = PiAction.builder()
-                .withId(PiActionId.of("FabricIngress.set_output_port"))
-                .withParameter(new PiActionParam(
-                        PiActionParamId.of("port_num"),
-                        port.toLong()))
-                .build();
+        final PiAction l2UnicastAction = fabricIngressSetOutputPort((int) port.toLong());
 
         // Forge flow rule.
-        final FlowRule rule = Utils.forgeFlowRule(
-                deviceId, appId, "FabricIngress.l2_exact_table",
+        return Utils.forgeFlowRule(
+                deviceId, appId, FABRIC_INGRESS_L2_EXACT_TABLE,
                 hostMacCriterion, l2UnicastAction);
-
-        // Insert.
-        flowRuleService.applyFlowRules(rule);
     }
 
     //--------------------------------------------------------------------------
@@ -347,20 +505,23 @@ public class L2BridgingComponent {
                 case HOST_ADDED:
                     // Host added events will be generated by the
                     // HostLocationProvider by intercepting ARP/NDP packets.
-                    break;
                 case HOST_REMOVED:
-                case HOST_UPDATED:
                 case HOST_MOVED:
+                    break;
+                case HOST_UPDATED:
                 default:
-                    // Ignore other events.
-                    // Food for thoughts: how to support host moved/removed?
+                    // Ignore other events. Bridging rules depend only on the
+                    // host MAC and location, which don't change on update.
                     return false;
             }
             // Process host event only if this controller instance is the master
-            // for the device where this host is attached to.
+            // for a device where this host is, or was, attached to.
             final Host host = event.subject();
-            final DeviceId deviceId = host.location().deviceId();
-            return mastershipService.isLocalMaster(deviceId);
+            final Host prevHost = event.prevSubject();
+            return host.locations().stream()
+                    .anyMatch(l -> mastershipService.isLocalMaster(l.deviceId())) ||
+                    (prevHost != null && prevHost.locations().stream()
+                            .anyMatch(l -> mastershipService.isLocalMaster(l.deviceId())));
         }
 
         @Override
@@ -373,7 +534,15 @@ public class L2BridgingComponent {
             log.info("{} event! host={}, deviceId={}, port={}",
                      event.type(), host.id(), deviceId, port);
 
-            learnHost(host, deviceId, port);
+            if (event.type() == HostEvent.Type.HOST_ADDED) {
+                if (mastershipService.isLocalMaster(deviceId)) {
+                    tracer.eventReceived(TRACE_NAME, event.type().toString(),
+                                         event.time(), deviceId);
+                    learnHost(host, deviceId, port);
+                }
+            } else {
+                updateHostLocations(event);
+            }
         }
     }
 
@@ -389,13 +558,8 @@ public class L2BridgingComponent {
      * @return set of host facing ports
      */
     private Set<PortNumber> getHostFacingPorts(DeviceId deviceId) {
-        // Get all interfaces configured via netcfg for the given device ID and
-        // return the corresponding device port number.
-        return interfaceService.getInterfaces().stream()
-                .map(Interface::connectPoint)
-                .filter(cp -> cp.deviceId().equals(deviceId))
-                .map(ConnectPoint::port)
-                .collect(Collectors.toSet());
+        // Ports of all interfaces configured via netcfg for the given device ID.
+        return interfaceIndex.hostFacingPorts(deviceId);
     }
 
     /**
@@ -405,24 +569,49 @@ public class L2BridgingComponent {
      * @return true if spine, false otherwise
      */
     private boolean isSpine(DeviceId deviceId) {
-        final Srv6DeviceConfig cfg = configService.getConfig(deviceId, Srv6DeviceConfig.class);
-        return cfg != null && cfg.isSpine();
+        return configCache.get(deviceId)
+                .map(DeviceConfigCache.DeviceInfo::isSpine)
+                .orElse(false);
     }
 
     /**
      * Sets up L2 bridging on all devices known by ONOS and for which this ONOS
-     * node instance is currently master.
+     * node instance is currently master, in parallel.
      */
     private void setUpAllDevices() {
-        deviceService.getAvailableDevices().forEach(device -> {
-            if (mastershipService.isLocalMaster(device.id())) {
-                setUpDevice(device.id());
-                // For all hosts connected to this device...
-                hostService.getConnectedHosts(device.id()).forEach(
-                        host -> learnHost(host, host.location().deviceId(),
-                                          host.location().port()));
-            }
-        });
+        final List<DeviceId> deviceIds = stream(deviceService.getAvailableDevices())
+                .map(Device::id)
+                .filter(mastershipService::isLocalMaster)
+                .collect(Collectors.toList());
+        parallelSetUp.setUpAll("l2bridging", deviceIds, this::setUpDeviceAndHosts);
+    }
+
+    /**
+     * Sets up L2 bridging on the given device, including the rules of the
+     * hosts connected to it.
+     *
+     * @param deviceId the device ID
+     * @return future completed when the device is set up
+     */
+    private CompletableFuture<Void> setUpDeviceAndHosts(DeviceId deviceId) {
+        setUpDevice(deviceId);
+        // For all hosts connected to this device...
+        final List<FlowRule> hostRules = hostService.getConnectedHosts(deviceId)
+                .stream()
+                .map(host -> createHostRule(host, host.location().deviceId(),
+                                            host.location().port()))
+                .collect(Collectors.toList());
+        // Write only the rules not already installed as is, e.g. by a previous
+        // execution or by the previous master.
+        final List<FlowRule> toWrite = warmRestart.notInstalled(appId, deviceId, hostRules);
+        log.info("Adding {} of {} L2 bridging rules of hosts on {}...",
+                 toWrite.size(), hostRules.size(), deviceId);
+        toWrite.forEach(this::writeHostRule);
+        // Remove rules of hosts gone since a previous execution.
+        warmRestart.removeStaleFlowRules(
+                appId, deviceId, hostRules,
+                entry -> entry.table().equals(FABRIC_INGRESS_L2_EXACT_TABLE));
+        return CompletableFuture.completedFuture(null);
     }
 
     /**
@@ -445,7 +634,11 @@ public class L2BridgingComponent {
     private void cleanUpDevice(DeviceId deviceId) {
         log.info("Cleaning up L2 bridging on {}...", deviceId);
         // Remove all runtime entities installed by this app.
-        flowRuleService.removeFlowRulesById(appId);
+        final FlowRuleOperations.Builder ops = FlowRuleOperations.builder();
+        stream(flowRuleService.getFlowEntries(deviceId))
+                .filter(entry -> entry.appId() == appId.id())
+                .forEach(ops::remove);
+        writeGovernor.apply(deviceId, ops.build());
         groupService.getGroups(deviceId, appId).forEach(
                 group -> groupService.removeGroup(deviceId, group.appCookie(), appId));
     }
@@ -17,14 +17,13 @@
 package org.p4.p4d2.tutorial;
 
 import org.onlab.packet.Ip6Address;
-import org.onlab.packet.IpAddress;
 import org.onlab.packet.MacAddress;
 import org.onlab.util.SharedScheduledExecutors;
 import org.onosproject.core.ApplicationId;
 import org.onosproject.core.CoreService;
 import org.onosproject.mastership.MastershipService;
+import org.onosproject.net.Device;
 import org.onosproject.net.DeviceId;
-import org.onosproject.net.config.NetworkConfigService;
 import org.onosproject.net.device.DeviceEvent;
 import org.onosproject.net.device.DeviceListener;
 import org.onosproject.net.device.DeviceService;
@@ -37,32 +36,36 @@ import org.onosproject.net.flow.FlowRuleService;
 import org.onosproject.net.flow.TrafficSelector;
 import org.onosproject.net.flow.TrafficTreatment;
 import org.onosproject.net.flow.criteria.PiCriterion;
-import org.onosproject.net.host.InterfaceIpAddress;
-import org.onosproject.net.intf.Interface;
-import org.onosproject.net.intf.InterfaceService;
-import org.onosproject.net.pi.model.PiActionId;
-import org.onosproject.net.pi.model.PiActionParamId;
-import org.onosproject.net.pi.model.PiMatchFieldId;
-import org.onosproject.net.pi.model.PiTableId;
 import org.onosproject.net.pi.runtime.PiAction;
-import org.onosproject.net.pi.runtime.PiActionParam;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Reference;
 import org.osgi.service.component.annotations.ReferenceCardinality;
-import org.p4.p4d2.tutorial.common.Srv6DeviceConfig;
-import org.p4.p4d2.tutorial.common.Utils;
+import org.p4.p4d2.tutorial.common.ConvergenceTracer;
+import org.p4.p4d2.tutorial.common.DeviceConfigCache;
+import org.p4.p4d2.tutorial.common.InterfaceIndex;
+import org.p4.p4d2.tutorial.common.MastershipHandover;
+import org.p4.p4d2.tutorial.common.ParallelSetUp;
+import org.p4.p4d2.tutorial.common.WarmRestart;
+import org.p4.p4d2.tutorial.common.WriteGovernor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
+import static com.google.common.collect.Streams.stream;
 import static org.p4.p4d2.tutorial.AppConstants.APP_PREFIX;
 import static org.p4.p4d2.tutorial.AppConstants.DEFAULT_FLOW_RULE_PRIORITY;
 import static org.p4.p4d2.tutorial.AppConstants.INITIAL_SETUP_DELAY;
+import static org.p4.p4d2.tutorial.P4InfoActions.fabricIngressNdpAdvertisement;
+import static org.p4.p4d2.tutorial.P4InfoConstants.FABRIC_INGRESS_NDP_REPLY;
+import static org.p4.p4d2.tutorial.P4InfoConstants.HDR_NDP_TARGET_ADDR;
 
 /**
  * Application which manage the `ndp_reply` table.
@@ -73,17 +76,20 @@ public class NdpReplyComponent {
             LoggerFactory.getLogger(NdpReplyComponent.class.getName());
     private static final String APP_NAME = APP_PREFIX + ".ndpreply";
 
+    // Name used for convergence traces.
+    private static final String TRACE_NAME = "ndpreply";
+
     @Reference(cardinality = ReferenceCardinality.MANDATORY)
     protected CoreService coreService;
 
     @Reference(cardinality = ReferenceCardinality.MANDATORY)
-    protected NetworkConfigService configService;
+    protected DeviceConfigCache configCache;
 
     @Reference(cardinality = ReferenceCardinality.MANDATORY)
     protected FlowRuleService flowRuleService;
 
     @Reference(cardinality = ReferenceCardinality.MANDATORY)
-    protected InterfaceService interfaceService;
+    protected InterfaceIndex interfaceIndex;
 
     @Reference(cardinality = ReferenceCardinality.MANDATORY)
     protected MastershipService mastershipService;
@@ -91,14 +97,35 @@ public class NdpReplyComponent {
     @Reference(cardinality = ReferenceCardinality.MANDATORY)
     protected DeviceService deviceService;
 
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected ParallelSetUp parallelSetUp;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected ConvergenceTracer tracer;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected WarmRestart warmRestart;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected MastershipHandover handover;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected WriteGovernor writeGovernor;
+
     private DeviceListener deviceListener = new InternalDeviceListener();
     private ApplicationId appId;
 
     @Activate
     public void activate() {
         appId = coreService.registerApplication(APP_NAME);
-        Utils.waitPreviousCleanup(appId, deviceService, flowRuleService, null);
+        warmRestart.prepare(appId, false);
         deviceService.addListener(deviceListener);
+        // Set up devices acquired from other nodes. Nothing to cancel for
+        // lost ones, as devices are set up synchronously.
+        handover.register(TRACE_NAME, deviceId -> {
+            setUpDevice(deviceId);
+            return CompletableFuture.completedFuture(null);
+        }, deviceId -> { });
         SharedScheduledExecutors.newTimeout(
                 this::setUpAllDevices, INITIAL_SETUP_DELAY, TimeUnit.SECONDS);
         log.info("Started");
@@ -106,30 +133,37 @@ public class NdpReplyComponent {
 
     @Deactivate
     public void deactivate() {
+        handover.unregister(TRACE_NAME);
         deviceService.removeListener(deviceListener);
-        clearAllDevice();
+        if (!warmRestart.isEnabled()) {
+            clearAllDevice();
+        }
         log.info("Stopped");
     }
 
     private void setUpAllDevices() {
-        deviceService.getAvailableDevices().forEach(device -> {
-            if (mastershipService.isLocalMaster(device.id())) {
-                Srv6DeviceConfig config = configService.getConfig(device.id(), Srv6DeviceConfig.class);
-                if (config == null) {
-                    // Config not available yet
-                    return;
-                }
-                processSrv6Config(config);
-            }
+        final List<DeviceId> deviceIds = stream(deviceService.getAvailableDevices())
+                .map(Device::id)
+                .filter(mastershipService::isLocalMaster)
+                .collect(Collectors.toList());
+        parallelSetUp.setUpAll("ndpreply", deviceIds, deviceId -> {
+            setUpDevice(deviceId);
+            return CompletableFuture.completedFuture(null);
         });
     }
 
+    private void setUpDevice(DeviceId deviceId) {
+        configCache.get(deviceId).ifPresent(this::processSrv6Config);
+    }
+
     private void clearAllDevice() {
-        flowRuleService.removeFlowRulesById(appId);
+        final FlowRuleOperations.Builder ops = FlowRuleOperations.builder();
+        stream(flowRuleService.getFlowEntriesById(appId)).forEach(ops::remove);
+        writeGovernor.apply(ops.build());
     }
 
-    private synchronized void processSrv6Config(Srv6DeviceConfig config) {
-        final DeviceId deviceId = config.subject();
+    private void processSrv6Config(DeviceConfigCache.DeviceInfo config) {
+        final DeviceId deviceId = config.deviceId();
         if (!mastershipService.isLocalMaster(deviceId)) {
             // Handles by other node.
             log.debug("Ignores device {} since it is not belong to this node.", deviceId);
@@ -137,48 +171,35 @@ public class NdpReplyComponent {
         }
         MacAddress deviceMac = config.myStationMac();
 
-        // Get all interface for the device
-        Collection<Interface> interfaces = interfaceService.getInterfaces()
+        // Get all interface addresses for the device
+        Collection<FlowRule> flowRules = interfaceIndex.ipv6Addresses(deviceId)
                 .stream()
-                .filter(iface -> iface.connectPoint().deviceId().equals(deviceId))
-                .collect(Collectors.toSet());
-
-        Collection<FlowRule> flowRules = interfaces.stream()
-                .map(this::getIp6Addresses)
-                .flatMap(Collection::stream)
                 .map(iaddr -> genNdpReplyRules(deviceId, deviceMac, iaddr))
                 .collect(Collectors.toSet());
-        installRules(flowRules);
-    }
-
-    private Collection<Ip6Address> getIp6Addresses(Interface iface) {
-        return iface.ipAddressesList()
-                .stream()
-                .map(InterfaceIpAddress::ipAddress)
-                .filter(IpAddress::isIp6)
-                .map(IpAddress::getIp6Address)
-                .collect(Collectors.toSet());
+        // Write only the rules not already installed as is.
+        final List<FlowRule> toWrite = warmRestart.notInstalled(appId, deviceId, flowRules);
+        if (!toWrite.isEmpty()) {
+            tracer.rulesWritten(TRACE_NAME, deviceId, toWrite, Collections.emptyList());
+            installRules(deviceId, toWrite);
+        }
+        // Remove rules of addresses gone since a previous execution.
+        warmRestart.removeStaleFlowRules(appId, deviceId, flowRules, entry -> true);
     }
 
-    private void installRules(Collection<FlowRule> flowRules) {
+    private void installRules(DeviceId deviceId, Collection<FlowRule> flowRules) {
         FlowRuleOperations.Builder ops = FlowRuleOperations.builder();
         flowRules.forEach(ops::add);
-        flowRuleService.apply(ops.build());
+        writeGovernor.apply(deviceId, ops.build());
     }
 
     private FlowRule genNdpReplyRules(DeviceId deviceId,
                                       MacAddress deviceMac,
                                       Ip6Address targetIp) {
         PiCriterion match = PiCriterion.builder()
-                .matchExact(PiMatchFieldId.of("hdr.ndp.target_addr"), targetIp.toOctets())
+                .matchExact(HDR_NDP_TARGET_ADDR, targetIp.toOctets())
                 .build();
 
-        PiActionParam paramRouterMac = new PiActionParam(
-                PiActionParamId.of("router_mac"), deviceMac.toBytes());
-        PiAction action = PiAction.builder()
-                .withId(PiActionId.of("FabricIngress.ndp_advertisement"))
-                .withParameter(paramRouterMac)
-                .build();
+        PiAction action = fabricIngressNdpAdvertisement(deviceMac.toBytes());
 
         TrafficSelector selector = DefaultTrafficSelector.builder()
                 .matchPi(match)
@@ -190,7 +211,7 @@ public class NdpReplyComponent {
 
         return DefaultFlowRule.builder()
                 .forDevice(deviceId)
-                .forTable(PiTableId.of("FabricIngress.ndp_reply"))
+                .forTable(FABRIC_INGRESS_NDP_REPLY)
                 .fromApp(appId)
                 .makePermanent()
                 .withSelector(selector)
@@ -206,7 +227,11 @@ public class NdpReplyComponent {
             switch (event.type()) {
                 case DEVICE_ADDED:
                 case DEVICE_AVAILABILITY_CHANGED:
-                    setUpAllDevices();
+                    configCache.get(event.subject().id()).ifPresent(config -> {
+                        tracer.eventReceived(TRACE_NAME, event.type().toString(),
+                                             event.time(), config.deviceId());
+                        processSrv6Config(config);
+                    });
                     break;
                 default:
                     log.debug("Unsupported event type {}", event.type());
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.p4.p4d2.tutorial;
+
+/**
+ * Name/Value constants for properties.
+ */
+public final class OsgiPropertyConstants {
+
+    private OsgiPropertyConstants() {
+    }
+
+    public static final String EVENT_COALESCING_WINDOW = "eventCoalescingWindow";
+    public static final int EVENT_COALESCING_WINDOW_DEFAULT = 200; // milliseconds
+
+    public static final String FLOW_RULE_BATCH_SIZE = "flowRuleBatchSize";
+    public static final int FLOW_RULE_BATCH_SIZE_DEFAULT = 500;
+
+    public static final String SET_UP_PARALLELISM = "setUpParallelism";
+    public static final int SET_UP_PARALLELISM_DEFAULT = 8;
+
+    public static final String WARM_RESTART = "warmRestart";
+    public static final boolean WARM_RESTART_DEFAULT = false;
+
+    public static final String EVENT_TRACE_FILE = "eventTraceFile";
+    public static final String EVENT_TRACE_FILE_DEFAULT = ""; // disabled
+
+    public static final String TAKEOVER_WINDOW = "takeoverWindow";
+    public static final int TAKEOVER_WINDOW_DEFAULT = 100; // milliseconds
+
+    public static final String WRITE_GOVERNOR = "writeGovernor";
+    public static final boolean WRITE_GOVERNOR_DEFAULT = true;
+
+    public static final String WRITE_LATENCY_TARGET = "writeLatencyTarget";
+    public static final int WRITE_LATENCY_TARGET_DEFAULT = 1000; // milliseconds
+
+    public static final String MAX_WRITE_BATCH_SIZE = "maxWriteBatchSize";
+    public static final int MAX_WRITE_BATCH_SIZE_DEFAULT = 500;
+}
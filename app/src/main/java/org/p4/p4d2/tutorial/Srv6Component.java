@@ -22,7 +22,6 @@ import org.onosproject.core.CoreService;
 import org.onosproject.mastership.MastershipService;
 import org.onosproject.net.Device;
 import org.onosproject.net.DeviceId;
-import org.onosproject.net.config.NetworkConfigService;
 import org.onosproject.net.device.DeviceEvent;
 import org.onosproject.net.device.DeviceListener;
 import org.onosproject.net.device.DeviceService;
@@ -30,28 +29,32 @@ import org.onosproject.net.flow.FlowRule;
 import org.onosproject.net.flow.FlowRuleOperations;
 import org.onosproject.net.flow.FlowRuleService;
 import org.onosproject.net.flow.criteria.PiCriterion;
-import org.onosproject.net.pi.model.PiActionId;
-import org.onosproject.net.pi.model.PiActionParamId;
-import org.onosproject.net.pi.model.PiMatchFieldId;
-import org.onosproject.net.pi.model.PiTableId;
 import org.onosproject.net.pi.runtime.PiAction;
-import org.onosproject.net.pi.runtime.PiActionParam;
-import org.onosproject.net.pi.runtime.PiTableAction;
 import org.osgi.service.component.annotations.*;
-import org.p4.p4d2.tutorial.common.Srv6DeviceConfig;
+import org.p4.p4d2.tutorial.common.DeviceConfigCache;
+import org.p4.p4d2.tutorial.common.MastershipHandover;
+import org.p4.p4d2.tutorial.common.ParallelSetUp;
 import org.p4.p4d2.tutorial.common.Utils;
+import org.p4.p4d2.tutorial.common.WarmRestart;
+import org.p4.p4d2.tutorial.common.WriteGovernor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import static com.google.common.collect.Streams.stream;
 import static org.p4.p4d2.tutorial.AppConstants.INITIAL_SETUP_DELAY;
+import static org.p4.p4d2.tutorial.P4InfoActions.fabricIngressSrv6TInsert2;
+import static org.p4.p4d2.tutorial.P4InfoActions.fabricIngressSrv6TInsert3;
+import static org.p4.p4d2.tutorial.P4InfoConstants.FABRIC_INGRESS_SRV6_MY_SID;
+import static org.p4.p4d2.tutorial.P4InfoConstants.FABRIC_INGRESS_SRV6_TRANSIT;
+import static org.p4.p4d2.tutorial.P4InfoConstants.HDR_IPV6_DST_ADDR;
 
 /**
  * Application which handles IPv6 routing.
@@ -83,7 +86,19 @@ public class Srv6Component {
     private DeviceService deviceService;
 
     @Reference(cardinality = ReferenceCardinality.MANDATORY)
-    private NetworkConfigService networkConfigService;
+    private DeviceConfigCache configCache;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    private ParallelSetUp parallelSetUp;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    private WarmRestart warmRestart;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    private MastershipHandover handover;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    private WriteGovernor writeGovernor;
 
     private final DeviceListener deviceListener = new Srv6Component.InternalDeviceListener();
 
@@ -100,12 +115,20 @@ public class Srv6Component {
     protected void activate() {
         appId = coreService.registerApplication(APP_NAME);
 
-        // Wait to remove flow and groups from previous executions.
-        Utils.waitPreviousCleanup(appId, deviceService, flowRuleService, null);
+        // Reconcile or remove flows from previous executions. With warm
+        // restart, SRv6 insert policies are kept.
+        warmRestart.prepare(appId, false);
 
         // Register listeners to be informed about device and host events.
         deviceService.addListener(deviceListener);
 
+        // Set up devices acquired from other nodes. Nothing to cancel for
+        // lost ones, as devices are set up synchronously.
+        handover.register("srv6", deviceId -> {
+            setUpMySidTable(deviceId);
+            return CompletableFuture.completedFuture(null);
+        }, deviceId -> { });
+
         // Schedule set up for all devices.
         SharedScheduledExecutors.newTimeout(
                 this::setUpAllDevices, INITIAL_SETUP_DELAY, TimeUnit.SECONDS);
@@ -115,10 +138,14 @@ public class Srv6Component {
 
     @Deactivate
     protected void deactivate() {
+        handover.unregister("srv6");
         deviceService.removeListener(deviceListener);
 
-        // Remove flows and groups installed by this app.
-        cleanUpAllDevices();
+        // Remove flows and groups installed by this app, unless kept for
+        // the next execution to reconcile.
+        if (!warmRestart.isEnabled()) {
+            cleanUpAllDevices();
+        }
 
         log.info("Stopped");
     }
@@ -137,19 +164,25 @@ public class Srv6Component {
     private void setUpMySidTable(DeviceId deviceId) {
         Ip6Address mySid = getMySid(deviceId);
         PiCriterion match = PiCriterion.builder()
-                .matchTernary(PiMatchFieldId.of("hdr.ipv6.dst_addr"),
+                .matchTernary(HDR_IPV6_DST_ADDR,
                         mySid.toOctets(), Ip6Address.makeMaskPrefix(128).toOctets())
                 .build();
-        PiTableAction action = PiAction.builder()
-                .withId(PiActionId.of("FabricIngress.srv6_end"))
-                .build();
 
         FlowRule myStationRule = Utils.forgeFlowRule(
                 deviceId, appId,
-                "FabricIngress.srv6_my_sid",
-                match, action);
+                FABRIC_INGRESS_SRV6_MY_SID,
+                match, P4InfoActions.FABRIC_INGRESS_SRV6_END);
+
+        // Write only if not already installed as is.
+        if (!warmRestart.notInstalled(appId, deviceId,
+                                      Collections.singleton(myStationRule)).isEmpty()) {
+            writeGovernor.applyFlowRules(myStationRule);
+        }
 
-        flowRuleService.applyFlowRules(myStationRule);
+        // Remove the previous SID, if changed since a previous execution.
+        warmRestart.removeStaleFlowRules(
+                appId, deviceId, Collections.singleton(myStationRule),
+                entry -> entry.table().equals(FABRIC_INGRESS_SRV6_MY_SID));
     }
 
     /**
@@ -167,26 +200,23 @@ public class Srv6Component {
         }
 
         PiCriterion match = PiCriterion.builder()
-                .matchLpm(PiMatchFieldId.of("hdr.ipv6.dst_addr"), destIp.toOctets(), prefixLength)
+                .matchLpm(HDR_IPV6_DST_ADDR, destIp.toOctets(), prefixLength)
                 .build();
 
-        AtomicInteger segmentIndex = new AtomicInteger();
-        List<PiActionParam> actionParams = segmentList.stream()
-                .map(segment -> new PiActionParam(
-                        PiActionParamId.of("s" + segmentIndex.incrementAndGet()), segment.toOctets()))
-                .collect(Collectors.toList());
-
-        PiAction action = PiAction.builder()
-                .withId(PiActionId.of("FabricIngress.srv6_t_insert_" + segmentIndex.get()))
-                .withParameters(actionParams)
-                .build();
+        // One action per number of segments.
+        PiAction action = segmentList.size() == 2
+                ? fabricIngressSrv6TInsert2(segmentList.get(0).toOctets(),
+                                            segmentList.get(1).toOctets())
+                : fabricIngressSrv6TInsert3(segmentList.get(0).toOctets(),
+                                            segmentList.get(1).toOctets(),
+                                            segmentList.get(2).toOctets());
 
         final FlowRule rule = Utils.forgeFlowRule(
                 deviceId, appId,
-                "FabricIngress.srv6_transit",
+                FABRIC_INGRESS_SRV6_TRANSIT,
                 match, action);
 
-        flowRuleService.applyFlowRules(rule);
+        writeGovernor.applyFlowRules(rule);
     }
 
     /**
@@ -198,9 +228,9 @@ public class Srv6Component {
         FlowRuleOperations.Builder ops = FlowRuleOperations.builder();
         stream(flowRuleService.getFlowEntries(deviceId))
                 .filter(fe -> fe.appId() == appId.id())
-                .filter(fe -> fe.table().equals(PiTableId.of("FabricIngress.srv6_transit")))
+                .filter(fe -> fe.table().equals(FABRIC_INGRESS_SRV6_TRANSIT))
                 .forEach(ops::remove);
-        flowRuleService.apply(ops.build());
+        writeGovernor.apply(deviceId, ops.build());
     }
 
     //--------------------------------------------------------------------------
@@ -229,14 +259,17 @@ public class Srv6Component {
 
     /**
      * Sets up SRv6 My SID table on all devices known by ONOS and for which this ONOS
-     * node instance is currently master.
+     * node instance is currently master, in parallel.
      */
-    private synchronized void setUpAllDevices() {
-        // Set up host routes
-        stream(deviceService.getAvailableDevices())
+    private void setUpAllDevices() {
+        final List<DeviceId> deviceIds = stream(deviceService.getAvailableDevices())
                 .map(Device::id)
                 .filter(mastershipService::isLocalMaster)
-                .forEach(this::setUpMySidTable);
+                .collect(Collectors.toList());
+        parallelSetUp.setUpAll("srv6", deviceIds, deviceId -> {
+            setUpMySidTable(deviceId);
+            return CompletableFuture.completedFuture(null);
+        });
     }
 
     /**
@@ -253,7 +286,7 @@ public class Srv6Component {
             stream(flowRuleService.getFlowEntries(deviceId))
                     .filter(fe -> fe.appId() == appId.id())
                     .forEach(ops::remove);
-            flowRuleService.apply(ops.build());
+            writeGovernor.apply(deviceId, ops.build());
         }
     }
 
@@ -263,9 +296,8 @@ public class Srv6Component {
      * @param deviceId the device ID
      * @return Srv6  device config
      */
-    private Optional<Srv6DeviceConfig> getDeviceConfig(DeviceId deviceId) {
-        Srv6DeviceConfig config = networkConfigService.getConfig(deviceId, Srv6DeviceConfig.class);
-        return Optional.ofNullable(config);
+    private Optional<DeviceConfigCache.DeviceInfo> getDeviceConfig(DeviceId deviceId) {
+        return configCache.get(deviceId);
     }
 
     /**
@@ -276,7 +308,7 @@ public class Srv6Component {
      */
     private Ip6Address getMySid(DeviceId deviceId) {
         return getDeviceConfig(deviceId)
-                .map(Srv6DeviceConfig::mySid)
+                .map(DeviceConfigCache.DeviceInfo::mySid)
                 .orElseThrow(() -> new RuntimeException(
                         "Missing mySid config for " + deviceId));
     }
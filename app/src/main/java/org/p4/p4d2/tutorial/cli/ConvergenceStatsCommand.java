@@ -0,0 +1,62 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.p4.p4d2.tutorial.cli;
+
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.Option;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.onosproject.cli.AbstractShellCommand;
+import org.p4.p4d2.tutorial.common.ConvergenceTracer;
+
+import java.util.Comparator;
+import java.util.Map;
+
+/**
+ * Convergence Stats Command
+ */
+@Service
+@Command(scope = "onos", name = "convergence-stats",
+         description = "Shows the latency from topology events to flow rules " +
+                 "and groups confirmed on devices")
+public class ConvergenceStatsCommand extends AbstractShellCommand {
+
+    @Option(name = "-r", aliases = "--reset",
+            description = "Clear statistics after showing them",
+            required = false, multiValued = false)
+    boolean reset = false;
+
+    @Override
+    protected void doExecute() {
+        ConvergenceTracer tracer = get(ConvergenceTracer.class);
+
+        print("Traces: pending=%d, timeouts=%d",
+              tracer.pendingTraces(), tracer.timeouts());
+
+        print("By event type:");
+        tracer.eventTypeHistograms().entrySet().stream()
+                .sorted(Map.Entry.comparingByKey())
+                .forEach(e -> print("  %s: %s", e.getKey(), e.getValue()));
+
+        print("By device:");
+        tracer.deviceHistograms().entrySet().stream()
+                .sorted(Comparator.comparing(e -> e.getKey().toString()))
+                .forEach(e -> print("  %s: %s", e.getKey(), e.getValue()));
+
+        if (reset) {
+            tracer.reset();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.p4.p4d2.tutorial.cli;
+
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.onosproject.cli.AbstractShellCommand;
+import org.onosproject.net.DeviceId;
+import org.p4.p4d2.tutorial.Ipv6RoutingComponent;
+import org.p4.p4d2.tutorial.L2BridgingComponent;
+import org.p4.p4d2.tutorial.common.EventCoalescer;
+import org.p4.p4d2.tutorial.common.StripedExecutor;
+
+/**
+ * IPv6 Routing Stats Command
+ */
+@Service
+@Command(scope = "onos", name = "routing-stats",
+         description = "Shows statistics of the IPv6 routing app")
+public class RoutingStatsCommand extends AbstractShellCommand {
+
+    @Override
+    protected void doExecute() {
+        Ipv6RoutingComponent app = get(Ipv6RoutingComponent.class);
+
+        EventCoalescer<DeviceId> coalescer = app.syncCoalescer();
+        print("Topology events: received=%d, merged=%d, syncs=%d",
+              coalescer.receivedEvents(), coalescer.mergedEvents(),
+              coalescer.executions());
+
+        print("Sync executor stripes:");
+        for (StripedExecutor.StripeStats stats : app.syncExecutorStats()) {
+            print("  stripe=%d, queueDepth=%d, executed=%d, rejected=%d, " +
+                          "avgWait=%dus, maxWait=%dus",
+                  stats.index(), stats.queueDepth(), stats.executedTasks(),
+                  stats.rejectedTasks(), stats.avgWaitMicros(), stats.maxWaitMicros());
+        }
+
+        print("ECMP group updates on link/port events: %s", app.ecmpUpdateStats());
+
+        print("Pooled group members:");
+        app.groupIdAllocators().forEach((deviceId, allocator) -> print(
+                "  %s: groups=%d, members=%d, capacity=%d, utilization=%.0f%%",
+                deviceId, allocator.size(), allocator.entries(), allocator.capacity(),
+                allocator.utilization() * 100));
+
+        print("Next hop groups:");
+        app.deviceStates().forEach((deviceId, state) -> print(
+                "  %s: groups=%d, rules using groups=%d",
+                deviceId, state.groups().size(),
+                state.groups().stream()
+                        .mapToInt(group -> state.references(group.appCookie()))
+                        .sum()));
+
+        print("Host move/remove convergence:");
+        print("  routing: %s", app.hostMoveStats());
+        print("  bridging: %s", get(L2BridgingComponent.class).hostMoveStats());
+    }
+}
@@ -21,16 +21,12 @@ import org.apache.karaf.shell.api.console.Completer;
 import org.apache.karaf.shell.api.console.Session;
 import org.apache.karaf.shell.support.completers.StringsCompleter;
 import org.onosproject.cli.AbstractShellCommand;
-import org.onosproject.net.config.NetworkConfigService;
-import org.onosproject.net.device.DeviceService;
-import org.p4.p4d2.tutorial.common.Srv6DeviceConfig;
+import org.p4.p4d2.tutorial.common.DeviceConfigCache;
 
 import java.util.List;
 import java.util.Objects;
 import java.util.SortedSet;
 
-import static com.google.common.collect.Streams.stream;
-
 /**
  * Completer for SIDs based on device config.
  */
@@ -39,17 +35,14 @@ public class Srv6SidCompleter implements Completer {
 
     @Override
     public int complete(Session session, CommandLine commandLine, List<String> candidates) {
-        DeviceService deviceService = AbstractShellCommand.get(DeviceService.class);
-        NetworkConfigService netCfgService = AbstractShellCommand.get(NetworkConfigService.class);
+        DeviceConfigCache configCache = AbstractShellCommand.get(DeviceConfigCache.class);
 
         // Delegate string completer
         StringsCompleter delegate = new StringsCompleter();
         SortedSet<String> strings = delegate.getStrings();
 
-        stream(deviceService.getDevices())
-                .map(d -> netCfgService.getConfig(d.id(), Srv6DeviceConfig.class))
-                .filter(Objects::nonNull)
-                .map(Srv6DeviceConfig::mySid)
+        configCache.getAll().values().stream()
+                .map(DeviceConfigCache.DeviceInfo::mySid)
                 .filter(Objects::nonNull)
                 .forEach(sid -> strings.add(sid.toString()));
 
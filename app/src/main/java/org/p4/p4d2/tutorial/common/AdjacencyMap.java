@@ -0,0 +1,146 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.p4.p4d2.tutorial.common;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Link;
+import org.onosproject.net.PortNumber;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import static com.google.common.collect.Maps.newConcurrentMap;
+
+/**
+ * Map of the neighbors of each device, with the egress ports towards each
+ * neighbor. Devices are added to the map the first time their neighbors are
+ * requested, seeding the adjacency from the given set of egress links; from
+ * then on the adjacency is updated by link events.
+ */
+public final class AdjacencyMap {
+
+    // Device -> (neighbor -> egress ports). Inner maps are immutable.
+    private final Map<DeviceId, Map<DeviceId, Set<PortNumber>>> adjacency =
+            newConcurrentMap();
+
+    /**
+     * Returns the neighbors of the given device with the egress ports towards
+     * each one of them. If the device is not in the map yet, adds it using
+     * the links returned by the given function.
+     *
+     * @param deviceId    the device ID
+     * @param egressLinks function returning the egress links of a device
+     * @return map of neighbor to egress ports
+     */
+    public Map<DeviceId, Set<PortNumber>> neighbors(
+            DeviceId deviceId, Function<DeviceId, Collection<Link>> egressLinks) {
+        final Map<DeviceId, Set<PortNumber>> neighbors = adjacency.get(deviceId);
+        if (neighbors != null) {
+            return neighbors;
+        }
+        synchronized (this) {
+            return adjacency.computeIfAbsent(
+                    deviceId, d -> build(egressLinks.apply(d)));
+        }
+    }
+
+    /**
+     * Updates the map with the given new link. Ignored if the link source
+     * device is not in the map.
+     *
+     * @param link the link
+     */
+    public synchronized void addLink(Link link) {
+        adjacency.computeIfPresent(link.src().deviceId(), (d, neighbors) -> {
+            final DeviceId neighbor = link.dst().deviceId();
+            final Set<PortNumber> ports = neighbors.getOrDefault(neighbor, ImmutableSet.of());
+            if (ports.contains(link.src().port())) {
+                return neighbors;
+            }
+            return with(neighbors, neighbor, ImmutableSet.<PortNumber>builder()
+                    .addAll(ports).add(link.src().port()).build());
+        });
+    }
+
+    /**
+     * Updates the map removing the given link. Ignored if the link source
+     * device is not in the map.
+     *
+     * @param link the link
+     */
+    public synchronized void removeLink(Link link) {
+        adjacency.computeIfPresent(link.src().deviceId(), (d, neighbors) -> {
+            final DeviceId neighbor = link.dst().deviceId();
+            final Set<PortNumber> ports = neighbors.getOrDefault(neighbor, ImmutableSet.of());
+            if (!ports.contains(link.src().port())) {
+                return neighbors;
+            }
+            final ImmutableSet.Builder<PortNumber> newPorts = ImmutableSet.builder();
+            ports.stream()
+                    .filter(port -> !port.equals(link.src().port()))
+                    .forEach(newPorts::add);
+            return with(neighbors, neighbor, newPorts.build());
+        });
+    }
+
+    /**
+     * Removes the given device from the map.
+     *
+     * @param deviceId the device ID
+     */
+    public synchronized void removeDevice(DeviceId deviceId) {
+        adjacency.remove(deviceId);
+    }
+
+    /**
+     * Removes all devices from the map.
+     */
+    public synchronized void clear() {
+        adjacency.clear();
+    }
+
+    private static Map<DeviceId, Set<PortNumber>> build(Collection<Link> links) {
+        final Map<DeviceId, ImmutableSet.Builder<PortNumber>> builders = new HashMap<>();
+        links.forEach(link -> builders
+                .computeIfAbsent(link.dst().deviceId(), n -> ImmutableSet.builder())
+                .add(link.src().port()));
+        final ImmutableMap.Builder<DeviceId, Set<PortNumber>> neighbors = ImmutableMap.builder();
+        builders.forEach((neighbor, ports) -> neighbors.put(neighbor, ports.build()));
+        return neighbors.build();
+    }
+
+    private static Map<DeviceId, Set<PortNumber>> with(
+            Map<DeviceId, Set<PortNumber>> neighbors, DeviceId neighbor,
+            Set<PortNumber> ports) {
+        final ImmutableMap.Builder<DeviceId, Set<PortNumber>> newNeighbors =
+                ImmutableMap.builder();
+        neighbors.forEach((n, p) -> {
+            if (!n.equals(neighbor)) {
+                newNeighbors.put(n, p);
+            }
+        });
+        if (!ports.isEmpty()) {
+            newNeighbors.put(neighbor, ports);
+        }
+        return newNeighbors.build();
+    }
+}
@@ -0,0 +1,452 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.p4.p4d2.tutorial.common;
+
+import com.google.common.collect.ImmutableMap;
+import org.onlab.util.SharedScheduledExecutors;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleEvent;
+import org.onosproject.net.flow.FlowRuleListener;
+import org.onosproject.net.flow.FlowRuleService;
+import org.onosproject.net.group.GroupDescription;
+import org.onosproject.net.group.GroupEvent;
+import org.onosproject.net.group.GroupListener;
+import org.onosproject.net.group.GroupService;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Maps.newConcurrentMap;
+import static com.google.common.collect.Sets.newHashSet;
+
+/**
+ * Component that measures the convergence latency of the app, i.e. the time
+ * from a topology event to the resulting flow rules and groups being
+ * confirmed on the device.
+ * <p>
+ * Components first report the events they receive, for each device affected,
+ * then the flow rules and groups written to each device as a consequence.
+ * Traces complete when all those flow rules are ADDED and groups are ADDED or
+ * UPDATED, and all removed ones are REMOVED, or right away if nothing was
+ * written. Latencies are recorded per
+ * event type and per device. Traces not completed within TRACE_TIMEOUT are
+ * dropped and counted as timeouts.
+ */
+@Component(immediate = true, service = ConvergenceTracer.class)
+public class ConvergenceTracer {
+
+    private static final Logger log = LoggerFactory.getLogger(ConvergenceTracer.class);
+
+    private static final long TRACE_TIMEOUT = 60; // seconds
+    private static final long PURGE_PERIOD = 10; // seconds
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    private FlowRuleService flowRuleService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    private GroupService groupService;
+
+    private final FlowRuleListener flowRuleListener = new InternalFlowRuleListener();
+    private final GroupListener groupListener = new InternalGroupListener();
+
+    // Traces waiting for the component to write to the device.
+    private final Map<WriteKey, List<Trace>> awaitingWrite = newConcurrentMap();
+    // Written flow rules and groups waiting to be confirmed, with the batches
+    // of traces waiting for them.
+    private final Map<Item, Set<Batch>> awaitingConfirm = newConcurrentMap();
+
+    private final Map<String, LatencyHistogram> eventTypeHistograms = newConcurrentMap();
+    private final Map<DeviceId, LatencyHistogram> deviceHistograms = newConcurrentMap();
+    private final AtomicLong timeouts = new AtomicLong();
+
+    private ScheduledFuture<?> purgeTask;
+
+    @Activate
+    protected void activate() {
+        flowRuleService.addListener(flowRuleListener);
+        groupService.addListener(groupListener);
+        purgeTask = SharedScheduledExecutors.getSingleThreadExecutor().scheduleAtFixedRate(
+                this::purgeExpired, PURGE_PERIOD, PURGE_PERIOD, TimeUnit.SECONDS);
+        log.info("Started");
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        purgeTask.cancel(false);
+        flowRuleService.removeListener(flowRuleListener);
+        groupService.removeListener(groupListener);
+        synchronized (this) {
+            awaitingWrite.clear();
+            awaitingConfirm.clear();
+        }
+        log.info("Stopped");
+    }
+
+    /**
+     * Starts a trace for the given event, to be completed by the next write
+     * of the given component to the given device.
+     *
+     * @param component   name of the component handling the event
+     * @param eventType   type of event, e.g. LINK_ADDED
+     * @param eventMillis time of the event, in milliseconds since the epoch
+     * @param deviceId    device affected by the event
+     */
+    public void eventReceived(String component, String eventType, long eventMillis,
+                              DeviceId deviceId) {
+        final Trace trace = new Trace(component + "/" + eventType, deviceId, eventMillis);
+        synchronized (this) {
+            awaitingWrite.computeIfAbsent(new WriteKey(component, deviceId), k -> newArrayList())
+                    .add(trace);
+        }
+    }
+
+    /**
+     * Attaches the traces waiting for the given component and device to the
+     * given flow rules and groups. Must be called before writing them, so
+     * that confirmations are not missed.
+     *
+     * @param component name of the component writing to the device
+     * @param deviceId  the device ID
+     * @param flowRules flow rules being added or modified
+     * @param groups    groups being added or modified
+     */
+    public void rulesWritten(String component, DeviceId deviceId,
+                             Collection<FlowRule> flowRules,
+                             Collection<GroupDescription> groups) {
+        rulesWritten(component, deviceId, flowRules, groups,
+                     Collections.emptyList(), Collections.emptyList());
+    }
+
+    /**
+     * Attaches the traces waiting for the given component and device to the
+     * given flow rules and groups, written or removed. Must be called before
+     * writing them, so that confirmations are not missed.
+     *
+     * @param component        name of the component writing to the device
+     * @param deviceId         the device ID
+     * @param flowRules        flow rules being added or modified
+     * @param groups           groups being added or modified
+     * @param removedFlowRules flow rules being removed
+     * @param removedGroups    groups being removed
+     */
+    public void rulesWritten(String component, DeviceId deviceId,
+                             Collection<FlowRule> flowRules,
+                             Collection<GroupDescription> groups,
+                             Collection<FlowRule> removedFlowRules,
+                             Collection<GroupDescription> removedGroups) {
+        if (!awaitingWrite.containsKey(new WriteKey(component, deviceId))) {
+            return;
+        }
+        final Set<Item> items = newHashSet();
+        flowRules.forEach(rule -> items.add(new Item(deviceId, rule.id(), false)));
+        groups.forEach(group -> items.add(new Item(deviceId, group.appCookie(), false)));
+        removedFlowRules.forEach(rule -> items.add(new Item(deviceId, rule.id(), true)));
+        removedGroups.forEach(group -> items.add(new Item(deviceId, group.appCookie(), true)));
+        synchronized (this) {
+            final List<Trace> traces = awaitingWrite.remove(new WriteKey(component, deviceId));
+            if (traces == null) {
+                return;
+            }
+            if (items.isEmpty()) {
+                // Nothing to wait for, the device was already up to date.
+                traces.forEach(this::complete);
+                return;
+            }
+            final Batch batch = new Batch(traces, items);
+            items.forEach(item -> awaitingConfirm
+                    .computeIfAbsent(item, i -> newHashSet()).add(batch));
+        }
+    }
+
+    /**
+     * Starts a trace for the given event and attaches it right away to the
+     * given flow rules and groups. Must be called before writing them.
+     *
+     * @param component   name of the component handling the event
+     * @param eventType   type of event, e.g. HOST_ADDED
+     * @param eventMillis time of the event, in milliseconds since the epoch
+     * @param deviceId    device affected by the event
+     * @param flowRules   flow rules being added or modified
+     * @param groups      groups being added or modified
+     */
+    public void trace(String component, String eventType, long eventMillis,
+                      DeviceId deviceId, Collection<FlowRule> flowRules,
+                      Collection<GroupDescription> groups) {
+        eventReceived(component, eventType, eventMillis, deviceId);
+        rulesWritten(component, deviceId, flowRules, groups);
+    }
+
+    /**
+     * Returns the convergence latency histograms per event type, keyed by
+     * component name and event type.
+     *
+     * @return map of event type to histogram
+     */
+    public Map<String, LatencyHistogram> eventTypeHistograms() {
+        return ImmutableMap.copyOf(eventTypeHistograms);
+    }
+
+    /**
+     * Returns the convergence latency histograms per device.
+     *
+     * @return map of device ID to histogram
+     */
+    public Map<DeviceId, LatencyHistogram> deviceHistograms() {
+        return ImmutableMap.copyOf(deviceHistograms);
+    }
+
+    /**
+     * Returns the number of traces dropped because not completed in time.
+     *
+     * @return number of traces
+     */
+    public long timeouts() {
+        return timeouts.get();
+    }
+
+    /**
+     * Returns the number of traces not completed yet.
+     *
+     * @return number of traces
+     */
+    public synchronized int pendingTraces() {
+        final Set<Batch> batches = newHashSet();
+        awaitingConfirm.values().forEach(batches::addAll);
+        return awaitingWrite.values().stream().mapToInt(List::size).sum() +
+                batches.stream().mapToInt(batch -> batch.traces.size()).sum();
+    }
+
+    /**
+     * Clears all histograms and counters. Pending traces are kept.
+     */
+    public void reset() {
+        eventTypeHistograms.clear();
+        deviceHistograms.clear();
+        timeouts.set(0);
+    }
+
+    private void confirmed(Item item) {
+        if (!awaitingConfirm.containsKey(item)) {
+            return;
+        }
+        synchronized (this) {
+            final Set<Batch> batches = awaitingConfirm.remove(item);
+            if (batches == null) {
+                return;
+            }
+            batches.forEach(batch -> {
+                batch.pending.remove(item);
+                if (batch.pending.isEmpty()) {
+                    batch.traces.forEach(this::complete);
+                }
+            });
+        }
+    }
+
+    private void complete(Trace trace) {
+        final long latency = System.currentTimeMillis() - trace.eventMillis;
+        eventTypeHistograms.computeIfAbsent(trace.eventType, t -> new LatencyHistogram())
+                .record(latency);
+        deviceHistograms.computeIfAbsent(trace.deviceId, d -> new LatencyHistogram())
+                .record(latency);
+    }
+
+    private synchronized void purgeExpired() {
+        final long minMillis = System.currentTimeMillis() -
+                TimeUnit.SECONDS.toMillis(TRACE_TIMEOUT);
+        final Iterator<List<Trace>> writes = awaitingWrite.values().iterator();
+        while (writes.hasNext()) {
+            final List<Trace> traces = writes.next();
+            final int before = traces.size();
+            traces.removeIf(trace -> trace.eventMillis < minMillis);
+            timeouts.addAndGet(before - traces.size());
+            if (traces.isEmpty()) {
+                writes.remove();
+            }
+        }
+        final Set<Batch> expired = newHashSet();
+        awaitingConfirm.values().removeIf(batches -> {
+            batches.removeIf(batch -> {
+                if (batch.writeMillis < minMillis) {
+                    expired.add(batch);
+                    return true;
+                }
+                return false;
+            });
+            return batches.isEmpty();
+        });
+        expired.forEach(batch -> {
+            log.debug("Flow rules and groups not confirmed in {}s: {}",
+                      TRACE_TIMEOUT, batch.pending);
+            timeouts.addAndGet(batch.traces.size());
+        });
+    }
+
+    /**
+     * Event being traced.
+     */
+    private static final class Trace {
+        private final String eventType;
+        private final DeviceId deviceId;
+        private final long eventMillis;
+
+        private Trace(String eventType, DeviceId deviceId, long eventMillis) {
+            this.eventType = eventType;
+            this.deviceId = deviceId;
+            this.eventMillis = eventMillis;
+        }
+    }
+
+    /**
+     * Traces waiting for the same set of flow rules and groups.
+     */
+    private static final class Batch {
+        private final List<Trace> traces;
+        private final Set<Item> pending;
+        private final long writeMillis = System.currentTimeMillis();
+
+        private Batch(List<Trace> traces, Set<Item> pending) {
+            this.traces = traces;
+            this.pending = pending;
+        }
+    }
+
+    /**
+     * Flow rule (by flow ID) or group (by group key) on a device, waiting to
+     * be confirmed as installed or as removed.
+     */
+    private static final class Item {
+        private final DeviceId deviceId;
+        private final Object id;
+        private final boolean removed;
+
+        private Item(DeviceId deviceId, Object id, boolean removed) {
+            this.deviceId = deviceId;
+            this.id = id;
+            this.removed = removed;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final Item other = (Item) o;
+            return deviceId.equals(other.deviceId) && id.equals(other.id) &&
+                    removed == other.removed;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(deviceId, id, removed);
+        }
+
+        @Override
+        public String toString() {
+            return deviceId + "/" + id + (removed ? " (removed)" : "");
+        }
+    }
+
+    /**
+     * Component writing to a device.
+     */
+    private static final class WriteKey {
+        private final String component;
+        private final DeviceId deviceId;
+
+        private WriteKey(String component, DeviceId deviceId) {
+            this.component = component;
+            this.deviceId = deviceId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final WriteKey other = (WriteKey) o;
+            return component.equals(other.component) && deviceId.equals(other.deviceId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(component, deviceId);
+        }
+    }
+
+    /**
+     * Listener of flow rule events confirming traced flow rules, added or
+     * removed.
+     */
+    class InternalFlowRuleListener implements FlowRuleListener {
+
+        @Override
+        public void event(FlowRuleEvent event) {
+            confirmed(new Item(event.subject().deviceId(), event.subject().id(),
+                               event.type() == FlowRuleEvent.Type.RULE_REMOVED));
+        }
+
+        @Override
+        public boolean isRelevant(FlowRuleEvent event) {
+            return event.type() == FlowRuleEvent.Type.RULE_ADDED ||
+                    event.type() == FlowRuleEvent.Type.RULE_REMOVED;
+        }
+    }
+
+    /**
+     * Listener of group events confirming traced groups, added, updated or
+     * removed.
+     */
+    class InternalGroupListener implements GroupListener {
+
+        @Override
+        public void event(GroupEvent event) {
+            confirmed(new Item(event.subject().deviceId(), event.subject().appCookie(),
+                               event.type() == GroupEvent.Type.GROUP_REMOVED));
+        }
+
+        @Override
+        public boolean isRelevant(GroupEvent event) {
+            return event.type() == GroupEvent.Type.GROUP_ADDED ||
+                    event.type() == GroupEvent.Type.GROUP_UPDATED ||
+                    event.type() == GroupEvent.Type.GROUP_REMOVED;
+        }
+    }
+}
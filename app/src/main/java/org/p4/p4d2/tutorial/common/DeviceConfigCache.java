@@ -0,0 +1,264 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.p4.p4d2.tutorial.common;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.onlab.packet.Ip6Address;
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.config.NetworkConfigEvent;
+import org.onosproject.net.config.NetworkConfigListener;
+import org.onosproject.net.config.NetworkConfigService;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Component that keeps an immutable, already parsed, copy of the
+ * Srv6DeviceConfig of all devices, updated on netcfg events. Other components
+ * should read device configuration from here instead of asking the netcfg
+ * subsystem and parsing JSON every time.
+ */
+@Component(immediate = true, service = DeviceConfigCache.class)
+public class DeviceConfigCache {
+
+    private static final Logger log = LoggerFactory.getLogger(DeviceConfigCache.class);
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    private NetworkConfigService configService;
+
+    private final NetworkConfigListener configListener = new InternalConfigListener();
+
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    @Activate
+    protected void activate() {
+        configService.addListener(configListener);
+        reloadAll();
+        log.info("Started");
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        configService.removeListener(configListener);
+        snapshot = Snapshot.EMPTY;
+        log.info("Stopped");
+    }
+
+    /**
+     * Returns the configuration of the given device, if any.
+     *
+     * @param deviceId the device ID
+     * @return device configuration
+     */
+    public Optional<DeviceInfo> get(DeviceId deviceId) {
+        return Optional.ofNullable(snapshot.devices.get(deviceId));
+    }
+
+    /**
+     * Returns the configuration of all devices.
+     *
+     * @return map of device ID to configuration
+     */
+    public Map<DeviceId, DeviceInfo> getAll() {
+        return snapshot.devices;
+    }
+
+    /**
+     * Returns the IDs of all devices configured as spine.
+     *
+     * @return set of device IDs
+     */
+    public Set<DeviceId> spines() {
+        return snapshot.spines;
+    }
+
+    /**
+     * Returns the IDs of all devices configured as leaf, i.e. with a
+     * configuration where isSpine is not set.
+     *
+     * @return set of device IDs
+     */
+    public Set<DeviceId> leaves() {
+        return snapshot.leaves;
+    }
+
+    /**
+     * Returns the myStationMac of all spines.
+     *
+     * @return set of MAC addresses
+     */
+    public Set<MacAddress> spineMacs() {
+        return snapshot.spineMacs;
+    }
+
+    private synchronized void reloadAll() {
+        final ImmutableMap.Builder<DeviceId, DeviceInfo> devices = ImmutableMap.builder();
+        configService.getSubjects(DeviceId.class, Srv6DeviceConfig.class)
+                .forEach(deviceId -> parse(deviceId).ifPresent(
+                        info -> devices.put(deviceId, info)));
+        snapshot = new Snapshot(devices.build());
+        log.info("Loaded config of {} devices", snapshot.devices.size());
+    }
+
+    private synchronized void update(DeviceId deviceId) {
+        final Optional<DeviceInfo> info = parse(deviceId);
+        final ImmutableMap.Builder<DeviceId, DeviceInfo> devices = ImmutableMap.builder();
+        snapshot.devices.forEach((id, current) -> {
+            if (!id.equals(deviceId)) {
+                devices.put(id, current);
+            }
+        });
+        info.ifPresent(i -> devices.put(deviceId, i));
+        snapshot = new Snapshot(devices.build());
+    }
+
+    private Optional<DeviceInfo> parse(DeviceId deviceId) {
+        final Srv6DeviceConfig config = configService.getConfig(
+                deviceId, Srv6DeviceConfig.class);
+        if (config == null) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(new DeviceInfo(
+                    deviceId, config.myStationMac(), config.mySid(), config.isSpine()));
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid {} for {}: {}",
+                     Srv6DeviceConfig.CONFIG_KEY, deviceId, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Immutable, parsed, Srv6DeviceConfig of a device.
+     */
+    public static final class DeviceInfo {
+        private final DeviceId deviceId;
+        private final MacAddress myStationMac;
+        private final Ip6Address mySid;
+        private final boolean isSpine;
+
+        private DeviceInfo(DeviceId deviceId, MacAddress myStationMac,
+                           Ip6Address mySid, boolean isSpine) {
+            this.deviceId = checkNotNull(deviceId);
+            this.myStationMac = myStationMac;
+            this.mySid = mySid;
+            this.isSpine = isSpine;
+        }
+
+        public DeviceId deviceId() {
+            return deviceId;
+        }
+
+        /**
+         * Returns the MAC address of the switch.
+         *
+         * @return MAC address, or null if not configured
+         */
+        public MacAddress myStationMac() {
+            return myStationMac;
+        }
+
+        /**
+         * Returns the SRv6 segment ID (SID) of the switch.
+         *
+         * @return SID, or null if not configured
+         */
+        public Ip6Address mySid() {
+            return mySid;
+        }
+
+        public boolean isSpine() {
+            return isSpine;
+        }
+    }
+
+    /**
+     * Immutable view of the configuration of all devices, with precomputed
+     * sets derived from it.
+     */
+    private static final class Snapshot {
+
+        private static final Snapshot EMPTY = new Snapshot(ImmutableMap.of());
+
+        private final Map<DeviceId, DeviceInfo> devices;
+        private final Set<DeviceId> spines;
+        private final Set<DeviceId> leaves;
+        private final Set<MacAddress> spineMacs;
+
+        private Snapshot(ImmutableMap<DeviceId, DeviceInfo> devices) {
+            final ImmutableSet.Builder<DeviceId> spinesBuilder = ImmutableSet.builder();
+            final ImmutableSet.Builder<DeviceId> leavesBuilder = ImmutableSet.builder();
+            final ImmutableSet.Builder<MacAddress> spineMacsBuilder = ImmutableSet.builder();
+            devices.values().forEach(info -> {
+                if (info.isSpine()) {
+                    spinesBuilder.add(info.deviceId());
+                    if (info.myStationMac() != null) {
+                        spineMacsBuilder.add(info.myStationMac());
+                    }
+                } else {
+                    leavesBuilder.add(info.deviceId());
+                }
+            });
+            this.devices = devices;
+            this.spines = spinesBuilder.build();
+            this.leaves = leavesBuilder.build();
+            this.spineMacs = spineMacsBuilder.build();
+        }
+    }
+
+    /**
+     * Listener of netcfg events which keeps the cache up to date.
+     */
+    class InternalConfigListener implements NetworkConfigListener {
+
+        @Override
+        public boolean isRelevant(NetworkConfigEvent event) {
+            return Srv6DeviceConfig.class.equals(event.configClass());
+        }
+
+        @Override
+        public void event(NetworkConfigEvent event) {
+            switch (event.type()) {
+                case CONFIG_ADDED:
+                case CONFIG_UPDATED:
+                case CONFIG_REMOVED:
+                    if (event.subject() instanceof DeviceId) {
+                        update((DeviceId) event.subject());
+                    }
+                    break;
+                case CONFIG_REGISTERED:
+                case CONFIG_UNREGISTERED:
+                    reloadAll();
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.p4.p4d2.tutorial.common;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.FlowId;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.group.GroupBucket;
+import org.onosproject.net.group.GroupDescription;
+import org.onosproject.net.group.GroupKey;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Maps.newLinkedHashMap;
+
+/**
+ * Immutable set of flow rules and groups that an app wants installed on a
+ * device. Two states of the same device can be compared to obtain the
+ * minimal set of operations needed to go from one to the other.
+ */
+public final class DeviceState {
+
+    private final DeviceId deviceId;
+    private final Map<GroupKey, GroupDescription> groups;
+    private final Map<FlowId, FlowRule> flowRules;
+    // Flow rule ID to key of the group the flow rule points to.
+    private final Map<FlowId, GroupKey> dependencies;
+    // Number of flow rules pointing to each group.
+    private final Map<GroupKey, Integer> references;
+
+    private DeviceState(DeviceId deviceId,
+                        Map<GroupKey, GroupDescription> groups,
+                        Map<FlowId, FlowRule> flowRules,
+                        Map<FlowId, GroupKey> dependencies) {
+        this.deviceId = deviceId;
+        this.groups = ImmutableMap.copyOf(groups);
+        this.flowRules = ImmutableMap.copyOf(flowRules);
+        this.dependencies = ImmutableMap.copyOf(dependencies);
+        final Map<GroupKey, Integer> counts = newLinkedHashMap();
+        dependencies.values().forEach(key -> counts.merge(key, 1, Integer::sum));
+        this.references = ImmutableMap.copyOf(counts);
+    }
+
+    /**
+     * Returns an empty state for the given device, i.e. nothing installed.
+     *
+     * @param deviceId the device ID
+     * @return empty state
+     */
+    public static DeviceState empty(DeviceId deviceId) {
+        return builder(deviceId).build();
+    }
+
+    /**
+     * Returns a new builder of device state.
+     *
+     * @param deviceId the device ID
+     * @return builder
+     */
+    public static Builder builder(DeviceId deviceId) {
+        return new Builder(deviceId);
+    }
+
+    public DeviceId deviceId() {
+        return deviceId;
+    }
+
+    public Collection<GroupDescription> groups() {
+        return groups.values();
+    }
+
+    public Collection<FlowRule> flowRules() {
+        return flowRules.values();
+    }
+
+    /**
+     * Returns the group with the given key, if any.
+     *
+     * @param groupKey the group key
+     * @return group description
+     */
+    public Optional<GroupDescription> group(GroupKey groupKey) {
+        return Optional.ofNullable(groups.get(groupKey));
+    }
+
+    /**
+     * Returns the number of flow rules pointing to the group with the given
+     * key.
+     *
+     * @param groupKey the group key
+     * @return number of references
+     */
+    public int references(GroupKey groupKey) {
+        return references.getOrDefault(groupKey, 0);
+    }
+
+    /**
+     * Returns a copy of this state where the group with the same key of the
+     * given one is replaced, e.g. to change its buckets. Flow rules are not
+     * affected.
+     *
+     * @param group the new group
+     * @return new device state
+     */
+    public DeviceState withGroup(GroupDescription group) {
+        checkArgument(groups.containsKey(group.appCookie()),
+                      "Group %s not in state of %s", group.appCookie(), deviceId);
+        final Map<GroupKey, GroupDescription> newGroups = newLinkedHashMap(groups);
+        newGroups.put(group.appCookie(), group);
+        return new DeviceState(deviceId, newGroups, flowRules, dependencies);
+    }
+
+    /**
+     * Returns the key of the group the given flow rule points to, if any.
+     *
+     * @param flowRule the flow rule
+     * @return group key
+     */
+    public Optional<GroupKey> dependency(FlowRule flowRule) {
+        return Optional.ofNullable(dependencies.get(flowRule.id()));
+    }
+
+    /**
+     * Returns the operations needed to go from this state to the given one.
+     * Groups are considered modified when their buckets change, including
+     * their weights, flow rules when their treatment changes.
+     *
+     * @param target the new state
+     * @return delta
+     */
+    public Delta diff(DeviceState target) {
+        checkArgument(deviceId.equals(target.deviceId),
+                      "Cannot compare states of different devices");
+        final Delta delta = new Delta(target);
+        target.groups.forEach((key, group) -> {
+            final GroupDescription current = groups.get(key);
+            if (current == null) {
+                delta.groupsToAdd.add(group);
+            } else if (!sameBuckets(current, group)) {
+                delta.groupsToModify.add(group);
+            }
+        });
+        groups.forEach((key, group) -> {
+            if (!target.groups.containsKey(key)) {
+                delta.groupsToRemove.add(group);
+            }
+        });
+        target.flowRules.forEach((id, rule) -> {
+            final FlowRule current = flowRules.get(id);
+            if (current == null) {
+                delta.flowRulesToAdd.add(rule);
+            } else if (!current.exactMatch(rule)) {
+                delta.flowRulesToModify.add(rule);
+            }
+        });
+        flowRules.forEach((id, rule) -> {
+            if (!target.flowRules.containsKey(id)) {
+                delta.flowRulesToRemove.add(rule);
+            }
+        });
+        return delta.seal();
+    }
+
+    /**
+     * Returns true if the given groups have the same buckets, in the same
+     * order, with the same weights. GroupBucket.equals() ignores the weight,
+     * so a change of weight only would otherwise go unnoticed.
+     *
+     * @param group1 a group
+     * @param group2 another group
+     * @return true if the buckets are the same
+     */
+    public static boolean sameBuckets(GroupDescription group1, GroupDescription group2) {
+        final List<GroupBucket> buckets1 = group1.buckets().buckets();
+        final List<GroupBucket> buckets2 = group2.buckets().buckets();
+        if (buckets1.size() != buckets2.size()) {
+            return false;
+        }
+        for (int i = 0; i < buckets1.size(); i++) {
+            final GroupBucket bucket1 = buckets1.get(i);
+            final GroupBucket bucket2 = buckets2.get(i);
+            if (!bucket1.equals(bucket2) || bucket1.weight() != bucket2.weight()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Operations needed to bring a device from one state to another.
+     */
+    public static final class Delta {
+
+        private final DeviceState target;
+        private List<GroupDescription> groupsToAdd = newArrayList();
+        private List<GroupDescription> groupsToModify = newArrayList();
+        private List<GroupDescription> groupsToRemove = newArrayList();
+        private List<FlowRule> flowRulesToAdd = newArrayList();
+        private List<FlowRule> flowRulesToModify = newArrayList();
+        private List<FlowRule> flowRulesToRemove = newArrayList();
+
+        private Delta(DeviceState target) {
+            this.target = target;
+        }
+
+        private Delta seal() {
+            groupsToAdd = ImmutableList.copyOf(groupsToAdd);
+            groupsToModify = ImmutableList.copyOf(groupsToModify);
+            groupsToRemove = ImmutableList.copyOf(groupsToRemove);
+            flowRulesToAdd = ImmutableList.copyOf(flowRulesToAdd);
+            flowRulesToModify = ImmutableList.copyOf(flowRulesToModify);
+            flowRulesToRemove = ImmutableList.copyOf(flowRulesToRemove);
+            return this;
+        }
+
+        /**
+         * Returns the state this delta leads to.
+         *
+         * @return target state
+         */
+        public DeviceState target() {
+            return target;
+        }
+
+        public List<GroupDescription> groupsToAdd() {
+            return groupsToAdd;
+        }
+
+        public List<GroupDescription> groupsToModify() {
+            return groupsToModify;
+        }
+
+        public List<GroupDescription> groupsToRemove() {
+            return groupsToRemove;
+        }
+
+        public List<FlowRule> flowRulesToAdd() {
+            return flowRulesToAdd;
+        }
+
+        public List<FlowRule> flowRulesToModify() {
+            return flowRulesToModify;
+        }
+
+        public List<FlowRule> flowRulesToRemove() {
+            return flowRulesToRemove;
+        }
+
+        /**
+         * Returns the total number of group and flow rule operations.
+         *
+         * @return number of operations
+         */
+        public int size() {
+            return groupsToAdd.size() + groupsToModify.size() +
+                    groupsToRemove.size() + flowRulesToAdd.size() +
+                    flowRulesToModify.size() + flowRulesToRemove.size();
+        }
+
+        public boolean isEmpty() {
+            return size() == 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "groups=+%d/~%d/-%d, flows=+%d/~%d/-%d",
+                    groupsToAdd.size(), groupsToModify.size(),
+                    groupsToRemove.size(), flowRulesToAdd.size(),
+                    flowRulesToModify.size(), flowRulesToRemove.size());
+        }
+    }
+
+    /**
+     * Builder of device state.
+     */
+    public static final class Builder {
+
+        private final DeviceId deviceId;
+        private final Map<GroupKey, GroupDescription> groups = newLinkedHashMap();
+        private final Map<FlowId, FlowRule> flowRules = newLinkedHashMap();
+        private final Map<FlowId, GroupKey> dependencies = newLinkedHashMap();
+
+        private Builder(DeviceId deviceId) {
+            this.deviceId = checkNotNull(deviceId);
+        }
+
+        /**
+         * Adds a group. If a group with the same key was already added, the
+         * given one is ignored, as long as it has the same buckets.
+         *
+         * @param group the group
+         * @return this builder
+         * @throws IllegalArgumentException if a group with the same key but
+         *                                  different buckets was added
+         */
+        public Builder addGroup(GroupDescription group) {
+            checkArgument(deviceId.equals(group.deviceId()));
+            final GroupDescription existing = groups.putIfAbsent(group.appCookie(), group);
+            checkArgument(existing == null || sameBuckets(existing, group),
+                          "Group %s already added with different buckets", group.appCookie());
+            return this;
+        }
+
+        /**
+         * Adds a flow rule that does not depend on any group.
+         *
+         * @param flowRule the flow rule
+         * @return this builder
+         */
+        public Builder addFlowRule(FlowRule flowRule) {
+            checkArgument(deviceId.equals(flowRule.deviceId()));
+            flowRules.put(flowRule.id(), flowRule);
+            dependencies.remove(flowRule.id());
+            return this;
+        }
+
+        /**
+         * Adds a flow rule pointing to the given group. The group must be
+         * installed before the flow rule.
+         *
+         * @param flowRule the flow rule
+         * @param group    the group the flow rule depends on
+         * @return this builder
+         */
+        public Builder addFlowRule(FlowRule flowRule, GroupDescription group) {
+            addGroup(group);
+            addFlowRule(flowRule);
+            dependencies.put(flowRule.id(), group.appCookie());
+            return this;
+        }
+
+        public DeviceState build() {
+            return new DeviceState(deviceId, groups, flowRules, dependencies);
+        }
+    }
+}
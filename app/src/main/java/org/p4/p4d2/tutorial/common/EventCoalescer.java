@@ -0,0 +1,155 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.p4.p4d2.tutorial.common;
+
+import org.onlab.util.SharedScheduledExecutors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.Maps.newConcurrentMap;
+
+/**
+ * Collapses bursts of events for the same key (e.g. a device) into a single
+ * invocation of a task. The first event for a key opens a time window, all
+ * events received for that key before the window expires are merged, and the
+ * task is executed once at the end of the window.
+ *
+ * @param <K> type of key
+ */
+public final class EventCoalescer<K> {
+
+    private static final Logger log = LoggerFactory.getLogger(EventCoalescer.class);
+
+    private final String name;
+    private final Consumer<K> task;
+    private final IntSupplier windowMillis;
+
+    // Key to number of events received in the current window.
+    private final Map<K, Integer> pending = newConcurrentMap();
+
+    private final AtomicLong receivedEvents = new AtomicLong();
+    private final AtomicLong mergedEvents = new AtomicLong();
+    private final AtomicLong executions = new AtomicLong();
+
+    /**
+     * Creates a new coalescer.
+     *
+     * @param name         name used for logging
+     * @param task         task to execute at the end of each window, should
+     *                     not block as it runs on a shared scheduler thread
+     * @param windowMillis supplier of the window duration in milliseconds,
+     *                     read every time a new window is opened
+     */
+    public EventCoalescer(String name, Consumer<K> task, IntSupplier windowMillis) {
+        this.name = checkNotNull(name);
+        this.task = checkNotNull(task);
+        this.windowMillis = checkNotNull(windowMillis);
+    }
+
+    /**
+     * Signals a new event for the given key.
+     *
+     * @param key the key
+     */
+    public void submit(K key) {
+        receivedEvents.incrementAndGet();
+        final int window = windowMillis.getAsInt();
+        if (window <= 0) {
+            // Coalescing disabled.
+            execute(key, 1);
+            return;
+        }
+        if (pending.merge(key, 1, Integer::sum) == 1) {
+            // First event for this key, open window.
+            SharedScheduledExecutors.newTimeout(
+                    () -> flush(key), window, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Discards any pending event for the given key.
+     *
+     * @param key the key
+     */
+    public void cancel(K key) {
+        pending.remove(key);
+    }
+
+    /**
+     * Discards all pending events.
+     */
+    public void cancelAll() {
+        pending.clear();
+    }
+
+    private void flush(K key) {
+        final Integer count = pending.remove(key);
+        if (count == null) {
+            // Cancelled.
+            return;
+        }
+        if (count > 1) {
+            mergedEvents.addAndGet(count - 1);
+            log.info("[{}] Merged {} events for {}", name, count, key);
+        }
+        execute(key, count);
+    }
+
+    private void execute(K key, int count) {
+        executions.incrementAndGet();
+        try {
+            task.accept(key);
+        } catch (RuntimeException e) {
+            log.error("[{}] Unable to process {} events for {}", name, count, key, e);
+        }
+    }
+
+    /**
+     * Returns the number of events received so far.
+     *
+     * @return number of events
+     */
+    public long receivedEvents() {
+        return receivedEvents.get();
+    }
+
+    /**
+     * Returns the number of events that were merged into another one, i.e.
+     * that did not cause an execution of the task.
+     *
+     * @return number of merged events
+     */
+    public long mergedEvents() {
+        return mergedEvents.get();
+    }
+
+    /**
+     * Returns the number of times the task was executed.
+     *
+     * @return number of executions
+     */
+    public long executions() {
+        return executions.get();
+    }
+}
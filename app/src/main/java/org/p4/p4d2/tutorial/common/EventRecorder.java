@@ -0,0 +1,393 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.p4.p4d2.tutorial.common;
+
+import org.onlab.util.SharedScheduledExecutors;
+import org.onlab.util.Tools;
+import org.onosproject.cfg.ComponentConfigService;
+import org.onosproject.net.Device;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Host;
+import org.onosproject.net.Link;
+import org.onosproject.net.config.NetworkConfigEvent;
+import org.onosproject.net.config.NetworkConfigListener;
+import org.onosproject.net.config.NetworkConfigService;
+import org.onosproject.net.device.DeviceEvent;
+import org.onosproject.net.device.DeviceListener;
+import org.onosproject.net.device.DeviceService;
+import org.onosproject.net.host.HostEvent;
+import org.onosproject.net.host.HostListener;
+import org.onosproject.net.host.HostService;
+import org.onosproject.net.intf.Interface;
+import org.onosproject.net.intf.InterfaceEvent;
+import org.onosproject.net.intf.InterfaceListener;
+import org.onosproject.net.intf.InterfaceService;
+import org.onosproject.net.link.LinkEvent;
+import org.onosproject.net.link.LinkListener;
+import org.onosproject.net.link.LinkService;
+import org.osgi.service.component.ComponentContext;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Strings.emptyToNull;
+import static org.onlab.util.Tools.groupedThreads;
+import static org.p4.p4d2.tutorial.OsgiPropertyConstants.EVENT_TRACE_FILE;
+import static org.p4.p4d2.tutorial.OsgiPropertyConstants.EVENT_TRACE_FILE_DEFAULT;
+
+/**
+ * Component that records the events the app reacts to, i.e. device, link,
+ * host, interface and srv6DeviceConfig events, to a local file, so that a
+ * slow convergence seen in production can be reproduced offline by
+ * replaying the exact same sequence of events, see {@link EventTrace}.
+ * <p>
+ * Recording is enabled by setting eventTraceFile to the path of the file,
+ * and stopped by unsetting it. The file starts with the state of the network
+ * when recording started. Records are written on a dedicated thread so that
+ * event delivery is not slowed down.
+ */
+@Component(
+        immediate = true,
+        service = EventRecorder.class,
+        property = {
+                EVENT_TRACE_FILE + "=" + EVENT_TRACE_FILE_DEFAULT,
+        }
+)
+public class EventRecorder {
+
+    private static final Logger log = LoggerFactory.getLogger(EventRecorder.class);
+
+    private static final long FLUSH_PERIOD = 1; // seconds
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    private ComponentConfigService compCfgService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    private DeviceService deviceService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    private LinkService linkService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    private HostService hostService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    private InterfaceService interfaceService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    private NetworkConfigService configService;
+
+    private final DeviceListener deviceListener = new InternalDeviceListener();
+    private final LinkListener linkListener = new InternalLinkListener();
+    private final HostListener hostListener = new InternalHostListener();
+    private final InterfaceListener interfaceListener = new InternalInterfaceListener();
+    private final NetworkConfigListener configListener = new InternalConfigListener();
+
+    /** Path of the file where events are recorded, recording is disabled if empty. */
+    private String eventTraceFile = EVENT_TRACE_FILE_DEFAULT;
+
+    private final AtomicLong recordedEvents = new AtomicLong();
+
+    // Set while recording.
+    private Path path;
+    private BufferedWriter writer;
+    private ExecutorService writerExecutor;
+    private ScheduledFuture<?> flushTask;
+    private volatile long startMillis;
+
+    @Activate
+    protected void activate(ComponentContext context) {
+        compCfgService.registerProperties(getClass());
+        modified(context);
+        log.info("Started");
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        compCfgService.unregisterProperties(getClass(), false);
+        stop();
+        log.info("Stopped");
+    }
+
+    @Modified
+    protected void modified(ComponentContext context) {
+        final String newFile = emptyToNull(Tools.get(context.getProperties(), EVENT_TRACE_FILE));
+        log.info("Configured. {} is {}", EVENT_TRACE_FILE, newFile);
+        synchronized (this) {
+            if (Objects.equals(newFile, emptyToNull(eventTraceFile)) && writer != null) {
+                return;
+            }
+            eventTraceFile = newFile == null ? EVENT_TRACE_FILE_DEFAULT : newFile;
+            stop();
+            if (newFile != null) {
+                start(Paths.get(newFile));
+            }
+        }
+    }
+
+    /**
+     * Returns true if events are being recorded.
+     *
+     * @return true if recording
+     */
+    public synchronized boolean isRecording() {
+        return writer != null;
+    }
+
+    /**
+     * Returns the number of events recorded since recording started, not
+     * counting the initial state of the network.
+     *
+     * @return number of events
+     */
+    public long recordedEvents() {
+        return recordedEvents.get();
+    }
+
+    private synchronized void start(Path newPath) {
+        try {
+            writer = EventTrace.newWriter(newPath);
+        } catch (IOException e) {
+            log.error("Unable to record events to {}: {}", newPath, e.getMessage());
+            return;
+        }
+        path = newPath;
+        startMillis = System.currentTimeMillis();
+        recordedEvents.set(0);
+        writerExecutor = Executors.newSingleThreadExecutor(
+                groupedThreads("onos/srv6-tutorial", "event-recorder", log));
+        final BufferedWriter currentWriter = writer;
+        final ExecutorService currentExecutor = writerExecutor;
+        flushTask = SharedScheduledExecutors.getSingleThreadExecutor().scheduleAtFixedRate(
+                () -> currentExecutor.execute(() -> flush(currentWriter, newPath)),
+                FLUSH_PERIOD, FLUSH_PERIOD, TimeUnit.SECONDS);
+
+        // Initial state, then live events.
+        recordSnapshot();
+        configService.addListener(configListener);
+        interfaceService.addListener(interfaceListener);
+        deviceService.addListener(deviceListener);
+        linkService.addListener(linkListener);
+        hostService.addListener(hostListener);
+        log.info("Recording events to {}", path);
+    }
+
+    private synchronized void stop() {
+        if (writer == null) {
+            return;
+        }
+        hostService.removeListener(hostListener);
+        linkService.removeListener(linkListener);
+        deviceService.removeListener(deviceListener);
+        interfaceService.removeListener(interfaceListener);
+        configService.removeListener(configListener);
+        flushTask.cancel(false);
+        final BufferedWriter oldWriter = writer;
+        final Path oldPath = path;
+        writerExecutor.execute(() -> {
+            try {
+                oldWriter.close();
+            } catch (IOException e) {
+                log.warn("Unable to close {}: {}", oldPath, e.getMessage());
+            }
+        });
+        writerExecutor.shutdown();
+        try {
+            writerExecutor.awaitTermination(FLUSH_PERIOD, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.info("Recorded {} events to {}", recordedEvents.get(), path);
+        writer = null;
+        writerExecutor = null;
+        path = null;
+    }
+
+    private void recordSnapshot() {
+        configService.getSubjects(DeviceId.class, Srv6DeviceConfig.class).forEach(deviceId -> {
+            final Srv6DeviceConfig config = configService.getConfig(
+                    deviceId, Srv6DeviceConfig.class);
+            if (config != null) {
+                write(EventTrace.configRecord(
+                        -1, NetworkConfigEvent.Type.CONFIG_ADDED.name(), deviceId, config.node()));
+            }
+        });
+        interfaceService.getInterfaces().forEach(iface -> write(EventTrace.interfaceRecord(
+                -1, InterfaceEvent.Type.INTERFACE_ADDED.name(), iface)));
+        for (Device device : deviceService.getDevices()) {
+            write(EventTrace.deviceRecord(
+                    -1, DeviceEvent.Type.DEVICE_ADDED.name(), device.id(),
+                    deviceService.isAvailable(device.id()), deviceService.getPorts(device.id())));
+        }
+        for (Link link : linkService.getLinks()) {
+            write(EventTrace.linkRecord(-1, LinkEvent.Type.LINK_ADDED.name(), link));
+        }
+        for (Host host : hostService.getHosts()) {
+            write(EventTrace.hostRecord(-1, HostEvent.Type.HOST_ADDED.name(), host));
+        }
+    }
+
+    private long sinceStart(long eventMillis) {
+        return Math.max(0, eventMillis - startMillis);
+    }
+
+    private void record(EventTrace.Record record) {
+        recordedEvents.incrementAndGet();
+        write(record);
+    }
+
+    private synchronized void write(EventTrace.Record record) {
+        if (writer == null) {
+            return;
+        }
+        final BufferedWriter currentWriter = writer;
+        final Path currentPath = path;
+        writerExecutor.execute(() -> {
+            try {
+                currentWriter.write(record.toString());
+                currentWriter.newLine();
+            } catch (IOException e) {
+                log.warn("Unable to record event to {}: {}", currentPath, e.getMessage());
+            }
+        });
+    }
+
+    private static void flush(BufferedWriter currentWriter, Path currentPath) {
+        try {
+            currentWriter.flush();
+        } catch (IOException e) {
+            log.warn("Unable to flush {}: {}", currentPath, e.getMessage());
+        }
+    }
+
+    /**
+     * Listener of device events.
+     */
+    class InternalDeviceListener implements DeviceListener {
+
+        @Override
+        public boolean isRelevant(DeviceEvent event) {
+            return event.type() != DeviceEvent.Type.PORT_STATS_UPDATED;
+        }
+
+        @Override
+        public void event(DeviceEvent event) {
+            final DeviceId deviceId = event.subject().id();
+            final boolean available = deviceService.isAvailable(deviceId);
+            switch (event.type()) {
+                case PORT_ADDED:
+                case PORT_UPDATED:
+                case PORT_REMOVED:
+                    record(EventTrace.deviceRecord(
+                            sinceStart(event.time()), event.type().name(), deviceId,
+                            available, Collections.singletonList(event.port())));
+                    break;
+                case DEVICE_REMOVED:
+                    record(EventTrace.deviceRecord(
+                            sinceStart(event.time()), event.type().name(), deviceId,
+                            available, Collections.emptyList()));
+                    break;
+                default:
+                    record(EventTrace.deviceRecord(
+                            sinceStart(event.time()), event.type().name(), deviceId,
+                            available, deviceService.getPorts(deviceId)));
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Listener of link events.
+     */
+    class InternalLinkListener implements LinkListener {
+
+        @Override
+        public void event(LinkEvent event) {
+            record(EventTrace.linkRecord(
+                    sinceStart(event.time()), event.type().name(), event.subject()));
+        }
+    }
+
+    /**
+     * Listener of host events.
+     */
+    class InternalHostListener implements HostListener {
+
+        @Override
+        public void event(HostEvent event) {
+            record(EventTrace.hostRecord(
+                    sinceStart(event.time()), event.type().name(), event.subject()));
+        }
+    }
+
+    /**
+     * Listener of interface events.
+     */
+    class InternalInterfaceListener implements InterfaceListener {
+
+        @Override
+        public void event(InterfaceEvent event) {
+            final Interface iface = event.subject();
+            record(EventTrace.interfaceRecord(
+                    sinceStart(event.time()), event.type().name(), iface));
+        }
+    }
+
+    /**
+     * Listener of srv6DeviceConfig events.
+     */
+    class InternalConfigListener implements NetworkConfigListener {
+
+        @Override
+        public boolean isRelevant(NetworkConfigEvent event) {
+            return Srv6DeviceConfig.class.equals(event.configClass()) &&
+                    event.subject() instanceof DeviceId;
+        }
+
+        @Override
+        public void event(NetworkConfigEvent event) {
+            switch (event.type()) {
+                case CONFIG_ADDED:
+                case CONFIG_UPDATED:
+                case CONFIG_REMOVED:
+                    record(EventTrace.configRecord(
+                            sinceStart(event.time()), event.type().name(),
+                            (DeviceId) event.subject(),
+                            event.config().map(config -> config.node()).orElse(null)));
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.p4.p4d2.tutorial.common;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.onlab.packet.IpAddress;
+import org.onlab.packet.IpPrefix;
+import org.onlab.packet.MacAddress;
+import org.onlab.packet.VlanId;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DefaultHost;
+import org.onosproject.net.DefaultLink;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Host;
+import org.onosproject.net.HostId;
+import org.onosproject.net.HostLocation;
+import org.onosproject.net.Link;
+import org.onosproject.net.Port;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.device.DefaultPortDescription;
+import org.onosproject.net.device.PortDescription;
+import org.onosproject.net.host.InterfaceIpAddress;
+import org.onosproject.net.intf.Interface;
+import org.onosproject.net.provider.ProviderId;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Format of the event traces written by {@link EventRecorder}: a gzipped
+ * text file with a header line, then one record per line with tab-separated
+ * fields:
+ * <pre>
+ * time  subject  type  fields...
+ * </pre>
+ * where time is in milliseconds since the start of the recording, or S for
+ * the records describing the state of the network when the recording
+ * started. Subjects and their fields are:
+ * <ul>
+ * <li>device: device ID, available, ports as number:enabled:speed;</li>
+ * <li>link: source and destination connect points;</li>
+ * <li>host: MAC, VLAN, location, IP addresses;</li>
+ * <li>netcfg: device ID, srv6DeviceConfig JSON (empty if removed);</li>
+ * <li>intf: name, connect point, addresses as ip/length, MAC, VLAN.</li>
+ * </ul>
+ * Types are the ones of the ONOS events, e.g. DEVICE_ADDED, LINK_REMOVED.
+ */
+public final class EventTrace {
+
+    public static final String HEADER = "# srv6-tutorial event trace v1";
+
+    public static final String DEVICE = "device";
+    public static final String LINK = "link";
+    public static final String HOST = "host";
+    public static final String NETCFG = "netcfg";
+    public static final String INTERFACE = "intf";
+
+    private static final String SNAPSHOT = "S";
+    private static final char SEPARATOR = '\t';
+    private static final Joiner FIELDS_JOINER = Joiner.on(SEPARATOR);
+    private static final Splitter FIELDS_SPLITTER = Splitter.on(SEPARATOR);
+    private static final Joiner LIST_JOINER = Joiner.on(',');
+    private static final Splitter LIST_SPLITTER = Splitter.on(',').omitEmptyStrings();
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private EventTrace() {
+        // Utility class.
+    }
+
+    /**
+     * Opens a new trace file for writing, replacing the existing one, and
+     * writes the header.
+     *
+     * @param path path of the file
+     * @return writer
+     * @throws IOException if the file cannot be written
+     */
+    public static BufferedWriter newWriter(Path path) throws IOException {
+        final BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+                new GZIPOutputStream(Files.newOutputStream(path), true),
+                StandardCharsets.UTF_8));
+        writer.write(HEADER);
+        writer.newLine();
+        return writer;
+    }
+
+    /**
+     * Opens the given trace file for reading, checking the header. Records
+     * are read with {@link #parse(String)}, one per line.
+     *
+     * @param path path of the file
+     * @return reader positioned on the first record
+     * @throws IOException if the file cannot be read or is not a trace
+     */
+    public static BufferedReader newReader(Path path) throws IOException {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(path)), StandardCharsets.UTF_8));
+        if (!HEADER.equals(reader.readLine())) {
+            reader.close();
+            throw new IOException(path + " is not an event trace");
+        }
+        return reader;
+    }
+
+    /**
+     * Parses the given line of a trace file.
+     *
+     * @param line the line
+     * @return record
+     * @throws IllegalArgumentException if the line is not a valid record
+     */
+    public static Record parse(String line) {
+        final List<String> fields = FIELDS_SPLITTER.splitToList(line);
+        checkArgument(fields.size() >= 3, "Invalid record: %s", line);
+        final long millis = SNAPSHOT.equals(fields.get(0)) ? -1 : Long.parseLong(fields.get(0));
+        return new Record(millis, fields.get(1), fields.get(2),
+                          ImmutableList.copyOf(fields.subList(3, fields.size())));
+    }
+
+    /**
+     * Returns the record of an event of a device, or of its ports.
+     *
+     * @param millis    time since the start of the recording, or -1 for a
+     *                  snapshot record
+     * @param type      type of event
+     * @param deviceId  the device ID
+     * @param available true if the device is available
+     * @param ports     ports of the device, or the port of the event
+     * @return record
+     */
+    public static Record deviceRecord(long millis, String type, DeviceId deviceId,
+                                      boolean available, Collection<Port> ports) {
+        final List<String> portFields = ports.stream()
+                .map(port -> port.number().toLong() + ":" +
+                        (port.isEnabled() ? 1 : 0) + ":" + port.portSpeed())
+                .collect(Collectors.toList());
+        return new Record(millis, DEVICE, type, ImmutableList.of(
+                deviceId.toString(), String.valueOf(available), LIST_JOINER.join(portFields)));
+    }
+
+    public static Record linkRecord(long millis, String type, Link link) {
+        return new Record(millis, LINK, type, ImmutableList.of(
+                link.src().toString(), link.dst().toString()));
+    }
+
+    public static Record hostRecord(long millis, String type, Host host) {
+        return new Record(millis, HOST, type, ImmutableList.of(
+                host.mac().toString(), host.vlan().toString(),
+                connectPoint(host.location()), LIST_JOINER.join(host.ipAddresses())));
+    }
+
+    /**
+     * Returns the record of a change of the srv6DeviceConfig of a device.
+     *
+     * @param millis   time since the start of the recording, or -1 for a
+     *                 snapshot record
+     * @param type     type of event
+     * @param deviceId the device ID
+     * @param json     the new config, or null if removed
+     * @return record
+     */
+    public static Record configRecord(long millis, String type, DeviceId deviceId,
+                                      JsonNode json) {
+        return new Record(millis, NETCFG, type, ImmutableList.of(
+                deviceId.toString(), json == null ? "" : json.toString()));
+    }
+
+    public static Record interfaceRecord(long millis, String type, Interface iface) {
+        final List<String> addresses = iface.ipAddressesList().stream()
+                .map(addr -> addr.ipAddress() + "/" + addr.subnetAddress().prefixLength())
+                .collect(Collectors.toList());
+        return new Record(millis, INTERFACE, type, ImmutableList.of(
+                iface.name(), connectPoint(iface.connectPoint()), LIST_JOINER.join(addresses),
+                iface.mac().toString(), iface.vlan().toString()));
+    }
+
+    private static String connectPoint(ConnectPoint cp) {
+        return cp.deviceId() + "/" + cp.port().toLong();
+    }
+
+    /**
+     * A record of a trace, i.e. an event or part of the initial state of the
+     * network.
+     */
+    public static final class Record {
+
+        private final long millis;
+        private final String subject;
+        private final String type;
+        private final List<String> fields;
+
+        private Record(long millis, String subject, String type, List<String> fields) {
+            this.millis = millis;
+            this.subject = subject;
+            this.type = type;
+            this.fields = fields;
+        }
+
+        /**
+         * Returns the time of the event, in milliseconds since the start of
+         * the recording, or -1 for a snapshot record.
+         *
+         * @return time in milliseconds
+         */
+        public long millis() {
+            return millis;
+        }
+
+        public boolean isSnapshot() {
+            return millis < 0;
+        }
+
+        public String subject() {
+            return subject;
+        }
+
+        public String type() {
+            return type;
+        }
+
+        /**
+         * Returns the device ID of a device or netcfg record.
+         *
+         * @return device ID
+         */
+        public DeviceId deviceId() {
+            return DeviceId.deviceId(fields.get(0));
+        }
+
+        /**
+         * Returns the availability of the device of a device record.
+         *
+         * @return true if available
+         */
+        public boolean available() {
+            return Boolean.parseBoolean(fields.get(1));
+        }
+
+        /**
+         * Returns the ports of a device record.
+         *
+         * @return list of port descriptions
+         */
+        public List<PortDescription> ports() {
+            final ImmutableList.Builder<PortDescription> ports = ImmutableList.builder();
+            for (String port : LIST_SPLITTER.split(fields.get(2))) {
+                final List<String> parts = Splitter.on(':').splitToList(port);
+                ports.add(DefaultPortDescription.builder()
+                                  .withPortNumber(PortNumber.portNumber(parts.get(0)))
+                                  .isEnabled("1".equals(parts.get(1)))
+                                  .type(Port.Type.COPPER)
+                                  .portSpeed(Long.parseLong(parts.get(2)))
+                                  .build());
+            }
+            return ports.build();
+        }
+
+        /**
+         * Returns the link of a link record.
+         *
+         * @param providerId provider of the link
+         * @return link
+         */
+        public Link link(ProviderId providerId) {
+            return DefaultLink.builder()
+                    .providerId(providerId)
+                    .src(ConnectPoint.deviceConnectPoint(fields.get(0)))
+                    .dst(ConnectPoint.deviceConnectPoint(fields.get(1)))
+                    .type(Link.Type.DIRECT)
+                    .state(Link.State.ACTIVE)
+                    .build();
+        }
+
+        /**
+         * Returns the host of a host record.
+         *
+         * @param providerId provider of the host
+         * @return host
+         */
+        public Host host(ProviderId providerId) {
+            final MacAddress mac = MacAddress.valueOf(fields.get(0));
+            final VlanId vlan = VlanId.vlanId(fields.get(1));
+            final ConnectPoint location = ConnectPoint.deviceConnectPoint(fields.get(2));
+            final ImmutableSet.Builder<IpAddress> ips = ImmutableSet.builder();
+            LIST_SPLITTER.split(fields.get(3)).forEach(ip -> ips.add(IpAddress.valueOf(ip)));
+            return new DefaultHost(providerId, HostId.hostId(mac, vlan), mac, vlan,
+                                   new HostLocation(location, 0), ips.build());
+        }
+
+        /**
+         * Returns the config of a netcfg record.
+         *
+         * @return JSON config, or null if removed
+         * @throws IOException if the JSON cannot be parsed
+         */
+        public JsonNode config() throws IOException {
+            return fields.get(1).isEmpty() ? null : MAPPER.readTree(fields.get(1));
+        }
+
+        /**
+         * Returns the interface of an intf record.
+         *
+         * @return interface
+         */
+        public Interface intf() {
+            final List<InterfaceIpAddress> addresses = LIST_SPLITTER
+                    .splitToList(fields.get(2)).stream()
+                    .map(addr -> new InterfaceIpAddress(
+                            IpAddress.valueOf(addr.substring(0, addr.indexOf('/'))),
+                            IpPrefix.valueOf(addr)))
+                    .collect(Collectors.toList());
+            return new Interface(fields.get(0), ConnectPoint.deviceConnectPoint(fields.get(1)),
+                                 addresses, MacAddress.valueOf(fields.get(3)),
+                                 VlanId.vlanId(fields.get(4)));
+        }
+
+        @Override
+        public String toString() {
+            final List<String> all = ImmutableList.<String>builder()
+                    .add(isSnapshot() ? SNAPSHOT : String.valueOf(millis))
+                    .add(subject)
+                    .add(type)
+                    .addAll(fields)
+                    .build();
+            return FIELDS_JOINER.join(all);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.p4.p4d2.tutorial.common;
+
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleOperations;
+import org.onosproject.net.flow.FlowRuleOperationsContext;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Helper to build a FlowRuleOperations made of sequential stages, where each
+ * stage holds at most a given number of operations. ONOS writes each stage to
+ * the device as one batch, hence bounding the stage size bounds the size of
+ * each P4Runtime write request.
+ */
+public final class FlowRuleBatch {
+
+    private final int maxStageSize;
+    private final FlowRuleOperations.Builder ops = FlowRuleOperations.builder();
+    private int stageSize;
+    private int size;
+
+    /**
+     * Creates a new batch.
+     *
+     * @param maxStageSize maximum number of operations per stage
+     */
+    public FlowRuleBatch(int maxStageSize) {
+        checkArgument(maxStageSize > 0, "Stage size must be positive");
+        this.maxStageSize = maxStageSize;
+    }
+
+    public FlowRuleBatch add(FlowRule flowRule) {
+        nextOp().add(flowRule);
+        return this;
+    }
+
+    public FlowRuleBatch modify(FlowRule flowRule) {
+        nextOp().modify(flowRule);
+        return this;
+    }
+
+    public FlowRuleBatch remove(FlowRule flowRule) {
+        nextOp().remove(flowRule);
+        return this;
+    }
+
+    /**
+     * Closes the current stage, operations added after this call will be
+     * executed only once all previous ones have completed. Has no effect if
+     * the current stage is empty.
+     *
+     * @return this batch
+     */
+    public FlowRuleBatch newStage() {
+        if (stageSize > 0) {
+            ops.newStage();
+            stageSize = 0;
+        }
+        return this;
+    }
+
+    /**
+     * Returns the total number of operations in this batch.
+     *
+     * @return number of operations
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public FlowRuleOperations build(FlowRuleOperationsContext context) {
+        return ops.build(context);
+    }
+
+    private FlowRuleOperations.Builder nextOp() {
+        if (stageSize == maxStageSize) {
+            newStage();
+        }
+        stageSize++;
+        size++;
+        return ops;
+    }
+}
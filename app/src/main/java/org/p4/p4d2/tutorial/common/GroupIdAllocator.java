@@ -0,0 +1,175 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.p4.p4d2.tutorial.common;
+
+import java.util.BitSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.ToIntFunction;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.collect.Maps.newHashMap;
+
+/**
+ * Allocator of group IDs in a dense range [firstId, firstId + capacity), for
+ * groups sharing an action profile of the given capacity, i.e. a maximum
+ * number of member entries across all groups. Each key is allocated as many
+ * entries as the members of its group, at least one, and no ID is allocated
+ * when its entries would exceed the capacity. The same key is always given
+ * the same ID until released, different keys never share an ID. Released IDs
+ * are reused, lowest first.
+ *
+ * @param <K> type of key
+ */
+public final class GroupIdAllocator<K> {
+
+    private final int firstId;
+    private final int capacity;
+    private final ToIntFunction<? super K> groupEntries;
+    private final BitSet used;
+    private int usedEntries;
+    private final Map<K, Integer> keyToId = newHashMap();
+    private final Map<Integer, K> idToKey = newHashMap();
+
+    /**
+     * Creates a new allocator.
+     *
+     * @param firstId  lowest ID to allocate
+     * @param capacity number of member entries the groups can use in total
+     * @param entries  function giving the number of member entries of the
+     *                 group of a key
+     */
+    public GroupIdAllocator(int firstId, int capacity, ToIntFunction<? super K> entries) {
+        checkArgument(capacity >= 0, "Capacity cannot be negative");
+        this.firstId = firstId;
+        this.capacity = capacity;
+        this.groupEntries = entries;
+        this.used = new BitSet(capacity);
+    }
+
+    /**
+     * Returns the ID allocated to the given key, allocating a new one if
+     * needed. Returns an empty optional if the member entries of the group
+     * of the key do not fit in the capacity left.
+     *
+     * @param key the key
+     * @return group ID
+     */
+    public synchronized Optional<Integer> allocate(K key) {
+        final Integer id = keyToId.get(key);
+        if (id != null) {
+            return Optional.of(id);
+        }
+        final int keyEntries = entriesOf(key);
+        if (usedEntries + keyEntries > capacity) {
+            return Optional.empty();
+        }
+        // Always below capacity, as each key uses at least one entry.
+        final int index = used.nextClearBit(0);
+        used.set(index);
+        usedEntries += keyEntries;
+        final int newId = firstId + index;
+        keyToId.put(key, newId);
+        idToKey.put(newId, key);
+        return Optional.of(newId);
+    }
+
+    /**
+     * Allocates the given ID to the given key, e.g. to restore the
+     * allocation of a group already installed. Fails if the ID is out of
+     * range or allocated, if the key already has an ID, or if the member
+     * entries of its group do not fit in the capacity left.
+     *
+     * @param key the key
+     * @param id  the group ID
+     * @return true if allocated
+     */
+    public synchronized boolean reserve(K key, int id) {
+        final int keyEntries = entriesOf(key);
+        if (!inRange(id) || idToKey.containsKey(id) || keyToId.containsKey(key) ||
+                usedEntries + keyEntries > capacity) {
+            return false;
+        }
+        used.set(id - firstId);
+        usedEntries += keyEntries;
+        keyToId.put(key, id);
+        idToKey.put(id, key);
+        return true;
+    }
+
+    /**
+     * Releases the given ID, if allocated, making it available for other
+     * keys.
+     *
+     * @param id the group ID
+     */
+    public synchronized void release(int id) {
+        final K key = idToKey.remove(id);
+        if (key != null) {
+            keyToId.remove(key);
+            used.clear(id - firstId);
+            usedEntries -= entriesOf(key);
+        }
+    }
+
+    /**
+     * Returns true if the given ID belongs to the range of this allocator.
+     *
+     * @param id the group ID
+     * @return true if in range
+     */
+    public boolean inRange(int id) {
+        return id >= firstId && id - firstId < capacity;
+    }
+
+    /**
+     * Returns the number of IDs currently allocated.
+     *
+     * @return number of IDs
+     */
+    public synchronized int size() {
+        return keyToId.size();
+    }
+
+    /**
+     * Returns the number of member entries used by the groups of the keys
+     * currently allocated.
+     *
+     * @return number of member entries
+     */
+    public synchronized int entries() {
+        return usedEntries;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the fraction of member entries currently used, between 0 and
+     * 1.
+     *
+     * @return utilization
+     */
+    public synchronized double utilization() {
+        return capacity == 0 ? 1 : (double) usedEntries / capacity;
+    }
+
+    private int entriesOf(K key) {
+        return Math.max(1, groupEntries.applyAsInt(key));
+    }
+}
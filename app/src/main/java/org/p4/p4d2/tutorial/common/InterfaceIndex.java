@@ -0,0 +1,194 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.p4.p4d2.tutorial.common;
+
+import com.google.common.collect.ImmutableSet;
+import org.onlab.packet.Ip6Address;
+import org.onlab.packet.Ip6Prefix;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.host.InterfaceIpAddress;
+import org.onosproject.net.intf.Interface;
+import org.onosproject.net.intf.InterfaceEvent;
+import org.onosproject.net.intf.InterfaceListener;
+import org.onosproject.net.intf.InterfaceService;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static com.google.common.collect.Maps.newConcurrentMap;
+
+/**
+ * Component that maintains, for each device, the IPv6 subnets, host-facing
+ * ports and IPv6 addresses of the interfaces configured via netcfg. The index
+ * is updated on interface events, so that readers don't have to scan all
+ * interfaces of the network every time.
+ */
+@Component(immediate = true, service = InterfaceIndex.class)
+public class InterfaceIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(InterfaceIndex.class);
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    private InterfaceService interfaceService;
+
+    private final InterfaceListener interfaceListener = new InternalInterfaceListener();
+
+    private final Map<DeviceId, Entry> entries = newConcurrentMap();
+
+    @Activate
+    protected void activate() {
+        interfaceService.addListener(interfaceListener);
+        reloadAll();
+        log.info("Started");
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        interfaceService.removeListener(interfaceListener);
+        entries.clear();
+        log.info("Stopped");
+    }
+
+    /**
+     * Returns the IPv6 subnets of all interfaces of the given device.
+     *
+     * @param deviceId the device ID
+     * @return set of IPv6 prefixes
+     */
+    public Set<Ip6Prefix> ipv6Prefixes(DeviceId deviceId) {
+        return entry(deviceId).prefixes;
+    }
+
+    /**
+     * Returns the ports of the given device where an interface is configured,
+     * i.e. the ports facing hosts.
+     *
+     * @param deviceId the device ID
+     * @return set of port numbers
+     */
+    public Set<PortNumber> hostFacingPorts(DeviceId deviceId) {
+        return entry(deviceId).ports;
+    }
+
+    /**
+     * Returns the IPv6 addresses of all interfaces of the given device.
+     *
+     * @param deviceId the device ID
+     * @return set of IPv6 addresses
+     */
+    public Set<Ip6Address> ipv6Addresses(DeviceId deviceId) {
+        return entry(deviceId).addresses;
+    }
+
+    private Entry entry(DeviceId deviceId) {
+        return entries.getOrDefault(deviceId, Entry.EMPTY);
+    }
+
+    private synchronized void reloadAll() {
+        final Map<DeviceId, Set<Interface>> byDevice = interfaceService.getInterfaces()
+                .stream()
+                .collect(Collectors.groupingBy(
+                        iface -> iface.connectPoint().deviceId(), Collectors.toSet()));
+        entries.clear();
+        byDevice.forEach((deviceId, interfaces) -> entries.put(deviceId, new Entry(interfaces)));
+        log.info("Indexed interfaces of {} devices", entries.size());
+    }
+
+    private synchronized void update(DeviceId deviceId) {
+        final Set<Interface> interfaces = interfaceService.getInterfaces()
+                .stream()
+                .filter(iface -> iface.connectPoint().deviceId().equals(deviceId))
+                .collect(Collectors.toSet());
+        if (interfaces.isEmpty()) {
+            entries.remove(deviceId);
+        } else {
+            entries.put(deviceId, new Entry(interfaces));
+        }
+    }
+
+    /**
+     * Immutable index entry of a device.
+     */
+    private static final class Entry {
+
+        private static final Entry EMPTY = new Entry(ImmutableSet.of());
+
+        private final Set<Ip6Prefix> prefixes;
+        private final Set<PortNumber> ports;
+        private final Set<Ip6Address> addresses;
+
+        private Entry(Collection<Interface> interfaces) {
+            final ImmutableSet.Builder<Ip6Prefix> prefixesBuilder = ImmutableSet.builder();
+            final ImmutableSet.Builder<PortNumber> portsBuilder = ImmutableSet.builder();
+            final ImmutableSet.Builder<Ip6Address> addressesBuilder = ImmutableSet.builder();
+            for (Interface iface : interfaces) {
+                portsBuilder.add(iface.connectPoint().port());
+                for (InterfaceIpAddress ifaceAddr : iface.ipAddressesList()) {
+                    if (ifaceAddr.ipAddress().isIp6()) {
+                        addressesBuilder.add(ifaceAddr.ipAddress().getIp6Address());
+                    }
+                    if (ifaceAddr.subnetAddress().isIp6()) {
+                        prefixesBuilder.add(ifaceAddr.subnetAddress().getIp6Prefix());
+                    }
+                }
+            }
+            this.prefixes = prefixesBuilder.build();
+            this.ports = portsBuilder.build();
+            this.addresses = addressesBuilder.build();
+        }
+    }
+
+    /**
+     * Listener of interface events which keeps the index up to date.
+     */
+    class InternalInterfaceListener implements InterfaceListener {
+
+        @Override
+        public void event(InterfaceEvent event) {
+            final DeviceId deviceId = event.subject().connectPoint().deviceId();
+            switch (event.type()) {
+                case INTERFACE_UPDATED:
+                    // The interface might have been moved to another device.
+                    if (event.prevSubject() != null) {
+                        final DeviceId prevDeviceId = event.prevSubject()
+                                .connectPoint().deviceId();
+                        if (!prevDeviceId.equals(deviceId)) {
+                            update(prevDeviceId);
+                        }
+                    }
+                    update(deviceId);
+                    break;
+                case INTERFACE_ADDED:
+                case INTERFACE_REMOVED:
+                    update(deviceId);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+}
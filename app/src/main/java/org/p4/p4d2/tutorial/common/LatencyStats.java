@@ -0,0 +1,81 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.p4.p4d2.tutorial.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe counters of the latency of a recurring operation.
+ */
+public final class LatencyStats {
+
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong totalMillis = new AtomicLong();
+    private final AtomicLong maxMillis = new AtomicLong();
+    private final AtomicLong lastMillis = new AtomicLong();
+
+    /**
+     * Records an operation started at the given time, and completed now.
+     *
+     * @param startMillis start time, in milliseconds since the epoch
+     * @param success     true if the operation completed successfully
+     */
+    public void record(long startMillis, boolean success) {
+        if (!success) {
+            failures.incrementAndGet();
+            return;
+        }
+        final long latency = Math.max(0, System.currentTimeMillis() - startMillis);
+        count.incrementAndGet();
+        totalMillis.addAndGet(latency);
+        maxMillis.accumulateAndGet(latency, Math::max);
+        lastMillis.set(latency);
+    }
+
+    /**
+     * Returns the number of operations completed successfully.
+     *
+     * @return number of operations
+     */
+    public long count() {
+        return count.get();
+    }
+
+    public long failures() {
+        return failures.get();
+    }
+
+    public long avgMillis() {
+        final long n = count.get();
+        return n == 0 ? 0 : totalMillis.get() / n;
+    }
+
+    public long maxMillis() {
+        return maxMillis.get();
+    }
+
+    public long lastMillis() {
+        return lastMillis.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d, failures=%d, avg=%dms, max=%dms, last=%dms",
+                             count(), failures(), avgMillis(), maxMillis(), lastMillis());
+    }
+}
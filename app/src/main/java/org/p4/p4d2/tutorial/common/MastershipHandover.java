@@ -0,0 +1,280 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.p4.p4d2.tutorial.common;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+import org.onlab.util.SharedScheduledExecutors;
+import org.onlab.util.Tools;
+import org.onosproject.cfg.ComponentConfigService;
+import org.onosproject.mastership.MastershipEvent;
+import org.onosproject.mastership.MastershipListener;
+import org.onosproject.mastership.MastershipService;
+import org.onosproject.net.Device;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.device.DeviceService;
+import org.osgi.service.component.ComponentContext;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.Maps.newConcurrentMap;
+import static com.google.common.collect.Sets.newHashSet;
+import static com.google.common.collect.Streams.stream;
+import static org.p4.p4d2.tutorial.OsgiPropertyConstants.TAKEOVER_WINDOW;
+import static org.p4.p4d2.tutorial.OsgiPropertyConstants.TAKEOVER_WINDOW_DEFAULT;
+
+/**
+ * Component that hands devices over between the app components of different
+ * ONOS nodes when mastership changes, e.g. when a node fails.
+ * <p>
+ * Devices this node becomes master of are collected for takeoverWindow ms,
+ * then set up in parallel by each registered component, as one run of
+ * {@link ParallelSetUp}: only the newly acquired devices are reconciled, not
+ * the whole fabric. Devices this node is no longer master of are released
+ * right away: their set up is removed from the runs in progress, their queued
+ * writes are dropped, and each component cancels the work it still has in
+ * flight for them.
+ */
+@Component(
+        immediate = true,
+        service = MastershipHandover.class,
+        property = {
+                TAKEOVER_WINDOW + ":Integer=" + TAKEOVER_WINDOW_DEFAULT,
+        }
+)
+public class MastershipHandover {
+
+    private static final Logger log = LoggerFactory.getLogger(MastershipHandover.class);
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    private ComponentConfigService compCfgService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    private MastershipService mastershipService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    private DeviceService deviceService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    private ParallelSetUp parallelSetUp;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    private WriteGovernor writeGovernor;
+
+    /** Time window (ms) used to merge acquired devices in one set up; 0 to disable. */
+    private int takeoverWindow = TAKEOVER_WINDOW_DEFAULT;
+
+    private final MastershipListener mastershipListener = new InternalMastershipListener();
+
+    // Component name to handlers of mastership changes.
+    private final Map<String, Handlers> handlers = newConcurrentMap();
+
+    // Devices this node is master of, as seen by the last events.
+    private final Set<DeviceId> localDevices = Sets.newConcurrentHashSet();
+
+    // Devices acquired in the current window, not set up yet.
+    private final Set<DeviceId> acquired = newHashSet();
+
+    private final AtomicLong takeovers = new AtomicLong();
+    private final AtomicLong releases = new AtomicLong();
+
+    @Activate
+    protected void activate(ComponentContext context) {
+        compCfgService.registerProperties(getClass());
+        modified(context);
+        stream(deviceService.getDevices())
+                .map(Device::id)
+                .filter(mastershipService::isLocalMaster)
+                .forEach(localDevices::add);
+        mastershipService.addListener(mastershipListener);
+        log.info("Started");
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        mastershipService.removeListener(mastershipListener);
+        compCfgService.unregisterProperties(getClass(), false);
+        handlers.clear();
+        localDevices.clear();
+        synchronized (acquired) {
+            acquired.clear();
+        }
+        log.info("Stopped");
+    }
+
+    @Modified
+    protected void modified(ComponentContext context) {
+        takeoverWindow = Tools.getIntegerProperty(
+                context.getProperties(), TAKEOVER_WINDOW, TAKEOVER_WINDOW_DEFAULT);
+        log.info("Configured. {} is {} ms", TAKEOVER_WINDOW, takeoverWindow);
+    }
+
+    /**
+     * Registers the handlers of mastership changes of the given component.
+     * The take over function is called for each acquired device, on a
+     * thread of the set up pool, and returns a future completed when the
+     * device is set up. The release function is called for each lost device,
+     * on the event thread, and should not block.
+     *
+     * @param name     name of the component, used for logging
+     * @param takeOver function setting up an acquired device
+     * @param release  function cancelling the work in flight for a lost
+     *                 device
+     */
+    public void register(String name, Function<DeviceId, CompletableFuture<?>> takeOver,
+                         Consumer<DeviceId> release) {
+        handlers.put(name, new Handlers(takeOver, release));
+    }
+
+    /**
+     * Unregisters the handlers of the given component.
+     *
+     * @param name name of the component
+     */
+    public void unregister(String name) {
+        handlers.remove(name);
+    }
+
+    /**
+     * Returns the number of devices acquired so far.
+     *
+     * @return number of devices
+     */
+    public long takeovers() {
+        return takeovers.get();
+    }
+
+    /**
+     * Returns the number of devices released so far.
+     *
+     * @return number of devices
+     */
+    public long releases() {
+        return releases.get();
+    }
+
+    private void deviceAcquired(DeviceId deviceId) {
+        takeovers.incrementAndGet();
+        if (takeoverWindow <= 0) {
+            takeOver(ImmutableList.of(deviceId));
+            return;
+        }
+        synchronized (acquired) {
+            if (acquired.isEmpty()) {
+                // First device of this window.
+                SharedScheduledExecutors.newTimeout(
+                        this::flushAcquired, takeoverWindow, TimeUnit.MILLISECONDS);
+            }
+            acquired.add(deviceId);
+        }
+    }
+
+    private void flushAcquired() {
+        final List<DeviceId> deviceIds;
+        synchronized (acquired) {
+            deviceIds = ImmutableList.copyOf(acquired);
+            acquired.clear();
+        }
+        takeOver(deviceIds);
+    }
+
+    private void takeOver(List<DeviceId> deviceIds) {
+        // Unavailable devices are set up by components when they connect.
+        final List<DeviceId> toSetUp = deviceIds.stream()
+                .filter(mastershipService::isLocalMaster)
+                .filter(deviceService::isAvailable)
+                .collect(Collectors.toList());
+        if (toSetUp.isEmpty()) {
+            return;
+        }
+        log.info("Taking over {} devices: {}", toSetUp.size(), toSetUp);
+        handlers.forEach((name, h) -> parallelSetUp.setUpAll(
+                name + "-takeover", toSetUp, h.takeOver));
+    }
+
+    private void deviceLost(DeviceId deviceId) {
+        releases.incrementAndGet();
+        synchronized (acquired) {
+            acquired.remove(deviceId);
+        }
+        log.info("Releasing {}, no longer master", deviceId);
+        parallelSetUp.cancel(ImmutableList.of(deviceId));
+        writeGovernor.cancel(ImmutableList.of(deviceId));
+        handlers.forEach((name, h) -> {
+            try {
+                h.release.accept(deviceId);
+            } catch (RuntimeException e) {
+                log.error("{}: unable to release {}", name, deviceId, e);
+            }
+        });
+    }
+
+    /**
+     * Handlers of mastership changes registered by a component.
+     */
+    private static final class Handlers {
+        private final Function<DeviceId, CompletableFuture<?>> takeOver;
+        private final Consumer<DeviceId> release;
+
+        private Handlers(Function<DeviceId, CompletableFuture<?>> takeOver,
+                         Consumer<DeviceId> release) {
+            this.takeOver = checkNotNull(takeOver);
+            this.release = checkNotNull(release);
+        }
+    }
+
+    /**
+     * Listener of mastership events which detects devices acquired or lost
+     * by this node.
+     */
+    class InternalMastershipListener implements MastershipListener {
+
+        @Override
+        public void event(MastershipEvent event) {
+            final DeviceId deviceId = event.subject();
+            if (mastershipService.isLocalMaster(deviceId)) {
+                if (localDevices.add(deviceId)) {
+                    deviceAcquired(deviceId);
+                }
+            } else if (localDevices.remove(deviceId)) {
+                deviceLost(deviceId);
+            }
+        }
+
+        @Override
+        public boolean isRelevant(MastershipEvent event) {
+            return event.type() == MastershipEvent.Type.MASTER_CHANGED;
+        }
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.p4.p4d2.tutorial.common;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Sets;
+import org.onlab.util.Tools;
+import org.onosproject.cfg.ComponentConfigService;
+import org.onosproject.net.DeviceId;
+import org.osgi.service.component.ComponentContext;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.google.common.collect.Maps.newConcurrentMap;
+import static org.p4.p4d2.tutorial.OsgiPropertyConstants.SET_UP_PARALLELISM;
+import static org.p4.p4d2.tutorial.OsgiPropertyConstants.SET_UP_PARALLELISM_DEFAULT;
+
+/**
+ * Component that runs the initial set up of many devices in parallel, on a
+ * work-stealing pool shared by all components of the app. At most
+ * setUpParallelism devices are set up at the same time by each run. When a
+ * run completes, a summary with the set up time of each device is logged, as
+ * well as the time to fabric ready once no run is in progress. Devices not
+ * set up yet can be cancelled, e.g. when this node is no longer their master.
+ */
+@Component(
+        immediate = true,
+        service = ParallelSetUp.class,
+        property = {
+                SET_UP_PARALLELISM + ":Integer=" + SET_UP_PARALLELISM_DEFAULT,
+        }
+)
+public class ParallelSetUp {
+
+    private static final Logger log = LoggerFactory.getLogger(ParallelSetUp.class);
+
+    // Number of slowest devices listed in the summary of a run.
+    private static final int SLOWEST_DEVICES = 5;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    private ComponentConfigService compCfgService;
+
+    /** Maximum number of devices set up at the same time. */
+    private int setUpParallelism = SET_UP_PARALLELISM_DEFAULT;
+
+    private volatile ForkJoinPool pool;
+
+    // Runs in progress, and start time of the first one.
+    private final Set<Run> runs = Sets.newConcurrentHashSet();
+    private int activeRuns;
+    private long fabricStartMillis;
+
+    @Activate
+    protected void activate(ComponentContext context) {
+        compCfgService.registerProperties(getClass());
+        modified(context);
+        log.info("Started");
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        compCfgService.unregisterProperties(getClass(), false);
+        pool.shutdownNow();
+        log.info("Stopped");
+    }
+
+    @Modified
+    protected void modified(ComponentContext context) {
+        final int parallelism = Tools.getIntegerProperty(
+                context.getProperties(), SET_UP_PARALLELISM, SET_UP_PARALLELISM_DEFAULT);
+        if (parallelism > 0) {
+            setUpParallelism = parallelism;
+        } else {
+            log.warn("Invalid {} {}, must be positive", SET_UP_PARALLELISM, parallelism);
+        }
+        if (pool == null || pool.getParallelism() != setUpParallelism) {
+            final ForkJoinPool oldPool = pool;
+            pool = new ForkJoinPool(setUpParallelism, ParallelSetUp::newThread, null, false);
+            if (oldPool != null) {
+                // Runs in progress continue on the new pool.
+                oldPool.shutdown();
+            }
+        }
+        log.info("Configured. {} is {}", SET_UP_PARALLELISM, setUpParallelism);
+    }
+
+    /**
+     * Sets up the given devices in parallel. The given function is called
+     * once for each device, on a thread of the pool, and returns a future
+     * completed when the device is set up. A new device is started as soon as
+     * a previous one completes, keeping at most setUpParallelism devices in
+     * progress. Failures are logged and do not stop the run.
+     *
+     * @param name      name of the run, used for logging
+     * @param deviceIds devices to set up
+     * @param setUp     function setting up a device
+     * @return future completed when all devices have been set up
+     */
+    public CompletableFuture<Void> setUpAll(String name, Collection<DeviceId> deviceIds,
+                                            Function<DeviceId, CompletableFuture<?>> setUp) {
+        final Run run = new Run(name, deviceIds, setUp);
+        runStarted();
+        runs.add(run);
+        run.start(setUpParallelism);
+        return run.done.whenComplete((r, e) -> {
+            runs.remove(run);
+            run.logSummary();
+            runCompleted();
+        });
+    }
+
+    /**
+     * Cancels the set up of the given devices in all runs in progress. Devices
+     * waiting to be set up are removed from the runs. Devices being set up
+     * are not interrupted, the component setting them up is expected to
+     * cancel the future it returned.
+     *
+     * @param deviceIds devices to cancel
+     */
+    public void cancel(Collection<DeviceId> deviceIds) {
+        runs.forEach(run -> deviceIds.forEach(run::cancel));
+    }
+
+    private synchronized void runStarted() {
+        if (activeRuns++ == 0) {
+            fabricStartMillis = System.currentTimeMillis();
+        }
+    }
+
+    private synchronized void runCompleted() {
+        if (--activeRuns == 0) {
+            log.info("Fabric ready, all devices set up in {} ms",
+                     System.currentTimeMillis() - fabricStartMillis);
+        }
+    }
+
+    private void execute(Runnable task) {
+        pool.execute(task);
+    }
+
+    private static ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+        final ForkJoinWorkerThread thread =
+                ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("onos/srv6-tutorial/set-up-" + thread.getPoolIndex());
+        return thread;
+    }
+
+    /**
+     * Set up of a collection of devices.
+     */
+    private final class Run {
+
+        private final String name;
+        private final int numDevices;
+        private final Queue<DeviceId> queue;
+        private final Function<DeviceId, CompletableFuture<?>> setUp;
+        private final Map<DeviceId, Long> deviceMillis = newConcurrentMap();
+        private final AtomicInteger failures = new AtomicInteger();
+        private final AtomicInteger cancelled = new AtomicInteger();
+        private final AtomicInteger remaining;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private final long startMillis = System.currentTimeMillis();
+
+        private Run(String name, Collection<DeviceId> deviceIds,
+                    Function<DeviceId, CompletableFuture<?>> setUp) {
+            this.name = name;
+            this.numDevices = deviceIds.size();
+            this.queue = new ConcurrentLinkedQueue<>(deviceIds);
+            this.setUp = setUp;
+            this.remaining = new AtomicInteger(numDevices);
+        }
+
+        private void start(int parallelism) {
+            if (numDevices == 0) {
+                done.complete(null);
+                return;
+            }
+            for (int i = 0; i < Math.min(parallelism, numDevices); i++) {
+                dispatch();
+            }
+        }
+
+        private void dispatch() {
+            try {
+                execute(this::next);
+            } catch (RejectedExecutionException e) {
+                // Deactivated.
+                done.completeExceptionally(e);
+            }
+        }
+
+        private void next() {
+            final DeviceId deviceId = queue.poll();
+            if (deviceId == null) {
+                return;
+            }
+            final long deviceStartMillis = System.currentTimeMillis();
+            CompletableFuture<?> future;
+            try {
+                future = setUp.apply(deviceId);
+            } catch (RuntimeException e) {
+                future = new CompletableFuture<>();
+                future.completeExceptionally(e);
+            }
+            future.whenComplete((r, e) -> {
+                if (e != null && Throwables.getRootCause(e) instanceof CancellationException) {
+                    cancelled.incrementAndGet();
+                    log.debug("{}: set up of {} cancelled", name, deviceId);
+                } else {
+                    deviceMillis.put(deviceId, System.currentTimeMillis() - deviceStartMillis);
+                    if (e != null) {
+                        failures.incrementAndGet();
+                        log.warn("{}: set up of {} failed", name, deviceId, e);
+                    }
+                }
+                if (remaining.decrementAndGet() == 0) {
+                    done.complete(null);
+                } else {
+                    dispatch();
+                }
+            });
+        }
+
+        private void cancel(DeviceId deviceId) {
+            if (!queue.remove(deviceId)) {
+                // Not part of this run, or already started.
+                return;
+            }
+            cancelled.incrementAndGet();
+            if (remaining.decrementAndGet() == 0) {
+                done.complete(null);
+            }
+        }
+
+        private void logSummary() {
+            final long totalMillis = System.currentTimeMillis() - startMillis;
+            final long maxMillis = deviceMillis.values().stream()
+                    .mapToLong(Long::longValue).max().orElse(0);
+            final long avgMillis = (long) deviceMillis.values().stream()
+                    .mapToLong(Long::longValue).average().orElse(0);
+            final String slowest = deviceMillis.entrySet().stream()
+                    .sorted(Map.Entry.<DeviceId, Long>comparingByValue().reversed())
+                    .limit(SLOWEST_DEVICES)
+                    .map(e -> e.getKey() + "=" + e.getValue() + "ms")
+                    .collect(Collectors.joining(", "));
+            log.info("{}: set up {} devices in {} ms ({} failed, {} cancelled, " +
+                             "avg={}ms, max={}ms), slowest: [{}]",
+                     name, deviceMillis.size(), totalMillis, failures.get(), cancelled.get(),
+                     avgMillis, maxMillis, slowest);
+            if (log.isDebugEnabled()) {
+                deviceMillis.forEach((deviceId, millis) -> log.debug(
+                        "{}: set up of {} took {} ms", name, deviceId, millis));
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.p4.p4d2.tutorial.common;
+
+import org.onlab.packet.Ip6Address;
+import org.onlab.packet.Ip6Prefix;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Maps.newHashMap;
+
+/**
+ * Reduces a set of IPv6 routes to a smaller set of LPM entries forwarding
+ * every address exactly as the original one. Two rules are applied until
+ * nothing changes:
+ * <ul>
+ * <li>a prefix is dropped when the longest prefix covering it has the same
+ * next hop;</li>
+ * <li>two sibling prefixes with the same next hop are replaced by their
+ * parent, if the parent is not already routed elsewhere.</li>
+ * </ul>
+ * No address outside of the original prefixes becomes routed.
+ */
+public final class PrefixCompressor {
+
+    private PrefixCompressor() {
+        // Utility class.
+    }
+
+    /**
+     * Returns the compressed version of the given routes.
+     *
+     * @param routes map of prefix to next hop
+     * @param <N>    type of next hop, compared with equals()
+     * @return compressed map of prefix to next hop
+     */
+    public static <N> Map<Ip6Prefix, N> compress(Map<Ip6Prefix, N> routes) {
+        final Map<Ip6Prefix, N> table = newHashMap(routes);
+        boolean changed = true;
+        while (changed) {
+            changed = mergeSiblings(table);
+            changed |= dropRedundant(table);
+        }
+        return table;
+    }
+
+    /**
+     * Replaces pairs of sibling prefixes with the same next hop with their
+     * parent, longest prefixes first, so that merged parents can be merged
+     * again in the same pass.
+     */
+    private static <N> boolean mergeSiblings(Map<Ip6Prefix, N> table) {
+        boolean changed = false;
+        for (int length = Ip6Address.BIT_LENGTH; length > 0; length--) {
+            final int l = length;
+            final List<Ip6Prefix> prefixes = newArrayList();
+            table.keySet().stream()
+                    .filter(prefix -> prefix.prefixLength() == l)
+                    .forEach(prefixes::add);
+            for (Ip6Prefix prefix : prefixes) {
+                if (!table.containsKey(prefix)) {
+                    // Already merged with its sibling.
+                    continue;
+                }
+                final Ip6Prefix sibling = sibling(prefix);
+                final Ip6Prefix parent = parent(prefix);
+                final N nextHop = table.get(prefix);
+                if (!nextHop.equals(table.get(sibling)) ||
+                        (table.containsKey(parent) && !nextHop.equals(table.get(parent)))) {
+                    continue;
+                }
+                table.remove(prefix);
+                table.remove(sibling);
+                table.put(parent, nextHop);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Removes prefixes whose longest covering prefix has the same next hop.
+     */
+    private static <N> boolean dropRedundant(Map<Ip6Prefix, N> table) {
+        final List<Ip6Prefix> prefixes = newArrayList(table.keySet());
+        // Shortest first, as removing a prefix can make a longer one
+        // redundant with respect to a shorter one.
+        prefixes.sort(Comparator.comparingInt(Ip6Prefix::prefixLength));
+        boolean changed = false;
+        for (Ip6Prefix prefix : prefixes) {
+            final N nextHop = table.get(prefix);
+            for (int length = prefix.prefixLength() - 1; length >= 0; length--) {
+                final N covering = table.get(Ip6Prefix.valueOf(prefix.address(), length));
+                if (covering != null) {
+                    if (Objects.equals(covering, nextHop)) {
+                        table.remove(prefix);
+                        changed = true;
+                    }
+                    break;
+                }
+            }
+        }
+        return changed;
+    }
+
+    private static Ip6Prefix parent(Ip6Prefix prefix) {
+        return Ip6Prefix.valueOf(prefix.address(), prefix.prefixLength() - 1);
+    }
+
+    private static Ip6Prefix sibling(Ip6Prefix prefix) {
+        final byte[] bytes = prefix.address().toOctets();
+        final int bit = prefix.prefixLength() - 1;
+        bytes[bit / Byte.SIZE] ^= (byte) (0x80 >>> (bit % Byte.SIZE));
+        return Ip6Prefix.valueOf(Ip6Address.valueOf(bytes), prefix.prefixLength());
+    }
+}
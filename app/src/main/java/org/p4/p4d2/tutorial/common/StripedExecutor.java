@@ -0,0 +1,213 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.p4.p4d2.tutorial.common;
+
+import com.google.common.collect.ImmutableList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.onlab.util.Tools.groupedThreads;
+
+/**
+ * Executor that runs tasks with the same key in submission order, and tasks
+ * with different keys in parallel. Keys are hashed to a fixed number of
+ * stripes, each one served by a single thread with a bounded queue. When the
+ * queue of a stripe is full, tasks are rejected rather than blocking the
+ * submitting thread, which may be an event thread or the stripe itself:
+ * callers are expected to merge work per key, and to submit again later.
+ */
+public final class StripedExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(StripedExecutor.class);
+
+    private final Stripe[] stripes;
+
+    /**
+     * Creates a new striped executor.
+     *
+     * @param name          name used for threads
+     * @param numStripes    number of stripes, i.e. threads
+     * @param queueCapacity maximum number of queued tasks per stripe
+     */
+    public StripedExecutor(String name, int numStripes, int queueCapacity) {
+        checkArgument(numStripes > 0, "Number of stripes must be positive");
+        checkArgument(queueCapacity > 0, "Queue capacity must be positive");
+        stripes = new Stripe[numStripes];
+        for (int i = 0; i < numStripes; i++) {
+            stripes[i] = new Stripe(i, new ThreadPoolExecutor(
+                    1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity),
+                    groupedThreads("onos/srv6-tutorial/" + name, "stripe-" + i, log),
+                    new ThreadPoolExecutor.AbortPolicy()));
+        }
+    }
+
+    /**
+     * Executes the given task after all tasks previously submitted with the
+     * same key. Never blocks: if the queue of the stripe is full, or the
+     * executor has been shut down, the task is not executed.
+     *
+     * @param key  the key
+     * @param task the task
+     * @return true if the task was queued, false if it was rejected
+     */
+    public boolean execute(Object key, Runnable task) {
+        final Stripe stripe = stripes[Math.floorMod(key.hashCode(), stripes.length)];
+        final long enqueuedAt = System.nanoTime();
+        try {
+            stripe.executor.execute(() -> {
+                stripe.recordWait(System.nanoTime() - enqueuedAt);
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    log.error("Exception while executing task for {}", key, e);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            stripe.rejectedTasks.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * Stops all stripes, discarding queued tasks.
+     */
+    public void shutdown() {
+        for (Stripe stripe : stripes) {
+            stripe.executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns statistics for each stripe.
+     *
+     * @return list of stripe statistics
+     */
+    public List<StripeStats> stats() {
+        final ImmutableList.Builder<StripeStats> stats = ImmutableList.builder();
+        for (Stripe stripe : stripes) {
+            stats.add(stripe.stats());
+        }
+        return stats.build();
+    }
+
+    private static final class Stripe {
+        private final int index;
+        private final ThreadPoolExecutor executor;
+        private final AtomicLong executedTasks = new AtomicLong();
+        private final AtomicLong rejectedTasks = new AtomicLong();
+        private final AtomicLong totalWaitNanos = new AtomicLong();
+        private final AtomicLong maxWaitNanos = new AtomicLong();
+
+        private Stripe(int index, ThreadPoolExecutor executor) {
+            this.index = index;
+            this.executor = executor;
+        }
+
+        private void recordWait(long waitNanos) {
+            executedTasks.incrementAndGet();
+            totalWaitNanos.addAndGet(waitNanos);
+            maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+        }
+
+        private StripeStats stats() {
+            final long executed = executedTasks.get();
+            return new StripeStats(
+                    index, executor.getQueue().size(), executed, rejectedTasks.get(),
+                    executed == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(
+                            totalWaitNanos.get() / executed),
+                    TimeUnit.NANOSECONDS.toMicros(maxWaitNanos.get()));
+        }
+    }
+
+    /**
+     * Statistics of a stripe.
+     */
+    public static final class StripeStats {
+        private final int index;
+        private final int queueDepth;
+        private final long executedTasks;
+        private final long rejectedTasks;
+        private final long avgWaitMicros;
+        private final long maxWaitMicros;
+
+        private StripeStats(int index, int queueDepth, long executedTasks, long rejectedTasks,
+                            long avgWaitMicros, long maxWaitMicros) {
+            this.index = index;
+            this.queueDepth = queueDepth;
+            this.executedTasks = executedTasks;
+            this.rejectedTasks = rejectedTasks;
+            this.avgWaitMicros = avgWaitMicros;
+            this.maxWaitMicros = maxWaitMicros;
+        }
+
+        public int index() {
+            return index;
+        }
+
+        /**
+         * Returns the number of tasks currently waiting in the queue.
+         *
+         * @return queue depth
+         */
+        public int queueDepth() {
+            return queueDepth;
+        }
+
+        public long executedTasks() {
+            return executedTasks;
+        }
+
+        /**
+         * Returns the number of tasks rejected because the queue was full.
+         *
+         * @return number of rejected tasks
+         */
+        public long rejectedTasks() {
+            return rejectedTasks;
+        }
+
+        /**
+         * Returns the average time tasks spent in the queue before being
+         * executed, in microseconds.
+         *
+         * @return average wait time
+         */
+        public long avgWaitMicros() {
+            return avgWaitMicros;
+        }
+
+        /**
+         * Returns the maximum time a task spent in the queue before being
+         * executed, in microseconds.
+         *
+         * @return maximum wait time
+         */
+        public long maxWaitMicros() {
+            return maxWaitMicros;
+        }
+    }
+}
@@ -48,12 +48,14 @@ import org.slf4j.LoggerFactory;
 import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static org.onosproject.net.group.DefaultGroupBucket.createAllGroupBucket;
 import static org.onosproject.net.group.DefaultGroupBucket.createCloneGroupBucket;
+import static org.onosproject.net.group.DefaultGroupBucket.createSelectGroupBucket;
 import static org.p4.p4d2.tutorial.AppConstants.CLEAN_UP_DELAY;
 import static org.p4.p4d2.tutorial.AppConstants.DEFAULT_CLEAN_UP_RETRY_TIMES;
 import static org.p4.p4d2.tutorial.AppConstants.DEFAULT_FLOW_RULE_PRIORITY;
@@ -109,9 +111,15 @@ public final class Utils {
     public static FlowRule forgeFlowRule(DeviceId switchId, ApplicationId appId,
                                          String tableId, PiCriterion piCriterion,
                                          PiTableAction piAction) {
+        return forgeFlowRule(switchId, appId, PiTableId.of(tableId), piCriterion, piAction);
+    }
+
+    public static FlowRule forgeFlowRule(DeviceId switchId, ApplicationId appId,
+                                         PiTableId tableId, PiCriterion piCriterion,
+                                         PiTableAction piAction) {
         return DefaultFlowRule.builder()
                 .forDevice(switchId)
-                .forTable(PiTableId.of(tableId))
+                .forTable(tableId)
                 .fromApp(appId)
                 .withPriority(DEFAULT_FLOW_RULE_PRIORITY)
                 .makePermanent()
@@ -128,9 +136,19 @@ public final class Utils {
                                                     int groupId,
                                                     Collection<PiAction> actions,
                                                     ApplicationId appId) {
+        return forgeSelectGroup(deviceId, PiTableId.of(tableId),
+                                PiActionProfileId.of(actionProfileId),
+                                groupId, actions, appId);
+    }
+
+    public static GroupDescription forgeSelectGroup(DeviceId deviceId,
+                                                    PiTableId tableId,
+                                                    PiActionProfileId actionProfileId,
+                                                    int groupId,
+                                                    Collection<PiAction> actions,
+                                                    ApplicationId appId) {
 
-        final GroupKey groupKey = new PiGroupKey(
-                PiTableId.of(tableId), PiActionProfileId.of(actionProfileId), groupId);
+        final GroupKey groupKey = new PiGroupKey(tableId, actionProfileId, groupId);
         final List<GroupBucket> buckets = actions.stream()
                 .map(action -> DefaultTrafficTreatment.builder()
                         .piTableAction(action).build())
@@ -145,6 +163,45 @@ public final class Utils {
                 appId);
     }
 
+    /**
+     * Returns a select group where each action is given the corresponding
+     * bucket weight, i.e. is chosen for a share of the flows proportional
+     * to its weight.
+     *
+     * @param deviceId        device ID
+     * @param tableId         table ID
+     * @param actionProfileId action profile ID
+     * @param groupId         group ID
+     * @param weightedActions map of action to bucket weight, greater than 0
+     * @param appId           application ID
+     * @return group description
+     */
+    public static GroupDescription forgeWeightedSelectGroup(DeviceId deviceId,
+                                                            PiTableId tableId,
+                                                            PiActionProfileId actionProfileId,
+                                                            int groupId,
+                                                            Map<PiAction, Short> weightedActions,
+                                                            ApplicationId appId) {
+
+        final GroupKey groupKey = new PiGroupKey(tableId, actionProfileId, groupId);
+        final List<GroupBucket> buckets = weightedActions.entrySet().stream()
+                .map(e -> {
+                    checkArgument(e.getValue() > 0, "Bucket weight must be positive");
+                    return createSelectGroupBucket(
+                            DefaultTrafficTreatment.builder()
+                                    .piTableAction(e.getKey()).build(),
+                            e.getValue());
+                })
+                .collect(Collectors.toList());
+        return new DefaultGroupDescription(
+                deviceId,
+                GroupDescription.Type.SELECT,
+                new GroupBuckets(buckets),
+                groupKey,
+                groupId,
+                appId);
+    }
+
     public static void waitPreviousCleanup(ApplicationId appId,
                                            DeviceService deviceService,
                                            FlowRuleService flowRuleService,
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.p4.p4d2.tutorial.common;
+
+import org.onlab.util.Tools;
+import org.onosproject.cfg.ComponentConfigService;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.net.Device;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.device.DeviceService;
+import org.onosproject.net.flow.FlowEntry;
+import org.onosproject.net.flow.FlowId;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleOperations;
+import org.onosproject.net.flow.FlowRuleService;
+import org.onosproject.net.group.Group;
+import org.onosproject.net.group.GroupService;
+import org.osgi.service.component.ComponentContext;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import static com.google.common.collect.Streams.stream;
+import static org.p4.p4d2.tutorial.OsgiPropertyConstants.WARM_RESTART;
+import static org.p4.p4d2.tutorial.OsgiPropertyConstants.WARM_RESTART_DEFAULT;
+
+/**
+ * Component deciding what the app components do with the flow rules and
+ * groups installed by a previous execution of the app.
+ * <p>
+ * When warmRestart is enabled, entries are left in place when the app is
+ * deactivated, and components reconcile them on activation: only entries that
+ * differ from the desired state are written or removed, so that an app
+ * restart or upgrade does not interrupt traffic. Deactivation cannot tell an
+ * upgrade from an uninstall, which would then leave the entries behind, so
+ * it is meant to be enabled only for the time of an upgrade. When disabled
+ * (default), entries are removed on deactivation and, as a safety net, before
+ * activation.
+ */
+@Component(
+        immediate = true,
+        service = WarmRestart.class,
+        property = {
+                WARM_RESTART + ":Boolean=" + WARM_RESTART_DEFAULT,
+        }
+)
+public class WarmRestart {
+
+    private static final Logger log = LoggerFactory.getLogger(WarmRestart.class);
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    private ComponentConfigService compCfgService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    private DeviceService deviceService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    private FlowRuleService flowRuleService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    private GroupService groupService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    private WriteGovernor writeGovernor;
+
+    /** Reconcile entries of a previous execution instead of removing them. */
+    private volatile boolean warmRestart = WARM_RESTART_DEFAULT;
+
+    @Activate
+    protected void activate(ComponentContext context) {
+        compCfgService.registerProperties(getClass());
+        modified(context);
+        log.info("Started");
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        compCfgService.unregisterProperties(getClass(), false);
+        log.info("Stopped");
+    }
+
+    @Modified
+    protected void modified(ComponentContext context) {
+        warmRestart = Tools.isPropertyEnabled(
+                context.getProperties(), WARM_RESTART, WARM_RESTART_DEFAULT);
+        log.info("Configured. {} is {}", WARM_RESTART, warmRestart);
+    }
+
+    /**
+     * Returns true if entries of a previous execution are reconciled, false
+     * if they are removed.
+     *
+     * @return true if warm restart is enabled
+     */
+    public boolean isEnabled() {
+        return warmRestart;
+    }
+
+    /**
+     * Prepares the activation of the given app. With warm restart, entries
+     * of the previous execution are kept, to be reconciled by the app.
+     * Otherwise, waits for them to be removed.
+     *
+     * @param appId      the app ID
+     * @param withGroups true if the app installs groups
+     */
+    public void prepare(ApplicationId appId, boolean withGroups) {
+        if (!warmRestart) {
+            Utils.waitPreviousCleanup(appId, deviceService, flowRuleService,
+                                      withGroups ? groupService : null);
+            return;
+        }
+        final long flows = stream(flowRuleService.getFlowEntriesById(appId)).count();
+        long groups = 0;
+        if (withGroups) {
+            for (Device device : deviceService.getAvailableDevices()) {
+                groups += stream(groupService.getGroups(device.id(), appId)).count();
+            }
+        }
+        log.info("Keeping {} flows and {} groups from previous execution of {}, " +
+                         "to be reconciled", flows, groups, appId.name());
+    }
+
+    /**
+     * Returns the flow rules of the given app currently installed on the
+     * given device, excluding those being removed.
+     *
+     * @param appId    the app ID
+     * @param deviceId the device ID
+     * @return flow entries
+     */
+    public List<FlowEntry> installedFlowRules(ApplicationId appId, DeviceId deviceId) {
+        return stream(flowRuleService.getFlowEntries(deviceId))
+                .filter(entry -> entry.appId() == appId.id())
+                .filter(entry -> entry.state() != FlowEntry.FlowEntryState.PENDING_REMOVE &&
+                        entry.state() != FlowEntry.FlowEntryState.REMOVED)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Returns the given flow rules of the given app which are not already
+     * installed identically on the given device, e.g. by a previous execution
+     * or by the previous master of the device. An add of an installed rule is
+     * written again to the device, as a modify, so only these rules need to be
+     * applied.
+     *
+     * @param appId     the app ID
+     * @param deviceId  the device ID
+     * @param flowRules desired flow rules
+     * @return flow rules to apply
+     */
+    public List<FlowRule> notInstalled(ApplicationId appId, DeviceId deviceId,
+                                       Collection<FlowRule> flowRules) {
+        final Map<FlowId, FlowEntry> installed = installedFlowRules(appId, deviceId)
+                .stream()
+                .collect(Collectors.toMap(FlowRule::id, entry -> entry, (a, b) -> a));
+        return flowRules.stream()
+                .filter(rule -> {
+                    final FlowEntry entry = installed.get(rule.id());
+                    return entry == null || !entry.exactMatch(rule);
+                })
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Returns the groups of the given app currently installed on the given
+     * device, excluding those being removed.
+     *
+     * @param appId    the app ID
+     * @param deviceId the device ID
+     * @return groups
+     */
+    public List<Group> installedGroups(ApplicationId appId, DeviceId deviceId) {
+        return stream(groupService.getGroups(deviceId, appId))
+                .filter(group -> group.state() != Group.GroupState.PENDING_DELETE)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * With warm restart, removes the flow rules of the given app installed on
+     * the given device that match the given scope but are not in the given
+     * desired collection. Does nothing otherwise, since nothing from previous
+     * executions is left.
+     *
+     * @param appId    the app ID
+     * @param deviceId the device ID
+     * @param desired  flow rules that should be installed
+     * @param scope    filter of the installed flow rules to consider
+     */
+    public void removeStaleFlowRules(ApplicationId appId, DeviceId deviceId,
+                                     Collection<FlowRule> desired,
+                                     Predicate<FlowEntry> scope) {
+        if (!warmRestart) {
+            return;
+        }
+        final Set<FlowId> desiredIds = desired.stream()
+                .map(FlowRule::id)
+                .collect(Collectors.toSet());
+        final List<FlowEntry> stale = installedFlowRules(appId, deviceId).stream()
+                .filter(scope)
+                .filter(entry -> !desiredIds.contains(entry.id()))
+                .collect(Collectors.toList());
+        if (stale.isEmpty()) {
+            return;
+        }
+        log.info("Removing {} stale flow rules of {} from {}",
+                 stale.size(), appId.name(), deviceId);
+        final FlowRuleOperations.Builder ops = FlowRuleOperations.builder();
+        stale.forEach(ops::remove);
+        writeGovernor.apply(deviceId, ops.build());
+    }
+}
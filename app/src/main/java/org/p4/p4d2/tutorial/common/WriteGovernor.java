@@ -0,0 +1,684 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.p4.p4d2.tutorial.common;
+
+import org.onlab.util.SharedScheduledExecutors;
+import org.onlab.util.Tools;
+import org.onosproject.cfg.ComponentConfigService;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.FlowId;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleOperation;
+import org.onosproject.net.flow.FlowRuleOperations;
+import org.onosproject.net.flow.FlowRuleOperationsContext;
+import org.onosproject.net.flow.FlowRuleService;
+import org.osgi.service.component.ComponentContext;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Dictionary;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Maps.newConcurrentMap;
+import static com.google.common.collect.Sets.newHashSet;
+import static org.p4.p4d2.tutorial.OsgiPropertyConstants.MAX_WRITE_BATCH_SIZE;
+import static org.p4.p4d2.tutorial.OsgiPropertyConstants.MAX_WRITE_BATCH_SIZE_DEFAULT;
+import static org.p4.p4d2.tutorial.OsgiPropertyConstants.WRITE_GOVERNOR;
+import static org.p4.p4d2.tutorial.OsgiPropertyConstants.WRITE_GOVERNOR_DEFAULT;
+import static org.p4.p4d2.tutorial.OsgiPropertyConstants.WRITE_LATENCY_TARGET;
+import static org.p4.p4d2.tutorial.OsgiPropertyConstants.WRITE_LATENCY_TARGET_DEFAULT;
+
+/**
+ * Component that paces the flow rule writes of all components of the app, per
+ * device, so that slow switches are not sent more than they can take.
+ * <p>
+ * Operations are queued per device and written in batches, with a limited
+ * number of operations in flight, i.e. written but not yet acknowledged by
+ * the device. Both limits adapt to the device with an additive increase,
+ * multiplicative decrease (AIMD) scheme: while writes complete within
+ * writeLatencyTarget ms, the window of operations in flight grows by about
+ * one batch per round trip, and batches grow as long as operations are
+ * waiting; when a write is slower or fails, both are halved, at most once per
+ * round trip. The target should stay well below the fallbackFlowPollFrequency
+ * set by MainComponent (4 s), after which entries still pending are written
+ * again by ONOS, adding to the load of the switch. A write not acknowledged
+ * within WRITE_TIMEOUT is considered failed, not to stall the device queue.
+ * <p>
+ * Stages of the given operations are kept: a stage is written only when the
+ * previous one has been acknowledged. Operations of different callers may be
+ * merged in the same write. An operation on a flow rule written to the device
+ * but not answered yet, even after WRITE_TIMEOUT, is held until the device
+ * answers, as ONOS may run writes in flight concurrently; other operations
+ * are written meanwhile. All flow rule operations of the app go through this
+ * component, so that operations on the same flow rule are written in the
+ * order they are applied.
+ */
+@Component(
+        immediate = true,
+        service = WriteGovernor.class,
+        property = {
+                WRITE_GOVERNOR + ":Boolean=" + WRITE_GOVERNOR_DEFAULT,
+                WRITE_LATENCY_TARGET + ":Integer=" + WRITE_LATENCY_TARGET_DEFAULT,
+                MAX_WRITE_BATCH_SIZE + ":Integer=" + MAX_WRITE_BATCH_SIZE_DEFAULT,
+        }
+)
+public class WriteGovernor {
+
+    private static final Logger log = LoggerFactory.getLogger(WriteGovernor.class);
+
+    // Batch size of a device at first write, and lowest batch size.
+    private static final int INITIAL_BATCH_SIZE = 50;
+    private static final int MIN_BATCH_SIZE = 1;
+    // Increase of the batch size after a fast write, while operations wait.
+    private static final int BATCH_SIZE_STEP = 10;
+    // Maximum operations in flight, in number of maximum size batches.
+    private static final int MAX_WINDOW_BATCHES = 4;
+    private static final int INITIAL_WINDOW_BATCHES = 2;
+    // Time after which a write not acknowledged yet is considered failed.
+    private static final long WRITE_TIMEOUT = 5000; // milliseconds
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    private ComponentConfigService compCfgService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    private FlowRuleService flowRuleService;
+
+    /** Pace flow rule writes per device; if disabled, writes go straight to ONOS. */
+    private volatile boolean writeGovernor = WRITE_GOVERNOR_DEFAULT;
+
+    /** Write latency (ms) above which a device is considered overloaded. */
+    private volatile int writeLatencyTarget = WRITE_LATENCY_TARGET_DEFAULT;
+
+    /** Maximum number of flow rule operations written to a device at once. */
+    private volatile int maxWriteBatchSize = MAX_WRITE_BATCH_SIZE_DEFAULT;
+
+    private final Map<DeviceId, DeviceGovernor> governors = newConcurrentMap();
+
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong decreases = new AtomicLong();
+
+    @Activate
+    protected void activate(ComponentContext context) {
+        compCfgService.registerProperties(getClass());
+        modified(context);
+        log.info("Started");
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        compCfgService.unregisterProperties(getClass(), false);
+        governors.clear();
+        log.info("Stopped");
+    }
+
+    @Modified
+    protected void modified(ComponentContext context) {
+        final Dictionary<?, ?> properties = context.getProperties();
+        writeGovernor = Tools.isPropertyEnabled(
+                properties, WRITE_GOVERNOR, WRITE_GOVERNOR_DEFAULT);
+        final int target = Tools.getIntegerProperty(
+                properties, WRITE_LATENCY_TARGET, WRITE_LATENCY_TARGET_DEFAULT);
+        if (target > 0) {
+            writeLatencyTarget = target;
+        } else {
+            log.warn("Invalid {} {}, must be positive", WRITE_LATENCY_TARGET, target);
+        }
+        final int batchSize = Tools.getIntegerProperty(
+                properties, MAX_WRITE_BATCH_SIZE, MAX_WRITE_BATCH_SIZE_DEFAULT);
+        if (batchSize > 0) {
+            maxWriteBatchSize = batchSize;
+        } else {
+            log.warn("Invalid {} {}, must be positive", MAX_WRITE_BATCH_SIZE, batchSize);
+        }
+        log.info("Configured. {} is {}, {} is {} ms, {} is {}",
+                 WRITE_GOVERNOR, writeGovernor, WRITE_LATENCY_TARGET, writeLatencyTarget,
+                 MAX_WRITE_BATCH_SIZE, maxWriteBatchSize);
+    }
+
+    /**
+     * Writes the given flow rule operations to the given device, as soon as
+     * the device can take them. Like FlowRuleService.apply(), the callback of
+     * the operations is invoked once all stages have been acknowledged, or
+     * when one of them has failed.
+     *
+     * @param deviceId the device ID
+     * @param ops      flow rule operations, all on the given device
+     */
+    public void apply(DeviceId deviceId, FlowRuleOperations ops) {
+        if (!writeGovernor) {
+            flowRuleService.apply(ops);
+            return;
+        }
+        governors.computeIfAbsent(deviceId, DeviceGovernor::new).submit(new Request(ops));
+    }
+
+    /**
+     * Writes the given flow rule operations, possibly on several devices, as
+     * soon as the devices can take them. Each stage is split per device, and
+     * is written only when the previous one has been acknowledged by all
+     * devices. Like FlowRuleService.apply(), the callback of the operations is
+     * invoked once all stages have been acknowledged, or when one of them has
+     * failed.
+     *
+     * @param ops flow rule operations
+     */
+    public void apply(FlowRuleOperations ops) {
+        if (!writeGovernor) {
+            flowRuleService.apply(ops);
+            return;
+        }
+        final Set<DeviceId> deviceIds = ops.stages().stream()
+                .flatMap(Set::stream)
+                .map(op -> op.rule().deviceId())
+                .collect(Collectors.toSet());
+        if (deviceIds.size() == 1) {
+            apply(deviceIds.iterator().next(), ops);
+        } else {
+            new MultiDeviceRequest(ops).applyNextStage();
+        }
+    }
+
+    /**
+     * Adds the given flow rules, all on the same device, as soon as the
+     * device can take them.
+     *
+     * @param flowRules flow rules to add
+     */
+    public void applyFlowRules(FlowRule... flowRules) {
+        if (flowRules.length == 0) {
+            return;
+        }
+        final DeviceId deviceId = flowRules[0].deviceId();
+        final FlowRuleOperations.Builder ops = FlowRuleOperations.builder();
+        for (FlowRule flowRule : flowRules) {
+            checkArgument(flowRule.deviceId().equals(deviceId),
+                          "Flow rules on different devices");
+            ops.add(flowRule);
+        }
+        apply(deviceId, ops.build());
+    }
+
+    /**
+     * Drops the operations still waiting to be written to the given devices,
+     * e.g. when this node is no longer their master. The callbacks of the
+     * operations not fully written are invoked with an error. Writes in
+     * flight are not affected.
+     *
+     * @param deviceIds devices to cancel
+     */
+    public void cancel(Collection<DeviceId> deviceIds) {
+        deviceIds.forEach(deviceId -> {
+            final DeviceGovernor governor = governors.remove(deviceId);
+            if (governor != null) {
+                governor.cancel();
+            }
+        });
+    }
+
+    /**
+     * Returns the current batch size and window of each device, e.g. to
+     * check how fast devices accept writes.
+     *
+     * @return map of device ID to description of the device limits
+     */
+    public Map<DeviceId, String> deviceLimits() {
+        final Map<DeviceId, String> limits = new LinkedHashMap<>();
+        governors.forEach((deviceId, governor) -> limits.put(deviceId, governor.toString()));
+        return limits;
+    }
+
+    /**
+     * Returns the number of writes sent to devices so far.
+     *
+     * @return number of writes
+     */
+    public long writes() {
+        return writes.get();
+    }
+
+    /**
+     * Returns the number of times the limits of a device were decreased
+     * because of a slow or failed write.
+     *
+     * @return number of decreases
+     */
+    public long decreases() {
+        return decreases.get();
+    }
+
+    /**
+     * Flow rule operations submitted by a component, written one stage at a
+     * time.
+     */
+    private static final class Request {
+        private final FlowRuleOperations ops;
+        private final List<Set<FlowRuleOperation>> stages;
+        private int stage = -1;
+        private boolean failed;
+        private boolean done;
+
+        private Request(FlowRuleOperations ops) {
+            this.ops = ops;
+            this.stages = ops.stages();
+        }
+
+        /**
+         * Moves to the next non-empty stage and returns its operations, or
+         * null if there are no more stages.
+         */
+        private Stage nextStage() {
+            while (++stage < stages.size()) {
+                if (!stages.get(stage).isEmpty()) {
+                    return new Stage(this, stages.get(stage));
+                }
+            }
+            return null;
+        }
+
+        private void complete() {
+            final FlowRuleOperationsContext callback = ops.callback();
+            if (callback == null) {
+                return;
+            }
+            if (failed) {
+                callback.onError(ops);
+            } else {
+                callback.onSuccess(ops);
+            }
+        }
+    }
+
+    /**
+     * Flow rule operations on several devices, applied one stage at a time,
+     * with one request per device.
+     */
+    private final class MultiDeviceRequest {
+        private final FlowRuleOperations ops;
+        // Devices which have not acknowledged the current stage yet.
+        private final AtomicInteger remaining = new AtomicInteger();
+        private int stage = -1;
+        private volatile boolean failed;
+
+        private MultiDeviceRequest(FlowRuleOperations ops) {
+            this.ops = ops;
+        }
+
+        private void applyNextStage() {
+            final Map<DeviceId, FlowRuleOperations.Builder> devices = new LinkedHashMap<>();
+            while (devices.isEmpty() && ++stage < ops.stages().size()) {
+                ops.stages().get(stage).forEach(op -> devices.computeIfAbsent(
+                        op.rule().deviceId(), id -> FlowRuleOperations.builder()).operation(op));
+            }
+            if (devices.isEmpty()) {
+                complete();
+                return;
+            }
+            remaining.set(devices.size());
+            final FlowRuleOperationsContext context = new FlowRuleOperationsContext() {
+                @Override
+                public void onSuccess(FlowRuleOperations deviceOps) {
+                    deviceCompleted(true);
+                }
+
+                @Override
+                public void onError(FlowRuleOperations deviceOps) {
+                    deviceCompleted(false);
+                }
+            };
+            devices.forEach((deviceId, deviceOps) -> apply(deviceId, deviceOps.build(context)));
+        }
+
+        private void deviceCompleted(boolean success) {
+            if (!success) {
+                failed = true;
+            }
+            if (remaining.decrementAndGet() > 0) {
+                return;
+            }
+            if (failed) {
+                complete();
+            } else {
+                applyNextStage();
+            }
+        }
+
+        private void complete() {
+            final FlowRuleOperationsContext callback = ops.callback();
+            if (callback == null) {
+                return;
+            }
+            if (failed) {
+                callback.onError(ops);
+            } else {
+                callback.onSuccess(ops);
+            }
+        }
+    }
+
+    /**
+     * Operations of a stage of a request.
+     */
+    private static final class Stage {
+        private final Request request;
+        // Operations not written yet, and operations not acknowledged yet.
+        private final List<FlowRuleOperation> pending;
+        private int remaining;
+
+        private Stage(Request request, Collection<FlowRuleOperation> ops) {
+            this.request = request;
+            this.pending = new LinkedList<>(ops);
+            this.remaining = ops.size();
+        }
+    }
+
+    /**
+     * Queue and limits of a device.
+     */
+    private final class DeviceGovernor {
+
+        private final DeviceId deviceId;
+        private final Queue<Stage> queue = new ArrayDeque<>();
+        // Flow rules written and not answered yet by the device.
+        private final Set<FlowId> inFlightFlowIds = newHashSet();
+        private int queuedOps;
+        private int inFlightOps;
+        private int batchSize = Math.min(INITIAL_BATCH_SIZE, maxWriteBatchSize);
+        private int window = batchSize * INITIAL_WINDOW_BATCHES;
+        private long lastDecreaseNanos;
+        private boolean cancelled;
+
+        private DeviceGovernor(DeviceId deviceId) {
+            this.deviceId = deviceId;
+            this.lastDecreaseNanos = System.nanoTime();
+        }
+
+        private void submit(Request request) {
+            final List<Runnable> completions = newArrayList();
+            synchronized (this) {
+                // Cancelled since looked up, fail right away.
+                request.failed |= cancelled;
+                enqueueNextStage(request, completions);
+            }
+            completions.forEach(Runnable::run);
+            drain();
+        }
+
+        private void cancel() {
+            final List<Runnable> completions = newArrayList();
+            synchronized (this) {
+                cancelled = true;
+                queue.forEach(stage -> fail(stage.request, completions));
+                queue.clear();
+                queuedOps = 0;
+            }
+            completions.forEach(Runnable::run);
+        }
+
+        /**
+         * Queues the next stage of the given request, or adds the completion
+         * of the request to the given list if there are no more stages.
+         */
+        private void enqueueNextStage(Request request, List<Runnable> completions) {
+            final Stage stage = request.failed ? null : request.nextStage();
+            if (stage == null) {
+                finish(request, completions);
+                return;
+            }
+            queue.add(stage);
+            queuedOps += stage.remaining;
+        }
+
+        private void fail(Request request, List<Runnable> completions) {
+            request.failed = true;
+            finish(request, completions);
+        }
+
+        /**
+         * Adds the completion of the given request to the given list, unless
+         * already added, e.g. when cancelled.
+         */
+        private void finish(Request request, List<Runnable> completions) {
+            if (!request.done) {
+                request.done = true;
+                completions.add(request::complete);
+            }
+        }
+
+        /**
+         * Writes batches while the window allows. A batch is always allowed
+         * when nothing is in flight, so that writes never stall.
+         */
+        private void drain() {
+            while (true) {
+                final Write write;
+                synchronized (this) {
+                    if (cancelled || queue.isEmpty() ||
+                            (inFlightOps > 0 && inFlightOps + batchSize > window)) {
+                        return;
+                    }
+                    write = nextWrite();
+                    if (write.size == 0) {
+                        // All waiting for the answer of a write in flight.
+                        return;
+                    }
+                    inFlightOps += write.size;
+                    queuedOps -= write.size;
+                }
+                writes.incrementAndGet();
+                final FlowRuleOperations ops = write.build();
+                write.timeout = SharedScheduledExecutors.newTimeout(
+                        () -> timedOut(write), WRITE_TIMEOUT, TimeUnit.MILLISECONDS);
+                flowRuleService.apply(ops);
+            }
+        }
+
+        private void timedOut(Write write) {
+            if (write.acknowledge()) {
+                log.warn("Write of {} operations to {} not acknowledged after {} ms",
+                         write.size, deviceId, WRITE_TIMEOUT);
+                completed(write, false);
+            }
+        }
+
+        /**
+         * Takes up to batchSize operations from the queue, in order, skipping
+         * operations on flow rules already in flight or in the batch. As all
+         * later operations on such a flow rule are skipped too, they are
+         * written in order once the device has answered.
+         */
+        private Write nextWrite() {
+            final Write write = new Write(this);
+            final Iterator<Stage> stages = queue.iterator();
+            while (write.size < batchSize && stages.hasNext()) {
+                final Stage stage = stages.next();
+                final Iterator<FlowRuleOperation> ops = stage.pending.iterator();
+                while (write.size < batchSize && ops.hasNext()) {
+                    final FlowRuleOperation op = ops.next();
+                    if (!inFlightFlowIds.add(op.rule().id())) {
+                        continue;
+                    }
+                    ops.remove();
+                    write.add(stage, op);
+                }
+                if (stage.pending.isEmpty()) {
+                    stages.remove();
+                }
+            }
+            return write;
+        }
+
+        /**
+         * Handles the answer of the device to a write, which may come after
+         * its timeout: operations held because of it can now be written.
+         */
+        private void answered(Write write, boolean success) {
+            final boolean acknowledged = write.acknowledge();
+            synchronized (this) {
+                write.flowIds.forEach(inFlightFlowIds::remove);
+            }
+            if (acknowledged) {
+                completed(write, success);
+            } else {
+                drain();
+            }
+        }
+
+        /**
+         * Handles the acknowledgment of a write: updates the limits, then
+         * queues the next stage of the requests whose current stage is done.
+         */
+        private void completed(Write write, boolean success) {
+            final long latencyNanos = System.nanoTime() - write.startNanos;
+            final List<Runnable> completions = newArrayList();
+            synchronized (this) {
+                inFlightOps -= write.size;
+                adapt(write, latencyNanos, success);
+                write.counts.forEach((stage, count) -> {
+                    stage.remaining -= count;
+                    stage.request.failed |= !success;
+                    if (stage.remaining != 0) {
+                        return;
+                    }
+                    if (cancelled) {
+                        fail(stage.request, completions);
+                    } else {
+                        enqueueNextStage(stage.request, completions);
+                    }
+                });
+            }
+            completions.forEach(Runnable::run);
+            drain();
+        }
+
+        private void adapt(Write write, long latencyNanos, boolean success) {
+            final long targetNanos = writeLatencyTarget * 1_000_000L;
+            final int maxBatchSize = maxWriteBatchSize;
+            batchSize = Math.min(batchSize, maxBatchSize);
+            if (!success || latencyNanos > targetNanos) {
+                // Decrease once per round trip: writes sent before the last
+                // decrease were sized with the previous limits.
+                if (write.startNanos - lastDecreaseNanos < 0) {
+                    return;
+                }
+                lastDecreaseNanos = System.nanoTime();
+                batchSize = Math.max(MIN_BATCH_SIZE, batchSize / 2);
+                window = Math.max(batchSize, window / 2);
+                decreases.incrementAndGet();
+                log.info("{} write to {} took {} ms, decreasing limits to {}",
+                         success ? "Slow" : "Failed", deviceId, latencyNanos / 1_000_000,
+                         this);
+                return;
+            }
+            if (queuedOps > batchSize) {
+                batchSize = Math.min(maxBatchSize, batchSize + BATCH_SIZE_STEP);
+            }
+            // About one batch more per round trip.
+            window = Math.min(maxBatchSize * MAX_WINDOW_BATCHES,
+                              window + Math.max(1, batchSize * write.size / window));
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("batchSize=%d, window=%d, inFlight=%d, queued=%d",
+                                 batchSize, window, inFlightOps, queuedOps);
+        }
+    }
+
+    /**
+     * Flow rule operations written to a device at once, taken from one or
+     * more stages.
+     */
+    private static final class Write {
+        private final DeviceGovernor governor;
+        private final FlowRuleOperations.Builder ops = FlowRuleOperations.builder();
+        // Stage to number of its operations in this write.
+        private final Map<Stage, Integer> counts = new LinkedHashMap<>();
+        private final List<FlowId> flowIds = newArrayList();
+        private long startNanos;
+        private int size;
+        private boolean acknowledged;
+        private volatile ScheduledFuture<?> timeout;
+
+        private Write(DeviceGovernor governor) {
+            this.governor = governor;
+        }
+
+        private void add(Stage stage, FlowRuleOperation op) {
+            ops.operation(op);
+            counts.merge(stage, 1, Integer::sum);
+            flowIds.add(op.rule().id());
+            size++;
+        }
+
+        /**
+         * Marks this write as acknowledged, by the device or by its timeout.
+         * Returns false if already acknowledged, e.g. when the device answers
+         * after the timeout.
+         */
+        private synchronized boolean acknowledge() {
+            if (acknowledged) {
+                return false;
+            }
+            acknowledged = true;
+            return true;
+        }
+
+        private void answered(boolean success) {
+            final ScheduledFuture<?> scheduled = timeout;
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+            governor.answered(this, success);
+        }
+
+        private FlowRuleOperations build() {
+            startNanos = System.nanoTime();
+            return ops.build(new FlowRuleOperationsContext() {
+                @Override
+                public void onSuccess(FlowRuleOperations ops) {
+                    answered(true);
+                }
+
+                @Override
+                public void onError(FlowRuleOperations ops) {
+                    answered(false);
+                }
+            });
+        }
+    }
+}
@@ -32,9 +32,7 @@ import org.onosproject.net.flow.instructions.Instruction;
 import org.onosproject.net.packet.DefaultInboundPacket;
 import org.onosproject.net.packet.InboundPacket;
 import org.onosproject.net.packet.OutboundPacket;
-import org.onosproject.net.pi.model.PiActionId;
 import org.onosproject.net.pi.model.PiMatchFieldId;
-import org.onosproject.net.pi.model.PiPacketMetadataId;
 import org.onosproject.net.pi.model.PiPipelineInterpreter;
 import org.onosproject.net.pi.model.PiTableId;
 import org.onosproject.net.pi.runtime.PiAction;
@@ -54,14 +52,14 @@ import static org.onosproject.net.PortNumber.FLOOD;
 import static org.onosproject.net.flow.instructions.Instruction.Type.OUTPUT;
 import static org.onosproject.net.flow.instructions.Instructions.OutputInstruction;
 import static org.onosproject.net.pi.model.PiPacketOperationType.PACKET_OUT;
-import static org.p4.p4d2.tutorial.AppConstants.ACL_TABLE;
-import static org.p4.p4d2.tutorial.AppConstants.CLONE_TO_CPU;
 import static org.p4.p4d2.tutorial.AppConstants.CPU_PORT_ID;
 import static org.p4.p4d2.tutorial.AppConstants.CRITERION_MAP;
-import static org.p4.p4d2.tutorial.AppConstants.DROP_ACTION;
-import static org.p4.p4d2.tutorial.AppConstants.EGRESS_PORT_CTRL_METADATA;
-import static org.p4.p4d2.tutorial.AppConstants.INGRESS_PORT_CTRL_METADATA;
-import static org.p4.p4d2.tutorial.AppConstants.NO_ACTION;
+import static org.p4.p4d2.tutorial.P4InfoActions.FABRIC_INGRESS_CLONE_TO_CPU;
+import static org.p4.p4d2.tutorial.P4InfoActions.FABRIC_INGRESS_DROP;
+import static org.p4.p4d2.tutorial.P4InfoActions.NO_ACTION;
+import static org.p4.p4d2.tutorial.P4InfoConstants.EGRESS_PORT;
+import static org.p4.p4d2.tutorial.P4InfoConstants.FABRIC_INGRESS_ACL;
+import static org.p4.p4d2.tutorial.P4InfoConstants.INGRESS_PORT;
 
 
 /**
@@ -75,14 +73,14 @@ public class InterpreterImpl extends AbstractHandlerBehaviour
     @Override
     public PiAction mapTreatment(TrafficTreatment treatment, PiTableId piTableId)
             throws PiInterpreterException {
-        if (!piTableId.id().equals(ACL_TABLE)) {
+        if (!piTableId.equals(FABRIC_INGRESS_ACL)) {
             throw new PiInterpreterException(
                     "Treatment mapping not supported for table " + piTableId);
         }
 
         if (treatment.allInstructions().isEmpty()) {
             // Zero instructions means drop.
-            return PiAction.builder().withId(PiActionId.of(DROP_ACTION)).build();
+            return FABRIC_INGRESS_DROP;
         } else if (treatment.allInstructions().size() > 1) {
             // We understand treatments with only 1 instruction.
             throw new PiInterpreterException("Treatment has too many instructions");
@@ -95,15 +93,14 @@ public class InterpreterImpl extends AbstractHandlerBehaviour
                 if (port.equals(CONTROLLER)) {
                     // FIXME: modify hostprovider and packet requests to install
                     //  clone to CPU rules.
-                    final PiActionId actionId = PiActionId.of(CLONE_TO_CPU);
-                    // final PiActionId actionId = treatment.clearedDeferred()
+                    // return treatment.clearedDeferred()
                     //         ? FABRIC_INGRESS_PUNT_TO_CPU
                     //         : FABRIC_INGRESS_CLONE_TO_CPU;
-                    return PiAction.builder().withId(actionId).build();
+                    return FABRIC_INGRESS_CLONE_TO_CPU;
                 }
                 break;
             case NOACTION:
-                return PiAction.builder().withId(PiActionId.of(NO_ACTION)).build();
+                return NO_ACTION;
             default:
                 break;
         }
@@ -164,7 +161,7 @@ public class InterpreterImpl extends AbstractHandlerBehaviour
 
         // Returns the ingress port packet metadata.
         Optional<PiPacketMetadata> packetMetadata = packetIn.metadatas()
-                .stream().filter(m -> m.id().id().equals(INGRESS_PORT_CTRL_METADATA))
+                .stream().filter(m -> m.id().equals(INGRESS_PORT))
                 .findFirst();
 
         if (packetMetadata.isPresent()) {
@@ -176,7 +173,7 @@ public class InterpreterImpl extends AbstractHandlerBehaviour
         } else {
             throw new PiInterpreterException(format(
                     "Missing metadata '%s' in packet-in received from '%s': %s",
-                    INGRESS_PORT_CTRL_METADATA, deviceId, packetIn));
+                    INGRESS_PORT, deviceId, packetIn));
         }
     }
 
@@ -193,7 +190,7 @@ public class InterpreterImpl extends AbstractHandlerBehaviour
     private PiPacketMetadata createPacketMetadata(long portNumber) throws PiInterpreterException {
         try {
             return PiPacketMetadata.builder()
-                    .withId(PiPacketMetadataId.of(EGRESS_PORT_CTRL_METADATA))
+                    .withId(EGRESS_PORT)
                     .withValue(copyFrom(portNumber).fit(PORT_BITWIDTH))
                     .build();
         } catch (ImmutableByteSequence.ByteSequenceTrimException e) {
@@ -214,7 +211,7 @@ public class InterpreterImpl extends AbstractHandlerBehaviour
     @Override
     public Optional<PiMatchFieldId> mapCriterionType(Criterion.Type type) {
         if (CRITERION_MAP.containsKey(type)) {
-            return Optional.of(PiMatchFieldId.of(CRITERION_MAP.get(type)));
+            return Optional.of(CRITERION_MAP.get(type));
         } else {
             return Optional.empty();
         }
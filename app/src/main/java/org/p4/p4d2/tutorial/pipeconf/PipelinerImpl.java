@@ -28,13 +28,12 @@ import org.onosproject.net.flowobjective.FilteringObjective;
 import org.onosproject.net.flowobjective.ForwardingObjective;
 import org.onosproject.net.flowobjective.NextObjective;
 import org.onosproject.net.flowobjective.ObjectiveError;
-import org.onosproject.net.pi.model.PiTableId;
 import org.slf4j.Logger;
 
 import java.util.Collections;
 import java.util.List;
 
-import static org.p4.p4d2.tutorial.AppConstants.ACL_TABLE;
+import static org.p4.p4d2.tutorial.P4InfoConstants.FABRIC_INGRESS_ACL;
 import static org.slf4j.LoggerFactory.getLogger;
 
 /**
@@ -69,7 +68,7 @@ public class PipelinerImpl extends AbstractHandlerBehaviour implements Pipeliner
 
         // Simply create an equivalent FlowRule for table 0.
         final FlowRule.Builder ruleBuilder = DefaultFlowRule.builder()
-                .forTable(PiTableId.of(ACL_TABLE))
+                .forTable(FABRIC_INGRESS_ACL)
                 .forDevice(deviceId)
                 .withSelector(obj.selector())
                 .fromApp(obj.appId())
@@ -0,0 +1,293 @@
+#!/usr/bin/env python3
+#
+# Copyright 2019-present Open Networking Foundation
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#   http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+
+"""
+Generates Java classes with the identifiers of a P4 program, from its P4Info
+in protobuf text format:
+
+- P4InfoConstants: PiTableId, PiMatchFieldId, PiActionId, ... constants.
+- P4InfoActions: preallocated PiAction objects for actions without
+  parameters, and factory methods with one argument per parameter for the
+  other actions.
+
+Only the Python standard library is used, so that the build does not depend
+on the protobuf/p4runtime Python packages.
+"""
+
+import argparse
+import os
+import re
+import sys
+
+# Parameters up to this width are passed as int, wider ones as byte[].
+MAX_INT_BITWIDTH = 32
+
+TOKEN_RE = re.compile(r'\s*(?:(#[^\n]*)|("(?:[^"\\]|\\.)*")|([{}:])|([^\s{}:"#]+))')
+
+
+def tokenize(text):
+    pos = 0
+    text = text.rstrip()
+    while pos < len(text):
+        m = TOKEN_RE.match(text, pos)
+        if not m:
+            raise ValueError("Cannot parse P4Info at offset %d" % pos)
+        pos = m.end()
+        comment, string, punct, word = m.groups()
+        if comment is not None:
+            continue
+        if string is not None:
+            yield ('string', bytes(string[1:-1], 'utf-8').decode('unicode_escape'))
+        elif punct is not None:
+            yield (punct, punct)
+        else:
+            yield ('word', word)
+
+
+def parse_message(tokens, top_level=False):
+    """Parses fields until '}' (or end of input), returns dict of lists."""
+    msg = {}
+    while True:
+        tok = next(tokens, None)
+        if tok is None:
+            if top_level:
+                return msg
+            raise ValueError("Unexpected end of P4Info")
+        kind, value = tok
+        if kind == '}':
+            return msg
+        if kind != 'word':
+            raise ValueError("Unexpected token %r" % value)
+        field = value
+        kind, value = next(tokens)
+        if kind == ':':
+            kind, value = next(tokens)
+        if kind == '{':
+            msg.setdefault(field, []).append(parse_message(tokens))
+        elif kind in ('word', 'string'):
+            msg.setdefault(field, []).append(value)
+        else:
+            raise ValueError("Unexpected token %r after %s" % (value, field))
+
+
+def parse_p4info(path):
+    with open(path) as f:
+        return parse_message(tokenize(f.read()), top_level=True)
+
+
+def first(msg, field, default=None):
+    values = msg.get(field)
+    return values[0] if values else default
+
+
+def name_of(entity):
+    return first(first(entity, 'preamble', entity), 'name')
+
+
+def const_name(name):
+    s = re.sub(r'([a-z0-9])([A-Z])', r'\1_\2', name)
+    s = re.sub(r'[^A-Za-z0-9]+', '_', s)
+    return s.strip('_').upper()
+
+
+def camel_name(name):
+    parts = const_name(name).lower().split('_')
+    return parts[0] + ''.join(p.capitalize() for p in parts[1:])
+
+
+class Constants(object):
+    """Ordered groups of constants, checking that names are unique."""
+
+    def __init__(self):
+        self.groups = []
+        self.names = {}
+
+    def add_group(self, title, java_type, names):
+        entries = []
+        for name in sorted(set(names)):
+            const = const_name(name)
+            if const in self.names and self.names[const] != (java_type, name):
+                raise ValueError("Name clash for %s: %s and %s"
+                                 % (const, self.names[const][1], name))
+            if const in self.names:
+                continue
+            self.names[const] = (java_type, name)
+            entries.append((const, name))
+        if entries:
+            self.groups.append((title, java_type, entries))
+
+
+def header(package):
+    return """/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Generated from P4Info by gen_p4info_constants.py, do not edit.
+
+package %s;
+""" % package
+
+
+def gen_constants(p4info, package):
+    consts = Constants()
+    tables = p4info.get('tables', [])
+    consts.add_group('Header field IDs', 'PiMatchFieldId',
+                     [first(mf, 'name') for t in tables
+                      for mf in t.get('match_fields', [])])
+    consts.add_group('Table IDs', 'PiTableId', [name_of(t) for t in tables])
+    consts.add_group('Indirect counter IDs', 'PiCounterId',
+                     [name_of(c) for c in p4info.get('counters', [])])
+    consts.add_group('Direct counter IDs', 'PiCounterId',
+                     [name_of(c) for c in p4info.get('direct_counters', [])])
+    actions = p4info.get('actions', [])
+    consts.add_group('Action IDs', 'PiActionId', [name_of(a) for a in actions])
+    consts.add_group('Action param IDs', 'PiActionParamId',
+                     [first(p, 'name') for a in actions
+                      for p in a.get('params', [])])
+    consts.add_group('Action profile IDs', 'PiActionProfileId',
+                     [name_of(ap) for ap in p4info.get('action_profiles', [])])
+    consts.add_group('Packet metadata IDs', 'PiPacketMetadataId',
+                     [first(md, 'name')
+                      for cpm in p4info.get('controller_packet_metadata', [])
+                      for md in cpm.get('metadata', [])])
+    consts.add_group('Meter IDs', 'PiMeterId',
+                     [name_of(m) for m in p4info.get('meters', [])])
+    consts.add_group('Register IDs', 'PiRegisterId',
+                     [name_of(r) for r in p4info.get('registers', [])])
+
+    out = [header(package)]
+    for java_type in sorted(set(g[1] for g in consts.groups)):
+        out.append('import org.onosproject.net.pi.model.%s;' % java_type)
+    out.append('')
+    out.append('/**')
+    out.append(' * Identifiers of the tables, match fields, actions, etc. of the P4 program.')
+    out.append(' */')
+    out.append('public final class P4InfoConstants {')
+    out.append('')
+    out.append('    private P4InfoConstants() {')
+    out.append('        // Hides constructor.')
+    out.append('    }')
+    for title, java_type, entries in consts.groups:
+        out.append('')
+        out.append('    // %s' % title)
+        for const, name in entries:
+            out.append('    public static final %s %s =' % (java_type, const))
+            out.append('            %s.of("%s");' % (java_type, name))
+    out.append('}')
+    return '\n'.join(out) + '\n'
+
+
+def gen_actions(p4info, package):
+    out = [header(package)]
+    out.append('import org.onosproject.net.pi.runtime.PiAction;')
+    out.append('import org.onosproject.net.pi.runtime.PiActionParam;')
+    out.append('')
+    out.append('/**')
+    out.append(' * Actions of the P4 program. Actions without parameters are preallocated,')
+    out.append(' * the others are built by factory methods taking the parameter values.')
+    out.append(' */')
+    out.append('public final class P4InfoActions {')
+    out.append('')
+    out.append('    private P4InfoActions() {')
+    out.append('        // Hides constructor.')
+    out.append('    }')
+    actions = sorted(p4info.get('actions', []), key=name_of)
+    for action in actions:
+        name = name_of(action)
+        const = const_name(name)
+        params = action.get('params', [])
+        out.append('')
+        if not params:
+            out.append('    /** %s action. */' % name)
+            out.append('    public static final PiAction %s = PiAction.builder()' % const)
+            out.append('            .withId(P4InfoConstants.%s)' % const)
+            out.append('            .build();')
+            continue
+        args = []
+        out.append('    /**')
+        out.append('     * Returns a %s action.' % name)
+        out.append('     *')
+        for p in params:
+            pname = first(p, 'name')
+            width = int(first(p, 'bitwidth', '0'))
+            jtype = 'int' if 0 < width <= MAX_INT_BITWIDTH else 'byte[]'
+            args.append((jtype, camel_name(pname), const_name(pname)))
+        arg_width = max(len(a[1]) for a in args)
+        for (jtype, arg, _), p in zip(args, params):
+            out.append('     * @param %s %s (%s bits)'
+                       % (arg.ljust(arg_width), first(p, 'name'),
+                          first(p, 'bitwidth', '?')))
+        out.append('     * @return action')
+        out.append('     */')
+        out.append('    public static PiAction %s(%s) {'
+                   % (camel_name(name),
+                      ', '.join('%s %s' % (jtype, arg) for jtype, arg, _ in args)))
+        out.append('        return PiAction.builder()')
+        out.append('                .withId(P4InfoConstants.%s)' % const)
+        for jtype, arg, pconst in args:
+            out.append('                .withParameter(new PiActionParam(P4InfoConstants.%s, %s))'
+                       % (pconst, arg))
+        out.append('                .build();')
+        out.append('    }')
+    out.append('}')
+    return '\n'.join(out) + '\n'
+
+
+def write_if_changed(path, content):
+    # Keeps the timestamp, avoiding recompilation, if nothing changed.
+    if os.path.exists(path):
+        with open(path) as f:
+            if f.read() == content:
+                return
+    with open(path, 'w') as f:
+        f.write(content)
+
+
+def main():
+    parser = argparse.ArgumentParser(description=__doc__.strip().split('\n')[0])
+    parser.add_argument('--p4info', required=True, help='P4Info text file')
+    parser.add_argument('--package', required=True, help='Java package')
+    parser.add_argument('--output', required=True,
+                        help='Root directory of generated sources')
+    args = parser.parse_args()
+
+    if not os.path.exists(args.p4info):
+        sys.exit("%s not found, build the P4 program first (make p4)" % args.p4info)
+    p4info = parse_p4info(args.p4info)
+    out_dir = os.path.join(args.output, *args.package.split('.'))
+    if not os.path.isdir(out_dir):
+        os.makedirs(out_dir)
+    write_if_changed(os.path.join(out_dir, 'P4InfoConstants.java'),
+                     gen_constants(p4info, args.package))
+    write_if_changed(os.path.join(out_dir, 'P4InfoActions.java'),
+                     gen_actions(p4info, args.package))
+
+
+if __name__ == '__main__':
+    main()
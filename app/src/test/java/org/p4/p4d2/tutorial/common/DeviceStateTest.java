@@ -0,0 +1,110 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.p4.p4d2.tutorial.common;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.core.DefaultApplicationId;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.group.DefaultGroupBucket;
+import org.onosproject.net.group.DefaultGroupDescription;
+import org.onosproject.net.group.DefaultGroupKey;
+import org.onosproject.net.group.GroupBucket;
+import org.onosproject.net.group.GroupBuckets;
+import org.onosproject.net.group.GroupDescription;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the comparison of device states.
+ */
+public class DeviceStateTest {
+
+    private static final DeviceId DEVICE_ID = DeviceId.deviceId("device:leaf1");
+    private static final ApplicationId APP_ID = new DefaultApplicationId(1, "test");
+    private static final int GROUP_ID = 1;
+
+    /**
+     * Checks that a group whose buckets differ only by their weights is
+     * modified, GroupBucket.equals() ignoring weights.
+     */
+    @Test
+    public void testDiffWeightChange() {
+        final DeviceState current = DeviceState.builder(DEVICE_ID)
+                .addGroup(selectGroup(1, 1))
+                .build();
+        final GroupDescription reweighted = selectGroup(1, 2);
+        final DeviceState target = DeviceState.builder(DEVICE_ID)
+                .addGroup(reweighted)
+                .build();
+
+        final DeviceState.Delta delta = current.diff(target);
+
+        assertEquals(ImmutableList.of(reweighted), delta.groupsToModify());
+        assertEquals(1, delta.size());
+    }
+
+    /**
+     * Checks that a group with the same buckets and weights is left alone.
+     */
+    @Test
+    public void testDiffSameWeights() {
+        final DeviceState current = DeviceState.builder(DEVICE_ID)
+                .addGroup(selectGroup(1, 2))
+                .build();
+        final DeviceState target = DeviceState.builder(DEVICE_ID)
+                .addGroup(selectGroup(1, 2))
+                .build();
+
+        assertTrue(current.diff(target).isEmpty());
+    }
+
+    /**
+     * Checks that the same group cannot be added twice with different
+     * weights.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddGroupWeightConflict() {
+        DeviceState.builder(DEVICE_ID)
+                .addGroup(selectGroup(1, 1))
+                .addGroup(selectGroup(1, 2));
+    }
+
+    /**
+     * Returns a SELECT group with two buckets, outputting to port 1 and 2,
+     * with the given weights.
+     */
+    private static GroupDescription selectGroup(int weight1, int weight2) {
+        final GroupBuckets buckets = new GroupBuckets(ImmutableList.of(
+                bucket(1, weight1), bucket(2, weight2)));
+        return new DefaultGroupDescription(
+                DEVICE_ID, GroupDescription.Type.SELECT, buckets,
+                new DefaultGroupKey(new byte[]{GROUP_ID}), GROUP_ID, APP_ID);
+    }
+
+    private static GroupBucket bucket(long port, int weight) {
+        return DefaultGroupBucket.createSelectGroupBucket(
+                DefaultTrafficTreatment.builder()
+                        .setOutput(PortNumber.portNumber(port))
+                        .build(),
+                (short) weight);
+    }
+}
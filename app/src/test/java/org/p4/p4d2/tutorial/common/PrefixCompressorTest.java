@@ -0,0 +1,165 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.p4.p4d2.tutorial.common;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+import org.onlab.packet.Ip6Address;
+import org.onlab.packet.Ip6Prefix;
+
+import java.util.Map;
+import java.util.Random;
+
+import static com.google.common.collect.Maps.newHashMap;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests of the compression of IPv6 routes.
+ */
+public class PrefixCompressorTest {
+
+    private static final String BASE = "2001:db8::";
+    private static final String A = "A";
+    private static final String B = "B";
+
+    /**
+     * Checks that eight contiguous host routes with the same next hop are
+     * merged, level by level, into a single /125.
+     */
+    @Test
+    public void testCascadingSiblingMerge() {
+        final Map<Ip6Prefix, String> routes = newHashMap();
+        for (int i = 0; i < 8; i++) {
+            routes.put(prefix(i, 128), A);
+        }
+
+        final Map<Ip6Prefix, String> compressed = PrefixCompressor.compress(routes);
+
+        assertEquals(ImmutableMap.of(prefix(0, 125), A), compressed);
+        assertSameForwarding(routes, compressed);
+    }
+
+    /**
+     * Checks that siblings are not merged when their parent is routed to a
+     * different next hop, which would change the forwarding of the parent.
+     */
+    @Test
+    public void testNoMergeWithParentOfDifferentNextHop() {
+        final Map<Ip6Prefix, String> routes = ImmutableMap.of(
+                prefix(0, 128), A,
+                prefix(1, 128), A,
+                prefix(0, 127), B);
+
+        final Map<Ip6Prefix, String> compressed = PrefixCompressor.compress(routes);
+
+        assertEquals(routes, compressed);
+    }
+
+    /**
+     * Checks that a more-specific route with a different next hop is kept
+     * under a parent obtained by merging siblings, and still wins.
+     */
+    @Test
+    public void testMoreSpecificUnderMergedParent() {
+        final Map<Ip6Prefix, String> routes = ImmutableMap.of(
+                prefix(0, 127), A,
+                prefix(2, 127), A,
+                prefix(3, 128), B);
+
+        final Map<Ip6Prefix, String> compressed = PrefixCompressor.compress(routes);
+
+        assertEquals(ImmutableMap.of(prefix(0, 126), A, prefix(3, 128), B), compressed);
+        assertSameForwarding(routes, compressed);
+    }
+
+    /**
+     * Checks that merging stops at the first parent covering an address
+     * that was not routed.
+     */
+    @Test
+    public void testNoNewAddressRouted() {
+        final Map<Ip6Prefix, String> routes = ImmutableMap.of(
+                prefix(0, 128), A,
+                prefix(1, 128), A,
+                prefix(2, 128), A);
+
+        final Map<Ip6Prefix, String> compressed = PrefixCompressor.compress(routes);
+
+        assertEquals(ImmutableMap.of(prefix(0, 127), A, prefix(2, 128), A), compressed);
+        assertNull(lookup(compressed, address(3)));
+        assertSameForwarding(routes, compressed);
+    }
+
+    /**
+     * Checks on random tables, where merges and drops interact, that every
+     * address is forwarded as before, and that unrouted addresses stay
+     * unrouted.
+     */
+    @Test
+    public void testRandomTablesSameForwarding() {
+        final Random random = new Random(42);
+        for (int run = 0; run < 200; run++) {
+            final Map<Ip6Prefix, String> routes = newHashMap();
+            final int count = 1 + random.nextInt(40);
+            for (int i = 0; i < count; i++) {
+                final int length = 120 + random.nextInt(9);
+                routes.put(prefix(random.nextInt(256), length), random.nextBoolean() ? A : B);
+            }
+
+            assertSameForwarding(routes, PrefixCompressor.compress(routes));
+        }
+    }
+
+    /**
+     * Asserts that both tables give the same next hop, or none, for every
+     * address of BASE/120 and for the first address after it.
+     */
+    private static void assertSameForwarding(Map<Ip6Prefix, String> expected,
+                                             Map<Ip6Prefix, String> actual) {
+        for (int i = 0; i <= 256; i++) {
+            final Ip6Address address = address(i);
+            assertEquals("Next hop of " + address + " in " + actual,
+                         lookup(expected, address), lookup(actual, address));
+        }
+    }
+
+    /**
+     * Returns the next hop of the longest prefix of the given table matching
+     * the given address, or null if none.
+     */
+    private static String lookup(Map<Ip6Prefix, String> table, Ip6Address address) {
+        for (int length = Ip6Address.BIT_LENGTH; length >= 0; length--) {
+            final String nextHop = table.get(Ip6Prefix.valueOf(address, length));
+            if (nextHop != null) {
+                return nextHop;
+            }
+        }
+        return null;
+    }
+
+    private static Ip6Prefix prefix(int index, int length) {
+        return Ip6Prefix.valueOf(address(index), length);
+    }
+
+    private static Ip6Address address(int index) {
+        final byte[] bytes = Ip6Address.valueOf(BASE).toOctets();
+        bytes[Ip6Address.BYTE_LENGTH - 2] = (byte) (index >>> Byte.SIZE);
+        bytes[Ip6Address.BYTE_LENGTH - 1] = (byte) index;
+        return Ip6Address.valueOf(bytes);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.p4.p4d2.tutorial;
+
+import com.google.common.collect.ImmutableList;
+import org.onlab.packet.Ip6Prefix;
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.DeviceId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.p4.p4d2.tutorial.bench.BenchUtils;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.p4.p4d2.tutorial.bench.BenchUtils.APP_ID;
+
+/**
+ * Benchmarks of the routing rules and next hop groups built by
+ * {@link Ipv6RoutingComponent}. Each operation builds the given number of
+ * rules, or groups, for one device: rules per second is the score times the
+ * number of rules.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RoutingBenchmark {
+
+    private static final int ECMP_MEMBERS = 4;
+
+    @Param({"1000", "10000", "100000"})
+    private int rules;
+
+    private final DeviceId deviceId = DeviceId.deviceId("device:leaf1");
+    private final Ipv6RoutingComponent component = new Ipv6RoutingComponent();
+    private Ip6Prefix[] prefixes;
+    private MacAddress[] macs;
+    private List<List<MacAddress>> members;
+
+    @Setup
+    public void setUp() {
+        BenchUtils.setField(component, "appId", APP_ID);
+        prefixes = BenchUtils.prefixes(rules);
+        macs = BenchUtils.macs(rules + ECMP_MEMBERS);
+        final ImmutableList.Builder<List<MacAddress>> membersBuilder = ImmutableList.builder();
+        for (int i = 0; i < rules; i++) {
+            final ImmutableList.Builder<MacAddress> group = ImmutableList.builder();
+            for (int j = 0; j < ECMP_MEMBERS; j++) {
+                group.add(macs[i + j]);
+            }
+            membersBuilder.add(group.build());
+        }
+        members = membersBuilder.build();
+    }
+
+    /**
+     * Routes to a group of next hops, via the ecmp_table.
+     *
+     * @param bh black hole
+     */
+    @Benchmark
+    public void createRoutingRuleToNextId(Blackhole bh) {
+        for (int i = 0; i < rules; i++) {
+            bh.consume(component.createRoutingRule(deviceId, prefixes[i], i));
+        }
+    }
+
+    /**
+     * Routes to a single next hop, without groups.
+     *
+     * @param bh black hole
+     */
+    @Benchmark
+    public void createRoutingRuleToNextHop(Blackhole bh) {
+        for (int i = 0; i < rules; i++) {
+            bh.consume(component.createRoutingRule(deviceId, prefixes[i], macs[i]));
+        }
+    }
+
+    @Benchmark
+    public void createNextHopGroup(Blackhole bh) {
+        for (int i = 0; i < rules; i++) {
+            bh.consume(component.createNextHopGroup(i, members.get(i), deviceId));
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.p4.p4d2.tutorial;
+
+import com.google.common.collect.ImmutableList;
+import org.onlab.packet.Ip6Address;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.FlowEntry;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleListener;
+import org.onosproject.net.flow.FlowRuleOperations;
+import org.onosproject.net.flow.FlowRuleService;
+import org.onosproject.net.flow.TableStatisticsEntry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.p4.p4d2.tutorial.bench.BenchUtils;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.p4.p4d2.tutorial.bench.BenchUtils.APP_ID;
+
+/**
+ * Benchmark of {@link Srv6Component#insertSrv6InsertRule}, building and
+ * applying the given number of SRv6 transit rules to one device. Rules are
+ * applied to a flow rule service which only counts them, so that the
+ * benchmark measures the component, not the ONOS core.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class Srv6Benchmark {
+
+    private static final int PREFIX_LENGTH = 128;
+
+    @Param({"1000", "10000", "100000"})
+    private int rules;
+
+    @Param({"2", "3"})
+    private int segments;
+
+    private final DeviceId deviceId = DeviceId.deviceId("device:leaf1");
+    private final Srv6Component component = new Srv6Component();
+    private final CountingFlowRuleService flowRuleService = new CountingFlowRuleService();
+    private Ip6Address[] destinations;
+    private List<Ip6Address> segmentList;
+
+    @Setup
+    public void setUp() {
+        BenchUtils.setField(component, "appId", APP_ID);
+        BenchUtils.setField(component, "flowRuleService", flowRuleService);
+        destinations = BenchUtils.addresses(rules);
+        final Ip6Address[] sids = BenchUtils.addresses(rules + segments);
+        segmentList = ImmutableList.copyOf(sids).subList(rules, rules + segments);
+    }
+
+    @Benchmark
+    public void insertSrv6InsertRule(Blackhole bh) {
+        for (int i = 0; i < rules; i++) {
+            component.insertSrv6InsertRule(deviceId, destinations[i], PREFIX_LENGTH, segmentList);
+        }
+        bh.consume(flowRuleService.applied);
+    }
+
+    /**
+     * Flow rule service which counts applied rules and discards them.
+     */
+    private static final class CountingFlowRuleService implements FlowRuleService {
+
+        private long applied;
+
+        @Override
+        public void applyFlowRules(FlowRule... flowRules) {
+            applied += flowRules.length;
+        }
+
+        @Override
+        public void apply(FlowRuleOperations ops) {
+            applied += ops.stages().stream().mapToInt(Set::size).sum();
+        }
+
+        @Override
+        public int getFlowRuleCount() {
+            return 0;
+        }
+
+        @Override
+        public Iterable<FlowEntry> getFlowEntries(DeviceId deviceId) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public void purgeFlowRules(DeviceId deviceId) {
+        }
+
+        @Override
+        public void removeFlowRules(FlowRule... flowRules) {
+        }
+
+        @Override
+        public void removeFlowRulesById(ApplicationId id) {
+        }
+
+        @Override
+        public Iterable<FlowEntry> getFlowEntriesById(ApplicationId id) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public Iterable<FlowRule> getFlowRulesByGroupId(ApplicationId appId, short groupId) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public Iterable<TableStatisticsEntry> getFlowTableStatistics(DeviceId deviceId) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public void addListener(FlowRuleListener listener) {
+        }
+
+        @Override
+        public void removeListener(FlowRuleListener listener) {
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.p4.p4d2.tutorial.bench;
+
+import org.onlab.packet.Ip6Address;
+import org.onlab.packet.Ip6Prefix;
+import org.onlab.packet.MacAddress;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.core.DefaultApplicationId;
+
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+
+import static org.p4.p4d2.tutorial.AppConstants.APP_PREFIX;
+
+/**
+ * Helpers shared by the benchmarks.
+ */
+public final class BenchUtils {
+
+    public static final ApplicationId APP_ID =
+            new DefaultApplicationId(1, APP_PREFIX + ".bench");
+
+    private static final int PREFIX_LENGTH = 64;
+
+    private BenchUtils() {
+        // Utility class.
+    }
+
+    /**
+     * Sets the given field of the given object, e.g. to inject in a
+     * component a reference otherwise set by the OSGi runtime.
+     *
+     * @param target the object
+     * @param name   name of the field, declared by the class of the object
+     * @param value  the value
+     */
+    public static void setField(Object target, String name, Object value) {
+        try {
+            final Field field = target.getClass().getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(target, value);
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            throw new IllegalStateException(
+                    "Unable to set " + name + " of " + target.getClass().getName(), e);
+        }
+    }
+
+    /**
+     * Returns the given number of distinct /64 IPv6 prefixes.
+     *
+     * @param count number of prefixes
+     * @return array of prefixes
+     */
+    public static Ip6Prefix[] prefixes(int count) {
+        final Ip6Prefix[] prefixes = new Ip6Prefix[count];
+        for (int i = 0; i < count; i++) {
+            final byte[] address = new byte[Ip6Address.BYTE_LENGTH];
+            ByteBuffer.wrap(address).putInt(0x20010db8).putInt(i);
+            prefixes[i] = Ip6Prefix.valueOf(address, PREFIX_LENGTH);
+        }
+        return prefixes;
+    }
+
+    /**
+     * Returns the given number of distinct IPv6 addresses.
+     *
+     * @param count number of addresses
+     * @return array of addresses
+     */
+    public static Ip6Address[] addresses(int count) {
+        final Ip6Address[] addresses = new Ip6Address[count];
+        for (int i = 0; i < count; i++) {
+            final byte[] address = new byte[Ip6Address.BYTE_LENGTH];
+            ByteBuffer.wrap(address).putInt(0x3fff0000).putInt(12, i);
+            addresses[i] = Ip6Address.valueOf(address);
+        }
+        return addresses;
+    }
+
+    /**
+     * Returns the given number of distinct locally administered MAC
+     * addresses.
+     *
+     * @param count number of addresses
+     * @return array of addresses
+     */
+    public static MacAddress[] macs(int count) {
+        final MacAddress[] macs = new MacAddress[count];
+        for (int i = 0; i < count; i++) {
+            macs[i] = MacAddress.valueOf(0x020000000000L | i);
+        }
+        return macs;
+    }
+}
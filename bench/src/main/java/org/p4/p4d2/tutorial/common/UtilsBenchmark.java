@@ -0,0 +1,147 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.p4.p4d2.tutorial.common;
+
+import com.google.common.collect.ImmutableList;
+import org.onlab.packet.Ip6Prefix;
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.flow.criteria.PiCriterion;
+import org.onosproject.net.pi.runtime.PiAction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.p4.p4d2.tutorial.bench.BenchUtils;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.p4.p4d2.tutorial.P4InfoActions.fabricIngressSetL2NextHop;
+import static org.p4.p4d2.tutorial.P4InfoActions.fabricIngressSetNextId;
+import static org.p4.p4d2.tutorial.P4InfoConstants.FABRIC_INGRESS_ECMP_SELECTOR;
+import static org.p4.p4d2.tutorial.P4InfoConstants.FABRIC_INGRESS_ECMP_TABLE;
+import static org.p4.p4d2.tutorial.P4InfoConstants.FABRIC_INGRESS_L3_TABLE;
+import static org.p4.p4d2.tutorial.P4InfoConstants.HDR_IPV6_DST_ADDR;
+import static org.p4.p4d2.tutorial.bench.BenchUtils.APP_ID;
+
+/**
+ * Benchmarks of the flow rule and group builders in {@link Utils}. Each
+ * operation builds the given number of rules, or groups, for one device:
+ * rules per second is the score times the number of rules. Inputs are built
+ * beforehand, so that only the builders are measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class UtilsBenchmark {
+
+    private static final int ECMP_MEMBERS = 4;
+    private static final int REPLICATION_PORTS = 8;
+
+    @Param({"1000", "10000", "100000"})
+    private int rules;
+
+    private final DeviceId deviceId = DeviceId.deviceId("device:leaf1");
+    private PiCriterion[] criteria;
+    private PiAction[] actions;
+    private List<List<PiAction>> memberActions;
+    private List<PortNumber> ports;
+
+    @Setup
+    public void setUp() {
+        final Ip6Prefix[] prefixes = BenchUtils.prefixes(rules);
+        final MacAddress[] macs = BenchUtils.macs(rules + ECMP_MEMBERS);
+        criteria = new PiCriterion[rules];
+        actions = new PiAction[rules];
+        final ImmutableList.Builder<List<PiAction>> members = ImmutableList.builder();
+        for (int i = 0; i < rules; i++) {
+            criteria[i] = PiCriterion.builder()
+                    .matchLpm(HDR_IPV6_DST_ADDR, prefixes[i].address().toOctets(),
+                              prefixes[i].prefixLength())
+                    .build();
+            actions[i] = fabricIngressSetNextId(i);
+            final ImmutableList.Builder<PiAction> group = ImmutableList.builder();
+            for (int j = 0; j < ECMP_MEMBERS; j++) {
+                group.add(fabricIngressSetL2NextHop(macs[i + j].toBytes()));
+            }
+            members.add(group.build());
+        }
+        memberActions = members.build();
+        final ImmutableList.Builder<PortNumber> portsBuilder = ImmutableList.builder();
+        for (int i = 1; i <= REPLICATION_PORTS; i++) {
+            portsBuilder.add(PortNumber.portNumber(i));
+        }
+        ports = portsBuilder.build();
+    }
+
+    @Benchmark
+    public void forgeFlowRule(Blackhole bh) {
+        for (int i = 0; i < rules; i++) {
+            bh.consume(Utils.forgeFlowRule(
+                    deviceId, APP_ID, FABRIC_INGRESS_L3_TABLE, criteria[i], actions[i]));
+        }
+    }
+
+    /**
+     * Same as {@link #forgeFlowRule(Blackhole)}, passing the table ID as a
+     * string.
+     *
+     * @param bh black hole
+     */
+    @Benchmark
+    public void forgeFlowRuleByName(Blackhole bh) {
+        for (int i = 0; i < rules; i++) {
+            bh.consume(Utils.forgeFlowRule(
+                    deviceId, APP_ID, "FabricIngress.l3_table", criteria[i], actions[i]));
+        }
+    }
+
+    @Benchmark
+    public void forgeSelectGroup(Blackhole bh) {
+        for (int i = 0; i < rules; i++) {
+            bh.consume(Utils.forgeSelectGroup(
+                    deviceId, FABRIC_INGRESS_ECMP_TABLE, FABRIC_INGRESS_ECMP_SELECTOR,
+                    i, memberActions.get(i), APP_ID));
+        }
+    }
+
+    @Benchmark
+    public void forgeMulticastGroup(Blackhole bh) {
+        for (int i = 0; i < rules; i++) {
+            bh.consume(Utils.forgeMulticastGroup(APP_ID, deviceId, i, ports));
+        }
+    }
+
+    @Benchmark
+    public void forgeCloneGroup(Blackhole bh) {
+        for (int i = 0; i < rules; i++) {
+            bh.consume(Utils.forgeCloneGroup(APP_ID, deviceId, i, ports));
+        }
+    }
+}
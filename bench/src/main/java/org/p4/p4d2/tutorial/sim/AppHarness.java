@@ -0,0 +1,301 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.p4.p4d2.tutorial.sim;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.onosproject.net.provider.ProviderId;
+import org.osgi.service.component.ComponentContext;
+import org.p4.p4d2.tutorial.Ipv6RoutingComponent;
+import org.p4.p4d2.tutorial.L2BridgingComponent;
+import org.p4.p4d2.tutorial.NdpReplyComponent;
+import org.p4.p4d2.tutorial.Srv6Component;
+import org.p4.p4d2.tutorial.common.ConvergenceTracer;
+import org.p4.p4d2.tutorial.common.DeviceConfigCache;
+import org.p4.p4d2.tutorial.common.EventRecorder;
+import org.p4.p4d2.tutorial.common.InterfaceIndex;
+import org.p4.p4d2.tutorial.common.MastershipHandover;
+import org.p4.p4d2.tutorial.common.ParallelSetUp;
+import org.p4.p4d2.tutorial.common.WarmRestart;
+import org.p4.p4d2.tutorial.common.WriteGovernor;
+import org.p4.p4d2.tutorial.pipeconf.PipeconfLoader;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.onlab.util.Tools.groupedThreads;
+
+/**
+ * Runs the components of the app against the fake services, without OSGi:
+ * references are injected by type and components are activated in
+ * dependency order, as the service component runtime would do.
+ */
+public final class AppHarness {
+
+    /** Provider of the devices, links and hosts of the simulation. */
+    public static final ProviderId PROVIDER_ID =
+            new ProviderId("sim", "org.p4.p4d2.tutorial.sim");
+
+    // Components of the app, in activation order.
+    private static final List<Class<?>> COMPONENTS = ImmutableList.of(
+            PipeconfLoader.class,
+            EventRecorder.class,
+            DeviceConfigCache.class,
+            InterfaceIndex.class,
+            ParallelSetUp.class,
+            ConvergenceTracer.class,
+            WriteGovernor.class,
+            WarmRestart.class,
+            MastershipHandover.class,
+            Ipv6RoutingComponent.class,
+            L2BridgingComponent.class,
+            NdpReplyComponent.class,
+            Srv6Component.class);
+
+    private static final long QUIET_POLL_MILLIS = 100;
+
+    private final EventDispatcher dispatcher = new EventDispatcher();
+    private final WriteStats stats = new WriteStats();
+    private final ScheduledExecutorService writeExecutor = Executors.newScheduledThreadPool(
+            Runtime.getRuntime().availableProcessors(),
+            groupedThreads("onos/srv6-tutorial/sim", "writes-%d"));
+
+    private final FakeMastershipService mastershipService =
+            new FakeMastershipService(dispatcher);
+    private final FakeDeviceService deviceService = new FakeDeviceService(dispatcher);
+    private final FakeLinkService linkService = new FakeLinkService(dispatcher);
+    private final FakeHostService hostService = new FakeHostService(dispatcher);
+    private final FakeInterfaceService interfaceService = new FakeInterfaceService(dispatcher);
+    private final FakeNetworkConfigService configService = new FakeNetworkConfigService(dispatcher);
+    private final FakeFlowRuleService flowRuleService;
+    private final FakeGroupService groupService;
+
+    private final Dictionary<String, Object> properties;
+    private final List<Object> services;
+    private final List<Object> components = Lists.newArrayList();
+
+    /**
+     * Creates a new harness.
+     *
+     * @param writeLatencyMillis time for the switches to complete a write
+     * @param properties         component properties, shared by all
+     *                           components
+     */
+    public AppHarness(long writeLatencyMillis, Map<String, Object> properties) {
+        this.flowRuleService = new FakeFlowRuleService(
+                dispatcher, stats, writeExecutor, writeLatencyMillis);
+        this.groupService = new FakeGroupService(
+                dispatcher, stats, writeExecutor, writeLatencyMillis);
+        this.properties = new Hashtable<>(properties);
+        this.services = Lists.newArrayList(
+                new FakeCoreService(), new FakeComponentConfigService(),
+                mastershipService, new FakePiPipeconfService(),
+                deviceService, linkService, hostService, interfaceService,
+                configService, flowRuleService, groupService);
+    }
+
+    /**
+     * Activates all components, in dependency order. Each component is
+     * available for injection in the following ones.
+     */
+    public void activate() {
+        for (Class<?> componentClass : COMPONENTS) {
+            final Object component = newInstance(componentClass);
+            inject(component);
+            invoke(component, "activate");
+            components.add(component);
+            services.add(component);
+        }
+    }
+
+    /**
+     * Deactivates all components, in reverse activation order, and stops
+     * delivering events and completing writes.
+     */
+    public void deactivate() {
+        Lists.reverse(components).forEach(component -> invoke(component, "deactivate"));
+        services.removeAll(components);
+        components.clear();
+        writeExecutor.shutdownNow();
+        dispatcher.shutdown();
+    }
+
+    /**
+     * Waits until nothing was written for the given quiet period, and at
+     * least until the given time. Returns false on timeout.
+     *
+     * @param earliestEndNanos earliest time to return, as given by
+     *                         System.nanoTime()
+     * @param quietMillis      quiet period, in milliseconds
+     * @param deadlineNanos    time of timeout, as given by System.nanoTime()
+     * @return true if writes stopped before the deadline
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitQuiet(long earliestEndNanos, long quietMillis, long deadlineNanos)
+            throws InterruptedException {
+        final long quietNanos = TimeUnit.MILLISECONDS.toNanos(quietMillis);
+        final long startNanos = System.nanoTime();
+        while (true) {
+            final long now = System.nanoTime();
+            final long lastActivity = Math.max(stats.lastWriteNanos(), startNanos);
+            if (now >= earliestEndNanos && now - lastActivity >= quietNanos) {
+                return true;
+            }
+            if (now >= deadlineNanos) {
+                return false;
+            }
+            Thread.sleep(QUIET_POLL_MILLIS);
+        }
+    }
+
+    /**
+     * Returns the active component of the given class.
+     *
+     * @param componentClass class of the component
+     * @param <T>            type of component
+     * @return component, or null if not active
+     */
+    public <T> T component(Class<T> componentClass) {
+        return components.stream()
+                .filter(componentClass::isInstance)
+                .map(componentClass::cast)
+                .findFirst().orElse(null);
+    }
+
+    public EventDispatcher dispatcher() {
+        return dispatcher;
+    }
+
+    public WriteStats stats() {
+        return stats;
+    }
+
+    public FakeMastershipService mastershipService() {
+        return mastershipService;
+    }
+
+    public FakeDeviceService deviceService() {
+        return deviceService;
+    }
+
+    public FakeLinkService linkService() {
+        return linkService;
+    }
+
+    public FakeHostService hostService() {
+        return hostService;
+    }
+
+    public FakeInterfaceService interfaceService() {
+        return interfaceService;
+    }
+
+    public FakeNetworkConfigService configService() {
+        return configService;
+    }
+
+    public FakeFlowRuleService flowRuleService() {
+        return flowRuleService;
+    }
+
+    public FakeGroupService groupService() {
+        return groupService;
+    }
+
+    private static Object newInstance(Class<?> componentClass) {
+        try {
+            return componentClass.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Unable to create " + componentClass.getName(), e);
+        }
+    }
+
+    /**
+     * Sets the unset fields of the given component to the service or
+     * component of the same type, if any.
+     */
+    private void inject(Object component) {
+        for (Field field : component.getClass().getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers()) || Modifier.isFinal(field.getModifiers()) ||
+                    field.getType().isPrimitive()) {
+                continue;
+            }
+            final Object service = services.stream()
+                    .filter(s -> field.getType().isInstance(s))
+                    .findFirst().orElse(null);
+            if (service == null) {
+                continue;
+            }
+            try {
+                field.setAccessible(true);
+                if (field.get(component) == null) {
+                    field.set(component, service);
+                }
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Unable to inject " + field, e);
+            }
+        }
+    }
+
+    /**
+     * Invokes the activate or deactivate method of the given component,
+     * passing a component context if the method takes one.
+     */
+    private void invoke(Object component, String methodName) {
+        for (Method method : component.getClass().getDeclaredMethods()) {
+            if (!method.getName().equals(methodName) || method.getParameterCount() > 1) {
+                continue;
+            }
+            try {
+                method.setAccessible(true);
+                if (method.getParameterCount() == 0) {
+                    method.invoke(component);
+                } else {
+                    method.invoke(component, context());
+                }
+                return;
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Unable to invoke " + method, e);
+            } catch (InvocationTargetException e) {
+                throw new IllegalStateException(
+                        "Failed to " + methodName + " " + component.getClass().getSimpleName(),
+                        e.getCause());
+            }
+        }
+    }
+
+    private ComponentContext context() {
+        return (ComponentContext) Proxy.newProxyInstance(
+                ComponentContext.class.getClassLoader(),
+                new Class<?>[]{ComponentContext.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("getProperties")) {
+                        return properties;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
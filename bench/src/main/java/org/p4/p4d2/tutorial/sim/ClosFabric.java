@@ -0,0 +1,243 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.p4.p4d2.tutorial.sim;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.onlab.packet.Ip6Address;
+import org.onlab.packet.Ip6Prefix;
+import org.onlab.packet.IpAddress;
+import org.onlab.packet.MacAddress;
+import org.onlab.packet.VlanId;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DefaultHost;
+import org.onosproject.net.DefaultLink;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Host;
+import org.onosproject.net.HostId;
+import org.onosproject.net.HostLocation;
+import org.onosproject.net.Link;
+import org.onosproject.net.Port;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.device.DefaultPortDescription;
+import org.onosproject.net.device.PortDescription;
+import org.onosproject.net.host.InterfaceIpAddress;
+import org.onosproject.net.intf.Interface;
+
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Generator of a two-tier Clos fabric: every leaf is connected to every
+ * spine by the given number of uplinks, and hosts are spread evenly over the
+ * host-facing ports of the leaves. Each leaf has its own /64 subnet, with
+ * gateway ::ff, configured as one interface per host-facing port.
+ * <p>
+ * Port numbers of a leaf are 1 to hostPortsPerLeaf for hosts, then the
+ * uplinks, spine by spine. Port numbers of a spine are the downlinks, leaf by
+ * leaf.
+ */
+public final class ClosFabric {
+
+    private static final long PORT_SPEED = 10_000; // Mbps.
+    private static final long GATEWAY_HOST_PART = 0xff;
+
+    private final int spines;
+    private final int leaves;
+    private final int hosts;
+    private final int uplinks;
+    private final int hostPortsPerLeaf;
+
+    /**
+     * Creates a new fabric description.
+     *
+     * @param spines           number of spines
+     * @param leaves           number of leaves
+     * @param hosts            number of hosts, over all leaves
+     * @param uplinks          number of links between each leaf and spine
+     * @param hostPortsPerLeaf number of host-facing ports of each leaf
+     */
+    public ClosFabric(int spines, int leaves, int hosts, int uplinks, int hostPortsPerLeaf) {
+        checkArgument(spines > 0 && leaves > 0, "Need at least one spine and one leaf");
+        checkArgument(leaves <= 0xffff, "At most 65535 leaves");
+        checkArgument(hosts >= 0 && uplinks > 0 && hostPortsPerLeaf > 0,
+                      "Invalid number of hosts, uplinks or host ports");
+        this.spines = spines;
+        this.leaves = leaves;
+        this.hosts = hosts;
+        this.uplinks = uplinks;
+        this.hostPortsPerLeaf = hostPortsPerLeaf;
+    }
+
+    public static DeviceId spineId(int spine) {
+        return DeviceId.deviceId("device:spine" + (spine + 1));
+    }
+
+    public static DeviceId leafId(int leaf) {
+        return DeviceId.deviceId("device:leaf" + (leaf + 1));
+    }
+
+    /**
+     * Returns the IDs of all spines and leaves.
+     *
+     * @return list of device IDs, spines first
+     */
+    public List<DeviceId> deviceIds() {
+        final ImmutableList.Builder<DeviceId> ids = ImmutableList.builder();
+        for (int s = 0; s < spines; s++) {
+            ids.add(spineId(s));
+        }
+        for (int l = 0; l < leaves; l++) {
+            ids.add(leafId(l));
+        }
+        return ids.build();
+    }
+
+    /**
+     * Returns the subnet of the given leaf, 2001:db8:&lt;leaf&gt;::/64.
+     *
+     * @param leaf index of the leaf
+     * @return IPv6 prefix
+     */
+    public static Ip6Prefix leafSubnet(int leaf) {
+        return Ip6Prefix.valueOf(String.format("2001:db8:%x::/64", leaf + 1));
+    }
+
+    /**
+     * Returns the host with the given index, as placed by this fabric.
+     *
+     * @param index index of the host
+     * @return host
+     */
+    public Host host(int index) {
+        final int leaf = index % leaves;
+        final int indexInLeaf = index / leaves;
+        final PortNumber port = PortNumber.portNumber(1 + indexInLeaf % hostPortsPerLeaf);
+        final MacAddress mac = MacAddress.valueOf(0x020000000000L + index + 1);
+        // Host part starting from ::1, skipping the gateway address.
+        final long hostPart = indexInLeaf + 1 < GATEWAY_HOST_PART
+                ? indexInLeaf + 1 : indexInLeaf + 2;
+        return new DefaultHost(AppHarness.PROVIDER_ID, HostId.hostId(mac), mac, VlanId.NONE,
+                               new HostLocation(leafId(leaf), port, 0),
+                               ImmutableSet.of(address(leaf, hostPart)));
+    }
+
+    private static IpAddress address(int leaf, long hostPart) {
+        final byte[] ip = leafSubnet(leaf).address().toOctets();
+        for (int i = 0; i < Long.BYTES; i++) {
+            ip[ip.length - 1 - i] = (byte) (hostPart >>> (i * Byte.SIZE));
+        }
+        return IpAddress.valueOf(IpAddress.Version.INET6, ip);
+    }
+
+    /**
+     * Populates the given services with the devices, links, hosts, interfaces
+     * and configuration of this fabric.
+     *
+     * @param deviceService    device service
+     * @param linkService      link service
+     * @param hostService      host service
+     * @param interfaceService interface service
+     * @param configService    network config service
+     */
+    public void populate(FakeDeviceService deviceService, FakeLinkService linkService,
+                         FakeHostService hostService, FakeInterfaceService interfaceService,
+                         FakeNetworkConfigService configService) {
+        // Configuration first, as the app expects it when devices show up.
+        for (int s = 0; s < spines; s++) {
+            configService.setSrv6Config(
+                    spineId(s), MacAddress.valueOf(0x00bb00000000L + s + 1),
+                    Ip6Address.valueOf(String.format("3:2:%x::", s + 1)), true);
+        }
+        for (int l = 0; l < leaves; l++) {
+            configService.setSrv6Config(
+                    leafId(l), MacAddress.valueOf(0x00aa00000000L + l + 1),
+                    Ip6Address.valueOf(String.format("3:1:%x::", l + 1)), false);
+            final Ip6Prefix subnet = leafSubnet(l);
+            final InterfaceIpAddress gateway = new InterfaceIpAddress(
+                    address(l, GATEWAY_HOST_PART), subnet);
+            for (int p = 1; p <= hostPortsPerLeaf; p++) {
+                final ConnectPoint cp = new ConnectPoint(leafId(l), PortNumber.portNumber(p));
+                interfaceService.addInterface(new Interface(
+                        "leaf" + (l + 1) + "-" + p, cp, ImmutableList.of(gateway),
+                        MacAddress.NONE, VlanId.NONE));
+            }
+        }
+
+        for (int s = 0; s < spines; s++) {
+            addDevice(deviceService, spineId(s), leaves * uplinks);
+        }
+        for (int l = 0; l < leaves; l++) {
+            addDevice(deviceService, leafId(l), hostPortsPerLeaf + spines * uplinks);
+        }
+
+        for (int l = 0; l < leaves; l++) {
+            for (int s = 0; s < spines; s++) {
+                for (int u = 0; u < uplinks; u++) {
+                    final int leafPortNumber = hostPortsPerLeaf + s * uplinks + u + 1;
+                    final ConnectPoint leafPort = new ConnectPoint(
+                            leafId(l), PortNumber.portNumber(leafPortNumber));
+                    final ConnectPoint spinePort = new ConnectPoint(
+                            spineId(s), PortNumber.portNumber(l * uplinks + u + 1));
+                    linkService.addLink(link(leafPort, spinePort));
+                    linkService.addLink(link(spinePort, leafPort));
+                }
+            }
+        }
+
+        for (int h = 0; h < hosts; h++) {
+            hostService.addHost(host(h));
+        }
+    }
+
+    private static void addDevice(FakeDeviceService deviceService, DeviceId deviceId,
+                                  int numPorts) {
+        final ImmutableList.Builder<PortDescription> ports = ImmutableList.builder();
+        for (int p = 1; p <= numPorts; p++) {
+            ports.add(DefaultPortDescription.builder()
+                              .withPortNumber(PortNumber.portNumber(p))
+                              .isEnabled(true)
+                              .type(Port.Type.COPPER)
+                              .portSpeed(PORT_SPEED)
+                              .build());
+        }
+        deviceService.addDevice(deviceId, ports.build());
+    }
+
+    /**
+     * Returns an active, direct link between the given connect points.
+     *
+     * @param src source connect point
+     * @param dst destination connect point
+     * @return link
+     */
+    public static Link link(ConnectPoint src, ConnectPoint dst) {
+        return DefaultLink.builder()
+                .providerId(AppHarness.PROVIDER_ID)
+                .src(src)
+                .dst(dst)
+                .type(Link.Type.DIRECT)
+                .state(Link.State.ACTIVE)
+                .build();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d spines, %d leaves, %d hosts, %d uplinks, %d host ports per leaf",
+                             spines, leaves, hosts, uplinks, hostPortsPerLeaf);
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.p4.p4d2.tutorial.sim;
+
+import org.onosproject.event.Event;
+import org.onosproject.event.EventListener;
+import org.onosproject.event.ListenerRegistry;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.onlab.util.Tools.groupedThreads;
+
+/**
+ * Delivers the events of all fake services to their listeners, in order, on
+ * a single thread, as the ONOS event delivery service does.
+ */
+public final class EventDispatcher {
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+            groupedThreads("onos/srv6-tutorial/sim", "event-dispatch"));
+
+    /**
+     * Schedules delivery of the given event to the listeners of the given
+     * registry.
+     *
+     * @param registry the listener registry
+     * @param event    the event
+     * @param <E>      type of event
+     * @param <L>      type of listener
+     */
+    public <E extends Event, L extends EventListener<E>> void post(
+            ListenerRegistry<E, L> registry, E event) {
+        executor.execute(() -> registry.process(event));
+    }
+
+    /**
+     * Schedules execution of the given task after all events posted so far.
+     *
+     * @param task the task
+     */
+    public void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    /**
+     * Stops delivering events.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.p4.p4d2.tutorial.sim;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.Maps;
+import org.onlab.util.SharedScheduledExecutors;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.device.PortDescription;
+import org.onosproject.net.intf.Interface;
+import org.p4.p4d2.tutorial.common.ConvergenceTracer;
+import org.p4.p4d2.tutorial.common.EventTrace;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.p4.p4d2.tutorial.AppConstants.INITIAL_SETUP_DELAY;
+
+/**
+ * Replays an event trace recorded by the EventRecorder component against
+ * the app running on fake services, and reports the resulting flow rule and
+ * group writes and how long it took, so that builds can be compared on the
+ * same sequence of events.
+ * <p>
+ * The network is first created as it was when recording started and the
+ * app is given time to program it. Events are then replayed at the original
+ * speed multiplied by the given factor, or as fast as possible if 0.
+ * <p>
+ * Usage: EventReplay --trace FILE [--speed X] [--write-latency-ms N]
+ * [--quiet-ms N] [--timeout-s N] [--property name=value]...
+ */
+public final class EventReplay {
+
+    private final AppHarness harness;
+    private final Map<String, Integer> replayed = new TreeMap<>();
+
+    private EventReplay(AppHarness harness) {
+        this.harness = harness;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        final Options options = Options.parse(args);
+        final AppHarness harness = new AppHarness(options.writeLatencyMillis, options.properties);
+        final EventReplay replay = new EventReplay(harness);
+
+        try (BufferedReader reader = EventTrace.newReader(options.trace)) {
+            // Network when recording started.
+            long start = System.nanoTime();
+            int snapshotRecords = 0;
+            EventTrace.Record record = next(reader);
+            while (record != null && record.isSnapshot()) {
+                replay.apply(record);
+                snapshotRecords++;
+                record = next(reader);
+            }
+            System.out.printf("Initial state: %d records, created in %d ms%n",
+                              snapshotRecords, millisSince(start));
+
+            start = System.nanoTime();
+            harness.activate();
+            final boolean setUpDone = harness.awaitQuiet(
+                    start + TimeUnit.SECONDS.toNanos(INITIAL_SETUP_DELAY) +
+                            TimeUnit.MILLISECONDS.toNanos(options.quietMillis),
+                    options.quietMillis,
+                    start + TimeUnit.SECONDS.toNanos(options.timeoutSeconds));
+            System.out.printf("Initial set up%s:%n", setUpDone ? "" : " (timed out)");
+            harness.stats().print(System.out);
+            harness.stats().reset();
+            replay.replayed.clear();
+            final ConvergenceTracer tracer = harness.component(ConvergenceTracer.class);
+            tracer.reset();
+
+            // Live events.
+            final long replayStart = System.nanoTime();
+            int events = 0;
+            while (record != null) {
+                if (options.speed > 0) {
+                    final long dueNanos = replayStart + (long) (
+                            TimeUnit.MILLISECONDS.toNanos(record.millis()) / options.speed);
+                    final long waitNanos = dueNanos - System.nanoTime();
+                    if (waitNanos > 0) {
+                        TimeUnit.NANOSECONDS.sleep(waitNanos);
+                    }
+                }
+                replay.apply(record);
+                events++;
+                record = next(reader);
+            }
+            final long replayMillis = millisSince(replayStart);
+            final boolean quiet = harness.awaitQuiet(
+                    System.nanoTime(), options.quietMillis,
+                    System.nanoTime() + TimeUnit.SECONDS.toNanos(options.timeoutSeconds));
+
+            System.out.printf("Replayed %d events in %d ms (speed %s):%n",
+                              events, replayMillis,
+                              options.speed > 0 ? options.speed + "x" : "max");
+            replay.replayed.forEach((type, count) -> System.out.printf(
+                    "  %-28s %d%n", type, count));
+            final long lastWrite = harness.stats().lastWriteNanos();
+            if (lastWrite != 0) {
+                System.out.printf("Last write: %d ms after start of replay%s%n",
+                                  TimeUnit.NANOSECONDS.toMillis(lastWrite - replayStart),
+                                  quiet ? "" : " (timed out before writes stopped)");
+            }
+            harness.stats().print(System.out);
+            System.out.printf("Convergence: pending=%d, timeouts=%d%n",
+                              tracer.pendingTraces(), tracer.timeouts());
+            new TreeMap<>(tracer.eventTypeHistograms()).forEach(
+                    (type, histogram) -> System.out.printf("  %s: %s%n", type, histogram));
+        } finally {
+            harness.deactivate();
+            SharedScheduledExecutors.shutdown();
+        }
+    }
+
+    private static EventTrace.Record next(BufferedReader reader) throws IOException {
+        final String line = reader.readLine();
+        return line == null ? null : EventTrace.parse(line);
+    }
+
+    /**
+     * Applies the given record to the fake services, which notify the app.
+     */
+    private void apply(EventTrace.Record record) throws IOException {
+        replayed.merge(record.subject() + "/" + record.type(), 1, Integer::sum);
+        switch (record.subject()) {
+            case EventTrace.DEVICE:
+                applyDevice(record);
+                break;
+            case EventTrace.LINK:
+                if ("LINK_REMOVED".equals(record.type())) {
+                    harness.linkService().removeLink(record.link(AppHarness.PROVIDER_ID));
+                } else {
+                    harness.linkService().addLink(record.link(AppHarness.PROVIDER_ID));
+                }
+                break;
+            case EventTrace.HOST:
+                if ("HOST_REMOVED".equals(record.type())) {
+                    harness.hostService().removeHost(record.host(AppHarness.PROVIDER_ID).id());
+                } else {
+                    harness.hostService().addHost(record.host(AppHarness.PROVIDER_ID));
+                }
+                break;
+            case EventTrace.INTERFACE:
+                final Interface iface = record.intf();
+                if ("INTERFACE_REMOVED".equals(record.type())) {
+                    harness.interfaceService().removeInterface(iface.connectPoint());
+                } else {
+                    harness.interfaceService().addInterface(iface);
+                }
+                break;
+            case EventTrace.NETCFG:
+                final JsonNode json = record.config();
+                if (json == null) {
+                    harness.configService().removeSrv6Config(record.deviceId());
+                } else {
+                    harness.configService().setSrv6Config(record.deviceId(), json);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown subject " + record.subject());
+        }
+    }
+
+    private void applyDevice(EventTrace.Record record) {
+        final FakeDeviceService deviceService = harness.deviceService();
+        final DeviceId deviceId = record.deviceId();
+        switch (record.type()) {
+            case "DEVICE_ADDED":
+            case "DEVICE_UPDATED":
+                if (deviceService.getDevice(deviceId) == null) {
+                    deviceService.addDevice(deviceId, record.ports());
+                }
+                deviceService.setAvailable(deviceId, record.available());
+                break;
+            case "DEVICE_AVAILABILITY_CHANGED":
+            case "DEVICE_SUSPENDED":
+                deviceService.setAvailable(deviceId, record.available());
+                break;
+            case "DEVICE_REMOVED":
+                deviceService.removeDevice(deviceId);
+                break;
+            case "PORT_ADDED":
+            case "PORT_UPDATED":
+                record.ports().forEach(port -> deviceService.updatePort(deviceId, port));
+                break;
+            case "PORT_REMOVED":
+                for (PortDescription port : record.ports()) {
+                    deviceService.removePort(deviceId, port.portNumber());
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static long millisSince(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Command line options.
+     */
+    private static final class Options {
+        private Path trace;
+        private double speed = 1;
+        private long writeLatencyMillis = 0;
+        private long quietMillis = 1000;
+        private long timeoutSeconds = 600;
+        private final Map<String, Object> properties = Maps.newHashMap();
+
+        private static Options parse(String[] args) {
+            final Options options = new Options();
+            for (int i = 0; i < args.length; i++) {
+                final String name = args[i];
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value of " + name);
+                }
+                final String value = args[++i];
+                switch (name) {
+                    case "--trace":
+                        options.trace = Paths.get(value);
+                        break;
+                    case "--speed":
+                        options.speed = Double.parseDouble(value);
+                        break;
+                    case "--write-latency-ms":
+                        options.writeLatencyMillis = Long.parseLong(value);
+                        break;
+                    case "--quiet-ms":
+                        options.quietMillis = Long.parseLong(value);
+                        break;
+                    case "--timeout-s":
+                        options.timeoutSeconds = Long.parseLong(value);
+                        break;
+                    case "--property":
+                        final int eq = value.indexOf('=');
+                        if (eq <= 0) {
+                            throw new IllegalArgumentException("Invalid property " + value);
+                        }
+                        options.properties.put(value.substring(0, eq), value.substring(eq + 1));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + name);
+                }
+            }
+            if (options.trace == null) {
+                throw new IllegalArgumentException("Missing --trace");
+            }
+            return options;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.p4.p4d2.tutorial.sim;
+
+import com.google.common.collect.Maps;
+import org.onlab.util.SharedScheduledExecutors;
+import org.onosproject.net.DeviceId;
+import org.p4.p4d2.tutorial.common.MastershipHandover;
+import org.p4.p4d2.tutorial.common.WriteGovernor;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.collect.Iterables.size;
+import static org.p4.p4d2.tutorial.AppConstants.INITIAL_SETUP_DELAY;
+
+/**
+ * Activates the app on a synthetic Clos fabric, with fake services instead
+ * of ONOS and the switches, and reports how long it takes to program the
+ * fabric and how many writes are sent to the switches. With --takeover, the
+ * given number of leaves are then handed over to another node and back, as
+ * after the failure of that node, to report how long the takeover takes.
+ * <p>
+ * Usage: FabricSimulation [--spines N] [--leaves N] [--hosts N] [--uplinks N]
+ * [--host-ports N] [--write-latency-ms N] [--quiet-ms N] [--timeout-s N]
+ * [--takeover N] [--property name=value]...
+ */
+public final class FabricSimulation {
+
+    private FabricSimulation() {
+        // Main class.
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        final Options options = Options.parse(args);
+        try {
+            simulate(options);
+        } catch (RuntimeException | Error e) {
+            e.printStackTrace();
+            // Threads of the app and of the harness would keep the JVM
+            // running, e.g. when a component fails to activate.
+            System.exit(1);
+        } finally {
+            // Shared executors are normally shut down by the ONOS core.
+            SharedScheduledExecutors.shutdown();
+        }
+    }
+
+    private static void simulate(Options options) throws InterruptedException {
+        final ClosFabric fabric = new ClosFabric(
+                options.spines, options.leaves, options.hosts, options.uplinks,
+                options.hostPorts);
+        final AppHarness harness = new AppHarness(options.writeLatencyMillis, options.properties);
+
+        System.out.printf("Fabric: %s%n", fabric);
+        long start = System.nanoTime();
+        fabric.populate(harness.deviceService(), harness.linkService(), harness.hostService(),
+                        harness.interfaceService(), harness.configService());
+        System.out.printf("Topology created in %d ms%n", millisSince(start));
+
+        final long activationStart = System.nanoTime();
+        harness.activate();
+        final long activationMillis = millisSince(activationStart);
+        // Set up starts after INITIAL_SETUP_DELAY.
+        final boolean quiet = harness.awaitQuiet(
+                activationStart + TimeUnit.SECONDS.toNanos(INITIAL_SETUP_DELAY) +
+                        TimeUnit.MILLISECONDS.toNanos(options.quietMillis),
+                options.quietMillis,
+                activationStart + TimeUnit.SECONDS.toNanos(options.timeoutSeconds));
+        final WriteStats stats = harness.stats();
+
+        System.out.printf("Activation: %d ms%n", activationMillis);
+        if (stats.total() == 0) {
+            System.out.println("Nothing written");
+        } else {
+            final long firstMillis = TimeUnit.NANOSECONDS.toMillis(
+                    stats.firstWriteNanos() - activationStart);
+            final long programmingMillis = TimeUnit.NANOSECONDS.toMillis(
+                    stats.lastWriteNanos() - stats.firstWriteNanos());
+            System.out.printf("First write: %d ms after activation (set up delay %d s)%n",
+                              firstMillis, INITIAL_SETUP_DELAY);
+            System.out.printf("Programming: %d ms, %.0f writes/s%s%n", programmingMillis,
+                              stats.total() * 1000.0 / Math.max(programmingMillis, 1),
+                              quiet ? "" : " (timed out before writes stopped)");
+        }
+        stats.print(System.out);
+        long groups = 0;
+        for (DeviceId deviceId : fabric.deviceIds()) {
+            groups += size(harness.groupService().getGroups(deviceId));
+        }
+        System.out.printf("Installed: %d flow rules, %d groups%n",
+                          harness.flowRuleService().getFlowRuleCount(), groups);
+        final WriteGovernor governor = harness.component(WriteGovernor.class);
+        System.out.printf("Governor: %d writes, %d decreases%n",
+                          governor.writes(), governor.decreases());
+
+        if (options.takeover > 0) {
+            takeOver(harness, options);
+        }
+
+        start = System.nanoTime();
+        harness.deactivate();
+        System.out.printf("Deactivation: %d ms%n", millisSince(start));
+    }
+
+    /**
+     * Hands some leaves over to another node, then takes them back, and
+     * reports the time and writes needed to set them up again.
+     */
+    private static void takeOver(AppHarness harness, Options options)
+            throws InterruptedException {
+        final FakeMastershipService mastershipService = harness.mastershipService();
+        final int count = Math.min(options.takeover, options.leaves);
+        for (int i = 0; i < count; i++) {
+            mastershipService.setLocalMaster(ClosFabric.leafId(i), false);
+        }
+        harness.awaitQuiet(System.nanoTime(), options.quietMillis,
+                           System.nanoTime() + TimeUnit.SECONDS.toNanos(options.timeoutSeconds));
+        harness.stats().reset();
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            mastershipService.setLocalMaster(ClosFabric.leafId(i), true);
+        }
+        final boolean quiet = harness.awaitQuiet(
+                start + TimeUnit.MILLISECONDS.toNanos(options.quietMillis),
+                options.quietMillis,
+                start + TimeUnit.SECONDS.toNanos(options.timeoutSeconds));
+        final WriteStats stats = harness.stats();
+        final long lastMillis = stats.total() == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(
+                stats.lastWriteNanos() - start);
+        final MastershipHandover handover = harness.component(MastershipHandover.class);
+        System.out.printf("Takeover of %d leaves: last write after %d ms%s, " +
+                                  "%d takeovers, %d releases%n",
+                          count, lastMillis, quiet ? "" : " (timed out)",
+                          handover.takeovers(), handover.releases());
+        stats.print(System.out);
+    }
+
+    private static long millisSince(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Command line options.
+     */
+    private static final class Options {
+        private int spines = 4;
+        private int leaves = 16;
+        private int hosts = 1000;
+        private int uplinks = 1;
+        private int hostPorts = 48;
+        private long writeLatencyMillis = 0;
+        private long quietMillis = 1000;
+        private long timeoutSeconds = 600;
+        private int takeover = 0;
+        private final Map<String, Object> properties = Maps.newHashMap();
+
+        private static Options parse(String[] args) {
+            final Options options = new Options();
+            for (int i = 0; i < args.length; i++) {
+                final String name = args[i];
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value of " + name);
+                }
+                final String value = args[++i];
+                switch (name) {
+                    case "--spines":
+                        options.spines = Integer.parseInt(value);
+                        break;
+                    case "--leaves":
+                        options.leaves = Integer.parseInt(value);
+                        break;
+                    case "--hosts":
+                        options.hosts = Integer.parseInt(value);
+                        break;
+                    case "--uplinks":
+                        options.uplinks = Integer.parseInt(value);
+                        break;
+                    case "--host-ports":
+                        options.hostPorts = Integer.parseInt(value);
+                        break;
+                    case "--write-latency-ms":
+                        options.writeLatencyMillis = Long.parseLong(value);
+                        break;
+                    case "--quiet-ms":
+                        options.quietMillis = Long.parseLong(value);
+                        break;
+                    case "--timeout-s":
+                        options.timeoutSeconds = Long.parseLong(value);
+                        break;
+                    case "--takeover":
+                        options.takeover = Integer.parseInt(value);
+                        break;
+                    case "--property":
+                        final int eq = value.indexOf('=');
+                        if (eq <= 0) {
+                            throw new IllegalArgumentException("Invalid property " + value);
+                        }
+                        options.properties.put(value.substring(0, eq), value.substring(eq + 1));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + name);
+                }
+            }
+            return options;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.p4.p4d2.tutorial.sim;
+
+import com.google.common.collect.ImmutableSet;
+import org.onosproject.cfg.ComponentConfigService;
+import org.onosproject.cfg.ConfigProperty;
+
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.collect.Maps.newConcurrentMap;
+
+/**
+ * Component configuration service which only records the properties set by
+ * the components. Properties of the components themselves are given to them
+ * at activation, see {@link AppHarness}.
+ */
+public final class FakeComponentConfigService implements ComponentConfigService {
+
+    private final Map<String, String> properties = newConcurrentMap();
+
+    /**
+     * Returns the value of the given property, if set by a component.
+     *
+     * @param componentName name of the component
+     * @param name          name of the property
+     * @return value, or null
+     */
+    public String value(String componentName, String name) {
+        return properties.get(componentName + "/" + name);
+    }
+
+    @Override
+    public Set<String> getComponentNames() {
+        return ImmutableSet.of();
+    }
+
+    @Override
+    public void registerProperties(Class<?> componentClass) {
+    }
+
+    @Override
+    public void unregisterProperties(Class<?> componentClass, boolean clear) {
+    }
+
+    @Override
+    public Set<ConfigProperty> getProperties(String componentName) {
+        return ImmutableSet.of();
+    }
+
+    @Override
+    public void setProperty(String componentName, String name, String value) {
+        properties.put(componentName + "/" + name, value);
+    }
+
+    @Override
+    public void preSetProperty(String componentName, String name, String value) {
+        properties.put(componentName + "/" + name, value);
+    }
+
+    @Override
+    public void preSetProperty(String componentName, String name, String value, boolean override) {
+        if (override) {
+            properties.put(componentName + "/" + name, value);
+        } else {
+            properties.putIfAbsent(componentName + "/" + name, value);
+        }
+    }
+
+    @Override
+    public void unsetProperty(String componentName, String name) {
+        properties.remove(componentName + "/" + name);
+    }
+
+    @Override
+    public ConfigProperty getProperty(String componentName, String attribute) {
+        return null;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.p4.p4d2.tutorial.sim;
+
+import com.google.common.collect.ImmutableSet;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.core.CoreService;
+import org.onosproject.core.DefaultApplicationId;
+import org.onosproject.core.IdGenerator;
+import org.onosproject.core.Version;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.collect.Maps.newConcurrentMap;
+
+/**
+ * Core service giving IDs to the applications registered by the components.
+ */
+public final class FakeCoreService implements CoreService {
+
+    private final Map<String, ApplicationId> appIds = newConcurrentMap();
+    private final AtomicInteger nextAppId = new AtomicInteger(1);
+    private final Map<String, AtomicLong> idGenerators = newConcurrentMap();
+
+    @Override
+    public Version version() {
+        return Version.version("2.1.0");
+    }
+
+    @Override
+    public Set<ApplicationId> getAppIds() {
+        return ImmutableSet.copyOf(appIds.values());
+    }
+
+    @Override
+    public ApplicationId getAppId(Short id) {
+        return appIds.values().stream()
+                .filter(appId -> appId.id() == id)
+                .findFirst().orElse(null);
+    }
+
+    @Override
+    public ApplicationId getAppId(String name) {
+        return appIds.get(name);
+    }
+
+    @Override
+    public ApplicationId registerApplication(String name) {
+        return appIds.computeIfAbsent(
+                name, n -> new DefaultApplicationId(nextAppId.getAndIncrement(), n));
+    }
+
+    @Override
+    public ApplicationId registerApplication(String name, Runnable preDeactivate) {
+        return registerApplication(name);
+    }
+
+    @Override
+    public IdGenerator getIdGenerator(String topic) {
+        final AtomicLong counter = idGenerators.computeIfAbsent(topic, t -> new AtomicLong());
+        return counter::incrementAndGet;
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.p4.p4d2.tutorial.sim;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+import org.onlab.packet.ChassisId;
+import org.onosproject.event.ListenerRegistry;
+import org.onosproject.net.DefaultDevice;
+import org.onosproject.net.DefaultPort;
+import org.onosproject.net.Device;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.MastershipRole;
+import org.onosproject.net.Port;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.device.DeviceEvent;
+import org.onosproject.net.device.DeviceListener;
+import org.onosproject.net.device.DeviceService;
+import org.onosproject.net.device.PortDescription;
+import org.onosproject.net.device.PortStatistics;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.collect.Maps.newConcurrentMap;
+
+/**
+ * In-memory device service. Devices and ports are changed with the mutator
+ * methods, which notify the listeners as the device subsystem would.
+ */
+public final class FakeDeviceService implements DeviceService {
+
+    private final ListenerRegistry<DeviceEvent, DeviceListener> listeners =
+            new ListenerRegistry<>();
+    private final EventDispatcher dispatcher;
+
+    private final Map<DeviceId, Device> devices = newConcurrentMap();
+    private final Set<DeviceId> available = Sets.newConcurrentHashSet();
+    private final Map<DeviceId, Map<PortNumber, Port>> ports = newConcurrentMap();
+    private final AtomicLong nextChassisId = new AtomicLong();
+
+    public FakeDeviceService(EventDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Adds the given device, available, with the given ports.
+     *
+     * @param deviceId         the device ID
+     * @param portDescriptions ports of the device
+     */
+    public void addDevice(DeviceId deviceId, List<PortDescription> portDescriptions) {
+        final Device device = new DefaultDevice(
+                AppHarness.PROVIDER_ID, deviceId, Device.Type.SWITCH, "sim", "1.0", "1.0",
+                deviceId.toString(), new ChassisId(nextChassisId.incrementAndGet()));
+        final Map<PortNumber, Port> portMap = newConcurrentMap();
+        portDescriptions.forEach(desc -> portMap.put(desc.portNumber(), port(device, desc)));
+        devices.put(deviceId, device);
+        ports.put(deviceId, portMap);
+        available.add(deviceId);
+        dispatcher.post(listeners, new DeviceEvent(DeviceEvent.Type.DEVICE_ADDED, device));
+    }
+
+    /**
+     * Changes the availability of the given device.
+     *
+     * @param deviceId    the device ID
+     * @param isAvailable true if available
+     */
+    public void setAvailable(DeviceId deviceId, boolean isAvailable) {
+        final Device device = devices.get(deviceId);
+        if (device == null) {
+            return;
+        }
+        final boolean changed = isAvailable ? available.add(deviceId) : available.remove(deviceId);
+        if (changed) {
+            dispatcher.post(listeners, new DeviceEvent(
+                    DeviceEvent.Type.DEVICE_AVAILABILITY_CHANGED, device));
+        }
+    }
+
+    /**
+     * Removes the given device and its ports.
+     *
+     * @param deviceId the device ID
+     */
+    public void removeDevice(DeviceId deviceId) {
+        final Device device = devices.remove(deviceId);
+        if (device == null) {
+            return;
+        }
+        ports.remove(deviceId);
+        available.remove(deviceId);
+        dispatcher.post(listeners, new DeviceEvent(DeviceEvent.Type.DEVICE_REMOVED, device));
+    }
+
+    /**
+     * Adds a port to the given device, or changes its state or speed.
+     *
+     * @param deviceId the device ID
+     * @param desc     description of the port
+     */
+    public void updatePort(DeviceId deviceId, PortDescription desc) {
+        final Device device = devices.get(deviceId);
+        final Map<PortNumber, Port> portMap = ports.get(deviceId);
+        if (device == null || portMap == null) {
+            return;
+        }
+        final Port port = port(device, desc);
+        final Port prev = portMap.put(port.number(), port);
+        final DeviceEvent.Type type = prev == null
+                ? DeviceEvent.Type.PORT_ADDED : DeviceEvent.Type.PORT_UPDATED;
+        dispatcher.post(listeners, new DeviceEvent(type, device, port));
+    }
+
+    /**
+     * Removes a port of the given device.
+     *
+     * @param deviceId   the device ID
+     * @param portNumber the port number
+     */
+    public void removePort(DeviceId deviceId, PortNumber portNumber) {
+        final Device device = devices.get(deviceId);
+        final Map<PortNumber, Port> portMap = ports.get(deviceId);
+        if (device == null || portMap == null) {
+            return;
+        }
+        final Port port = portMap.remove(portNumber);
+        if (port != null) {
+            dispatcher.post(listeners, new DeviceEvent(
+                    DeviceEvent.Type.PORT_REMOVED, device, port));
+        }
+    }
+
+    private static Port port(Device device, PortDescription desc) {
+        return new DefaultPort(device, desc.portNumber(), desc.isEnabled(),
+                               desc.type(), desc.portSpeed());
+    }
+
+    @Override
+    public int getDeviceCount() {
+        return devices.size();
+    }
+
+    @Override
+    public Iterable<Device> getDevices() {
+        return ImmutableList.copyOf(devices.values());
+    }
+
+    @Override
+    public Iterable<Device> getDevices(Device.Type type) {
+        return devices.values().stream()
+                .filter(device -> device.type() == type)
+                .collect(ImmutableList.toImmutableList());
+    }
+
+    @Override
+    public Iterable<Device> getAvailableDevices() {
+        return devices.values().stream()
+                .filter(device -> available.contains(device.id()))
+                .collect(ImmutableList.toImmutableList());
+    }
+
+    @Override
+    public Iterable<Device> getAvailableDevices(Device.Type type) {
+        return devices.values().stream()
+                .filter(device -> device.type() == type && available.contains(device.id()))
+                .collect(ImmutableList.toImmutableList());
+    }
+
+    @Override
+    public Device getDevice(DeviceId deviceId) {
+        return devices.get(deviceId);
+    }
+
+    @Override
+    public MastershipRole getRole(DeviceId deviceId) {
+        return MastershipRole.MASTER;
+    }
+
+    @Override
+    public List<Port> getPorts(DeviceId deviceId) {
+        final Map<PortNumber, Port> portMap = ports.get(deviceId);
+        return portMap == null ? ImmutableList.of() : ImmutableList.copyOf(portMap.values());
+    }
+
+    @Override
+    public List<PortStatistics> getPortStatistics(DeviceId deviceId) {
+        return ImmutableList.of();
+    }
+
+    @Override
+    public List<PortStatistics> getPortDeltaStatistics(DeviceId deviceId) {
+        return ImmutableList.of();
+    }
+
+    @Override
+    public Port getPort(DeviceId deviceId, PortNumber portNumber) {
+        final Map<PortNumber, Port> portMap = ports.get(deviceId);
+        return portMap == null ? null : portMap.get(portNumber);
+    }
+
+    @Override
+    public boolean isAvailable(DeviceId deviceId) {
+        return available.contains(deviceId);
+    }
+
+    @Override
+    public String localStatus(DeviceId deviceId) {
+        return null;
+    }
+
+    @Override
+    public long getLastUpdatedInstant(DeviceId deviceId) {
+        return 0;
+    }
+
+    @Override
+    public void addListener(DeviceListener listener) {
+        listeners.addListener(listener);
+    }
+
+    @Override
+    public void removeListener(DeviceListener listener) {
+        listeners.removeListener(listener);
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.p4.p4d2.tutorial.sim;
+
+import com.google.common.collect.ImmutableList;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.event.ListenerRegistry;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.DefaultFlowEntry;
+import org.onosproject.net.flow.FlowEntry;
+import org.onosproject.net.flow.FlowId;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleEvent;
+import org.onosproject.net.flow.FlowRuleListener;
+import org.onosproject.net.flow.FlowRuleOperation;
+import org.onosproject.net.flow.FlowRuleOperations;
+import org.onosproject.net.flow.FlowRuleService;
+import org.onosproject.net.flow.TableStatisticsEntry;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.collect.Maps.newConcurrentMap;
+import static org.p4.p4d2.tutorial.sim.WriteStats.Op.FLOW_ADD;
+import static org.p4.p4d2.tutorial.sim.WriteStats.Op.FLOW_MODIFY;
+import static org.p4.p4d2.tutorial.sim.WriteStats.Op.FLOW_REMOVE;
+
+/**
+ * In-memory flow rule service acting as a set of switches which accept all
+ * writes. Each write request is counted in the given {@link WriteStats} and
+ * completed after the given latency: entries become ADDED, the callback is
+ * invoked and RULE_ADDED/RULE_REMOVED events are posted.
+ */
+public final class FakeFlowRuleService implements FlowRuleService {
+
+    private final ListenerRegistry<FlowRuleEvent, FlowRuleListener> listeners =
+            new ListenerRegistry<>();
+    private final EventDispatcher dispatcher;
+    private final WriteStats stats;
+    private final ScheduledExecutorService writeExecutor;
+    private final long writeLatencyMillis;
+
+    private final Map<DeviceId, Map<FlowId, DefaultFlowEntry>> entries = newConcurrentMap();
+
+    /**
+     * Creates a new flow rule service.
+     *
+     * @param dispatcher         event dispatcher
+     * @param stats              counters of writes
+     * @param writeExecutor      executor completing writes
+     * @param writeLatencyMillis time to complete a write request
+     */
+    public FakeFlowRuleService(EventDispatcher dispatcher, WriteStats stats,
+                               ScheduledExecutorService writeExecutor,
+                               long writeLatencyMillis) {
+        this.dispatcher = dispatcher;
+        this.stats = stats;
+        this.writeExecutor = writeExecutor;
+        this.writeLatencyMillis = writeLatencyMillis;
+    }
+
+    @Override
+    public void apply(FlowRuleOperations ops) {
+        stats.recordBatch();
+        for (Set<FlowRuleOperation> stage : ops.stages()) {
+            stage.forEach(op -> write(op.rule(), op.type() == FlowRuleOperation.Type.REMOVE));
+        }
+        complete(() -> {
+            ops.stages().forEach(stage -> stage.forEach(
+                    op -> confirm(op.rule(), op.type() == FlowRuleOperation.Type.REMOVE)));
+            if (ops.callback() != null) {
+                ops.callback().onSuccess(ops);
+            }
+        });
+    }
+
+    @Override
+    public void applyFlowRules(FlowRule... flowRules) {
+        writeAll(ImmutableList.copyOf(flowRules), false);
+    }
+
+    @Override
+    public void removeFlowRules(FlowRule... flowRules) {
+        writeAll(ImmutableList.copyOf(flowRules), true);
+    }
+
+    @Override
+    public void removeFlowRulesById(ApplicationId appId) {
+        writeAll(ImmutableList.copyOf(getFlowEntriesById(appId)), true);
+    }
+
+    @Override
+    public void purgeFlowRules(DeviceId deviceId) {
+        entries.remove(deviceId);
+    }
+
+    private void writeAll(Collection<? extends FlowRule> flowRules, boolean remove) {
+        if (flowRules.isEmpty()) {
+            return;
+        }
+        stats.recordBatch();
+        flowRules.forEach(rule -> write(rule, remove));
+        complete(() -> flowRules.forEach(rule -> confirm(rule, remove)));
+    }
+
+    private void write(FlowRule rule, boolean remove) {
+        final Map<FlowId, DefaultFlowEntry> deviceEntries = entries.computeIfAbsent(
+                rule.deviceId(), d -> newConcurrentMap());
+        if (remove) {
+            final DefaultFlowEntry entry = deviceEntries.get(rule.id());
+            if (entry != null) {
+                entry.setState(FlowEntry.FlowEntryState.PENDING_REMOVE);
+            }
+            stats.record(rule.deviceId(), FLOW_REMOVE, 1);
+        } else {
+            final DefaultFlowEntry prev = deviceEntries.put(rule.id(), new DefaultFlowEntry(
+                    rule, FlowEntry.FlowEntryState.PENDING_ADD));
+            stats.record(rule.deviceId(), prev == null ? FLOW_ADD : FLOW_MODIFY, 1);
+        }
+    }
+
+    private void confirm(FlowRule rule, boolean remove) {
+        final Map<FlowId, DefaultFlowEntry> deviceEntries = entries.get(rule.deviceId());
+        if (deviceEntries == null) {
+            return;
+        }
+        if (remove) {
+            final DefaultFlowEntry entry = deviceEntries.remove(rule.id());
+            if (entry != null) {
+                dispatcher.post(listeners, new FlowRuleEvent(
+                        FlowRuleEvent.Type.RULE_REMOVED, entry));
+            }
+        } else {
+            final DefaultFlowEntry entry = deviceEntries.get(rule.id());
+            if (entry != null && entry.state() == FlowEntry.FlowEntryState.PENDING_ADD) {
+                entry.setState(FlowEntry.FlowEntryState.ADDED);
+                dispatcher.post(listeners, new FlowRuleEvent(
+                        FlowRuleEvent.Type.RULE_ADDED, entry));
+            }
+        }
+    }
+
+    private void complete(Runnable completion) {
+        if (writeLatencyMillis > 0) {
+            writeExecutor.schedule(completion, writeLatencyMillis, TimeUnit.MILLISECONDS);
+        } else {
+            writeExecutor.execute(completion);
+        }
+    }
+
+    @Override
+    public int getFlowRuleCount() {
+        return entries.values().stream().mapToInt(Map::size).sum();
+    }
+
+    @Override
+    public Iterable<FlowEntry> getFlowEntries(DeviceId deviceId) {
+        final Map<FlowId, DefaultFlowEntry> deviceEntries = entries.get(deviceId);
+        return deviceEntries == null
+                ? ImmutableList.of() : ImmutableList.copyOf(deviceEntries.values());
+    }
+
+    @Override
+    public Iterable<FlowEntry> getFlowEntriesById(ApplicationId appId) {
+        return entries.values().stream()
+                .flatMap(deviceEntries -> deviceEntries.values().stream())
+                .filter(entry -> entry.appId() == appId.id())
+                .collect(ImmutableList.toImmutableList());
+    }
+
+    @Override
+    public Iterable<FlowRule> getFlowRulesByGroupId(ApplicationId appId, short groupId) {
+        return entries.values().stream()
+                .flatMap(deviceEntries -> deviceEntries.values().stream())
+                .filter(entry -> entry.appId() == appId.id() &&
+                        entry.groupId().id() == groupId)
+                .collect(ImmutableList.toImmutableList());
+    }
+
+    @Override
+    public Iterable<TableStatisticsEntry> getFlowTableStatistics(DeviceId deviceId) {
+        return ImmutableList.of();
+    }
+
+    @Override
+    public void addListener(FlowRuleListener listener) {
+        listeners.addListener(listener);
+    }
+
+    @Override
+    public void removeListener(FlowRuleListener listener) {
+        listeners.removeListener(listener);
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.p4.p4d2.tutorial.sim;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.core.GroupId;
+import org.onosproject.event.ListenerRegistry;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.group.DefaultGroup;
+import org.onosproject.net.group.DefaultGroupDescription;
+import org.onosproject.net.group.Group;
+import org.onosproject.net.group.GroupBuckets;
+import org.onosproject.net.group.GroupDescription;
+import org.onosproject.net.group.GroupEvent;
+import org.onosproject.net.group.GroupKey;
+import org.onosproject.net.group.GroupListener;
+import org.onosproject.net.group.GroupService;
+
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.collect.Maps.newConcurrentMap;
+import static org.p4.p4d2.tutorial.sim.WriteStats.Op.GROUP_ADD;
+import static org.p4.p4d2.tutorial.sim.WriteStats.Op.GROUP_MODIFY;
+import static org.p4.p4d2.tutorial.sim.WriteStats.Op.GROUP_REMOVE;
+
+/**
+ * In-memory group service acting as a set of switches which accept all
+ * writes. Each write is counted in the given {@link WriteStats} and completed
+ * after the given latency, posting the corresponding group event.
+ */
+public final class FakeGroupService implements GroupService {
+
+    private final ListenerRegistry<GroupEvent, GroupListener> listeners =
+            new ListenerRegistry<>();
+    private final EventDispatcher dispatcher;
+    private final WriteStats stats;
+    private final ScheduledExecutorService writeExecutor;
+    private final long writeLatencyMillis;
+
+    private final Map<DeviceId, Map<GroupKey, DefaultGroup>> groups = newConcurrentMap();
+    private final AtomicInteger nextGroupId = new AtomicInteger(1);
+
+    /**
+     * Creates a new group service.
+     *
+     * @param dispatcher         event dispatcher
+     * @param stats              counters of writes
+     * @param writeExecutor      executor completing writes
+     * @param writeLatencyMillis time to complete a write
+     */
+    public FakeGroupService(EventDispatcher dispatcher, WriteStats stats,
+                            ScheduledExecutorService writeExecutor,
+                            long writeLatencyMillis) {
+        this.dispatcher = dispatcher;
+        this.stats = stats;
+        this.writeExecutor = writeExecutor;
+        this.writeLatencyMillis = writeLatencyMillis;
+    }
+
+    @Override
+    public void addGroup(GroupDescription description) {
+        final Integer givenId = description.givenGroupId();
+        final GroupId groupId = GroupId.valueOf(
+                givenId != null ? givenId : nextGroupId.getAndIncrement());
+        final DefaultGroup group = new DefaultGroup(groupId, description);
+        group.setState(Group.GroupState.PENDING_ADD);
+        final DefaultGroup prev = deviceGroups(description.deviceId())
+                .putIfAbsent(description.appCookie(), group);
+        if (prev != null) {
+            // Same as the group subsystem: the existing group is kept.
+            return;
+        }
+        stats.recordBatch();
+        stats.record(description.deviceId(), GROUP_ADD, 1);
+        complete(() -> {
+            group.setState(Group.GroupState.ADDED);
+            dispatcher.post(listeners, new GroupEvent(GroupEvent.Type.GROUP_ADDED, group));
+        });
+    }
+
+    @Override
+    public void setBucketsForGroup(DeviceId deviceId, GroupKey oldCookie, GroupBuckets buckets,
+                                   GroupKey newCookie, ApplicationId appId) {
+        final Map<GroupKey, DefaultGroup> deviceGroups = deviceGroups(deviceId);
+        final DefaultGroup prev = deviceGroups.get(oldCookie);
+        if (prev == null) {
+            return;
+        }
+        final GroupKey cookie = newCookie != null ? newCookie : oldCookie;
+        final DefaultGroup group = new DefaultGroup(prev.id(), new DefaultGroupDescription(
+                deviceId, prev.type(), buckets, cookie, prev.id().id(), appId));
+        group.setState(Group.GroupState.PENDING_UPDATE);
+        deviceGroups.remove(oldCookie);
+        deviceGroups.put(cookie, group);
+        stats.recordBatch();
+        stats.record(deviceId, GROUP_MODIFY, 1);
+        complete(() -> {
+            group.setState(Group.GroupState.ADDED);
+            dispatcher.post(listeners, new GroupEvent(GroupEvent.Type.GROUP_UPDATED, group));
+        });
+    }
+
+    @Override
+    public void addBucketsToGroup(DeviceId deviceId, GroupKey oldCookie, GroupBuckets buckets,
+                                  GroupKey newCookie, ApplicationId appId) {
+        final Group prev = getGroup(deviceId, oldCookie);
+        if (prev != null) {
+            setBucketsForGroup(deviceId, oldCookie, new GroupBuckets(ImmutableList.copyOf(
+                    Iterables.concat(
+                            prev.buckets().buckets(), buckets.buckets()))),
+                               newCookie, appId);
+        }
+    }
+
+    @Override
+    public void removeBucketsFromGroup(DeviceId deviceId, GroupKey oldCookie, GroupBuckets buckets,
+                                       GroupKey newCookie, ApplicationId appId) {
+        final Group prev = getGroup(deviceId, oldCookie);
+        if (prev != null) {
+            setBucketsForGroup(deviceId, oldCookie, new GroupBuckets(
+                    prev.buckets().buckets().stream()
+                            .filter(bucket -> !buckets.buckets().contains(bucket))
+                            .collect(ImmutableList.toImmutableList())),
+                               newCookie, appId);
+        }
+    }
+
+    @Override
+    public void removeGroup(DeviceId deviceId, GroupKey appCookie, ApplicationId appId) {
+        final DefaultGroup group = deviceGroups(deviceId).remove(appCookie);
+        if (group == null) {
+            return;
+        }
+        group.setState(Group.GroupState.PENDING_DELETE);
+        stats.recordBatch();
+        stats.record(deviceId, GROUP_REMOVE, 1);
+        complete(() -> dispatcher.post(
+                listeners, new GroupEvent(GroupEvent.Type.GROUP_REMOVED, group)));
+    }
+
+    @Override
+    public void purgeGroupEntries(DeviceId deviceId) {
+        groups.remove(deviceId);
+    }
+
+    @Override
+    public Group getGroup(DeviceId deviceId, GroupKey appCookie) {
+        return deviceGroups(deviceId).get(appCookie);
+    }
+
+    @Override
+    public Iterable<Group> getGroups(DeviceId deviceId, ApplicationId appId) {
+        return deviceGroups(deviceId).values().stream()
+                .filter(group -> appId.equals(group.appId()))
+                .collect(ImmutableList.toImmutableList());
+    }
+
+    @Override
+    public Iterable<Group> getGroups(DeviceId deviceId) {
+        return ImmutableList.copyOf(deviceGroups(deviceId).values());
+    }
+
+    private Map<GroupKey, DefaultGroup> deviceGroups(DeviceId deviceId) {
+        return groups.computeIfAbsent(deviceId, d -> newConcurrentMap());
+    }
+
+    private void complete(Runnable completion) {
+        if (writeLatencyMillis > 0) {
+            writeExecutor.schedule(completion, writeLatencyMillis, TimeUnit.MILLISECONDS);
+        } else {
+            writeExecutor.execute(completion);
+        }
+    }
+
+    @Override
+    public void addListener(GroupListener listener) {
+        listeners.addListener(listener);
+    }
+
+    @Override
+    public void removeListener(GroupListener listener) {
+        listeners.removeListener(listener);
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.p4.p4d2.tutorial.sim;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import org.onlab.packet.IpAddress;
+import org.onlab.packet.MacAddress;
+import org.onlab.packet.VlanId;
+import org.onosproject.event.ListenerRegistry;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Host;
+import org.onosproject.net.HostId;
+import org.onosproject.net.host.HostEvent;
+import org.onosproject.net.host.HostListener;
+import org.onosproject.net.host.HostService;
+
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.collect.Maps.newConcurrentMap;
+
+/**
+ * In-memory host service, indexed by the device of the host location. Hosts
+ * are changed with the mutator methods, which notify the listeners.
+ */
+public final class FakeHostService implements HostService {
+
+    private final ListenerRegistry<HostEvent, HostListener> listeners =
+            new ListenerRegistry<>();
+    private final EventDispatcher dispatcher;
+
+    private final Map<HostId, Host> hosts = newConcurrentMap();
+    private final Map<DeviceId, Set<Host>> byDevice = newConcurrentMap();
+
+    public FakeHostService(EventDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Adds the given host, or replaces the host with the same ID, e.g. to
+     * move it or change its addresses.
+     *
+     * @param host the host
+     */
+    public void addHost(Host host) {
+        final Host prev = hosts.put(host.id(), host);
+        if (prev != null) {
+            unindex(prev);
+        }
+        byDevice.computeIfAbsent(host.location().deviceId(), d -> Sets.newConcurrentHashSet())
+                .add(host);
+        if (prev == null) {
+            dispatcher.post(listeners, new HostEvent(HostEvent.Type.HOST_ADDED, host));
+        } else if (!prev.location().equals(host.location())) {
+            dispatcher.post(listeners, new HostEvent(HostEvent.Type.HOST_MOVED, host, prev));
+        } else {
+            dispatcher.post(listeners, new HostEvent(HostEvent.Type.HOST_UPDATED, host, prev));
+        }
+    }
+
+    /**
+     * Removes the host with the given ID.
+     *
+     * @param hostId the host ID
+     */
+    public void removeHost(HostId hostId) {
+        final Host host = hosts.remove(hostId);
+        if (host == null) {
+            return;
+        }
+        unindex(host);
+        dispatcher.post(listeners, new HostEvent(HostEvent.Type.HOST_REMOVED, host));
+    }
+
+    private void unindex(Host host) {
+        byDevice.getOrDefault(host.location().deviceId(), ImmutableSet.of()).remove(host);
+    }
+
+    @Override
+    public int getHostCount() {
+        return hosts.size();
+    }
+
+    @Override
+    public Iterable<Host> getHosts() {
+        return ImmutableList.copyOf(hosts.values());
+    }
+
+    @Override
+    public Host getHost(HostId hostId) {
+        return hosts.get(hostId);
+    }
+
+    @Override
+    public Set<Host> getHostsByVlan(VlanId vlanId) {
+        return hosts.values().stream()
+                .filter(host -> host.vlan().equals(vlanId))
+                .collect(ImmutableSet.toImmutableSet());
+    }
+
+    @Override
+    public Set<Host> getHostsByMac(MacAddress mac) {
+        return hosts.values().stream()
+                .filter(host -> host.mac().equals(mac))
+                .collect(ImmutableSet.toImmutableSet());
+    }
+
+    @Override
+    public Set<Host> getHostsByIp(IpAddress ip) {
+        return hosts.values().stream()
+                .filter(host -> host.ipAddresses().contains(ip))
+                .collect(ImmutableSet.toImmutableSet());
+    }
+
+    @Override
+    public Set<Host> getConnectedHosts(ConnectPoint connectPoint) {
+        return getConnectedHosts(connectPoint.deviceId()).stream()
+                .filter(host -> host.location().port().equals(connectPoint.port()))
+                .collect(ImmutableSet.toImmutableSet());
+    }
+
+    @Override
+    public Set<Host> getConnectedHosts(DeviceId deviceId) {
+        return ImmutableSet.copyOf(byDevice.getOrDefault(deviceId, ImmutableSet.of()));
+    }
+
+    @Override
+    public void startMonitoringIp(IpAddress ip) {
+    }
+
+    @Override
+    public void stopMonitoringIp(IpAddress ip) {
+    }
+
+    @Override
+    public void requestMac(IpAddress ip) {
+    }
+
+    @Override
+    public void addListener(HostListener listener) {
+        listeners.addListener(listener);
+    }
+
+    @Override
+    public void removeListener(HostListener listener) {
+        listeners.removeListener(listener);
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.p4.p4d2.tutorial.sim;
+
+import com.google.common.collect.ImmutableSet;
+import org.onlab.packet.IpAddress;
+import org.onlab.packet.VlanId;
+import org.onosproject.event.ListenerRegistry;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.intf.Interface;
+import org.onosproject.net.intf.InterfaceEvent;
+import org.onosproject.net.intf.InterfaceListener;
+import org.onosproject.net.intf.InterfaceService;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import static com.google.common.collect.Maps.newConcurrentMap;
+
+/**
+ * In-memory interface service, with at most one interface per connect
+ * point. Interfaces are changed with the mutator methods, which notify the
+ * listeners.
+ */
+public final class FakeInterfaceService implements InterfaceService {
+
+    private final ListenerRegistry<InterfaceEvent, InterfaceListener> listeners =
+            new ListenerRegistry<>();
+    private final EventDispatcher dispatcher;
+
+    private final Map<ConnectPoint, Interface> interfaces = newConcurrentMap();
+
+    public FakeInterfaceService(EventDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Adds the given interface, replacing the one on the same connect point.
+     *
+     * @param iface the interface
+     */
+    public void addInterface(Interface iface) {
+        final Interface prev = interfaces.put(iface.connectPoint(), iface);
+        if (prev == null) {
+            dispatcher.post(listeners, new InterfaceEvent(
+                    InterfaceEvent.Type.INTERFACE_ADDED, iface));
+        } else if (!prev.equals(iface)) {
+            dispatcher.post(listeners, new InterfaceEvent(
+                    InterfaceEvent.Type.INTERFACE_UPDATED, iface, prev));
+        }
+    }
+
+    /**
+     * Removes the interface on the given connect point.
+     *
+     * @param connectPoint the connect point
+     */
+    public void removeInterface(ConnectPoint connectPoint) {
+        final Interface iface = interfaces.remove(connectPoint);
+        if (iface != null) {
+            dispatcher.post(listeners, new InterfaceEvent(
+                    InterfaceEvent.Type.INTERFACE_REMOVED, iface));
+        }
+    }
+
+    @Override
+    public Set<Interface> getInterfaces() {
+        return ImmutableSet.copyOf(interfaces.values());
+    }
+
+    @Override
+    public Interface getInterfaceByName(ConnectPoint connectPoint, String name) {
+        final Interface iface = interfaces.get(connectPoint);
+        return iface != null && Objects.equals(iface.name(), name) ? iface : null;
+    }
+
+    @Override
+    public Set<Interface> getInterfacesByPort(ConnectPoint connectPoint) {
+        final Interface iface = interfaces.get(connectPoint);
+        return iface == null ? ImmutableSet.of() : ImmutableSet.of(iface);
+    }
+
+    @Override
+    public Set<Interface> getInterfacesByIp(IpAddress ip) {
+        return interfaces.values().stream()
+                .filter(iface -> iface.ipAddressesList().stream()
+                        .anyMatch(addr -> addr.ipAddress().equals(ip)))
+                .collect(ImmutableSet.toImmutableSet());
+    }
+
+    @Override
+    public Set<Interface> getInterfacesByVlan(VlanId vlanId) {
+        return interfaces.values().stream()
+                .filter(iface -> iface.vlan().equals(vlanId))
+                .collect(ImmutableSet.toImmutableSet());
+    }
+
+    @Override
+    public Interface getMatchingInterface(IpAddress ip) {
+        return getMatchingInterfaces(ip).stream().findFirst().orElse(null);
+    }
+
+    @Override
+    public Set<Interface> getMatchingInterfaces(IpAddress ip) {
+        return interfaces.values().stream()
+                .filter(iface -> iface.ipAddressesList().stream()
+                        .anyMatch(addr -> addr.subnetAddress().contains(ip)))
+                .collect(ImmutableSet.toImmutableSet());
+    }
+
+    @Override
+    public void addListener(InterfaceListener listener) {
+        listeners.addListener(listener);
+    }
+
+    @Override
+    public void removeListener(InterfaceListener listener) {
+        listeners.removeListener(listener);
+    }
+}
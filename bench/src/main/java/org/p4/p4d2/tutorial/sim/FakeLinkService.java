@@ -0,0 +1,151 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.p4.p4d2.tutorial.sim;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import org.onosproject.event.ListenerRegistry;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Link;
+import org.onosproject.net.link.LinkEvent;
+import org.onosproject.net.link.LinkListener;
+import org.onosproject.net.link.LinkService;
+
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.collect.Maps.newConcurrentMap;
+
+/**
+ * In-memory link service, indexed by source and destination device. Links
+ * are changed with the mutator methods, which notify the listeners.
+ */
+public final class FakeLinkService implements LinkService {
+
+    private final ListenerRegistry<LinkEvent, LinkListener> listeners =
+            new ListenerRegistry<>();
+    private final EventDispatcher dispatcher;
+
+    private final Set<Link> links = Sets.newConcurrentHashSet();
+    private final Map<DeviceId, Set<Link>> egress = newConcurrentMap();
+    private final Map<DeviceId, Set<Link>> ingress = newConcurrentMap();
+
+    public FakeLinkService(EventDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Adds the given link.
+     *
+     * @param link the link
+     */
+    public void addLink(Link link) {
+        if (!links.add(link)) {
+            return;
+        }
+        egress.computeIfAbsent(link.src().deviceId(), d -> Sets.newConcurrentHashSet()).add(link);
+        ingress.computeIfAbsent(link.dst().deviceId(), d -> Sets.newConcurrentHashSet()).add(link);
+        dispatcher.post(listeners, new LinkEvent(LinkEvent.Type.LINK_ADDED, link));
+    }
+
+    /**
+     * Removes the given link.
+     *
+     * @param link the link
+     */
+    public void removeLink(Link link) {
+        if (!links.remove(link)) {
+            return;
+        }
+        egress.getOrDefault(link.src().deviceId(), ImmutableSet.of()).remove(link);
+        ingress.getOrDefault(link.dst().deviceId(), ImmutableSet.of()).remove(link);
+        dispatcher.post(listeners, new LinkEvent(LinkEvent.Type.LINK_REMOVED, link));
+    }
+
+    @Override
+    public int getLinkCount() {
+        return links.size();
+    }
+
+    @Override
+    public Iterable<Link> getLinks() {
+        return ImmutableList.copyOf(links);
+    }
+
+    @Override
+    public Iterable<Link> getActiveLinks() {
+        return getLinks();
+    }
+
+    @Override
+    public Set<Link> getDeviceLinks(DeviceId deviceId) {
+        return ImmutableSet.<Link>builder()
+                .addAll(getDeviceEgressLinks(deviceId))
+                .addAll(getDeviceIngressLinks(deviceId))
+                .build();
+    }
+
+    @Override
+    public Set<Link> getDeviceEgressLinks(DeviceId deviceId) {
+        return ImmutableSet.copyOf(egress.getOrDefault(deviceId, ImmutableSet.of()));
+    }
+
+    @Override
+    public Set<Link> getDeviceIngressLinks(DeviceId deviceId) {
+        return ImmutableSet.copyOf(ingress.getOrDefault(deviceId, ImmutableSet.of()));
+    }
+
+    @Override
+    public Set<Link> getLinks(ConnectPoint connectPoint) {
+        return ImmutableSet.<Link>builder()
+                .addAll(getEgressLinks(connectPoint))
+                .addAll(getIngressLinks(connectPoint))
+                .build();
+    }
+
+    @Override
+    public Set<Link> getEgressLinks(ConnectPoint connectPoint) {
+        return getDeviceEgressLinks(connectPoint.deviceId()).stream()
+                .filter(link -> link.src().equals(connectPoint))
+                .collect(ImmutableSet.toImmutableSet());
+    }
+
+    @Override
+    public Set<Link> getIngressLinks(ConnectPoint connectPoint) {
+        return getDeviceIngressLinks(connectPoint.deviceId()).stream()
+                .filter(link -> link.dst().equals(connectPoint))
+                .collect(ImmutableSet.toImmutableSet());
+    }
+
+    @Override
+    public Link getLink(ConnectPoint src, ConnectPoint dst) {
+        return getEgressLinks(src).stream()
+                .filter(link -> link.dst().equals(dst))
+                .findFirst().orElse(null);
+    }
+
+    @Override
+    public void addListener(LinkListener listener) {
+        listeners.addListener(listener);
+    }
+
+    @Override
+    public void removeListener(LinkListener listener) {
+        listeners.removeListener(listener);
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.p4.p4d2.tutorial.sim;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import org.onosproject.cluster.NodeId;
+import org.onosproject.cluster.RoleInfo;
+import org.onosproject.event.ListenerRegistry;
+import org.onosproject.mastership.MastershipEvent;
+import org.onosproject.mastership.MastershipInfo;
+import org.onosproject.mastership.MastershipListener;
+import org.onosproject.mastership.MastershipService;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.MastershipRole;
+
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Mastership service of a cluster where the local node is master of all
+ * devices, except those handed over to another node.
+ */
+public final class FakeMastershipService implements MastershipService {
+
+    public static final NodeId LOCAL_NODE = NodeId.nodeId("sim");
+    public static final NodeId OTHER_NODE = NodeId.nodeId("other");
+
+    private final EventDispatcher dispatcher;
+    private final ListenerRegistry<MastershipEvent, MastershipListener> listeners =
+            new ListenerRegistry<>();
+
+    // Devices whose master is the other node.
+    private final Set<DeviceId> handedOver = Sets.newConcurrentHashSet();
+
+    public FakeMastershipService(EventDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Makes the local node master of the given device, or hands it over to
+     * the other node, e.g. to simulate the failure of a node.
+     *
+     * @param deviceId the device ID
+     * @param local    true if the local node becomes master
+     */
+    public void setLocalMaster(DeviceId deviceId, boolean local) {
+        final boolean changed = local ? handedOver.remove(deviceId) : handedOver.add(deviceId);
+        if (changed) {
+            dispatcher.post(listeners, new MastershipEvent(
+                    MastershipEvent.Type.MASTER_CHANGED, deviceId, getMastershipFor(deviceId)));
+        }
+    }
+
+    @Override
+    public MastershipRole getLocalRole(DeviceId deviceId) {
+        return handedOver.contains(deviceId) ? MastershipRole.STANDBY : MastershipRole.MASTER;
+    }
+
+    @Override
+    public CompletableFuture<MastershipRole> requestRoleFor(DeviceId deviceId) {
+        return CompletableFuture.completedFuture(MastershipRole.MASTER);
+    }
+
+    @Override
+    public CompletableFuture<Void> relinquishMastership(DeviceId deviceId) {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public NodeId getMasterFor(DeviceId deviceId) {
+        return handedOver.contains(deviceId) ? OTHER_NODE : LOCAL_NODE;
+    }
+
+    @Override
+    public RoleInfo getNodesFor(DeviceId deviceId) {
+        return new RoleInfo(getMasterFor(deviceId), ImmutableList.of());
+    }
+
+    @Override
+    public MastershipInfo getMastershipFor(DeviceId deviceId) {
+        final NodeId master = getMasterFor(deviceId);
+        return new MastershipInfo(0, Optional.of(master),
+                                  ImmutableMap.of(master, MastershipRole.MASTER));
+    }
+
+    @Override
+    public Set<DeviceId> getDevicesOf(NodeId nodeId) {
+        return ImmutableSet.of();
+    }
+
+    @Override
+    public void addListener(MastershipListener listener) {
+        listeners.addListener(listener);
+    }
+
+    @Override
+    public void removeListener(MastershipListener listener) {
+        listeners.removeListener(listener);
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.p4.p4d2.tutorial.sim;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableSet;
+import org.onlab.packet.Ip6Address;
+import org.onlab.packet.MacAddress;
+import org.onosproject.event.ListenerRegistry;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.config.Config;
+import org.onosproject.net.config.NetworkConfigEvent;
+import org.onosproject.net.config.NetworkConfigListener;
+import org.onosproject.net.config.NetworkConfigService;
+import org.onosproject.net.config.SubjectFactory;
+import org.p4.p4d2.tutorial.common.Srv6DeviceConfig;
+
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.collect.Maps.newConcurrentMap;
+
+/**
+ * In-memory network config service holding the {@link Srv6DeviceConfig} of
+ * each device, the only config used by the app. Configs are changed with the
+ * mutator methods, which notify the listeners.
+ */
+public final class FakeNetworkConfigService implements NetworkConfigService {
+
+    private final ListenerRegistry<NetworkConfigEvent, NetworkConfigListener> listeners =
+            new ListenerRegistry<>();
+    private final EventDispatcher dispatcher;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final Map<DeviceId, Srv6DeviceConfig> configs = newConcurrentMap();
+
+    public FakeNetworkConfigService(EventDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Sets the {@link Srv6DeviceConfig} of the given device.
+     *
+     * @param deviceId     the device ID
+     * @param myStationMac MAC address of the switch
+     * @param mySid        SRv6 segment ID of the switch
+     * @param isSpine      true if the switch is a spine
+     */
+    public void setSrv6Config(DeviceId deviceId, MacAddress myStationMac,
+                              Ip6Address mySid, boolean isSpine) {
+        final ObjectNode json = mapper.createObjectNode()
+                .put("myStationMac", myStationMac.toString())
+                .put("mySid", mySid.toString())
+                .put("isSpine", isSpine);
+        setSrv6Config(deviceId, json);
+    }
+
+    /**
+     * Sets the {@link Srv6DeviceConfig} of the given device from its JSON.
+     *
+     * @param deviceId the device ID
+     * @param json     JSON config
+     */
+    public void setSrv6Config(DeviceId deviceId, JsonNode json) {
+        final Srv6DeviceConfig config = new Srv6DeviceConfig();
+        config.init(deviceId, Srv6DeviceConfig.CONFIG_KEY, json, mapper, null);
+        final Srv6DeviceConfig prev = configs.put(deviceId, config);
+        dispatcher.post(listeners, new NetworkConfigEvent(
+                prev == null ? NetworkConfigEvent.Type.CONFIG_ADDED
+                        : NetworkConfigEvent.Type.CONFIG_UPDATED,
+                deviceId, config, prev, Srv6DeviceConfig.class));
+    }
+
+    /**
+     * Removes the {@link Srv6DeviceConfig} of the given device.
+     *
+     * @param deviceId the device ID
+     */
+    public void removeSrv6Config(DeviceId deviceId) {
+        final Srv6DeviceConfig prev = configs.remove(deviceId);
+        if (prev != null) {
+            dispatcher.post(listeners, new NetworkConfigEvent(
+                    NetworkConfigEvent.Type.CONFIG_REMOVED,
+                    deviceId, null, prev, Srv6DeviceConfig.class));
+        }
+    }
+
+    @Override
+    public Set<Class> getSubjectClasses() {
+        return ImmutableSet.of(DeviceId.class);
+    }
+
+    @Override
+    public SubjectFactory getSubjectFactory(String subjectClassKey) {
+        return null;
+    }
+
+    @Override
+    public SubjectFactory getSubjectFactory(Class subjectClass) {
+        return null;
+    }
+
+    @Override
+    public Class<? extends Config> getConfigClass(String subjectClassKey, String configKey) {
+        return Srv6DeviceConfig.CONFIG_KEY.equals(configKey) ? Srv6DeviceConfig.class : null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <S> Set<S> getSubjects(Class<S> subjectClass) {
+        return DeviceId.class.equals(subjectClass)
+                ? (Set<S>) ImmutableSet.copyOf(configs.keySet()) : ImmutableSet.of();
+    }
+
+    @Override
+    public <S, C extends Config<S>> Set<S> getSubjects(Class<S> subjectClass,
+                                                       Class<C> configClass) {
+        return Srv6DeviceConfig.class.equals(configClass)
+                ? getSubjects(subjectClass) : ImmutableSet.of();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <S> Set<? extends Config<S>> getConfigs(S subject) {
+        final Srv6DeviceConfig config = configs.get(subject);
+        return config == null ? ImmutableSet.of() : ImmutableSet.of((Config<S>) (Config) config);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <S, C extends Config<S>> C getConfig(S subject, Class<C> configClass) {
+        return Srv6DeviceConfig.class.equals(configClass) ? (C) configs.get(subject) : null;
+    }
+
+    @Override
+    public <S, C extends Config<S>> C addConfig(S subject, Class<C> configClass) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <S, C extends Config<S>> C applyConfig(S subject, Class<C> configClass, JsonNode json) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <S, C extends Config<S>> C applyConfig(String subjectClassKey, S subject,
+                                                  String configKey, JsonNode json) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <S, C extends Config<S>> void removeConfig(S subject, Class<C> configClass) {
+        if (Srv6DeviceConfig.class.equals(configClass) && subject instanceof DeviceId) {
+            removeSrv6Config((DeviceId) subject);
+        }
+    }
+
+    @Override
+    public <S> void removeConfig(String subjectClassKey, S subject, String configKey) {
+        if (Srv6DeviceConfig.CONFIG_KEY.equals(configKey) && subject instanceof DeviceId) {
+            removeSrv6Config((DeviceId) subject);
+        }
+    }
+
+    @Override
+    public <S> void removeConfig(S subject) {
+        if (subject instanceof DeviceId) {
+            removeSrv6Config((DeviceId) subject);
+        }
+    }
+
+    @Override
+    public <S> void removeConfig() {
+        configs.keySet().forEach(this::removeSrv6Config);
+    }
+
+    @Override
+    public void addListener(NetworkConfigListener listener) {
+        listeners.addListener(listener);
+    }
+
+    @Override
+    public void removeListener(NetworkConfigListener listener) {
+        listeners.removeListener(listener);
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.p4.p4d2.tutorial.sim;
+
+import com.google.common.collect.ImmutableList;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.pi.model.PiPipeconf;
+import org.onosproject.net.pi.model.PiPipeconfId;
+import org.onosproject.net.pi.service.PiPipeconfListener;
+import org.onosproject.net.pi.service.PiPipeconfService;
+
+import java.util.Map;
+import java.util.Optional;
+
+import static com.google.common.collect.Maps.newConcurrentMap;
+import static org.p4.p4d2.tutorial.AppConstants.PIPECONF_ID;
+
+/**
+ * Pipeconf service where all devices use the pipeconf of the app, once
+ * registered by PipeconfLoader, so that components read the sizes of tables
+ * and action profiles from the same pipeline model as on ONOS. Until then,
+ * or if it cannot be built, components fall back to their default sizes.
+ */
+public final class FakePiPipeconfService implements PiPipeconfService {
+
+    private final Map<PiPipeconfId, PiPipeconf> pipeconfs = newConcurrentMap();
+
+    @Override
+    public void register(PiPipeconf pipeconf) {
+        pipeconfs.put(pipeconf.id(), pipeconf);
+    }
+
+    @Override
+    public void unregister(PiPipeconfId pipeconfId) {
+        pipeconfs.remove(pipeconfId);
+    }
+
+    @Override
+    public Iterable<PiPipeconf> getPipeconfs() {
+        return ImmutableList.copyOf(pipeconfs.values());
+    }
+
+    @Override
+    public Optional<PiPipeconf> getPipeconf(PiPipeconfId id) {
+        return Optional.ofNullable(pipeconfs.get(id));
+    }
+
+    @Override
+    public Optional<PiPipeconf> getPipeconf(DeviceId deviceId) {
+        return getPipeconf(PIPECONF_ID);
+    }
+
+    @Override
+    public void bindToDevice(PiPipeconfId pipeconfId, DeviceId deviceId) {
+    }
+
+    @Override
+    public String getMergedDriver(DeviceId deviceId, PiPipeconfId pipeconfId) {
+        return null;
+    }
+
+    @Override
+    public Optional<PiPipeconfId> ofDevice(DeviceId deviceId) {
+        return getPipeconf(deviceId).map(PiPipeconf::id);
+    }
+
+    @Override
+    public void addListener(PiPipeconfListener listener) {
+    }
+
+    @Override
+    public void removeListener(PiPipeconfListener listener) {
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.p4.p4d2.tutorial.sim;
+
+import org.onosproject.net.DeviceId;
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.collect.Maps.newConcurrentMap;
+
+/**
+ * Thread-safe counters of the writes received by the fake flow rule and
+ * group services, i.e. of what would be written to the switches.
+ */
+public final class WriteStats {
+
+    /**
+     * Type of write.
+     */
+    public enum Op {
+        FLOW_ADD, FLOW_MODIFY, FLOW_REMOVE, GROUP_ADD, GROUP_MODIFY, GROUP_REMOVE
+    }
+
+    private final Map<Op, LongAdder> totals = newConcurrentMap();
+    private final Map<DeviceId, LongAdder> perDevice = newConcurrentMap();
+    private final LongAdder batches = new LongAdder();
+    private final AtomicLong firstWriteNanos = new AtomicLong();
+    private final AtomicLong lastWriteNanos = new AtomicLong();
+
+    /**
+     * Records the given number of writes of the given type to the given
+     * device.
+     *
+     * @param deviceId the device ID
+     * @param op       type of write
+     * @param count    number of writes
+     */
+    public void record(DeviceId deviceId, Op op, long count) {
+        if (count == 0) {
+            return;
+        }
+        final long now = System.nanoTime();
+        firstWriteNanos.compareAndSet(0, now);
+        lastWriteNanos.accumulateAndGet(now, Math::max);
+        totals.computeIfAbsent(op, o -> new LongAdder()).add(count);
+        perDevice.computeIfAbsent(deviceId, d -> new LongAdder()).add(count);
+    }
+
+    /**
+     * Records a write request, e.g. a FlowRuleOperations batch, made of one
+     * or more writes.
+     */
+    public void recordBatch() {
+        batches.increment();
+    }
+
+    /**
+     * Clears all counters, e.g. to count the writes of a new phase.
+     */
+    public void reset() {
+        totals.clear();
+        perDevice.clear();
+        batches.reset();
+        firstWriteNanos.set(0);
+        lastWriteNanos.set(0);
+    }
+
+    public long total(Op op) {
+        final LongAdder adder = totals.get(op);
+        return adder == null ? 0 : adder.sum();
+    }
+
+    /**
+     * Returns the number of writes of all types.
+     *
+     * @return number of writes
+     */
+    public long total() {
+        return totals.values().stream().mapToLong(LongAdder::sum).sum();
+    }
+
+    public long batches() {
+        return batches.sum();
+    }
+
+    /**
+     * Returns the highest number of writes to a single device.
+     *
+     * @return number of writes
+     */
+    public long maxPerDevice() {
+        return perDevice.values().stream().mapToLong(LongAdder::sum).max().orElse(0);
+    }
+
+    /**
+     * Prints the number of writes of each type and the totals.
+     *
+     * @param out stream to print to
+     */
+    public void print(PrintStream out) {
+        for (Op op : Op.values()) {
+            out.printf("  %-13s %d%n", op, total(op));
+        }
+        out.printf("Writes: %d in %d requests, at most %d to one device%n",
+                   total(), batches(), maxPerDevice());
+    }
+
+    /**
+     * Returns the time of the first write, as given by System.nanoTime(), or
+     * 0 if nothing was written.
+     *
+     * @return time in nanoseconds
+     */
+    public long firstWriteNanos() {
+        return firstWriteNanos.get();
+    }
+
+    /**
+     * Returns the time of the last write, as given by System.nanoTime(), or
+     * 0 if nothing was written.
+     *
+     * @return time in nanoseconds
+     */
+    public long lastWriteNanos() {
+        return lastWriteNanos.get();
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.p4.p4d2.tutorial.sim;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.group.Group;
+import org.onosproject.net.group.GroupDescription;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.collect.Iterables.size;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.p4.p4d2.tutorial.AppConstants.INITIAL_SETUP_DELAY;
+
+/**
+ * Tests of the programming of a small fabric by the app, activated on fake
+ * services. Larger fabrics are simulated with FabricSimulation.
+ */
+public class FabricSimulationTest {
+
+    private static final int SPINES = 2;
+    private static final int LEAVES = 2;
+    private static final int HOSTS = 4;
+    private static final int HOST_PORTS = 48;
+    private static final long QUIET_MILLIS = 500;
+    private static final long TIMEOUT_SECONDS = 60;
+
+    // Flow rules of a spine: 2 in l2_exact_table, 1 in l2_my_station, 1 in
+    // srv6_my_sid, and 4 in l3_table, i.e. the subnet and the SID of each
+    // leaf.
+    private static final int SPINE_FLOW_RULES = 8;
+    // Flow rules of a leaf with 2 hosts: 4 in l2_exact_table, 2 in
+    // l2_ternary_table, 1 in each of l2_my_station, ndp_reply, srv6_my_sid
+    // and ecmp_table, and 5 in l3_table.
+    private static final int LEAF_FLOW_RULES = 15;
+
+    private ClosFabric fabric;
+    private AppHarness harness;
+
+    @Before
+    public void setUp() throws InterruptedException {
+        fabric = new ClosFabric(SPINES, LEAVES, HOSTS, 1, HOST_PORTS);
+        harness = new AppHarness(0, ImmutableMap.of());
+        fabric.populate(harness.deviceService(), harness.linkService(), harness.hostService(),
+                        harness.interfaceService(), harness.configService());
+
+        final long start = System.nanoTime();
+        harness.activate();
+        // Set up starts after INITIAL_SETUP_DELAY.
+        assertTrue("Writes did not stop", harness.awaitQuiet(
+                start + TimeUnit.SECONDS.toNanos(INITIAL_SETUP_DELAY) +
+                        TimeUnit.MILLISECONDS.toNanos(QUIET_MILLIS),
+                QUIET_MILLIS,
+                start + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS)));
+    }
+
+    @After
+    public void tearDown() {
+        harness.deactivate();
+    }
+
+    /**
+     * Checks the number of flow rules and groups installed on each device,
+     * and that each leaf spreads traffic over all spines.
+     */
+    @Test
+    public void testInstalledFlowRulesAndGroups() {
+        for (int s = 0; s < SPINES; s++) {
+            final DeviceId spineId = ClosFabric.spineId(s);
+            assertEquals("Flow rules of " + spineId, SPINE_FLOW_RULES,
+                         size(harness.flowRuleService().getFlowEntries(spineId)));
+            // Clone group for packet-in.
+            assertEquals("Groups of " + spineId, 1,
+                         size(harness.groupService().getGroups(spineId)));
+        }
+        for (int l = 0; l < LEAVES; l++) {
+            final DeviceId leafId = ClosFabric.leafId(l);
+            assertEquals("Flow rules of " + leafId, LEAF_FLOW_RULES,
+                         size(harness.flowRuleService().getFlowEntries(leafId)));
+            // Clone group, multicast group of the host ports, and ECMP group.
+            assertEquals("Groups of " + leafId, 3,
+                         size(harness.groupService().getGroups(leafId)));
+            int ecmpGroups = 0;
+            for (Group group : harness.groupService().getGroups(leafId)) {
+                if (group.type() == GroupDescription.Type.SELECT) {
+                    assertEquals("Spines of " + leafId, SPINES,
+                                 group.buckets().buckets().size());
+                    ecmpGroups++;
+                }
+            }
+            assertEquals("ECMP groups of " + leafId, 1, ecmpGroups);
+        }
+        assertEquals(SPINES * SPINE_FLOW_RULES + LEAVES * LEAF_FLOW_RULES,
+                     harness.flowRuleService().getFlowRuleCount());
+    }
+}
@@ -143,22 +143,44 @@ class FabricTest(P4RuntimeTest):
         self.send_request_add_entry_to_action(
             "FabricIngress.l2_my_station", mk, "NoAction", [])
 
-    def add_l3_entry(self, dstAddr, prefix_len, grp_id):
+    def add_l3_entry(self, dstAddr, prefix_len, next_hop_mac):
         dstAddr_ = ipv6_to_binary(dstAddr)
-        self.send_request_add_entry_to_group(
+        self.send_request_add_entry_to_action(
             "FabricIngress.l3_table",
-            [self.Lpm("hdr.ipv6.dst_addr", dstAddr_, prefix_len)], grp_id)
+            [self.Lpm("hdr.ipv6.dst_addr", dstAddr_, prefix_len)],
+            "FabricIngress.set_l2_next_hop",
+            [("dmac", mac_to_binary(next_hop_mac))])
+
+    def add_l3_next_id_entry(self, dstAddr, prefix_len, next_id):
+        dstAddr_ = ipv6_to_binary(dstAddr)
+        self.send_request_add_entry_to_action(
+            "FabricIngress.l3_table",
+            [self.Lpm("hdr.ipv6.dst_addr", dstAddr_, prefix_len)],
+            "FabricIngress.set_next_id",
+            [("next_id", stringify(next_id, 4))])
+
+    def add_ecmp_entry(self, next_id, grp_id):
+        self.send_request_add_entry_to_group(
+            "FabricIngress.ecmp_table",
+            [self.Exact("fabric_metadata.next_id", stringify(next_id, 4))],
+            grp_id)
+
+    def add_ecmp_group_entry(self, next_id, grp_id):
+        self.send_request_add_entry_to_group(
+            "FabricIngress.ecmp_group_table",
+            [self.Exact("fabric_metadata.next_id", stringify(next_id, 4))],
+            grp_id)
 
     # members is list of tuples (action_name, params)
     # params contains a tuple for each param (param_name, param_value)
-    def add_l3_group_with_members(self, grp_id, members):
+    def add_l3_group_with_members(self, grp_id, members,
+                                  act_prof="FabricIngress.ecmp_selector"):
         mbr_ids = []
         for member in members:
             mbr_id = self.get_next_mbr_id()
             mbr_ids.append(mbr_id)
-            self.send_request_add_member("FabricIngress.ecmp_selector", mbr_id,
-                                         *member)
-        self.send_request_add_group("FabricIngress.ecmp_selector", grp_id,
+            self.send_request_add_member(act_prof, mbr_id, *member)
+        self.send_request_add_group(act_prof, grp_id,
                                     grp_size=len(mbr_ids), mbr_ids=mbr_ids)
 
     def add_l3_ecmp_entry(self, dstAddr, prefix_len, next_hop_macs):
@@ -168,7 +190,26 @@ class FabricTest(P4RuntimeTest):
             members.append(("FabricIngress.set_l2_next_hop", [("dmac", mac_)]))
         grp_id = self.get_next_grp_id()
         self.add_l3_group_with_members(grp_id, members)
-        self.add_l3_entry(dstAddr, prefix_len, grp_id)
+        # Use the group ID as next ID.
+        self.add_ecmp_entry(grp_id, grp_id)
+        self.add_l3_next_id_entry(dstAddr, prefix_len, grp_id)
+
+    def add_l3_two_level_ecmp_entry(self, dstAddr, prefix_len, next_hop_macs):
+        # One ecmp_table group per next hop, chosen by an ecmp_group_table
+        # group, as when next hops do not fit in one ecmp_selector group.
+        members = []
+        for mac in next_hop_macs:
+            next_id = self.get_next_grp_id()
+            self.add_l3_group_with_members(next_id, [(
+                "FabricIngress.set_l2_next_hop", [("dmac", mac_to_binary(mac))])])
+            self.add_ecmp_entry(next_id, next_id)
+            members.append(("FabricIngress.set_next_id",
+                            [("next_id", stringify(next_id, 4))]))
+        grp_id = self.get_next_grp_id()
+        self.add_l3_group_with_members(
+            grp_id, members, act_prof="FabricIngress.ecmp_group_selector")
+        self.add_ecmp_group_entry(grp_id, grp_id)
+        self.add_l3_next_id_entry(dstAddr, prefix_len, grp_id)
 
     def add_acl_cpu_entry(self, eth_type=None, ip_proto=None, icmp_type=None,
                           clone=False):
@@ -305,12 +346,21 @@ class FabricIPv6RoutingTest(FabricTest):
     """Tests basic IPv6 routing"""
 
     @autocleanup
-    def doRunTest(self, pkt, next_hop_mac, prefix_len=128):
+    def doRunTest(self, pkt, next_hop_mac, prefix_len=128, use_ecmp=False,
+                  two_level=False):
         if IPv6 not in pkt or Ether not in pkt:
             self.fail("Cannot do IPv6 test with packet that is not IPv6")
 
         self.add_l2_my_station_entry(pkt[Ether].dst)
-        self.add_l3_ecmp_entry(pkt[IPv6].dst, prefix_len, [next_hop_mac])
+        if two_level:
+            # l3_table -> ecmp_group_table -> ecmp_table
+            self.add_l3_two_level_ecmp_entry(
+                pkt[IPv6].dst, prefix_len, [next_hop_mac])
+        elif use_ecmp:
+            # l3_table -> ecmp_table
+            self.add_l3_ecmp_entry(pkt[IPv6].dst, prefix_len, [next_hop_mac])
+        else:
+            self.add_l3_entry(pkt[IPv6].dst, prefix_len, next_hop_mac)
         self.add_l2_exact_entry(next_hop_mac, self.port2)
 
         exp_pkt = pkt.copy()
@@ -328,7 +378,10 @@ class FabricIPv6RoutingTest(FabricTest):
                 eth_src=HOST1_MAC, eth_dst=SWITCH1_MAC,
                 ipv6_src=HOST1_IPV6, ipv6_dst=HOST2_IPV6
             )
-            self.doRunTest(pkt, HOST2_MAC)
+            for use_ecmp, two_level in [(False, False), (True, False),
+                                        (True, True)]:
+                self.doRunTest(pkt, HOST2_MAC, use_ecmp=use_ecmp,
+                               two_level=two_level)
 
 
 @group("srv6")